@@ -0,0 +1,75 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.aws;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.amazonaws.services.ec2.model.Instance;
+
+import rebar.graph.benchmark.Fixtures;
+
+/**
+ * AwsEntityScanner.toJson() for 1000 EC2 instances. The scanner is detached
+ * from any AwsScanner, with account and region fixed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ToJsonBenchmark {
+
+	Ec2InstanceScanner scanner;
+	List<Instance> instances;
+
+	@Setup
+	public void setup() {
+		scanner = new Ec2InstanceScanner() {
+
+			@Override
+			public String getAccount() {
+				return Fixtures.ACCOUNT;
+			}
+
+			@Override
+			public String getRegionName() {
+				return Fixtures.REGION;
+			}
+		};
+		instances = Fixtures.ec2Instances(1000, 1);
+	}
+
+	@Benchmark
+	public void ec2Instance(Blackhole bh) {
+		for (Instance it : instances) {
+			bh.consume(scanner.toJson(it));
+		}
+	}
+}
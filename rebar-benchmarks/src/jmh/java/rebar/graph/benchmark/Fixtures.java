@@ -0,0 +1,237 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.benchmark;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import com.amazonaws.services.ec2.model.CpuOptions;
+import com.amazonaws.services.ec2.model.EbsInstanceBlockDevice;
+import com.amazonaws.services.ec2.model.GroupIdentifier;
+import com.amazonaws.services.ec2.model.IamInstanceProfile;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceBlockDeviceMapping;
+import com.amazonaws.services.ec2.model.InstanceNetworkInterface;
+import com.amazonaws.services.ec2.model.InstancePrivateIpAddress;
+import com.amazonaws.services.ec2.model.InstanceState;
+import com.amazonaws.services.ec2.model.Monitoring;
+import com.amazonaws.services.ec2.model.Placement;
+import com.amazonaws.services.ec2.model.Tag;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import rebar.util.Json;
+
+/**
+ * Generates payloads shaped like what the scanners see from AWS and
+ * Kubernetes. Generation is seeded, so every run of a benchmark works on the
+ * same data.
+ */
+public final class Fixtures {
+
+	public static final String ACCOUNT = "123456789012";
+	public static final String REGION = "us-west-2";
+
+	static final String[] INSTANCE_TYPES = { "t3.micro", "t3.large", "m5.large", "m5.xlarge", "c5.2xlarge",
+			"r5.4xlarge" };
+	static final String[] AZS = { "us-west-2a", "us-west-2b", "us-west-2c" };
+	static final String[] NAMESPACES = { "default", "kube-system", "monitoring", "payments", "search" };
+
+	private Fixtures() {
+
+	}
+
+	static String hex(Random r, int len) {
+		StringBuilder sb = new StringBuilder(len);
+		for (int i = 0; i < len; i++) {
+			sb.append(Character.forDigit(r.nextInt(16), 16));
+		}
+		return sb.toString();
+	}
+
+	static <T> T pick(Random r, T[] values) {
+		return values[r.nextInt(values.length)];
+	}
+
+	/**
+	 * EC2 instances as returned by DescribeInstances.
+	 * 
+	 * @param count
+	 * @param seed
+	 * @return
+	 */
+	public static List<Instance> ec2Instances(int count, long seed) {
+		Random r = new Random(seed);
+		List<Instance> list = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			list.add(ec2Instance(r, i));
+		}
+		return list;
+	}
+
+	static Instance ec2Instance(Random r, int i) {
+		String instanceId = "i-" + hex(r, 17);
+		String subnetId = "subnet-" + hex(r, 8);
+		String vpcId = "vpc-" + hex(r, 8);
+		String privateIp = "10." + r.nextInt(256) + "." + r.nextInt(256) + "." + r.nextInt(256);
+		String az = pick(r, AZS);
+
+		List<Tag> tags = new ArrayList<>();
+		tags.add(new Tag("Name", "node-" + i));
+		tags.add(new Tag("env", r.nextBoolean() ? "prod" : "staging"));
+		tags.add(new Tag("team", "team-" + r.nextInt(20)));
+		tags.add(new Tag("aws:autoscaling:groupName", "asg-" + r.nextInt(50)));
+		if (r.nextBoolean()) {
+			tags.add(new Tag("kubernetes.io/cluster/cluster-" + r.nextInt(3), "owned"));
+		}
+
+		List<GroupIdentifier> groups = new ArrayList<>();
+		for (int g = 0, n = 1 + r.nextInt(4); g < n; g++) {
+			groups.add(new GroupIdentifier().withGroupId("sg-" + hex(r, 8)).withGroupName("group-" + g));
+		}
+
+		List<InstanceBlockDeviceMapping> devices = new ArrayList<>();
+		for (int d = 0, n = 1 + r.nextInt(3); d < n; d++) {
+			devices.add(new InstanceBlockDeviceMapping().withDeviceName("/dev/xvd" + (char) ('a' + d))
+					.withEbs(new EbsInstanceBlockDevice().withVolumeId("vol-" + hex(r, 17)).withStatus("attached")
+							.withDeleteOnTermination(true).withAttachTime(new Date(1546300800000L + i))));
+		}
+
+		InstanceNetworkInterface eni = new InstanceNetworkInterface().withNetworkInterfaceId("eni-" + hex(r, 17))
+				.withSubnetId(subnetId).withVpcId(vpcId).withPrivateIpAddress(privateIp).withOwnerId(ACCOUNT)
+				.withMacAddress("02:" + hex(r, 2) + ":" + hex(r, 2) + ":" + hex(r, 2) + ":" + hex(r, 2) + ":"
+						+ hex(r, 2))
+				.withGroups(groups).withSourceDestCheck(true).withStatus("in-use")
+				.withPrivateIpAddresses(new InstancePrivateIpAddress().withPrivateIpAddress(privateIp)
+						.withPrimary(true).withPrivateDnsName("ip-" + privateIp.replace('.', '-') + ".internal"));
+
+		return new Instance().withInstanceId(instanceId).withImageId("ami-" + hex(r, 17))
+				.withInstanceType(pick(r, INSTANCE_TYPES)).withLaunchTime(new Date(1546300800000L + i * 1000L))
+				.withPlacement(new Placement().withAvailabilityZone(az).withTenancy("default"))
+				.withPrivateIpAddress(privateIp).withPrivateDnsName("ip-" + privateIp.replace('.', '-') + ".internal")
+				.withState(new InstanceState().withCode(16).withName("running")).withSubnetId(subnetId)
+				.withVpcId(vpcId).withArchitecture("x86_64").withRootDeviceType("ebs")
+				.withRootDeviceName("/dev/xvda").withHypervisor("xen").withVirtualizationType("hvm")
+				.withEbsOptimized(r.nextBoolean()).withEnaSupport(true).withKeyName("key-" + r.nextInt(5))
+				.withMonitoring(new Monitoring().withState("disabled"))
+				.withIamInstanceProfile(new IamInstanceProfile()
+						.withArn("arn:aws:iam::" + ACCOUNT + ":instance-profile/profile-" + r.nextInt(10))
+						.withId("AIPA" + hex(r, 16).toUpperCase()))
+				.withCpuOptions(new CpuOptions().withCoreCount(1 + r.nextInt(8)).withThreadsPerCore(2))
+				.withSecurityGroups(groups).withBlockDeviceMappings(devices).withNetworkInterfaces(eni)
+				.withTags(tags);
+	}
+
+	/**
+	 * Pods as returned by the Kubernetes API.
+	 * 
+	 * @param count
+	 * @param seed
+	 * @return
+	 */
+	public static List<ObjectNode> kubernetesPods(int count, long seed) {
+		Random r = new Random(seed);
+		List<ObjectNode> list = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			list.add(kubernetesPod(r, i));
+		}
+		return list;
+	}
+
+	static ObjectNode kubernetesPod(Random r, int i) {
+		String app = "app-" + r.nextInt(40);
+		String namespace = pick(r, NAMESPACES);
+		String podIp = "100.96." + r.nextInt(256) + "." + r.nextInt(256);
+
+		ObjectNode pod = Json.objectNode();
+		pod.put("apiVersion", "v1");
+		pod.put("kind", "Pod");
+
+		ObjectNode metadata = pod.putObject("metadata");
+		metadata.put("name", app + "-" + hex(r, 10) + "-" + hex(r, 5));
+		metadata.put("namespace", namespace);
+		metadata.put("uid", hex(r, 8) + "-" + hex(r, 4) + "-" + hex(r, 4) + "-" + hex(r, 4) + "-" + hex(r, 12));
+		metadata.put("resourceVersion", Integer.toString(1000000 + r.nextInt(1000000)));
+		metadata.put("creationTimestamp", "2019-01-01T00:00:00Z");
+		metadata.put("selfLink", "/api/v1/namespaces/" + namespace + "/pods/" + metadata.path("name").asText());
+		ObjectNode labels = metadata.putObject("labels");
+		labels.put("app", app);
+		labels.put("pod-template-hash", hex(r, 10));
+		labels.put("release", "stable");
+		ObjectNode annotations = metadata.putObject("annotations");
+		annotations.put("kubernetes.io/psp", "restricted");
+		annotations.put("prometheus.io/scrape", "true");
+		annotations.put("prometheus.io/port", "9090");
+		ObjectNode owner = metadata.putArray("ownerReferences").addObject();
+		owner.put("apiVersion", "apps/v1");
+		owner.put("kind", "ReplicaSet");
+		owner.put("name", app + "-" + labels.path("pod-template-hash").asText());
+		owner.put("uid", hex(r, 8) + "-" + hex(r, 4) + "-" + hex(r, 4) + "-" + hex(r, 4) + "-" + hex(r, 12));
+		owner.put("controller", true);
+
+		ObjectNode spec = pod.putObject("spec");
+		spec.put("nodeName", "ip-10-0-" + r.nextInt(256) + "-" + r.nextInt(256) + ".us-west-2.compute.internal");
+		spec.put("serviceAccountName", app);
+		spec.put("restartPolicy", "Always");
+		spec.put("dnsPolicy", "ClusterFirst");
+		ArrayNode containers = spec.putArray("containers");
+		ArrayNode containerStatuses = Json.arrayNode();
+		for (int c = 0, n = 1 + r.nextInt(3); c < n; c++) {
+			String name = c == 0 ? app : "sidecar-" + c;
+			String image = "registry.example.com/" + name + ":" + hex(r, 7);
+			ObjectNode container = containers.addObject();
+			container.put("name", name);
+			container.put("image", image);
+			container.put("imagePullPolicy", "IfNotPresent");
+			ObjectNode port = container.putArray("ports").addObject();
+			port.put("containerPort", 8080 + c);
+			port.put("protocol", "TCP");
+			ArrayNode env = container.putArray("env");
+			for (int e = 0; e < 5; e++) {
+				env.addObject().put("name", "ENV_" + e).put("value", hex(r, 12));
+			}
+			ObjectNode resources = container.putObject("resources");
+			resources.putObject("requests").put("cpu", (100 * (1 + r.nextInt(10))) + "m").put("memory",
+					(128 * (1 + r.nextInt(8))) + "Mi");
+			resources.putObject("limits").put("cpu", "2").put("memory", "2Gi");
+
+			ObjectNode status = containerStatuses.addObject();
+			status.put("name", name);
+			status.put("image", image);
+			status.put("imageID", "docker-pullable://" + image + "@sha256:" + hex(r, 64));
+			status.put("containerID", "docker://" + hex(r, 64));
+			status.put("ready", true);
+			status.put("restartCount", r.nextInt(3));
+			status.putObject("state").putObject("running").put("startedAt", "2019-01-01T00:00:10Z");
+		}
+
+		ObjectNode status = pod.putObject("status");
+		status.put("phase", "Running");
+		status.put("hostIP", "10.0." + r.nextInt(256) + "." + r.nextInt(256));
+		status.put("podIP", podIp);
+		status.put("qosClass", "Burstable");
+		status.put("startTime", "2019-01-01T00:00:00Z");
+		ArrayNode conditions = status.putArray("conditions");
+		for (String type : new String[] { "Initialized", "Ready", "ContainersReady", "PodScheduled" }) {
+			conditions.addObject().put("type", type).put("status", "True").put("lastTransitionTime",
+					"2019-01-01T00:00:10Z");
+		}
+		status.set("containerStatuses", containerStatuses);
+		return pod;
+	}
+}
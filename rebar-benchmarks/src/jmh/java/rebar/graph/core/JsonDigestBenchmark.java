@@ -0,0 +1,77 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.core;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import rebar.graph.benchmark.Fixtures;
+import rebar.util.Json;
+
+/**
+ * JsonDigest over EC2 instance and Kubernetes pod payloads, 1000 of each per
+ * invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonDigestBenchmark {
+
+	List<JsonNode> instances;
+	List<JsonNode> pods;
+
+	JsonDigest digest;
+
+	@Setup
+	public void setup() {
+		instances = Fixtures.ec2Instances(1000, 1).stream().map(it -> (JsonNode) Json.objectMapper().valueToTree(it))
+				.collect(Collectors.toList());
+		pods = Fixtures.kubernetesPods(1000, 1).stream().collect(Collectors.toList());
+		digest = new JsonDigest().excludePattern("graphEntityDigest").excludePattern(GraphBuilder.UPDATE_TS);
+	}
+
+	@Benchmark
+	public void ec2Instance(Blackhole bh) {
+		for (JsonNode n : instances) {
+			bh.consume(digest.digest(n));
+		}
+	}
+
+	@Benchmark
+	public void kubernetesPod(Blackhole bh) {
+		for (JsonNode n : pods) {
+			bh.consume(digest.digest(n));
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.core;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import rebar.graph.benchmark.Fixtures;
+import rebar.graph.core.GraphBuilder.NodeOperation;
+import rebar.util.Json;
+
+/**
+ * The client-side work of GraphBuilder.NodeOperation.merge(), up to the point
+ * where the statement is handed to the driver: property conversion, merge
+ * cypher generation, and the entity and write digests. No driver is involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeStatementBenchmark {
+
+	GraphBuilder graphBuilder;
+	DigestStore digestStore;
+	List<JsonNode> instances;
+
+	@Setup
+	public void setup() {
+		graphBuilder = new GraphBuilder(null);
+		digestStore = new DigestStore();
+		instances = Fixtures.ec2Instances(1000, 1).stream().map(it -> {
+			ObjectNode n = Json.objectMapper().valueToTree(it);
+			n.put("account", Fixtures.ACCOUNT).put("region", Fixtures.REGION);
+			return (JsonNode) n;
+		}).collect(Collectors.toList());
+	}
+
+	NodeOperation prepare(JsonNode n) {
+		NodeOperation op = graphBuilder.nodes("AwsEc2Instance").properties(n).idKey("account", "region",
+				"instanceId");
+		op.populateMatchValues();
+		return op;
+	}
+
+	@Benchmark
+	public void prepareMerge(Blackhole bh) {
+		for (JsonNode n : instances) {
+			NodeOperation op = prepare(n);
+			bh.consume(op.toMergeCypher());
+			Map<String, Object> combined = new HashMap<>(op.dataAttributes);
+			combined.putAll(op.idAttributes);
+			graphBuilder.injectDigest(combined);
+			bh.consume(digestStore.digest(combined));
+		}
+	}
+
+	@Benchmark
+	public void mergeCypherCached(Blackhole bh) {
+		NodeOperation op = prepare(instances.get(0));
+		for (int i = 0; i < instances.size(); i++) {
+			bh.consume(op.toMergeCypher());
+		}
+	}
+
+	@Benchmark
+	public void mergeCypherUncached(Blackhole bh) {
+		NodeOperation op = prepare(instances.get(0));
+		for (int i = 0; i < instances.size(); i++) {
+			StatementCache.invalidateAll();
+			bh.consume(op.toMergeCypher());
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.neo4j;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Cost of CypherMetrics.recordStatementExecution(), which runs after every
+ * statement. The statement count controls how many distinct statements share
+ * the stats cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CypherMetricsBenchmark {
+
+	@Param({ "1", "100" })
+	int statements;
+
+	CypherMetrics metrics;
+
+	String[] cypher;
+
+	@State(Scope.Thread)
+	public static class Counter {
+		int next;
+	}
+
+	@Setup
+	public void setup() {
+		metrics = new CypherMetrics(null, new SimpleMeterRegistry());
+		cypher = new String[statements];
+		for (int i = 0; i < statements; i++) {
+			cypher[i] = "merge (a:AwsEc2Instance {account:{account}, arn:{arn}, region:{region}}) set a+={__params}, a.graphUpdateTs=timestamp() return a /* "
+					+ i + " */";
+		}
+	}
+
+	@Benchmark
+	public void recordStatementExecution(Counter counter) {
+		metrics.recordStatementExecution(cypher[counter.next++ % statements], 5, 1);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void recordStatementExecutionContended(Counter counter) {
+		metrics.recordStatementExecution(cypher[counter.next++ % statements], 5, 1);
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.neo4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.driver.internal.InternalNode;
+import org.neo4j.driver.internal.InternalRecord;
+import org.neo4j.driver.internal.types.InternalTypeSystem;
+import org.neo4j.driver.internal.value.NodeValue;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.Values;
+import org.neo4j.driver.v1.types.Entity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Compares RecordConverter with the ObjectMapper/asMap() based conversion that
+ * it replaced. Run with: ./gradlew :rebar-benchmarks:jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordConversionBenchmark {
+
+	@Param({ "1", "3" })
+	int columns;
+
+	@Param({ "FLATTEN", "HIERARCHICAL" })
+	CypherTemplate.AttributeMode attributeMode;
+
+	List<Record> records;
+
+	@Setup
+	public void setup() {
+		records = new ArrayList<>();
+		List<String> keys = new ArrayList<>();
+		for (int c = 0; c < columns; c++) {
+			keys.add("c" + c);
+		}
+		for (int i = 0; i < 1000; i++) {
+			Value[] values = new Value[columns];
+			for (int c = 0; c < columns; c++) {
+				values[c] = new NodeValue(new InternalNode(i * columns + c, ImmutableList.of("AwsEc2Instance"),
+						properties(i)));
+			}
+			records.add(new InternalRecord(keys, values));
+		}
+	}
+
+	static Map<String, Value> properties(int i) {
+		Map<String, Value> props = new HashMap<>();
+		props.put("arn", Values.value("arn:aws:ec2:us-west-2:123456789012:instance/i-" + i));
+		props.put("instanceId", Values.value("i-" + i));
+		props.put("account", Values.value("123456789012"));
+		props.put("region", Values.value("us-west-2"));
+		props.put("instanceType", Values.value("m5.large"));
+		props.put("stateName", Values.value("running"));
+		props.put("privateIpAddress", Values.value("10.0.0." + (i % 255)));
+		props.put("launchTime", Values.value(1546300800000L + i));
+		props.put("ebsOptimized", Values.value(true));
+		props.put("cpuCoreCount", Values.value(2L));
+		props.put("graphUpdateTs", Values.value(1546300800000L));
+		props.put("tag_Name", Values.value("node-" + i));
+		props.put("tag_env", Values.value("prod"));
+		props.put("securityGroupIds", Values.value(ImmutableList.of("sg-1", "sg-2", "sg-3")));
+		return props;
+	}
+
+	@Benchmark
+	public void recordConverter(Blackhole bh) {
+		RecordConverter converter = new RecordConverter(attributeMode, InternalTypeSystem.TYPE_SYSTEM);
+		for (Record r : records) {
+			bh.consume(converter.convert(r));
+		}
+	}
+
+	@Benchmark
+	public void legacyObjectMapper(Blackhole bh) {
+		for (Record r : records) {
+			bh.consume(legacyConvert(r, attributeMode));
+		}
+	}
+
+	/**
+	 * Conversion as it was implemented in Neo4jStatementResultImpl prior to
+	 * RecordConverter, trimmed to the branches exercised by this benchmark.
+	 */
+	static JsonNode legacyConvert(Record t, CypherTemplate.AttributeMode mode) {
+		ObjectNode n = new ObjectMapper().createObjectNode();
+
+		Map<String, Object> vals = t.asMap();
+
+		boolean flatten;
+		if (mode == CypherTemplate.AttributeMode.AUTO) {
+			flatten = vals.size() == 1;
+		} else {
+			flatten = mode == CypherTemplate.AttributeMode.FLATTEN;
+		}
+
+		vals.forEach((k, v) -> {
+			if (v instanceof Entity) {
+				Map<String, Object> nm = Entity.class.cast(v).asMap();
+				JsonNode cv = Neo4jDriverImpl.mapper.valueToTree(nm);
+				if (!flatten) {
+					n.set(k, cv);
+				} else {
+					cv.fields().forEachRemaining(x -> {
+						if (vals.size() == 1) {
+							n.set(x.getKey(), x.getValue());
+						} else {
+							n.set(k + "." + x.getKey(), x.getValue());
+						}
+					});
+				}
+			} else if (v instanceof String) {
+				n.put(k, (String) v);
+			} else if (v instanceof Long) {
+				n.put(k, (Long) v);
+			} else {
+				n.set(k, Neo4jDriverImpl.mapper.valueToTree(v));
+			}
+		});
+		return n;
+	}
+}
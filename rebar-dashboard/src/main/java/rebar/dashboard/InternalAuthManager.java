@@ -30,7 +30,7 @@ public class InternalAuthManager {
 
 		try {
 			Optional<JsonNode> n = driver.cypher("match (p:InternalShadow {username:{username}}) return p")
-					.param("username", username).findFirst();
+					.param("username", username).withPool(GraphDriver.DASHBOARD_POOL).findFirst();
 			if (n == null) {
 				return false;
 			}
@@ -91,7 +91,8 @@ public class ReportManager {
 	protected Map<String, Report> loadReportsFromNeo4j() {
 		
 		Map<String,Report> reports = Maps.newConcurrentMap();
-		driver.cypher("match (r:Report) return r").forEach(it -> {
+		driver.cypher("match (r:Report) return r").withPool(GraphDriver.DASHBOARD_POOL).readOnly().withStreaming()
+				.forEach(it -> {
 			String name = it.path("name").asText().trim();
 			
 			if (!Strings.isNullOrEmpty(name)) {
@@ -39,7 +39,7 @@ public class DataModelMarkdown extends Markdown {
 		
 		
 		Map<String, String> map = Maps.newHashMap();
-		driver.cypher("match (a:"+type+") return a limit 1000").forEach(it->{
+		driver.cypher("match (a:"+type+") return a limit 1000").withStreaming().forEach(it->{
 			it.fields().forEachRemaining(f->{
 				JsonNode n = f.getValue();
 				if (n!=null) {
@@ -0,0 +1,247 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.neo4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.neo4j.driver.v1.exceptions.ServiceUnavailableException;
+import org.neo4j.driver.v1.exceptions.SessionExpiredException;
+import org.neo4j.driver.v1.exceptions.TransientException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Bounds the number of statements in flight against Neo4j using AIMD
+ * (additive increase, multiplicative decrease).
+ *
+ * A completed statement is a congestion signal if it failed with a transient
+ * error, or if it took more than twice the median latency of its statement
+ * shape (as tracked by CypherMetrics). Congestion multiplies the limit by
+ * BACKOFF_RATIO, at most once per round trip: statements that were started
+ * before the last decrease cannot trigger another one. Healthy completions
+ * grow the limit by 1/limit while at least half of it is in use, i.e. by about
+ * one per round trip.
+ *
+ * Callers block in acquire() while the limit is reached, which slows the
+ * scanners down instead of piling more work onto the database. Async callers
+ * use acquireAsync() instead, which queues them without holding a thread;
+ * they are handed permits ahead of blocked callers as statements complete.
+ *
+ * There is one limiter per connection pool, tagged with the pool name.
+ */
+final class ConcurrencyLimiter {
+
+	static Logger logger = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+	static final String LIMIT_GAUGE_NAME = "neo4jConcurrencyLimit";
+	static final String IN_FLIGHT_GAUGE_NAME = "neo4jInFlight";
+	static final String WAIT_TIMER_NAME = "neo4jLimiterWait";
+
+	static final double BACKOFF_RATIO = 0.9;
+
+	/**
+	 * Statement shapes need some history before their median means anything.
+	 */
+	static final long MIN_SAMPLES = 20;
+
+	/**
+	 * Latency below this is never treated as congestion, however it compares
+	 * to the median.
+	 */
+	static final long MIN_CONGESTED_LATENCY_MILLIS = 10;
+
+	final int minLimit;
+	final int maxLimit;
+	final CypherMetrics metrics;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+
+	private volatile double limit;
+	private volatile int inFlight = 0;
+	private long lastDecreaseNanos = 0;
+
+	private final Queue<AsyncWaiter> asyncWaiters = new ArrayDeque<>();
+
+	private Timer waitTimer;
+
+	static class AsyncWaiter {
+		final CompletableFuture<Long> future = new CompletableFuture<>();
+		final long startNanos = System.nanoTime();
+	}
+
+	ConcurrencyLimiter(CypherMetrics metrics, int minLimit, int initialLimit, int maxLimit) {
+		this(metrics, ConnectionPool.DEFAULT_POOL, minLimit, initialLimit, maxLimit);
+	}
+
+	ConcurrencyLimiter(CypherMetrics metrics, String pool, int minLimit, int initialLimit, int maxLimit) {
+		Preconditions.checkArgument(minLimit > 0, "minLimit must be >0");
+		Preconditions.checkArgument(minLimit <= initialLimit && initialLimit <= maxLimit,
+				"limits must satisfy min <= initial <= max");
+		this.metrics = metrics;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = initialLimit;
+		this.lastDecreaseNanos = System.nanoTime();
+
+		if (metrics != null) {
+			Gauge.builder(LIMIT_GAUGE_NAME, this, ConcurrencyLimiter::getLimit).tag(CypherMetrics.POOL_TAG, pool)
+					.description("adaptive limit on statements in flight").register(metrics.getMeterRegistry());
+			Gauge.builder(IN_FLIGHT_GAUGE_NAME, this, ConcurrencyLimiter::getInFlight).tag(CypherMetrics.POOL_TAG, pool)
+					.description("statements in flight").register(metrics.getMeterRegistry());
+			waitTimer = Timer.builder(WAIT_TIMER_NAME).tag(CypherMetrics.POOL_TAG, pool)
+					.publishPercentiles(CypherMetrics.PERCENTILES)
+					.description("time spent waiting for the concurrency limit").register(metrics.getMeterRegistry());
+		}
+	}
+
+	/**
+	 * Blocks until the statement may run.
+	 *
+	 * @return the start time, to be passed back to release()
+	 */
+	long acquire() {
+		long start = System.nanoTime();
+		lock.lock();
+		try {
+			while (inFlight >= (int) limit) {
+				available.await();
+			}
+			inFlight++;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GraphException(e);
+		} finally {
+			lock.unlock();
+		}
+		return recordWait(start);
+	}
+
+	/**
+	 * Returns a future that completes once the statement may run. The calling
+	 * thread is never blocked; if the limit is reached, the future is completed
+	 * by the release() that frees a permit, on the releasing thread.
+	 *
+	 * @return future of the start time, to be passed back to release()
+	 */
+	CompletableFuture<Long> acquireAsync() {
+		lock.lock();
+		try {
+			if (inFlight >= (int) limit || !asyncWaiters.isEmpty()) {
+				AsyncWaiter waiter = new AsyncWaiter();
+				asyncWaiters.add(waiter);
+				return waiter.future;
+			}
+			inFlight++;
+		} finally {
+			lock.unlock();
+		}
+		return CompletableFuture.completedFuture(System.nanoTime());
+	}
+
+	private long recordWait(long start) {
+		long now = System.nanoTime();
+		if (waitTimer != null) {
+			waitTimer.record(now - start, TimeUnit.NANOSECONDS);
+		}
+		return now;
+	}
+
+	/**
+	 *
+	 * @param startNanos
+	 *            value returned by acquire() or acquireAsync()
+	 * @param cypher
+	 * @param latencyMillis
+	 * @param error
+	 *            failure, or null
+	 */
+	void release(long startNanos, String cypher, long latencyMillis, Throwable error) {
+		boolean congested = isCongested(cypher, latencyMillis, error);
+		List<AsyncWaiter> ready = new ArrayList<>();
+		lock.lock();
+		try {
+			inFlight--;
+			if (congested) {
+				if (startNanos - lastDecreaseNanos > 0) {
+					double previous = limit;
+					limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+					lastDecreaseNanos = System.nanoTime();
+					if (logger.isDebugEnabled()) {
+						logger.debug("congestion detected ({}ms) - limit {} -> {}", latencyMillis, previous, limit);
+					}
+				}
+			} else if ((inFlight + 1) * 2 >= limit) {
+				limit = Math.min(maxLimit, limit + 1.0 / limit);
+			}
+			while (!asyncWaiters.isEmpty() && inFlight < (int) limit) {
+				inFlight++;
+				ready.add(asyncWaiters.poll());
+			}
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		for (AsyncWaiter waiter : ready) {
+			waiter.future.complete(recordWait(waiter.startNanos));
+		}
+	}
+
+	boolean isCongested(String cypher, long latencyMillis, Throwable error) {
+		if (error != null) {
+			return isTransient(error);
+		}
+		if (latencyMillis < MIN_CONGESTED_LATENCY_MILLIS || metrics == null || cypher == null) {
+			return false;
+		}
+		Optional<CypherMetrics.StatementStats> stats = metrics.getStatementStats(cypher);
+		if (!stats.isPresent() || stats.get().getCount() < MIN_SAMPLES) {
+			return false;
+		}
+		double p50 = stats.get().getPercentile(0.5);
+		return p50 > 0 && latencyMillis > 2 * p50;
+	}
+
+	static boolean isTransient(Throwable t) {
+		while (t instanceof CompletionException && t.getCause() != null) {
+			t = t.getCause();
+		}
+		return t instanceof TransientException || t instanceof ServiceUnavailableException
+				|| t instanceof SessionExpiredException;
+	}
+
+	double getLimit() {
+		return limit;
+	}
+
+	int getInFlight() {
+		return inFlight;
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.neo4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import org.neo4j.driver.v1.AccessMode;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+
+/**
+ * A named set of sessions with its own size limit and acquisition timeout, so
+ * that one workload (e.g. dashboard reads) cannot starve another (e.g. scanner
+ * writes).
+ *
+ * Named pools are backed by their own Bolt driver whose connection pool is
+ * sized to match. Sessions are additionally gated by a semaphore with the same
+ * number of permits, which is where the time spent queueing for a connection
+ * is measured.
+ */
+final class ConnectionPool {
+
+	static final String DEFAULT_POOL = "default";
+
+	final String name;
+	final Supplier<Driver> driverSupplier;
+	final int maxSize;
+	final long acquireTimeoutMillis;
+	final Semaphore permits;
+	final CypherMetrics metrics;
+
+	ConnectionPool(String name, Supplier<Driver> driverSupplier, int maxSize, long acquireTimeoutMillis,
+			CypherMetrics metrics) {
+		this.name = name;
+		this.driverSupplier = driverSupplier;
+		this.maxSize = maxSize;
+		this.acquireTimeoutMillis = acquireTimeoutMillis;
+		this.permits = maxSize > 0 ? new Semaphore(maxSize, true) : null;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * A session checked out of the pool. Closing it closes the session and
+	 * returns the permit.
+	 */
+	static final class PooledSession implements AutoCloseable {
+		final Session session;
+		final ConnectionPool pool;
+		final AtomicBoolean closed = new AtomicBoolean(false);
+
+		PooledSession(ConnectionPool pool, Session session) {
+			this.pool = pool;
+			this.session = session;
+		}
+
+		Session session() {
+			return session;
+		}
+
+		@Override
+		public void close() {
+			if (closed.compareAndSet(false, true)) {
+				try {
+					session.close();
+				} finally {
+					pool.release();
+				}
+			}
+		}
+
+		CompletionStage<Void> closeAsync() {
+			if (!closed.compareAndSet(false, true)) {
+				return CompletableFuture.completedFuture(null);
+			}
+			return session.closeAsync().whenComplete((v, e) -> pool.release());
+		}
+	}
+
+	PooledSession openSession(AccessMode mode) {
+		acquire();
+		try {
+			return new PooledSession(this, driverSupplier.get().session(mode == null ? AccessMode.WRITE : mode));
+		} catch (RuntimeException e) {
+			release();
+			throw e;
+		}
+	}
+
+	void acquire() {
+		if (permits == null) {
+			return;
+		}
+		long start = System.nanoTime();
+		boolean acquired;
+		try {
+			acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GraphException(e);
+		}
+		if (metrics != null) {
+			metrics.recordPoolWait(name, System.nanoTime() - start);
+		}
+		if (!acquired) {
+			if (metrics != null) {
+				metrics.recordPoolAcquireTimeout(name);
+			}
+			throw new GraphException(
+					"timed out after " + acquireTimeoutMillis + "ms waiting for a session from pool: " + name);
+		}
+	}
+
+	void release() {
+		if (permits != null) {
+			permits.release();
+		}
+	}
+
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * Closes the pool's own Bolt driver. Pools that share the default driver
+	 * leave it to the GraphDriver.
+	 */
+	void close() {
+		if (driverSupplier instanceof GraphDriver.LazyDriver) {
+			((GraphDriver.LazyDriver) driverSupplier).close();
+		}
+	}
+}
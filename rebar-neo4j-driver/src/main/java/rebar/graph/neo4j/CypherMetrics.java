@@ -1,7 +1,10 @@
 package rebar.graph.neo4j;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
@@ -18,10 +21,14 @@ import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
 import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
 import rebar.util.Json;
 
 public class CypherMetrics {
@@ -35,22 +42,116 @@ public class CypherMetrics {
 		AtomicLong min = new AtomicLong(Long.MAX_VALUE);
 		AtomicLong max = new AtomicLong();
 		AtomicLong total = new AtomicLong();
+		AtomicLong rows = new AtomicLong();
+		AtomicInteger batchSize = new AtomicInteger(0);
+
+		Timer timer;
+		DistributionSummary rowSummary;
+		DistributionSummary batchSizeSummary;
+
+		StatementStats(String key, String cypher) {
+			this.key = key;
+			this.cypher = cypher;
+			Tags tags = Tags.of(STATEMENT_TAG, key, OPERATION_TAG, toOperation(cypher));
+			this.timer = Timer.builder(STATEMENT_TIMER_NAME).tags(tags).publishPercentiles(PERCENTILES)
+					.description("execution time per statement shape").register(meterRegistry);
+			this.rowSummary = DistributionSummary.builder(STATEMENT_ROWS_NAME).tags(tags).publishPercentiles(PERCENTILES)
+					.description("rows returned per statement shape").register(meterRegistry);
+			this.batchSizeSummary = DistributionSummary.builder(STATEMENT_BATCH_SIZE_NAME).tags(tags)
+					.description("rows bound per batch execution").register(meterRegistry);
+		}
 
 		public void recordExecutionTime(long time) {
+			recordExecution(time, -1);
+		}
+
+		public void recordExecution(long time, long rowCount) {
 			executionCount.incrementAndGet();
-			min.lazySet(Math.min(min.get(), time));
-			max.lazySet(Long.max(max.get(), time));
+			min.accumulateAndGet(time, Math::min);
+			max.accumulateAndGet(time, Math::max);
 			total.addAndGet(time);
+			timer.record(time, TimeUnit.MILLISECONDS);
+			if (rowCount >= 0) {
+				rows.addAndGet(rowCount);
+				rowSummary.record(rowCount);
+			}
+		}
+
+		void removeMeters() {
+			meterRegistry.remove(timer);
+			meterRegistry.remove(rowSummary);
+			meterRegistry.remove(batchSizeSummary);
+		}
+
+		/**
+		 * Latency percentile in milliseconds, e.g. 0.95. Only the published
+		 * percentiles (p50, p95, p99) are available.
+		 * 
+		 * @param percentile
+		 * @return
+		 */
+		public double getPercentile(double percentile) {
+			for (ValueAtPercentile vp : timer.takeSnapshot().percentileValues()) {
+				if (vp.percentile() == percentile) {
+					return vp.value(TimeUnit.MILLISECONDS);
+				}
+			}
+			return Double.NaN;
+		}
+
+		public long getRows() {
+			return rows.get();
+		}
+
+		public long getTotal() {
+			return total.get();
+		}
+
+		/**
+		 * Halves the chunk size when a chunk exceeds the latency target and grows
+		 * it by 50% when a full chunk completes in under half the target.
+		 * 
+		 * Concurrent batches of the same statement update the size atomically. A
+		 * slow chunk never grows the size, even if it was sized before another
+		 * thread shrank it.
+		 * 
+		 * @param rows
+		 * @param time
+		 */
+		public void recordBatchExecution(int rows, long time) {
+			batchSizeSummary.record(rows);
+			batchSize.updateAndGet(current -> {
+				if (time > batchTargetLatency) {
+					int halved = Math.max(MIN_BATCH_SIZE, rows / 2);
+					return current > 0 ? Math.min(current, halved) : halved;
+				} else if (time < batchTargetLatency / 2 && (current <= 0 || rows >= current)) {
+					return rows + Math.max(1, rows / 2);
+				}
+				return current;
+			});
+		}
+
+		public int getBatchSize(int maxBatchSize) {
+			int current = batchSize.get();
+			return current <= 0 ? maxBatchSize : Math.max(1, Math.min(current, maxBatchSize));
 		}
 
 		public JsonNode toJson() {
 			ObjectNode d = Json.objectNode();
 			d.put("cypher", cypher);
 			d.put("count", executionCount.get());
-			d.put("min", min.get());
+			d.put("min", getMin());
 			d.put("max", max.get());
+			d.put("total", total.get());
+			d.put("rows", rows.get());
+			for (ValueAtPercentile vp : timer.takeSnapshot().percentileValues()) {
+				d.put("p" + Math.round(vp.percentile() * 100), vp.value(TimeUnit.MILLISECONDS));
+			}
 			d.put("ts", startTs);
 			d.put("hash", key);
+			if (batchSize.get() > 0) {
+				d.put("batchSize", batchSize.get());
+			}
 			return d;
 		}
 		
@@ -69,7 +170,23 @@ public class CypherMetrics {
 	}
 
 
-	Cache<String, StatementStats> metricsData = CacheBuilder.newBuilder().expireAfterWrite(1, TimeUnit.MINUTES)
+	public static final String STATEMENT_TIMER_NAME = "neo4jStatement";
+	public static final String STATEMENT_ROWS_NAME = "neo4jStatementRows";
+	public static final String STATEMENT_BATCH_SIZE_NAME = "neo4jStatementBatchSize";
+	public static final String STATEMENT_TAG = "statement";
+	public static final String OPERATION_TAG = "operation";
+	public static final String POOL_WAIT_TIMER_NAME = "neo4jPoolWait";
+	public static final String POOL_ACQUIRE_TIMEOUT_NAME = "neo4jPoolAcquireTimeout";
+	public static final String POOL_TAG = "pool";
+
+	static final double[] PERCENTILES = { 0.5, 0.95, 0.99 };
+
+	/**
+	 * One entry (and one set of tagged meters) per distinct statement shape.
+	 * Shapes that have not been executed recently are evicted, along with their
+	 * meters, which bounds the tag cardinality.
+	 */
+	Cache<String, StatementStats> metricsData = CacheBuilder.newBuilder().expireAfterAccess(1, TimeUnit.HOURS)
 			.maximumSize(1000).removalListener(new CacheRemovalListener()).build();
 
 	MeterRegistry meterRegistry = io.micrometer.core.instrument.Metrics.globalRegistry;
@@ -81,6 +198,11 @@ public class CypherMetrics {
 		@Override
 		public void onRemoval(RemovalNotification<String, StatementStats> notification) {
 
+			StatementStats stats = notification.getValue();
+			if (stats != null) {
+				stats.removeMeters();
+			}
+
 			for (RemovalListener<String,StatementStats> listener: listeners) {
 				listener.onRemoval(notification);
 			}
@@ -104,23 +226,103 @@ public class CypherMetrics {
 		return meterRegistry;
 	}
 
-	public void recordStatementExecution(String cypher, long executionTime) {
+	static final int MIN_BATCH_SIZE = 10;
+
+	long batchTargetLatency = TimeUnit.SECONDS.toMillis(1);
 
+	/**
+	 * Latency that adaptive batch sizing aims to keep each chunk under.
+	 * 
+	 * @param time
+	 * @param unit
+	 */
+	public void setBatchTargetLatency(long time, TimeUnit unit) {
+		this.batchTargetLatency = Math.max(1, unit.toMillis(time));
+	}
+
+	public long getBatchTargetLatencyMillis() {
+		return batchTargetLatency;
+	}
+
+	StatementStats getOrCreateStats(String cypher) {
 		String key = Hashing.farmHashFingerprint64().hashString(cypher, Charsets.UTF_8).toString();
-		StatementStats m = metricsData.getIfPresent(key);
-		if (m == null) {
-			m = new StatementStats();
-			m.key = key;
-			m.cypher = cypher;
-			metricsData.put(key, m);
-			
+		try {
+			return metricsData.get(key, () -> new StatementStats(key, cypher));
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			throw new GraphException(e.getCause());
+		}
+	}
+
+	static String toOperation(String cypher) {
+		String c = Strings.nullToEmpty(cypher).trim().toLowerCase();
+		if (c.startsWith("unwind")) {
+			return "batch";
 		}
+		int idx = c.indexOf(' ');
+		return idx > 0 ? c.substring(0, idx) : c;
+	}
+
+	public Optional<StatementStats> getStatementStats(String cypher) {
+		String key = Hashing.farmHashFingerprint64().hashString(cypher, Charsets.UTF_8).toString();
+		return Optional.ofNullable(metricsData.getIfPresent(key));
+	}
+
+	/**
+	 * Chunk size to use for the next execution of a batch statement.
+	 * 
+	 * @param cypher
+	 * @param maxBatchSize
+	 * @return
+	 */
+	public int getBatchSize(String cypher, int maxBatchSize) {
+		return getOrCreateStats(cypher).getBatchSize(maxBatchSize);
+	}
 
-		m.recordExecutionTime(executionTime);
+	public void recordBatchExecution(String cypher, int rows, long executionTime) {
+		getOrCreateStats(cypher).recordBatchExecution(rows, executionTime);
+	}
+
+	public void recordStatementExecution(String cypher, long executionTime) {
+		recordStatementExecution(cypher, executionTime, -1);
+	}
+
+	/**
+	 * 
+	 * @param cypher
+	 * @param executionTime
+	 *            millis
+	 * @param rows
+	 *            rows returned, or -1 if unknown
+	 */
+	public void recordStatementExecution(String cypher, long executionTime, long rows) {
+
+		StatementStats m = getOrCreateStats(cypher);
+
+		m.recordExecution(executionTime, rows);
 		cypherStatementTimer.record(executionTime, TimeUnit.MILLISECONDS);
 	}
 
 	
+	/**
+	 * Time spent waiting for a session permit from a named pool.
+	 * 
+	 * @param pool
+	 * @param waitNanos
+	 */
+	public void recordPoolWait(String pool, long waitNanos) {
+		Timer.builder(POOL_WAIT_TIMER_NAME).tag(POOL_TAG, pool).publishPercentiles(PERCENTILES)
+				.description("time spent waiting for a session from the pool").register(meterRegistry)
+				.record(waitNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void recordPoolAcquireTimeout(String pool) {
+		meterRegistry.counter(POOL_ACQUIRE_TIMEOUT_NAME, POOL_TAG, pool).increment();
+	}
+
+	public Optional<Timer> getPoolWaitTimer(String pool) {
+		return Optional.ofNullable(meterRegistry.find(POOL_WAIT_TIMER_NAME).tag(POOL_TAG, pool).timer());
+	}
+
 	public void addListener(RemovalListener<String, StatementStats> listener) {
 		this.listeners.add(listener);
 	}
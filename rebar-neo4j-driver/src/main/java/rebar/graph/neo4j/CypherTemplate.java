@@ -18,6 +18,7 @@ package rebar.graph.neo4j;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletionStage;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -33,6 +34,9 @@ public abstract class CypherTemplate {
 	
 	protected int resultLimit = -1;
 	protected AttributeMode attributeMode = AttributeMode.AUTO;
+	protected boolean streaming = false;
+	protected String pool = null;
+	protected boolean readOnly = false;
 	
 	public long getMaxResults() {
 		return resultLimit;
@@ -40,6 +44,15 @@ public abstract class CypherTemplate {
 	public AttributeMode getAttributeMode() {
 		return attributeMode;
 	}
+	public boolean isStreaming() {
+		return streaming;
+	}
+	public Optional<String> getPool() {
+		return Optional.ofNullable(pool);
+	}
+	public boolean isReadOnly() {
+		return readOnly;
+	}
 
 	protected abstract <T extends CypherTemplate> T copy();
 	
@@ -54,7 +67,88 @@ public abstract class CypherTemplate {
 	public abstract Optional<JsonNode> findFirst();
 	public abstract void exec();
 	public abstract void forEach(Consumer<JsonNode> c);
+
+	/**
+	 * Executes the statement without blocking the calling thread. The stage
+	 * completes when the result has been fully consumed.
+	 * 
+	 * Async execution uses its own session even when the calling thread is in
+	 * inTransaction(), except that it then runs synchronously in the bound
+	 * transaction and returns an already-completed stage.
+	 * 
+	 * @return
+	 */
+	public abstract CompletionStage<Void> execAsync();
+
+	public abstract CompletionStage<List<JsonNode>> listAsync();
+
+	/**
+	 * Delivers each record to the consumer as it arrives. The consumer is
+	 * invoked on a driver I/O thread, so it must not block and must not
+	 * execute blocking statements.
+	 * 
+	 * @param c
+	 * @return
+	 */
+	public abstract CompletionStage<Void> forEachAsync(Consumer<JsonNode> c);
+
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	/**
+	 * Executes the statement once per chunk of rows rather than once per row.
+	 * The statement is prefixed with "UNWIND {__rows} AS row", so it should refer
+	 * to each row's values as row.name. Other params are shared by every chunk.
+	 * 
+	 * chunkSize is an upper bound. The size actually sent adapts to the observed
+	 * latency of the statement (see CypherMetrics) so that large or slow writes
+	 * are split into smaller transactions.
+	 * 
+	 * @param rows
+	 * @param chunkSize
+	 * @return the combined results of every chunk
+	 */
+	public abstract List<JsonNode> batch(List<Map<String, Object>> rows, int chunkSize);
+
+	public List<JsonNode> batch(List<Map<String, Object>> rows) {
+		return batch(rows, DEFAULT_BATCH_SIZE);
+	}
 	public abstract CypherTemplate withAttributeMode(AttributeMode m);
+	
+	/**
+	 * In streaming mode, stream() and forEach() pull records from the open
+	 * session as they are consumed instead of buffering the entire result on
+	 * the heap. The session is held open until the stream is exhausted or
+	 * closed, so callers of stream() must close it (try-with-resources) if
+	 * they do not consume every record.
+	 * 
+	 * @param streaming
+	 * @return
+	 */
+	public abstract CypherTemplate withStreaming(boolean streaming);
+	
+	public CypherTemplate withStreaming() {
+		return withStreaming(true);
+	}
+
+	/**
+	 * Runs the statement on sessions from the named pool (see
+	 * GraphDriver.Builder.withPool()). Unknown names fall back to the default
+	 * pool.
+	 * 
+	 * @param pool
+	 * @return
+	 */
+	public abstract CypherTemplate withPool(String pool);
+
+	/**
+	 * Marks the statement as read-only. It is run with AccessMode.READ, which
+	 * with a bolt+routing url lets the driver send it to a follower or read
+	 * replica. Ignored inside inTransaction().
+	 * 
+	 * @return
+	 */
+	public abstract CypherTemplate readOnly();
+
 	public abstract CypherTemplate param(String name, Object val);
 	public abstract CypherTemplate params(Map<?,?> map);
 	public abstract CypherTemplate params(Object...args);
@@ -16,10 +16,12 @@
 package rebar.graph.neo4j;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -29,24 +31,42 @@ import org.neo4j.driver.v1.Config;
 import org.neo4j.driver.v1.Config.ConfigBuilder;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
 import com.google.common.base.Suppliers;
 
 import rebar.util.EnvConfig;
 
 import org.neo4j.driver.v1.Driver;
 import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.driver.v1.Transaction;
 
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Metrics;
 
-public abstract class GraphDriver {
+public abstract class GraphDriver implements AutoCloseable {
 
 	public static final String GRAPH_URL = "GRAPH_URL";
 	public static final String GRAPH_USERNAME = "GRAPH_USERNAME";
 	public static final String GRAPH_PASSWORD = "GRAPH_PASSWORD";
 
+	/**
+	 * Pool used for heartbeats and other control-plane statements.
+	 */
+	public static final String CONTROL_POOL = "control";
+
+	/**
+	 * Pool used for dashboard and report reads.
+	 */
+	public static final String DASHBOARD_POOL = "dashboard";
+
 	CypherMetrics cypherMetrics;
 
+	/**
+	 * Adaptive limiters by pool name. Empty if adaptive limiting is not enabled.
+	 */
+	Map<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
 	Supplier<Driver> driverSupplier;
 
 	public static class Builder {
@@ -58,6 +78,13 @@ public abstract class GraphDriver {
 
 		MeterRegistry builderMeterRegistry = Metrics.globalRegistry; // default
 
+		Map<String, PoolSpec> poolSpecs = new LinkedHashMap<>();
+
+		boolean adaptiveLimitEnabled = false;
+		int adaptiveLimitMin = 2;
+		int adaptiveLimitInitial = 16;
+		int adaptiveLimitMax = 64;
+
 		private Config.ConfigBuilder applyOptions(Config.ConfigBuilder b) {
 
 			getEnv("NEO4J_CONNECTION_LIVENESS_CHECK_TIMEOUT").ifPresent(it -> {
@@ -145,9 +172,76 @@ public abstract class GraphDriver {
 			return this;
 		}
 
+		/**
+		 * Adds a named pool with its own connection limit and acquisition timeout.
+		 * Templates select it with CypherTemplate.withPool(). Pools may also be
+		 * configured with NEO4J_POOLS=name:maxSize:acquireTimeoutMillis,...
+		 * 
+		 * @param name
+		 * @param maxSize
+		 * @param acquireTimeout
+		 * @param unit
+		 * @return
+		 */
+		public Builder withPool(String name, int maxSize, long acquireTimeout, TimeUnit unit) {
+			Preconditions.checkArgument(!Strings.isNullOrEmpty(name), "pool name required");
+			Preconditions.checkArgument(maxSize > 0, "maxSize must be >0");
+			poolSpecs.put(name, new PoolSpec(name, maxSize, unit.toMillis(acquireTimeout)));
+			return this;
+		}
+
+		/**
+		 * Bounds the number of statements in flight with an AIMD limit that
+		 * backs off when statement latency rises above its median or the server
+		 * reports transient errors. Also enabled with
+		 * NEO4J_ADAPTIVE_LIMIT_ENABLED=true and tuned with
+		 * NEO4J_ADAPTIVE_LIMIT_MIN/INITIAL/MAX.
+		 * 
+		 * @param min
+		 * @param initial
+		 * @param max
+		 * @return
+		 */
+		public Builder withAdaptiveLimit(int min, int initial, int max) {
+			this.adaptiveLimitEnabled = true;
+			this.adaptiveLimitMin = min;
+			this.adaptiveLimitInitial = initial;
+			this.adaptiveLimitMax = max;
+			return this;
+		}
+
+		Map<String, PoolSpec> getPoolSpecs() {
+			Map<String, PoolSpec> specs = new LinkedHashMap<>();
+			getEnv("NEO4J_POOLS").ifPresent(it -> {
+				for (String pool : Splitter.on(',').omitEmptyStrings().trimResults().split(it)) {
+					List<String> parts = Splitter.on(':').trimResults().splitToList(pool);
+					Preconditions.checkArgument(parts.size() == 3, "NEO4J_POOLS entry must be name:maxSize:acquireTimeoutMillis - %s", pool);
+					specs.put(parts.get(0),
+							new PoolSpec(parts.get(0), Integer.parseInt(parts.get(1)), Long.parseLong(parts.get(2))));
+				}
+			});
+			specs.putAll(poolSpecs); // explicit configuration wins
+			return specs;
+		}
+
+		private Supplier<Driver> newDriverSupplier(String url, PoolSpec spec) {
+			ConfigBuilder cb = applyOptions(Config.build());
+			if (spec != null) {
+				cb = cb.withMaxConnectionPoolSize(spec.maxSize).withConnectionAcquisitionTimeout(spec.acquireTimeoutMillis,
+						TimeUnit.MILLISECONDS);
+			}
+			Config config = cb.toConfig();
+			if ((getUsername().isPresent() && getPassword().isPresent())) {
+				return memoize(() -> GraphDatabase.driver(url, AuthTokens.basic(getUsername().get(), getPassword().get()),
+						config));
+			}
+			return memoize(() -> GraphDatabase.driver(url, config));
+		}
+
 		public GraphDriver build() {
 			try {
 				Optional<String> url = getEnv(GRAPH_URL);
+				Map<String, PoolSpec> specs = getPoolSpecs();
 
 				Neo4jDriverImpl d = null;
 				if (bDriver != null) {
@@ -158,30 +252,48 @@ public abstract class GraphDriver {
 					if (!url.isPresent()) {
 						url = Optional.ofNullable("bolt://localhost:7687");
 					}
-
-					Config config = applyOptions(Config.build()).toConfig();
-
-					final String finalUrl = url.get();
-					if ((getUsername().isPresent() && getPassword().isPresent())) {
-					
-						
-						
-						com.google.common.base.Supplier<Driver> xxx = (() -> {
-							return GraphDatabase.driver(finalUrl,
-									AuthTokens.basic(getUsername().get(), getPassword().get()), config);
-						});
-						d = new Neo4jDriverImpl(memoize(xxx));
-
-					} else {
-						com.google.common.base.Supplier<Driver> xx = (() -> {
-							return GraphDatabase.driver(finalUrl, config);
-						});
-						
-						d = new Neo4jDriverImpl(xx);
-					}
+					d = new Neo4jDriverImpl(newDriverSupplier(url.get(), specs.get(ConnectionPool.DEFAULT_POOL)));
 				}
 				Preconditions.checkNotNull(d);
 				d.cypherMetrics = new CypherMetrics(d, builderMeterRegistry);
+				final CypherMetrics metrics = d.cypherMetrics;
+				getEnv("NEO4J_BATCH_TARGET_LATENCY").ifPresent(it -> {
+					metrics.setBatchTargetLatency(Long.parseLong(it), TimeUnit.MILLISECONDS);
+				});
+
+				int[] limits = null;
+				if (getEnv("NEO4J_ADAPTIVE_LIMIT_ENABLED").map(Boolean::parseBoolean).orElse(adaptiveLimitEnabled)) {
+					int min = getEnv("NEO4J_ADAPTIVE_LIMIT_MIN").map(Integer::parseInt).orElse(adaptiveLimitMin);
+					int initial = getEnv("NEO4J_ADAPTIVE_LIMIT_INITIAL").map(Integer::parseInt)
+							.orElse(adaptiveLimitInitial);
+					int max = getEnv("NEO4J_ADAPTIVE_LIMIT_MAX").map(Integer::parseInt).orElse(adaptiveLimitMax);
+					limits = new int[] { min, initial, max };
+				}
+
+				PoolSpec defaultSpec = specs.get(ConnectionPool.DEFAULT_POOL);
+				d.defaultPool = defaultSpec != null
+						? new ConnectionPool(ConnectionPool.DEFAULT_POOL, d.driverSupplier, defaultSpec.maxSize,
+								defaultSpec.acquireTimeoutMillis, metrics)
+						: new ConnectionPool(ConnectionPool.DEFAULT_POOL, d.driverSupplier, 0, 0, metrics);
+				for (PoolSpec spec : specs.values()) {
+					if (!spec.name.equals(ConnectionPool.DEFAULT_POOL)) {
+						// a supplied driver is shared, but each pool still gets its own limit
+						Supplier<Driver> supplier = bDriver != null ? d.driverSupplier
+								: newDriverSupplier(url.get(), spec);
+						d.pools.put(spec.name,
+								new ConnectionPool(spec.name, supplier, spec.maxSize, spec.acquireTimeoutMillis, metrics));
+					}
+				}
+				if (limits != null) {
+					// control-plane and dashboard statements are small and must not queue behind scanner writes
+					d.limiters.put(ConnectionPool.DEFAULT_POOL,
+							new ConcurrencyLimiter(metrics, ConnectionPool.DEFAULT_POOL, limits[0], limits[1], limits[2]));
+					for (String pool : d.pools.keySet()) {
+						if (!pool.equals(CONTROL_POOL) && !pool.equals(DASHBOARD_POOL)) {
+							d.limiters.put(pool, new ConcurrencyLimiter(metrics, pool, limits[0], limits[1], limits[2]));
+						}
+					}
+				}
 
 				return d;
 			} catch (GraphException e) {
@@ -192,15 +304,53 @@ public abstract class GraphDriver {
 		}
 	}
 
+	static class PoolSpec {
+		final String name;
+		final int maxSize;
+		final long acquireTimeoutMillis;
+
+		PoolSpec(String name, int maxSize, long acquireTimeoutMillis) {
+			this.name = name;
+			this.maxSize = maxSize;
+			this.acquireTimeoutMillis = acquireTimeoutMillis;
+		}
+	}
+
 	static Supplier<Driver> memoize(Supplier<Driver> x) {
-		com.google.common.base.Supplier<Driver> guavaSupplier = new com.google.common.base.Supplier<Driver>() {
+		return new LazyDriver(x);
+	}
 
-			@Override
-			public Driver get() {
-				return x.get();
+	/**
+	 * A Bolt driver that is created on first use and owned by this GraphDriver,
+	 * which closes it in close().
+	 */
+	static final class LazyDriver implements Supplier<Driver> {
+		private final Supplier<Driver> factory;
+		private Driver driver;
+		private boolean closed = false;
+
+		LazyDriver(Supplier<Driver> factory) {
+			this.factory = factory;
+		}
+
+		@Override
+		public synchronized Driver get() {
+			if (closed) {
+				throw new GraphException("driver is closed");
+			}
+			if (driver == null) {
+				driver = factory.get();
+			}
+			return driver;
+		}
+
+		synchronized void close() {
+			closed = true;
+			if (driver != null) {
+				driver.close();
+				driver = null;
 			}
-		};
-		return Suppliers.memoize(guavaSupplier);
+		}
 	}
 
 	public abstract CypherTemplate cypher(String cypher);
@@ -211,6 +361,66 @@ public abstract class GraphDriver {
 
 	public abstract Driver getDriver();
 
+	/**
+	 * Closes the Bolt drivers created by the builder, including those of named
+	 * pools. A driver passed to Builder.withDriver() belongs to the caller and
+	 * is left open.
+	 */
+	@Override
+	public abstract void close();
+
+	/**
+	 * Runs the unit of work in a single Bolt transaction that is committed once
+	 * when the work completes and rolled back if it throws. The transaction is
+	 * bound to the calling thread, so every template executed by that thread
+	 * while the work runs (including through GraphBuilder and
+	 * RelationshipBuilder) joins it. Nested calls join the outer transaction.
+	 * 
+	 * @param work
+	 */
+	public abstract void inTransaction(Consumer<GraphDriver> work);
+
+	public abstract boolean isInTransaction();
+
+	/**
+	 * Runs the callback once the enclosing inTransaction() unit of work has
+	 * committed, or immediately if there is none. Callbacks are dropped if the
+	 * transaction rolls back.
+	 * 
+	 * @param r
+	 */
+	public abstract void afterCommit(Runnable r);
+
+	/**
+	 * The transaction bound to the current thread by inTransaction(), or null.
+	 * 
+	 * @return
+	 */
+	abstract Transaction getBoundTransaction();
+
+	/**
+	 * The named pool, or the default pool if the name is null or unknown.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	abstract ConnectionPool getPool(String name);
+
+	/**
+	 * The adaptive concurrency limiter for statements on the named pool, or null
+	 * if it is not enabled. The control and dashboard pools are never limited,
+	 * even when they fall back to the default pool.
+	 * 
+	 * @param pool
+	 * @return
+	 */
+	final ConcurrencyLimiter getLimiter(String pool) {
+		if (CONTROL_POOL.equals(pool) || DASHBOARD_POOL.equals(pool) || limiters.isEmpty()) {
+			return null;
+		}
+		return limiters.get(getPool(pool).name);
+	}
+
 	public final CypherMetrics metrics() {
 		return cypherMetrics;
 	}
@@ -20,4 +20,5 @@ public interface GraphSchema {
 	public void dropUniqueConstraint(String label, String attribute);
 	public void createUniqueConstraint(String label, String attribute, boolean apply);
 	public void dropUniqueConstraint(String label, String attribute, boolean apply);
+	public SchemaReconciler newReconciler();
 }
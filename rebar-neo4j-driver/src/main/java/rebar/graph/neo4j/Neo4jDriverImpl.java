@@ -15,32 +15,53 @@
  */
 package rebar.graph.neo4j;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+import org.neo4j.driver.v1.AccessMode;
 import org.neo4j.driver.v1.AuthTokens;
 import org.neo4j.driver.v1.Config;
 import org.neo4j.driver.v1.Config.ConfigBuilder;
 import org.neo4j.driver.v1.Driver;
 import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.driver.v1.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+
+import rebar.graph.neo4j.ConnectionPool.PooledSession;
 
 class Neo4jDriverImpl extends GraphDriver {
 
+	static Logger logger = LoggerFactory.getLogger(Neo4jDriverImpl.class);
+
 	static ObjectMapper mapper = new ObjectMapper();
 
 
 	Supplier<Driver> driverSupplier;
+
+	ConnectionPool defaultPool;
+
+	Map<String, ConnectionPool> pools = new ConcurrentHashMap<>();
 	
 
+	// null if the driver was supplied by the caller
+	GraphDriver.LazyDriver ownedDriver;
+
 	public Neo4jDriverImpl(final Supplier<Driver> supplier) {
+		if (supplier instanceof GraphDriver.LazyDriver) {
+			this.ownedDriver = (GraphDriver.LazyDriver) supplier;
+		}
 		com.google.common.base.Supplier<Driver> guavaSupplier = new com.google.common.base.Supplier<Driver>() {
 			
 			@Override
@@ -66,6 +87,14 @@ class Neo4jDriverImpl extends GraphDriver {
 		return driverSupplier.get();
 	}
 
+	@Override
+	public void close() {
+		pools.values().forEach(ConnectionPool::close);
+		if (ownedDriver != null) {
+			ownedDriver.close();
+		}
+	}
+
 	public CypherTemplate cypher(String cypher) {
 		return newTemplate().cypher(cypher);
 	}
@@ -77,4 +106,90 @@ class Neo4jDriverImpl extends GraphDriver {
 	public GraphSchema schema() {
 		return new Neo4jSchemaImpl(this);
 	}
+
+	static class BoundTransaction {
+		Transaction transaction;
+		boolean rollbackOnly = false;
+		List<Runnable> afterCommit = new ArrayList<>();
+	}
+
+	ThreadLocal<BoundTransaction> boundTransaction = new ThreadLocal<>();
+
+	@Override
+	Transaction getBoundTransaction() {
+		BoundTransaction bt = boundTransaction.get();
+		return bt != null ? bt.transaction : null;
+	}
+
+	@Override
+	ConnectionPool getPool(String name) {
+		ConnectionPool pool = name != null ? pools.get(name) : null;
+		if (pool != null) {
+			return pool;
+		}
+		if (defaultPool == null) {
+			defaultPool = new ConnectionPool(ConnectionPool.DEFAULT_POOL, driverSupplier, 0, 0, cypherMetrics);
+		}
+		return defaultPool;
+	}
+
+	@Override
+	public boolean isInTransaction() {
+		return boundTransaction.get() != null;
+	}
+
+	@Override
+	public void inTransaction(Consumer<GraphDriver> work) {
+		BoundTransaction outer = boundTransaction.get();
+		if (outer != null) {
+			// join the enclosing unit of work
+			try {
+				work.accept(this);
+			} catch (RuntimeException | Error e) {
+				outer.rollbackOnly = true;
+				throw e;
+			}
+			return;
+		}
+
+		try (PooledSession session = getPool(null).openSession(AccessMode.WRITE)) {
+			BoundTransaction bt = new BoundTransaction();
+			try (Transaction tx = session.session().beginTransaction()) {
+				bt.transaction = tx;
+				boundTransaction.set(bt);
+
+				work.accept(this);
+
+				if (bt.rollbackOnly) {
+					tx.failure();
+					throw new GraphException("transaction rolled back because a nested unit of work failed");
+				}
+				tx.success();
+			} finally {
+				boundTransaction.remove();
+			}
+			// closing the transaction committed it
+			runAfterCommit(bt.afterCommit);
+		}
+	}
+
+	@Override
+	public void afterCommit(Runnable r) {
+		BoundTransaction bt = boundTransaction.get();
+		if (bt != null) {
+			bt.afterCommit.add(r);
+		} else {
+			runAfterCommit(ImmutableList.of(r));
+		}
+	}
+
+	private void runAfterCommit(List<Runnable> callbacks) {
+		for (Runnable r : callbacks) {
+			try {
+				r.run();
+			} catch (RuntimeException e) {
+				logger.warn("after-commit callback failed", e);
+			}
+		}
+	}
 }
@@ -28,6 +28,11 @@ public class Neo4jSchemaImpl implements GraphSchema {
 		this.driver = driver;
 	}
 
+	@Override
+	public SchemaReconciler newReconciler() {
+		return new SchemaReconciler(driver);
+	}
+
 	public void createUniqueConstraint(String label, String attribute) {
 		createUniqueConstraint(label, attribute,APPLY_BY_DEFAULT);
 	}
@@ -15,22 +15,23 @@
  */
 package rebar.graph.neo4j;
 
-import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.neo4j.driver.v1.Record;
 import org.neo4j.driver.v1.StatementResult;
-import org.neo4j.driver.v1.types.Entity;
+import org.neo4j.driver.v1.types.TypeSystem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 
 public class Neo4jStatementResultImpl {
 
@@ -42,10 +43,10 @@ public class Neo4jStatementResultImpl {
 		this.builder = builder;
 	}
 
-	void consume(StatementResult sr) {
+	void consume(StatementResult sr, TypeSystem types) {
 		try {
 			if (sr.hasNext()) {
-				sr.forEachRemaining(new StatementConsumer());
+				sr.forEachRemaining(new StatementConsumer(types));
 			}
 		} finally {
 			sr.consume();
@@ -54,6 +55,17 @@ public class Neo4jStatementResultImpl {
 
 	List<JsonNode> results = new ArrayList<>();
 
+	AtomicLong rowCount = new AtomicLong();
+
+	/**
+	 * Number of records consumed so far.
+	 * 
+	 * @return
+	 */
+	long getRowCount() {
+		return rowCount.get();
+	}
+
 	public Stream<JsonNode> asStream() {
 		return results.stream();
 	}
@@ -62,77 +74,68 @@ public class Neo4jStatementResultImpl {
 		return results;
 	}
 
-	class StatementConsumer implements java.util.function.Consumer<Record> {
-		@Override
-		public void accept(Record t) {
-
-			boolean flatten = false;
-
-			ObjectNode n = new ObjectMapper().createObjectNode();
-
-			Map<String, Object> vals = t.asMap();
-
-			if (builder.getAttributeMode() == CypherTemplate.AttributeMode.AUTO) {
-				flatten = vals.size() == 1;
-			} else if (builder.getAttributeMode() == rebar.graph.neo4j.CypherTemplate.AttributeMode.FLATTEN) {
-				flatten = true;
-			} else {
-				flatten = false;
+	/**
+	 * Returns a stream that converts records as they are pulled from the open
+	 * cursor. onClose is invoked exactly once, either when the cursor is
+	 * exhausted, when the stream is closed, or when the cursor fails.
+	 * 
+	 * @param sr
+	 * @param types
+	 *            type system of the session or transaction that ran the statement
+	 * @param onClose
+	 * @return
+	 */
+	Stream<JsonNode> asLazyStream(StatementResult sr, TypeSystem types, Runnable onClose) {
+		AtomicBoolean closed = new AtomicBoolean(false);
+		Runnable closeOnce = () -> {
+			if (closed.compareAndSet(false, true)) {
+				onClose.run();
 			}
-
-			final boolean finalFlatten = flatten;
-			vals.forEach((k, v) -> {
-
-				if (v instanceof Entity) {
-					Entity nn = Entity.class.cast(v);
-					Map<String, Object> nm = nn.asMap();
-
-					JsonNode cv = Neo4jDriverImpl.mapper.valueToTree(nm);
-
-					if (!finalFlatten) {
-						n.set(k, cv);
-					} else {
-						cv.fields().forEachRemaining(x -> {
-							if (vals.size() == 1) {
-								n.set(x.getKey(), x.getValue());
-							} else {
-								n.set(k + "." + x.getKey(), x.getValue());
-							}
-						});
-					}
-				} else {
-					if (v == null) {
-						n.put(k, (String) null);
-					}
-					else if (v instanceof String) {
-						n.put(k, (String) v);
-					} else if (v instanceof Integer) {
-						n.put(k, (Integer) v);
-					} else if (v instanceof Long) {
-						n.put(k, (Long) v);
-					} else if (v instanceof Double) {
-						n.put(k, (Double) v);
-					} else if (v instanceof Float) {
-						n.put(k, (Float) v);
-					} else if (v instanceof BigDecimal) {
-						n.put(k, (BigDecimal) v);
-					} else if (v instanceof BigInteger) {
-						n.put(k, (BigInteger) v);
-					} else if (v instanceof Boolean) {
-						n.put(k, (Boolean) v);
-					} else if (v instanceof List) {
-						n.set(k, Neo4jDriverImpl.mapper.valueToTree(v));
-					} else if (v instanceof Map) {
-						n.set(k, Neo4jDriverImpl.mapper.valueToTree(v));
-					} else {
-						logger.warn("unsupported type ({}): {}", k, v.getClass());
+		};
+		StatementConsumer converter = new StatementConsumer(types);
+		Spliterator<JsonNode> spliterator = new Spliterators.AbstractSpliterator<JsonNode>(Long.MAX_VALUE,
+				Spliterator.ORDERED | Spliterator.NONNULL) {
+
+			@Override
+			public boolean tryAdvance(Consumer<? super JsonNode> action) {
+				if (closed.get()) {
+					return false;
+				}
+				Record record;
+				try {
+					if (!sr.hasNext()) {
+						closeOnce.run();
+						return false;
 					}
+					record = sr.next();
+				} catch (RuntimeException e) {
+					closeOnce.run();
+					throw e;
 				}
+				rowCount.incrementAndGet();
+				action.accept(converter.convert(record));
+				return true;
+			}
+		};
+		return StreamSupport.stream(spliterator, false).onClose(closeOnce);
+	}
+
+	class StatementConsumer implements java.util.function.Consumer<Record> {
 
-			});
+		RecordConverter converter;
 
-			results.add(n);
+		StatementConsumer(TypeSystem types) {
+			this.converter = new RecordConverter(builder.getAttributeMode(), types);
+		}
+
+		@Override
+		public void accept(Record t) {
+			rowCount.incrementAndGet();
+			results.add(convert(t));
+		}
 
+		JsonNode convert(Record t) {
+			return converter.convert(t);
 		}
 	}
 }
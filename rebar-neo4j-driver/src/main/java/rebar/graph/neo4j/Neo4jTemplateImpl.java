@@ -15,30 +15,48 @@
  */
 package rebar.graph.neo4j;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
-import org.neo4j.driver.v1.Driver;
-import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.AccessMode;
 import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.StatementResultCursor;
+import org.neo4j.driver.v1.StatementRunner;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.types.TypeSystem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
 
+import rebar.graph.neo4j.ConnectionPool.PooledSession;
 import rebar.util.Json;
+import rebar.util.trace.Span;
+import rebar.util.trace.Tracer;
 
 class Neo4jTemplateImpl extends CypherTemplate  {
 
 	static Logger logger = LoggerFactory.getLogger(Neo4jTemplateImpl.class);
 
-	Driver driver;
 	String cypher;
 	Map<String, Object> params = new HashMap<>();
 	GraphDriver graphDriver;
@@ -47,6 +65,9 @@ class Neo4jTemplateImpl extends CypherTemplate  {
 		Neo4jTemplateImpl c = new Neo4jTemplateImpl(graphDriver);
 		c.resultLimit = this.resultLimit;
 		c.attributeMode = this.attributeMode;
+		c.streaming = this.streaming;
+		c.pool = this.pool;
+		c.readOnly = this.readOnly;
 		c.cypher = this.cypher;
 		c.params = new HashMap<>(params);
 		return c;
@@ -54,7 +75,6 @@ class Neo4jTemplateImpl extends CypherTemplate  {
 
 	Neo4jTemplateImpl(GraphDriver driver) {
 		this.graphDriver = driver;
-		this.driver = driver.getDriver();
 	}
 
 	/* (non-Javadoc)
@@ -67,6 +87,24 @@ class Neo4jTemplateImpl extends CypherTemplate  {
 		return copy;
 	}
 
+	public Neo4jTemplateImpl withStreaming(boolean streaming) {
+		Neo4jTemplateImpl copy = copy();
+		copy.streaming = streaming;
+		return copy;
+	}
+
+	public Neo4jTemplateImpl withPool(String pool) {
+		Neo4jTemplateImpl copy = copy();
+		copy.pool = pool;
+		return copy;
+	}
+
+	public Neo4jTemplateImpl readOnly() {
+		Neo4jTemplateImpl copy = copy();
+		copy.readOnly = true;
+		return copy;
+	}
+
 	/* (non-Javadoc)
 	 * @see rebar.graph.neo4j.INeo4jTemplate#withMaxResults(int)
 	 */
@@ -139,6 +177,9 @@ class Neo4jTemplateImpl extends CypherTemplate  {
 	 */
 	@Override
 	public Stream<JsonNode> stream() {
+		if (isStreaming()) {
+			return doStream();
+		}
 		return doExec().asStream();
 	}
 
@@ -158,6 +199,141 @@ class Neo4jTemplateImpl extends CypherTemplate  {
 		list();
 	}
 
+	@Override
+	public CompletionStage<Void> execAsync() {
+		return doExecAsync((rows, types) -> cursor -> cursor.consumeAsync().thenApply(summary -> null), () -> {
+			exec();
+			return null;
+		});
+	}
+
+	@Override
+	public CompletionStage<List<JsonNode>> listAsync() {
+		List<JsonNode> results = Collections.synchronizedList(new ArrayList<>());
+		return doExecAsync((rows, types) -> cursor -> {
+			RecordConverter converter = new RecordConverter(getAttributeMode(), types);
+			return cursor.forEachAsync(record -> {
+				rows.incrementAndGet();
+				results.add(converter.convert(record));
+			}).thenApply(summary -> results);
+		}, this::list);
+	}
+
+	@Override
+	public CompletionStage<Void> forEachAsync(Consumer<JsonNode> c) {
+		return doExecAsync((rows, types) -> cursor -> {
+			RecordConverter converter = new RecordConverter(getAttributeMode(), types);
+			return cursor.forEachAsync(record -> {
+				rows.incrementAndGet();
+				c.accept(converter.convert(record));
+			}).thenApply(summary -> null);
+		}, () -> {
+			forEach(c);
+			return null;
+		});
+	}
+
+	/**
+	 * 
+	 * @param consumerFactory
+	 *            given a row counter and the session's type system, returns the
+	 *            function that consumes the cursor
+	 * @param inTransaction
+	 *            synchronous equivalent used when a transaction is bound
+	 * @return
+	 */
+	private <T> CompletionStage<T> doExecAsync(
+			BiFunction<AtomicLong, TypeSystem, Function<StatementResultCursor, CompletionStage<T>>> consumerFactory,
+			Supplier<T> inTransaction) {
+		if (graphDriver.getBoundTransaction() != null) {
+			CompletableFuture<T> f = new CompletableFuture<>();
+			try {
+				f.complete(inTransaction.get());
+			} catch (RuntimeException e) {
+				f.completeExceptionally(e);
+			}
+			return f;
+		}
+
+		ConcurrencyLimiter limiter = graphDriver.getLimiter(pool);
+		if (limiter == null) {
+			return runAsync(consumerFactory, null, 0);
+		}
+		// callers are queued rather than blocked; a permit handed over by release()
+		// would otherwise run the statement on the thread that completed another one
+		CompletableFuture<Long> permit = limiter.acquireAsync();
+		return permit.isDone() ? permit.thenCompose(p -> runAsync(consumerFactory, limiter, p))
+				: permit.thenComposeAsync(p -> runAsync(consumerFactory, limiter, p));
+	}
+
+	private <T> CompletionStage<T> runAsync(
+			BiFunction<AtomicLong, TypeSystem, Function<StatementResultCursor, CompletionStage<T>>> consumerFactory,
+			ConcurrencyLimiter limiter, long permit) {
+		Neo4jTemplateImpl finalTemplate = prepareFinalTemplate();
+		PooledSession pooledSession;
+		try {
+			pooledSession = openSession();
+		} catch (RuntimeException e) {
+			if (limiter != null) {
+				limiter.release(permit, cypher, 0, e);
+			}
+			throw e;
+		}
+		PooledSession session = pooledSession;
+
+		// latency is measured from here so that waiting for a pooled connection
+		// is not mistaken for database congestion
+		long started = System.nanoTime();
+		long ts = System.currentTimeMillis();
+		AtomicReference<T> result = new AtomicReference<>();
+		AtomicLong rows = new AtomicLong();
+		return session.session().runAsync(finalTemplate.cypher, finalTemplate.params).thenCompose(consumerFactory.apply(rows, session.session().typeSystem()))
+				.handle((val, error) -> {
+					result.set(val);
+					long totalTime = System.currentTimeMillis() - ts;
+					graphDriver.metrics().recordStatementExecution(finalTemplate.cypher, totalTime, rows.get());
+					if (limiter != null) {
+						limiter.release(permit, cypher, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), error);
+					}
+					return error;
+				}).thenCompose(error -> session.closeAsync().thenApply(closed -> {
+					if (error instanceof CompletionException) {
+						throw (CompletionException) error;
+					} else if (error != null) {
+						throw new CompletionException(error);
+					}
+					return result.get();
+				}));
+	}
+
+	@Override
+	public List<JsonNode> batch(List<Map<String, Object>> rows, int chunkSize) {
+		Preconditions.checkArgument(chunkSize > 0, "chunkSize must be > 0");
+		Preconditions.checkState(!Strings.isNullOrEmpty(cypher), "cypher not set");
+
+		List<JsonNode> results = new ArrayList<>();
+		if (rows == null || rows.isEmpty()) {
+			return results;
+		}
+		String batchCypher = "UNWIND {__rows} AS row " + cypher;
+		CypherMetrics metrics = graphDriver.metrics();
+
+		int offset = 0;
+		while (offset < rows.size()) {
+			int size = Math.min(metrics.getBatchSize(batchCypher, chunkSize), rows.size() - offset);
+
+			Neo4jTemplateImpl chunk = cypher(batchCypher);
+			chunk.params.put("__rows", rows.subList(offset, offset + size));
+
+			long ts = System.currentTimeMillis();
+			results.addAll(chunk.doExec().asList());
+			metrics.recordBatchExecution(batchCypher, size, System.currentTimeMillis() - ts);
+
+			offset += size;
+		}
+		return results;
+	}
+
 	@SuppressWarnings("unchecked")
 	Map<String, Object> toParams(JsonNode n) {
 		if (n == null) {
@@ -166,36 +342,131 @@ class Neo4jTemplateImpl extends CypherTemplate  {
 		return Neo4jDriverImpl.mapper.convertValue(n, Map.class);
 	}
 
-	private Neo4jStatementResultImpl doExec() {
-		
-		long ts = System.currentTimeMillis();
-		try (Session session = driver.session()) {
+	private Neo4jTemplateImpl prepareFinalTemplate() {
+		Neo4jTemplateImpl finalTemplate = copy();
 
+		finalTemplate.params = new HashMap<>(finalTemplate.params);
+		if (finalTemplate.params.isEmpty()) {
+			finalTemplate.params.put("__params", new HashMap<>());
+		}
+		else {
 			
-			Neo4jTemplateImpl finalTemplate = copy();
+			// __ prefixed params such as __rows are internal and not part of the data
+			Map<String, Object> data = new HashMap<>();
+			this.params.forEach((k, v) -> {
+				if (!k.startsWith("__")) {
+					data.put(k, v);
+				}
+			});
+			finalTemplate.params.put("__params", data);
+		}
+		
 
-			finalTemplate.params = new HashMap<>(finalTemplate.params);
-			if (finalTemplate.params.isEmpty()) {
-				finalTemplate.params.put("__params", new HashMap<>());
-			}
-			else {
-				
-				finalTemplate.params.put("__params", this.params);
-			}
-			
+		if (logger.isDebugEnabled()) {
+			logger.debug("cypher: {} params: {}", finalTemplate.cypher, finalTemplate.params);
+		}
+		return finalTemplate;
+	}
 
-			if (logger.isDebugEnabled()) {
-				logger.debug("cypher: {} params: {}", finalTemplate.cypher, finalTemplate.params);
-			}
-			
-			StatementResult sr = session.run(finalTemplate.cypher, finalTemplate.params);
-			Neo4jStatementResultImpl nsr = new Neo4jStatementResultImpl(finalTemplate);
-			nsr.consume(sr);
-			long totalTime = System.currentTimeMillis()-ts;
-			graphDriver.metrics().recordStatementExecution(finalTemplate.cypher, totalTime);
+	private PooledSession openSession() {
+		return graphDriver.getPool(pool).openSession(readOnly ? AccessMode.READ : AccessMode.WRITE);
+	}
+
+	/**
+	 * Runs the work under the pool's adaptive concurrency limit, if one is
+	 * configured, and reports its latency and outcome back to the limiter. Work
+	 * that opens its own session resets the start time once it has one, so that
+	 * waiting for a pooled connection does not count as statement latency.
+	 */
+	private <T> T limit(Function<AtomicLong, T> work) {
+		ConcurrencyLimiter limiter = graphDriver.getLimiter(pool);
+		if (limiter == null) {
+			return work.apply(new AtomicLong());
+		}
+		long permit = limiter.acquire();
+		AtomicLong started = new AtomicLong(permit);
+		Throwable error = null;
+		try {
+			return work.apply(started);
+		} catch (RuntimeException | Error e) {
+			error = e;
+			throw e;
+		} finally {
+			limiter.release(permit, cypher, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started.get()), error);
+		}
+	}
+
+	private Neo4jStatementResultImpl doExec() {
+		// toOperation() parses the statement, so skip it unless the span is recorded
+		try (Span span = Tracer.isRecording() ? Tracer.start("cypher", CypherMetrics.toOperation(cypher))
+				: Span.NOOP) {
+			span.tag("cypher", cypher);
+			Neo4jStatementResultImpl nsr = limit(started -> {
+				Transaction tx = graphDriver.getBoundTransaction();
+				if (tx != null) {
+					return consume(tx, prepareFinalTemplate(), System.currentTimeMillis());
+				}
+				try (PooledSession session = openSession()) {
+					started.set(System.nanoTime());
+					return consume(session.session(), prepareFinalTemplate(), System.currentTimeMillis());
+				}
+			});
+			span.tag("rows", nsr.getRowCount());
 			return nsr;
 		}
+	}
+
+	private Neo4jStatementResultImpl consume(StatementRunner runner, Neo4jTemplateImpl finalTemplate, long ts) {
+		StatementResult sr = runner.run(finalTemplate.cypher, finalTemplate.params);
+		Neo4jStatementResultImpl nsr = new Neo4jStatementResultImpl(finalTemplate);
+		nsr.consume(sr, runner.typeSystem());
+		long totalTime = System.currentTimeMillis()-ts;
+		graphDriver.metrics().recordStatementExecution(finalTemplate.cypher, totalTime, nsr.getRowCount());
+		return nsr;
+	}
 
+	/**
+	 * Runs the statement and returns a stream that is backed by the open Bolt
+	 * cursor. Records are fetched by the driver as the stream is consumed, so
+	 * the driver's flow control applies backpressure to the server. The session
+	 * is closed when the stream is exhausted or closed, whichever comes first.
+	 * If a transaction is bound to the current thread, the statement runs in it
+	 * and only the cursor is released on close.
+	 * 
+	 * @return
+	 */
+	private Stream<JsonNode> doStream() {
+		long ts = System.currentTimeMillis();
+		Neo4jTemplateImpl finalTemplate = prepareFinalTemplate();
+		Neo4jStatementResultImpl nsr = new Neo4jStatementResultImpl(finalTemplate);
+		Transaction tx = graphDriver.getBoundTransaction();
+		if (tx != null) {
+			StatementResult sr = limit(started -> tx.run(finalTemplate.cypher, finalTemplate.params));
+			return nsr.asLazyStream(sr, tx.typeSystem(), () -> {
+				try {
+					sr.consume();
+				} finally {
+					long totalTime = System.currentTimeMillis() - ts;
+					graphDriver.metrics().recordStatementExecution(finalTemplate.cypher, totalTime, nsr.getRowCount());
+				}
+			});
+		}
+		PooledSession session = openSession();
+		try {
+			StatementResult sr = limit(started -> session.session().run(finalTemplate.cypher, finalTemplate.params));
+			return nsr.asLazyStream(sr, session.session().typeSystem(), () -> {
+				try {
+					sr.consume();
+				} finally {
+					session.close();
+					long totalTime = System.currentTimeMillis() - ts;
+					graphDriver.metrics().recordStatementExecution(finalTemplate.cypher, totalTime, nsr.getRowCount());
+				}
+			});
+		} catch (RuntimeException e) {
+			session.close();
+			throw e;
+		}
 	}
 
 
@@ -225,13 +496,16 @@ class Neo4jTemplateImpl extends CypherTemplate  {
 
 	@Override
 	public Optional<JsonNode> findFirst() {
-		return stream().findFirst();
+		try (Stream<JsonNode> stream = stream()) {
+			return stream.findFirst();
+		}
 	}
 
 	@Override
 	public void forEach(Consumer<JsonNode> c) {
-		stream().forEach(c);
-		
+		try (Stream<JsonNode> stream = stream()) {
+			stream.forEach(c);
+		}
 	}
 
 }
@@ -0,0 +1,179 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.neo4j;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.types.Entity;
+import org.neo4j.driver.v1.types.TypeSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Converts Bolt records into JsonNode.
+ *
+ * Values are written directly from the driver's Value representation into the
+ * target ObjectNode, so there are no intermediate Map/List copies and no
+ * ObjectMapper round-trips. An instance is meant to be used for a single
+ * result, where every record has the same columns, which lets flattened
+ * attribute names (column.property) be computed once per column. Instances are
+ * not thread-safe.
+ *
+ * Types are resolved through the TypeSystem of the session or transaction that
+ * produced the records.
+ */
+final class RecordConverter {
+
+	static Logger logger = LoggerFactory.getLogger(RecordConverter.class);
+
+	static final JsonNodeFactory FACTORY = JsonNodeFactory.instance;
+
+	private final CypherTemplate.AttributeMode attributeMode;
+
+	private final TypeSystem types;
+
+	private final Map<String, Map<String, String>> flattenedKeyCache = new HashMap<>();
+
+	RecordConverter(CypherTemplate.AttributeMode attributeMode, TypeSystem types) {
+		this.attributeMode = attributeMode == null ? CypherTemplate.AttributeMode.AUTO : attributeMode;
+		this.types = types;
+	}
+
+	JsonNode convert(Record record) {
+
+		List<String> columns = record.keys();
+		int columnCount = columns.size();
+
+		boolean flatten;
+		if (attributeMode == CypherTemplate.AttributeMode.AUTO) {
+			flatten = columnCount == 1;
+		} else {
+			flatten = attributeMode == CypherTemplate.AttributeMode.FLATTEN;
+		}
+
+		ObjectNode n = FACTORY.objectNode();
+		for (int i = 0; i < columnCount; i++) {
+			String column = columns.get(i);
+			Value v = record.get(i);
+
+			if (isEntity(v)) {
+				Entity entity = v.asEntity();
+				if (!flatten) {
+					n.set(column, toObjectNode(entity));
+				} else if (columnCount == 1) {
+					for (String key : entity.keys()) {
+						n.set(key, toJson(entity.get(key)));
+					}
+				} else {
+					Map<String, String> flattenedKeys = flattenedKeyCache.computeIfAbsent(column, k -> new HashMap<>());
+					for (String key : entity.keys()) {
+						String flattenedKey = flattenedKeys.get(key);
+						if (flattenedKey == null) {
+							flattenedKey = column + "." + key;
+							flattenedKeys.put(key, flattenedKey);
+						}
+						n.set(flattenedKey, toJson(entity.get(key)));
+					}
+				}
+			} else {
+				JsonNode converted = toJsonOrNull(v);
+				if (converted != null) {
+					n.set(column, converted);
+				} else {
+					logger.warn("unsupported type ({}): {}", column, v.type().name());
+				}
+			}
+		}
+		return n;
+	}
+
+	boolean isEntity(Value v) {
+		return types.NODE().isTypeOf(v) || types.RELATIONSHIP().isTypeOf(v);
+	}
+
+	ObjectNode toObjectNode(Entity entity) {
+		ObjectNode n = FACTORY.objectNode();
+		for (String key : entity.keys()) {
+			n.set(key, toJson(entity.get(key)));
+		}
+		return n;
+	}
+
+	/**
+	 * Converts a nested value. Types that have no direct JSON representation
+	 * (temporal, spatial) fall back to Jackson's conversion of the driver's
+	 * object representation.
+	 *
+	 * @param v
+	 * @return
+	 */
+	JsonNode toJson(Value v) {
+		JsonNode n = toJsonOrNull(v);
+		if (n != null) {
+			return n;
+		}
+		return Neo4jDriverImpl.mapper.valueToTree(v.asObject());
+	}
+
+	private JsonNode toJsonOrNull(Value v) {
+		if (v == null || v.isNull()) {
+			return FACTORY.nullNode();
+		}
+		if (types.STRING().isTypeOf(v)) {
+			return FACTORY.textNode(v.asString());
+		}
+		if (types.INTEGER().isTypeOf(v)) {
+			return FACTORY.numberNode(v.asLong());
+		}
+		if (types.FLOAT().isTypeOf(v)) {
+			return FACTORY.numberNode(v.asDouble());
+		}
+		if (types.BOOLEAN().isTypeOf(v)) {
+			return FACTORY.booleanNode(v.asBoolean());
+		}
+		if (isEntity(v)) {
+			// must precede MAP, which also covers nodes and relationships
+			return toObjectNode(v.asEntity());
+		}
+		if (types.LIST().isTypeOf(v)) {
+			ArrayNode array = FACTORY.arrayNode(v.size());
+			for (Value item : v.values()) {
+				array.add(toJson(item));
+			}
+			return array;
+		}
+		if (types.MAP().isTypeOf(v)) {
+			ObjectNode map = FACTORY.objectNode();
+			for (String key : v.keys()) {
+				map.set(key, toJson(v.get(key)));
+			}
+			return map;
+		}
+		if (types.BYTES().isTypeOf(v)) {
+			return FACTORY.binaryNode(v.asByteArray());
+		}
+		return null;
+	}
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.neo4j;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Collects the desired unique constraints and indexes and brings the database
+ * in line with them in a single pass.
+ *
+ * The existing schema is read with one call to db.indexes(), diffed against
+ * the desired set, and only the missing items are created. Creation runs in
+ * parallel. Nothing is ever dropped.
+ *
+ * An item that cannot be created (e.g. a unique constraint on data that has
+ * duplicates) is logged and counted in neo4jSchemaFailures, and the rest of
+ * the schema is still applied. Only items declared with
+ * requireUniqueConstraint(), which callers need for correctness, make
+ * reconcile() fail.
+ */
+public class SchemaReconciler {
+
+	static Logger logger = LoggerFactory.getLogger(SchemaReconciler.class);
+
+	static final int DEFAULT_PARALLELISM = 4;
+
+	public static final String FAILURE_COUNTER_NAME = "neo4jSchemaFailures";
+
+	Neo4jDriverImpl driver;
+
+	Set<SchemaItem> desired = new LinkedHashSet<>();
+
+	Set<SchemaItem> required = new HashSet<>();
+
+	int parallelism = DEFAULT_PARALLELISM;
+
+	static class SchemaItem {
+		final String label;
+		final List<String> attributes;
+		final boolean unique;
+
+		SchemaItem(String label, List<String> attributes, boolean unique) {
+			this.label = label;
+			this.attributes = ImmutableList.copyOf(attributes);
+			this.unique = unique;
+		}
+
+		String toCypher() {
+			if (unique) {
+				return "CREATE CONSTRAINT ON (x:" + label + ") ASSERT x."
+						+ CypherUtil.escapePropertyName(attributes.get(0)) + " IS UNIQUE";
+			}
+			return "CREATE INDEX ON :" + label + "(" + attributes.stream().map(CypherUtil::escapePropertyName)
+					.collect(Collectors.joining(", ")) + ")";
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof SchemaItem)) {
+				return false;
+			}
+			SchemaItem other = (SchemaItem) obj;
+			return unique == other.unique && label.equals(other.label) && attributes.equals(other.attributes);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(label, attributes, unique);
+		}
+
+		@Override
+		public String toString() {
+			return (unique ? "unique " : "index ") + label + attributes;
+		}
+	}
+
+	SchemaReconciler(Neo4jDriverImpl driver) {
+		this.driver = driver;
+	}
+
+	public SchemaReconciler createUniqueConstraint(String label, String attribute) {
+		CypherUtil.assertValidLabel(label);
+		Preconditions.checkArgument(attribute != null, "attribute cannot be null");
+		desired.add(new SchemaItem(label, ImmutableList.of(attribute), true));
+		return this;
+	}
+
+	/**
+	 * Adds a unique constraint that the caller relies on for correctness, such
+	 * as one that keeps a lease node from being created twice. reconcile()
+	 * throws if it cannot be created.
+	 *
+	 * @param label
+	 * @param attribute
+	 * @return
+	 */
+	public SchemaReconciler requireUniqueConstraint(String label, String attribute) {
+		createUniqueConstraint(label, attribute);
+		required.add(new SchemaItem(label, ImmutableList.of(attribute), true));
+		return this;
+	}
+
+	/**
+	 * Adds a non-unique index. If more than one attribute is given, a composite
+	 * index is created with the attributes in the given order.
+	 *
+	 * @param label
+	 * @param attributes
+	 * @return
+	 */
+	public SchemaReconciler createIndex(String label, String... attributes) {
+		CypherUtil.assertValidLabel(label);
+		Preconditions.checkArgument(attributes != null && attributes.length > 0, "at least one attribute required");
+		desired.add(new SchemaItem(label, ImmutableList.copyOf(attributes), false));
+		return this;
+	}
+
+	public SchemaReconciler withParallelism(int parallelism) {
+		Preconditions.checkArgument(parallelism > 0, "parallelism must be >0");
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	Set<SchemaItem> fetchExisting() {
+		Set<SchemaItem> existing = new HashSet<>();
+		driver.cypher("CALL db.indexes()").forEach(n -> {
+			SchemaItem item = toSchemaItem(n);
+			if (item != null) {
+				existing.add(item);
+			}
+		});
+		return existing;
+	}
+
+	static SchemaItem toSchemaItem(JsonNode n) {
+		String type = n.path("type").asText();
+		boolean unique;
+		if (type.equals("node_unique_property")) {
+			unique = true;
+		} else if (type.equals("node_label_property")) {
+			unique = false;
+		} else {
+			return null;
+		}
+
+		// 3.5 reports tokenNames, earlier versions report label
+		String label = n.has("tokenNames") ? n.path("tokenNames").path(0).asText() : n.path("label").asText();
+		List<String> attributes = new ArrayList<>();
+		n.path("properties").forEach(p -> attributes.add(p.asText()));
+		if (label.isEmpty() || attributes.isEmpty()) {
+			return null;
+		}
+		return new SchemaItem(label, attributes, unique);
+	}
+
+	List<SchemaItem> diff(Set<SchemaItem> existing) {
+		return desired.stream().filter(it -> !existing.contains(it)).filter(it -> {
+			// a unique constraint is backed by an index on the same property, which
+			// cannot be created a second time
+			if (!it.unique && it.attributes.size() == 1) {
+				SchemaItem constraint = new SchemaItem(it.label, it.attributes, true);
+				return !existing.contains(constraint) && !desired.contains(constraint);
+			}
+			return true;
+		}).collect(Collectors.toList());
+	}
+
+	/**
+	 * Creates whatever is missing.
+	 *
+	 * @param apply
+	 *            if false, the missing items are only logged
+	 * @return the number of missing items
+	 */
+	public int reconcile(boolean apply) {
+		if (desired.isEmpty()) {
+			return 0;
+		}
+		List<SchemaItem> missing = diff(fetchExisting());
+
+		if (missing.isEmpty()) {
+			logger.info("schema up to date ({} constraints/indexes)", desired.size());
+			return 0;
+		}
+		if (!apply) {
+			missing.forEach(it -> logger.info("constraint *NOT* modified: {}", it.toCypher()));
+			return missing.size();
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, missing.size()),
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("schema-%d").build());
+		try {
+			List<CompletableFuture<Void>> futures = missing.stream().map(it -> CompletableFuture.runAsync(() -> {
+				String cypher = it.toCypher();
+				logger.info("{}", cypher);
+				driver.cypher(cypher).exec();
+			}, executor)).collect(Collectors.toList());
+
+			GraphException failure = null;
+			for (int i = 0; i < futures.size(); i++) {
+				SchemaItem item = missing.get(i);
+				try {
+					futures.get(i).join();
+				} catch (CompletionException e) {
+					logger.warn("could not create " + item, e.getCause());
+					recordFailure(item);
+					if (failure == null && required.contains(item)) {
+						failure = new GraphException("could not create required " + item, e.getCause());
+					}
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			executor.shutdown();
+		}
+		return missing.size();
+	}
+
+	private void recordFailure(SchemaItem item) {
+		CypherMetrics metrics = driver.metrics();
+		if (metrics != null) {
+			metrics.getMeterRegistry().counter(FAILURE_COUNTER_NAME, "label", item.label).increment();
+		}
+	}
+}
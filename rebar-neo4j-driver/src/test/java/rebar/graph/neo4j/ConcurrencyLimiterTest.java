@@ -0,0 +1,137 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.neo4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.assertj.core.data.Offset;
+import org.junit.jupiter.api.Test;
+import org.neo4j.driver.v1.exceptions.ClientException;
+import org.neo4j.driver.v1.exceptions.TransientException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ConcurrencyLimiterTest {
+
+	CypherMetrics metrics = new CypherMetrics(null, new SimpleMeterRegistry());
+
+	@Test
+	public void testDecreaseOncePerRoundTrip() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(metrics, 2, 10, 20);
+
+		long a = limiter.acquire();
+		long b = limiter.acquire();
+
+		limiter.release(a, "x", 5, new TransientException("Neo.TransientError.General.Test", "busy"));
+		Assertions.assertThat(limiter.getLimit()).isCloseTo(9.0, Offset.offset(0.001));
+
+		// started before the decrease...no further decrease
+		limiter.release(b, "x", 5, new TransientException("Neo.TransientError.General.Test", "busy"));
+		Assertions.assertThat(limiter.getLimit()).isCloseTo(9.0, Offset.offset(0.001));
+
+		long c = limiter.acquire();
+		limiter.release(c, "x", 5, new TransientException("Neo.TransientError.General.Test", "busy"));
+		Assertions.assertThat(limiter.getLimit()).isCloseTo(8.1, Offset.offset(0.001));
+
+		// client errors are not congestion
+		long d = limiter.acquire();
+		limiter.release(d, "x", 5, new ClientException("bad cypher"));
+		Assertions.assertThat(limiter.getLimit()).isLessThanOrEqualTo(8.1 + 1.0 / 8.1);
+		Assertions.assertThat(limiter.getLimit()).isGreaterThanOrEqualTo(8.1);
+
+		for (int i = 0; i < 50; i++) {
+			long p = limiter.acquire();
+			limiter.release(p, "x", 5, new TransientException("Neo.TransientError.General.Test", "busy"));
+		}
+		Assertions.assertThat(limiter.getLimit()).isEqualTo(2.0);
+		Assertions.assertThat(limiter.getInFlight()).isEqualTo(0);
+	}
+
+	@Test
+	public void testIncreaseOnlyWhenBusy() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(metrics, 1, 2, 3);
+
+		long a = limiter.acquire();
+		long b = limiter.acquire();
+		limiter.release(a, "x", 1, null);
+		Assertions.assertThat(limiter.getLimit()).isCloseTo(2.5, Offset.offset(0.001));
+
+		// mostly idle...unchanged
+		limiter.release(b, "x", 1, null);
+		Assertions.assertThat(limiter.getLimit()).isCloseTo(2.5, Offset.offset(0.001));
+
+		for (int i = 0; i < 20; i++) {
+			long x = limiter.acquire();
+			long y = limiter.acquire();
+			limiter.release(x, "x", 1, null);
+			limiter.release(y, "x", 1, null);
+		}
+		Assertions.assertThat(limiter.getLimit()).isEqualTo(3.0);
+	}
+
+	@Test
+	public void testLatencySignal() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(metrics, 1, 2, 3);
+		String cypher = "match (a:Foo {id:{id}}) return a";
+
+		// no history yet
+		Assertions.assertThat(limiter.isCongested(cypher, 1000, null)).isFalse();
+
+		for (int i = 0; i < 30; i++) {
+			metrics.recordStatementExecution(cypher, 20);
+		}
+		Assertions.assertThat(limiter.isCongested(cypher, 100, null)).isTrue();
+		Assertions.assertThat(limiter.isCongested(cypher, 30, null)).isFalse();
+		Assertions.assertThat(limiter.isCongested("match (b) return b", 100, null)).isFalse();
+	}
+
+	@Test
+	public void testBlocksAtLimit() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(metrics, 1, 1, 1);
+
+		long a = limiter.acquire();
+		CompletableFuture<Long> waiting = CompletableFuture.supplyAsync(limiter::acquire);
+
+		Thread.sleep(100);
+		Assertions.assertThat(waiting.isDone()).isFalse();
+
+		limiter.release(a, "x", 1, null);
+		long b = waiting.get(5, TimeUnit.SECONDS);
+		Assertions.assertThat(limiter.getInFlight()).isEqualTo(1);
+		limiter.release(b, "x", 1, null);
+	}
+
+	@Test
+	public void testAcquireAsyncDoesNotBlock() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(metrics, 1, 1, 1);
+
+		CompletableFuture<Long> a = limiter.acquireAsync();
+		Assertions.assertThat(a.isDone()).isTrue();
+
+		CompletableFuture<Long> waiting = limiter.acquireAsync();
+		Assertions.assertThat(waiting.isDone()).isFalse();
+		Assertions.assertThat(limiter.getInFlight()).isEqualTo(1);
+
+		limiter.release(a.get(), "x", 1, null);
+		Assertions.assertThat(waiting.isDone()).isTrue();
+		Assertions.assertThat(limiter.getInFlight()).isEqualTo(1);
+
+		limiter.release(waiting.get(), "x", 1, null);
+		Assertions.assertThat(limiter.getInFlight()).isEqualTo(0);
+	}
+}
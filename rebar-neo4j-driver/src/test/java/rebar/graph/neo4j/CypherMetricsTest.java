@@ -0,0 +1,112 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.neo4j;
+
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.assertj.core.data.Offset;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class CypherMetricsTest {
+
+	@Test
+	public void testAdaptiveBatchSize() {
+		CypherMetrics metrics = new CypherMetrics(null, new SimpleMeterRegistry());
+		metrics.setBatchTargetLatency(100, TimeUnit.MILLISECONDS);
+
+		String cypher = "UNWIND {__rows} AS row merge (a:Foo {id:row.id})";
+
+		// starts at the requested size
+		Assertions.assertThat(metrics.getBatchSize(cypher, 400)).isEqualTo(400);
+
+		// too slow...shrink
+		metrics.recordBatchExecution(cypher, 400, 500);
+		Assertions.assertThat(metrics.getBatchSize(cypher, 400)).isEqualTo(200);
+		metrics.recordBatchExecution(cypher, 200, 500);
+		Assertions.assertThat(metrics.getBatchSize(cypher, 400)).isEqualTo(100);
+
+		// a slow chunk that was sized before the last shrink does not grow it again
+		metrics.recordBatchExecution(cypher, 400, 500);
+		Assertions.assertThat(metrics.getBatchSize(cypher, 400)).isEqualTo(100);
+
+		// within target...unchanged
+		metrics.recordBatchExecution(cypher, 100, 80);
+		Assertions.assertThat(metrics.getBatchSize(cypher, 400)).isEqualTo(100);
+
+		// fast...grow, but never beyond the requested size
+		metrics.recordBatchExecution(cypher, 100, 10);
+		Assertions.assertThat(metrics.getBatchSize(cypher, 400)).isEqualTo(150);
+		for (int i = 0; i < 10; i++) {
+			int size = metrics.getBatchSize(cypher, 400);
+			metrics.recordBatchExecution(cypher, size, 10);
+		}
+		Assertions.assertThat(metrics.getBatchSize(cypher, 400)).isEqualTo(400);
+
+		// a short final chunk does not grow the size
+		metrics.recordBatchExecution(cypher, 3, 10);
+		Assertions.assertThat(metrics.getBatchSize(cypher, 400)).isEqualTo(400);
+
+		// never below the floor
+		for (int i = 0; i < 20; i++) {
+			metrics.recordBatchExecution(cypher, metrics.getBatchSize(cypher, 400), 1000);
+		}
+		Assertions.assertThat(metrics.getBatchSize(cypher, 400)).isEqualTo(CypherMetrics.MIN_BATCH_SIZE);
+	}
+
+	@Test
+	public void testStatementMeters() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		CypherMetrics metrics = new CypherMetrics(null, registry);
+
+		String cypher = "match (a:Foo {id:{id}}) return a";
+		for (int i = 1; i <= 100; i++) {
+			metrics.recordStatementExecution(cypher, i, 2);
+		}
+		metrics.recordStatementExecution("merge (a:Bar {id:{id}})", 5);
+
+		CypherMetrics.StatementStats stats = metrics.getStatementStats(cypher).get();
+		Assertions.assertThat(stats.getCount()).isEqualTo(100);
+		Assertions.assertThat(stats.getMin()).isEqualTo(1);
+		Assertions.assertThat(stats.getMax()).isEqualTo(100);
+		Assertions.assertThat(stats.getRows()).isEqualTo(200);
+		Assertions.assertThat(stats.getPercentile(0.5)).isCloseTo(50, Offset.offset(15d));
+		Assertions.assertThat(stats.getPercentile(0.99)).isCloseTo(99, Offset.offset(15d));
+		Assertions.assertThat(stats.toJson().has("p95")).isTrue();
+
+		Timer timer = registry.find(CypherMetrics.STATEMENT_TIMER_NAME).tag(CypherMetrics.OPERATION_TAG, "match").timer();
+		Assertions.assertThat(timer.count()).isEqualTo(100);
+		Assertions.assertThat(registry.find(CypherMetrics.STATEMENT_ROWS_NAME).tag(CypherMetrics.OPERATION_TAG, "match")
+				.summary().totalAmount()).isEqualTo(200);
+		Assertions.assertThat(registry.find(CypherMetrics.STATEMENT_TIMER_NAME).timers()).hasSize(2);
+
+		// evicting a shape removes its meters
+		metrics.resetStats();
+		Assertions.assertThat(registry.find(CypherMetrics.STATEMENT_TIMER_NAME).timers()).isEmpty();
+		Assertions.assertThat(metrics.getStatementStats(cypher).isPresent()).isFalse();
+	}
+
+	@Test
+	public void testOperation() {
+		Assertions.assertThat(CypherMetrics.toOperation("MATCH (a) return a")).isEqualTo("match");
+		Assertions.assertThat(CypherMetrics.toOperation(" merge (a:Foo)")).isEqualTo("merge");
+		Assertions.assertThat(CypherMetrics.toOperation("UNWIND {__rows} AS row create (a)")).isEqualTo("batch");
+		Assertions.assertThat(CypherMetrics.toOperation(null)).isEqualTo("");
+	}
+}
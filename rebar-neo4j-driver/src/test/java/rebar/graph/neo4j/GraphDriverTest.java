@@ -15,7 +15,11 @@
  */
 package rebar.graph.neo4j;
 
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.assertj.core.api.Assertions;
+import org.neo4j.driver.v1.Driver;
 
 public class GraphDriverTest {
 
@@ -28,6 +32,35 @@ public class GraphDriverTest {
 		Assertions.assertThat(new GraphDriver.Builder().withEnv("USER", "BAR").getEnv("USER").get()).isEqualTo("BAR");
 	}
 
-	
-	
+	@org.junit.jupiter.api.Test
+	public void testLazyDriverClose() {
+		AtomicInteger created = new AtomicInteger();
+		AtomicInteger closed = new AtomicInteger();
+		Driver bolt = (Driver) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Driver.class },
+				(proxy, method, args) -> {
+					if (method.getName().equals("close")) {
+						closed.incrementAndGet();
+					}
+					return null;
+				});
+
+		// never used...nothing to close
+		GraphDriver.LazyDriver unused = new GraphDriver.LazyDriver(() -> {
+			created.incrementAndGet();
+			return bolt;
+		});
+		unused.close();
+		Assertions.assertThat(created.get()).isEqualTo(0);
+
+		GraphDriver.LazyDriver used = new GraphDriver.LazyDriver(() -> {
+			created.incrementAndGet();
+			return bolt;
+		});
+		Assertions.assertThat(used.get()).isSameAs(used.get());
+		used.close();
+		used.close();
+		Assertions.assertThat(created.get()).isEqualTo(1);
+		Assertions.assertThat(closed.get()).isEqualTo(1);
+		Assertions.assertThatThrownBy(used::get).isInstanceOf(GraphException.class);
+	}
 }
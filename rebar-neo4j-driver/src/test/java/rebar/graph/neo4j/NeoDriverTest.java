@@ -21,10 +21,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.neo4j.driver.v1.exceptions.ClientException;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -32,6 +37,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import rebar.util.Json;
 
 public class NeoDriverTest extends IntegrationTest {
@@ -187,4 +193,146 @@ public class NeoDriverTest extends IntegrationTest {
 	}
 	
 	
+	@Test
+	public void testStreaming() {
+		String id = UUID.randomUUID().toString();
+		getNeo4jDriver().cypher("unwind range(1,500) as i create (a:JUnitStream {id:{id}, i:i})").param("id", id).exec();
+
+		List<Integer> vals = new ArrayList<>();
+		getNeo4jDriver().cypher("match (a:JUnitStream {id:{id}}) return a order by a.i").param("id", id).withStreaming()
+				.forEach(it -> vals.add(it.path("i").asInt()));
+		Assertions.assertThat(vals).hasSize(500);
+		Assertions.assertThat(vals.get(0)).isEqualTo(1);
+		Assertions.assertThat(vals.get(499)).isEqualTo(500);
+
+		// closing a partially consumed stream must release the session
+		for (int i = 0; i < 200; i++) {
+			try (Stream<JsonNode> stream = getNeo4jDriver().cypher("match (a:JUnitStream {id:{id}}) return a")
+					.param("id", id).withStreaming().stream()) {
+				Assertions.assertThat(stream.limit(3).count()).isEqualTo(3);
+			}
+		}
+
+		Assertions.assertThat(getNeo4jDriver().cypher("match (a:JUnitStream {id:{id}}) return a").param("id", id)
+				.withStreaming().findFirst().isPresent()).isTrue();
+
+		getNeo4jDriver().cypher("match (a:JUnitStream {id:{id}}) detach delete a").param("id", id).exec();
+	}
+
+	@Test
+	public void testTransaction() {
+		String id = UUID.randomUUID().toString();
+		GraphDriver driver = getNeo4jDriver();
+
+		driver.inTransaction(tx -> {
+			Assertions.assertThat(driver.isInTransaction()).isTrue();
+			tx.cypher("create (a:JUnitTx {id:{id}, i:1})").param("id", id).exec();
+			tx.inTransaction(nested -> {
+				nested.cypher("create (a:JUnitTx {id:{id}, i:2})").param("id", id).exec();
+			});
+			Assertions.assertThat(tx.cypher("match (a:JUnitTx {id:{id}}) return a").param("id", id).list()).hasSize(2);
+		});
+		Assertions.assertThat(driver.isInTransaction()).isFalse();
+		Assertions.assertThat(driver.cypher("match (a:JUnitTx {id:{id}}) return a").param("id", id).list()).hasSize(2);
+
+		try {
+			driver.inTransaction(tx -> {
+				tx.cypher("create (a:JUnitTx {id:{id}, i:3})").param("id", id).exec();
+				throw new IllegalStateException("rollback");
+			});
+			Assertions.failBecauseExceptionWasNotThrown(IllegalStateException.class);
+		} catch (IllegalStateException e) {
+			Assertions.assertThat(e).hasMessage("rollback");
+		}
+		Assertions.assertThat(driver.cypher("match (a:JUnitTx {id:{id}}) return a").param("id", id).list()).hasSize(2);
+
+		driver.cypher("match (a:JUnitTx {id:{id}}) detach delete a").param("id", id).exec();
+	}
+
+	@Test
+	public void testBatch() {
+		String id = UUID.randomUUID().toString();
+		List<Map<String, Object>> rows = new ArrayList<>();
+		for (int i = 0; i < 1234; i++) {
+			Map<String, Object> row = new HashMap<>();
+			row.put("i", i);
+			row.put("name", "n" + i);
+			rows.add(row);
+		}
+		List<JsonNode> results = getNeo4jDriver()
+				.cypher("create (a:JUnitBatch {id:{id}, i:row.i}) set a.name=row.name return a.i as i").param("id", id)
+				.batch(rows, 100);
+
+		Assertions.assertThat(results).hasSize(1234);
+		Assertions.assertThat(getNeo4jDriver().cypher("match (a:JUnitBatch {id:{id}}) return count(a) as count")
+				.param("id", id).findFirst().get().path("count").asInt()).isEqualTo(1234);
+		Assertions.assertThat(getNeo4jDriver().cypher("match (a:JUnitBatch {id:{id}, i:7}) return a").param("id", id)
+				.findFirst().get().path("name").asText()).isEqualTo("n7");
+
+		Assertions.assertThat(getNeo4jDriver().cypher("create (a:JUnitBatch {id:{id}})").param("id", id)
+				.batch(new ArrayList<>())).isEmpty();
+
+		getNeo4jDriver().cypher("match (a:JUnitBatch {id:{id}}) detach delete a").param("id", id).exec();
+	}
+
+	@Test
+	public void testAsync() throws Exception {
+		String id = UUID.randomUUID().toString();
+
+		getNeo4jDriver().cypher("unwind range(1,10) as i create (a:JUnitAsync {id:{id}, i:i})").param("id", id)
+				.execAsync().toCompletableFuture().get(30, TimeUnit.SECONDS);
+
+		List<JsonNode> results = getNeo4jDriver().cypher("match (a:JUnitAsync {id:{id}}) return a order by a.i")
+				.param("id", id).listAsync().toCompletableFuture().get(30, TimeUnit.SECONDS);
+		Assertions.assertThat(results).hasSize(10);
+		Assertions.assertThat(results.get(0).path("i").asInt()).isEqualTo(1);
+
+		AtomicInteger count = new AtomicInteger();
+		getNeo4jDriver().cypher("match (a:JUnitAsync {id:{id}}) return a").param("id", id)
+				.forEachAsync(it -> count.incrementAndGet()).toCompletableFuture().get(30, TimeUnit.SECONDS);
+		Assertions.assertThat(count.get()).isEqualTo(10);
+
+		try {
+			getNeo4jDriver().cypher("this is not cypher").execAsync().toCompletableFuture().get(30, TimeUnit.SECONDS);
+			Assertions.fail("should have failed");
+		} catch (ExecutionException e) {
+			Assertions.assertThat(e.getCause()).isInstanceOf(ClientException.class);
+		}
+
+		getNeo4jDriver().cypher("match (a:JUnitAsync {id:{id}}) detach delete a").param("id", id).exec();
+	}
+
+	@Test
+	public void testPools() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		Neo4jDriverImpl driver = (Neo4jDriverImpl) applyCredentials(new GraphDriver.Builder().withUrl(getUrl()))
+				.withMetricsRegistry(registry).withPool("junit", 1, 200, TimeUnit.MILLISECONDS)
+				.withEnv("NEO4J_POOLS", "other:2:1000").build();
+
+		Assertions.assertThat(driver.getPool("junit").getName()).isEqualTo("junit");
+		Assertions.assertThat(driver.getPool("other").maxSize).isEqualTo(2);
+		Assertions.assertThat(driver.getPool("unknown").getName()).isEqualTo("default");
+		Assertions.assertThat(driver.getPool(null).getName()).isEqualTo("default");
+
+		Assertions.assertThat(driver.cypher("return 1 as val").withPool("junit").readOnly().findFirst().get()
+				.path("val").asInt()).isEqualTo(1);
+		Assertions.assertThat(driver.metrics().getPoolWaitTimer("junit").get().count()).isEqualTo(1);
+
+		// the only session in the pool is held by the open stream
+		try (Stream<JsonNode> s = driver.cypher("unwind range(1,10000) as i return i").withPool("junit")
+				.withStreaming().stream()) {
+			try {
+				driver.cypher("return 1").withPool("junit").exec();
+				Assertions.fail("should have timed out");
+			} catch (GraphException e) {
+				Assertions.assertThat(e.getMessage()).contains("junit");
+			}
+			// other pools are not affected
+			driver.cypher("return 1").exec();
+		}
+		driver.cypher("return 1").withPool("junit").exec();
+		Assertions.assertThat(registry.counter(CypherMetrics.POOL_ACQUIRE_TIMEOUT_NAME, CypherMetrics.POOL_TAG, "junit")
+				.count()).isEqualTo(1d);
+	}
+
 }
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.neo4j;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.neo4j.driver.internal.InternalNode;
+import org.neo4j.driver.internal.InternalRecord;
+import org.neo4j.driver.internal.types.InternalTypeSystem;
+import org.neo4j.driver.internal.value.NodeValue;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.Values;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
+
+public class RecordConverterTest {
+
+	Value node(long id, String name) {
+		Map<String, Value> props = new HashMap<>();
+		props.put("name", Values.value(name));
+		props.put("count", Values.value(3L));
+		props.put("list", Values.value(ImmutableList.of("a", "b")));
+		return new NodeValue(new InternalNode(id, ImmutableList.of("JUnit"), props));
+	}
+
+	@Test
+	public void testSingleColumnIsFlattened() {
+		Record r = new InternalRecord(ImmutableList.of("a"), new Value[] { node(1, "foo") });
+
+		JsonNode n = new RecordConverter(CypherTemplate.AttributeMode.AUTO, InternalTypeSystem.TYPE_SYSTEM).convert(r);
+
+		Assertions.assertThat(n.path("name").asText()).isEqualTo("foo");
+		Assertions.assertThat(n.path("count").isIntegralNumber()).isTrue();
+		Assertions.assertThat(n.path("count").asLong()).isEqualTo(3L);
+		Assertions.assertThat(n.path("list").get(1).asText()).isEqualTo("b");
+	}
+
+	@Test
+	public void testMultipleColumns() {
+		Record r = new InternalRecord(ImmutableList.of("a", "b", "c"),
+				new Value[] { node(1, "foo"), node(2, "bar"), Values.value("baz") });
+
+		JsonNode n = new RecordConverter(CypherTemplate.AttributeMode.AUTO, InternalTypeSystem.TYPE_SYSTEM).convert(r);
+		Assertions.assertThat(n.path("a").path("name").asText()).isEqualTo("foo");
+		Assertions.assertThat(n.path("b").path("name").asText()).isEqualTo("bar");
+		Assertions.assertThat(n.path("c").asText()).isEqualTo("baz");
+
+		RecordConverter flatten = new RecordConverter(CypherTemplate.AttributeMode.FLATTEN, InternalTypeSystem.TYPE_SYSTEM);
+		for (int i = 0; i < 2; i++) {
+			n = flatten.convert(r);
+			Assertions.assertThat(n.path("a.name").asText()).isEqualTo("foo");
+			Assertions.assertThat(n.path("b.name").asText()).isEqualTo("bar");
+			Assertions.assertThat(n.path("c").asText()).isEqualTo("baz");
+		}
+	}
+
+	@Test
+	public void testScalars() {
+		Record r = new InternalRecord(ImmutableList.of("s", "l", "d", "b", "n"), new Value[] { Values.value("x"),
+				Values.value(10L), Values.value(1.5d), Values.value(true), Values.value((Object) null) });
+
+		JsonNode n = new RecordConverter(CypherTemplate.AttributeMode.AUTO, InternalTypeSystem.TYPE_SYSTEM).convert(r);
+		Assertions.assertThat(n.path("s").asText()).isEqualTo("x");
+		Assertions.assertThat(n.path("l").asLong()).isEqualTo(10L);
+		Assertions.assertThat(n.path("d").asDouble()).isEqualTo(1.5d);
+		Assertions.assertThat(n.path("b").asBoolean()).isTrue();
+		Assertions.assertThat(n.has("n")).isTrue();
+		Assertions.assertThat(n.path("n").isNull()).isTrue();
+	}
+}
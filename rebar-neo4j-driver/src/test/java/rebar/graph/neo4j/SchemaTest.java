@@ -1,5 +1,6 @@
 package rebar.graph.neo4j;
 
+import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 public class SchemaTest extends IntegrationTest {
@@ -22,4 +23,26 @@ public class SchemaTest extends IntegrationTest {
 		getNeo4jDriver().schema().dropUniqueConstraint(label,attr);
 	}
 
+	@Test
+	public void testReconcile() {
+		String label = "JUnitReconcile";
+		getNeo4jDriver().cypher("match (a:JUnitReconcile) detach delete a").exec();
+		getNeo4jDriver().schema().dropUniqueConstraint(label, "id");
+		try {
+			getNeo4jDriver().cypher("DROP INDEX ON :JUnitReconcile(`account`, `region`, `graphUpdateTs`)").exec();
+		} catch (RuntimeException e) {
+			// did not exist
+		}
+
+		SchemaReconciler reconciler = getNeo4jDriver().schema().newReconciler().createUniqueConstraint(label, "id")
+				.createIndex(label, "id").createIndex(label, "account", "region", "graphUpdateTs");
+
+		Assertions.assertThat(reconciler.reconcile(false)).isEqualTo(2);
+		Assertions.assertThat(reconciler.reconcile(true)).isEqualTo(2);
+		Assertions.assertThat(reconciler.reconcile(true)).isEqualTo(0);
+
+		getNeo4jDriver().schema().dropUniqueConstraint(label, "id");
+		getNeo4jDriver().cypher("DROP INDEX ON :JUnitReconcile(`account`, `region`, `graphUpdateTs`)").exec();
+	}
+
 }
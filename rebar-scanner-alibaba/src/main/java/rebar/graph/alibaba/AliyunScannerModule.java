@@ -4,6 +4,7 @@ import org.springframework.stereotype.Component;
 
 import rebar.graph.core.Main;
 import rebar.graph.core.ScannerModule;
+import rebar.graph.neo4j.SchemaReconciler;
 
 @Component
 public class AliyunScannerModule extends ScannerModule {
@@ -19,7 +20,7 @@ public class AliyunScannerModule extends ScannerModule {
 	}
 
 	@Override
-	public void applyConstraints(boolean b) {
+	public void applyConstraints(SchemaReconciler reconciler) {
 		
 		
 	}
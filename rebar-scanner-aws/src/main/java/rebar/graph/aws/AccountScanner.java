@@ -16,11 +16,13 @@
 package rebar.graph.aws;
 
 import java.util.Optional;
+import java.util.Set;
 
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
 import com.amazonaws.services.ec2.model.AccountAttribute;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableSet;
 
 import rebar.graph.core.GraphBuilder;
 import rebar.util.Json;
@@ -71,6 +73,11 @@ public class AccountScanner extends AwsEntityScanner<AccountAttribute,AmazonEC2C
 		
 	}
 
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of();
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsAccount;
@@ -33,6 +33,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.machinezoo.noexception.Exceptions;
@@ -48,7 +49,7 @@ public class AmiScanner extends AwsEntityScanner<Image, AmazonEC2Client> {
 		ObjectNode n = toJson(image);
 		n.set("account", n.get("ownerId"));
 
-		getGraphBuilder().nodes("AwsAmi").idKey("arn").properties(n).merge();
+		getGraphBuilder().nodes("AwsAmi").idKey("arn").properties(n).mergeDeferred();
 
 	}
 
@@ -152,6 +153,11 @@ public class AmiScanner extends AwsEntityScanner<Image, AmazonEC2Client> {
 		scanImageId(id);
 	}
 
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsEc2Instance);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsAmi;
@@ -17,6 +17,7 @@ package rebar.graph.aws;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Stream;
 
 import org.slf4j.LoggerFactory;
@@ -34,6 +35,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 
 import rebar.graph.core.GraphBuilder;
@@ -246,6 +248,11 @@ public class AsgScanner extends AwsEntityScanner<AutoScalingGroup, AmazonEC2Clie
 
 	}
 
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccountRegion, AwsEntityType.AwsSubnet, AwsEntityType.AwsEc2Instance, AwsEntityType.AwsElb, AwsEntityType.AwsLaunchConfig, AwsEntityType.AwsLaunchTemplate);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsAsg;
@@ -16,12 +16,14 @@
 package rebar.graph.aws;
 
 import java.util.Optional;
+import java.util.Set;
 
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
 import com.amazonaws.services.ec2.model.AvailabilityZone;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableSet;
 
 import rebar.graph.core.GraphBuilder;
 import rebar.util.Json;
@@ -83,6 +85,11 @@ public class AvailabilityZoneScanner extends AwsEntityScanner<AvailabilityZone,A
 		
 	}
 
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsRegion);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsAvailabilityZone;
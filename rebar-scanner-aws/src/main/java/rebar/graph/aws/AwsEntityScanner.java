@@ -20,6 +20,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,6 +38,7 @@ import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.machinezoo.noexception.Exceptions;
 
 import rebar.graph.core.EntityScanner;
@@ -47,6 +49,8 @@ import rebar.graph.core.RelationshipBuilder;
 import rebar.graph.core.RelationshipBuilder.Cardinality;
 import rebar.graph.core.RelationshipBuilder.FromNode;
 import rebar.util.Json;
+import rebar.util.trace.Span;
+import rebar.util.trace.Tracer;
 
 public abstract class AwsEntityScanner<OBJECTTYPE,CLIENT> extends EntityScanner<AwsScanner, AwsEntityType, OBJECTTYPE, CLIENT>{
 
@@ -117,14 +121,16 @@ public abstract class AwsEntityScanner<OBJECTTYPE,CLIENT> extends EntityScanner<
 				getAccount());
 
 		AtomicInteger count = new AtomicInteger(0);
-		op.match().forEach(it -> {
-			Exceptions.log(logger).run(() -> {
-				count.incrementAndGet();
-
-				logger.info("running gc on {}", it.path(GraphBuilder.ENTITY_TYPE).asText());
-				doScan(it);
+		try (Stream<JsonNode> candidates = op.withStreaming().match()) {
+			candidates.forEach(it -> {
+				Exceptions.log(logger).run(() -> {
+					count.incrementAndGet();
+
+					logger.info("running gc on {}", it.path(GraphBuilder.ENTITY_TYPE).asText());
+					doScan(it);
+				});
 			});
-		});
+		}
 
 		if (count.get() > 0 || sw.elapsed(TimeUnit.MILLISECONDS) > 500L) {
 			logger.info("gc for {} {} nodes took {}ms", count.get(), type, sw.elapsed(TimeUnit.MILLISECONDS));
@@ -147,15 +153,22 @@ public abstract class AwsEntityScanner<OBJECTTYPE,CLIENT> extends EntityScanner<
 				op = op.id(attrs[i], attrs[i + 1]);
 			}
 		}
-		AtomicInteger count = new AtomicInteger(0);
-		op.match().forEach(it -> {
-			Exceptions.log(logger).run(() -> {
-				count.incrementAndGet();
 
-				logger.info("running gc on {}", it.path(GraphBuilder.ENTITY_TYPE).asText());
-				doScan(it);
+		if (this instanceof BatchGcSupport && type.equals(getEntityTypeName())) {
+			batchGc(op, (BatchGcSupport) this, sw);
+			return;
+		}
+		AtomicInteger count = new AtomicInteger(0);
+		try (Stream<JsonNode> candidates = op.withStreaming().match()) {
+			candidates.forEach(it -> {
+				Exceptions.log(logger).run(() -> {
+					count.incrementAndGet();
+
+					logger.info("running gc on {}", it.path(GraphBuilder.ENTITY_TYPE).asText());
+					doScan(it);
+				});
 			});
-		});
+		}
 
 		if (count.get() > 0 || sw.elapsed(TimeUnit.MILLISECONDS) > 500L) {
 			logger.info("gc for {} {} nodes took {}ms", count.get(), type, sw.elapsed(TimeUnit.MILLISECONDS));
@@ -163,6 +176,38 @@ public abstract class AwsEntityScanner<OBJECTTYPE,CLIENT> extends EntityScanner<
 
 	}
 
+	/**
+	 * Set-based gc for scanners that implement BatchGcSupport. Candidate ids are
+	 * confirmed against AWS in chunks with confirmExisting(), and everything
+	 * that was not confirmed is deleted in chunks. The op's cutoff still applies to the delete, so nodes updated by a
+	 * concurrent scan are left alone.
+	 */
+	private void batchGc(NodeOperation op, BatchGcSupport support, Stopwatch sw) {
+		String idAttribute = support.getGcIdAttribute();
+		List<String> candidates = Lists.newArrayList();
+		try (Stream<JsonNode> nodes = op.withStreaming().match()) {
+			nodes.forEach(it -> {
+				String id = it.path(idAttribute).asText();
+				if (!Strings.isNullOrEmpty(id)) {
+					candidates.add(id);
+				}
+			});
+		}
+		if (candidates.isEmpty()) {
+			return;
+		}
+
+		Set<String> stale = Sets.newHashSet();
+		for (List<String> chunk : Lists.partition(candidates, support.getGcBatchSize())) {
+			Set<String> existing = support.confirmExisting(chunk);
+			chunk.stream().filter(id -> !existing.contains(id)).forEach(stale::add);
+		}
+		long deleted = op.deleteAll(idAttribute, stale);
+
+		logger.info("gc for {} {} candidates deleted {} nodes in {}ms", candidates.size(), op.getLabel(), deleted,
+				sw.elapsed(TimeUnit.MILLISECONDS));
+	}
+
 	protected boolean isEntityOwner(JsonNode entity) {
 		if (entity == null) {
 			return false;
@@ -219,7 +264,9 @@ public abstract class AwsEntityScanner<OBJECTTYPE,CLIENT> extends EntityScanner<
 		Stopwatch sw = Stopwatch.createStarted();
 		String type = getEntityType() != AwsEntityType.UNKNOWN ? getEntityTypeName() : getClass().getSimpleName();
 		logger.info("begin scan: {}", type);
-		doScan();
+		try (Span span = Tracer.startTrace("scanner", type)) {
+			doScan();
+		}
 		logger.info("end scan {} ({} ms)", type, sw.elapsed(TimeUnit.MILLISECONDS));
 	}
 
@@ -237,7 +284,10 @@ public abstract class AwsEntityScanner<OBJECTTYPE,CLIENT> extends EntityScanner<
 	public final void scan(String id) {
 		checkScanArgument(id);
 		
-		doScan(id);
+		try (Span span = Tracer.startTrace("scanner", getClass().getSimpleName())) {
+			span.tag("id", id);
+			doScan(id);
+		}
 	}
 	abstract void doScan(String id);
 
@@ -257,14 +307,16 @@ public abstract class AwsEntityScanner<OBJECTTYPE,CLIENT> extends EntityScanner<
 	protected ObjectNode toJson(OBJECTTYPE awsObject) {
 
 		Preconditions.checkNotNull(awsObject);
-		ObjectNode n = Json.objectMapper().valueToTree(awsObject);
-		n.put(GraphBuilder.ENTITY_TYPE, getEntityTypeName());
-		n.put(GraphBuilder.ENTITY_GROUP, "aws");
-		n.put("region", getRegionName());
-		n.put("account", getAccount());
-
-		toArn((OBJECTTYPE) awsObject).ifPresent(arn -> n.put("arn", arn));
-		return n;
+		try (Span span = Tracer.start("json", getEntityTypeName())) {
+			ObjectNode n = Json.objectMapper().valueToTree(awsObject);
+			n.put(GraphBuilder.ENTITY_TYPE, getEntityTypeName());
+			n.put(GraphBuilder.ENTITY_GROUP, "aws");
+			n.put("region", getRegionName());
+			n.put("account", getAccount());
+
+			toArn((OBJECTTYPE) awsObject).ifPresent(arn -> n.put("arn", arn));
+			return n;
+		}
 	}
 
 	protected boolean isEntityType(JsonNode n) {
@@ -284,6 +336,31 @@ public abstract class AwsEntityScanner<OBJECTTYPE,CLIENT> extends EntityScanner<
 
 
 
+	/**
+	 * Entity types that must be scanned before this scanner runs, typically the
+	 * targets of the relationships it merges. Most entities are linked to their
+	 * owning AwsAccountRegion.
+	 * 
+	 * @return
+	 */
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccountRegion);
+	}
+
+	/**
+	 * Entity types written by this scanner, which scanners that depend on them
+	 * wait for.
+	 * 
+	 * @return
+	 */
+	public Set<AwsEntityType> getProducedTypes() {
+		Object type = getEntityType();
+		if (type instanceof AwsEntityType && type != AwsEntityType.UNKNOWN) {
+			return ImmutableSet.of((AwsEntityType) type);
+		}
+		return ImmutableSet.of();
+	}
+
 	public String getEntityTypeName() {
 		Preconditions.checkState(getEntityType() != null, "AwsEntityType not set on " + getClass().getSimpleName());
 		return getEntityType().name();
@@ -371,7 +448,9 @@ public abstract class AwsEntityScanner<OBJECTTYPE,CLIENT> extends EntityScanner<
 	}
 	
 	protected final void mergeRelationships() {
-		doMergeRelationships();
+		try (Span span = Tracer.start("merge", getClass().getSimpleName())) {
+			doMergeRelationships();
+		}
 	}
 	protected abstract void doMergeRelationships();
 	 
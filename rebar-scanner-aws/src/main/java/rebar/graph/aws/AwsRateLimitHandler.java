@@ -0,0 +1,97 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.aws;
+
+import java.util.Set;
+import java.util.function.Supplier;
+
+import com.amazonaws.Request;
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryUtils;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+
+import rebar.graph.core.RateLimiterRegistry;
+
+/**
+ * Takes a token from the shared RateLimiterRegistry before every attempt of
+ * every AWS call, including the SDK's own retries, and feeds throttling errors
+ * back into it.
+ *
+ * Buckets are per account and region, except for global services whose
+ * limits apply to the whole account. Services are named after the SDK client,
+ * e.g. AmazonEC2 is "ec2" and AmazonIdentityManagement is
+ * "identitymanagement". Actions are the request class without "Request",
+ * e.g. "DescribeInstances".
+ */
+public class AwsRateLimitHandler extends RequestHandler2 {
+
+	static final Set<String> GLOBAL_SERVICES = ImmutableSet.of("identitymanagement", "route53", "cloudfront",
+			"organizations");
+
+	final RateLimiterRegistry registry;
+	final Supplier<String> account;
+	final String region;
+
+	public AwsRateLimitHandler(RateLimiterRegistry registry, Supplier<String> account, String region) {
+		this.registry = registry;
+		this.account = account;
+		this.region = region;
+	}
+
+	static String serviceName(Request<?> request) {
+		String name = Strings.nullToEmpty(request.getServiceName()).toLowerCase();
+		if (name.startsWith("amazon")) {
+			return name.substring("amazon".length());
+		}
+		if (name.startsWith("aws")) {
+			return name.substring("aws".length());
+		}
+		return name;
+	}
+
+	static String actionName(Request<?> request) {
+		if (request.getOriginalRequest() == null) {
+			return "";
+		}
+		String name = request.getOriginalRequest().getClass().getSimpleName();
+		return name.endsWith("Request") ? name.substring(0, name.length() - "Request".length()) : name;
+	}
+
+	RateLimiterRegistry.Limiter getLimiter(Request<?> request) {
+		String service = serviceName(request);
+		String scope = GLOBAL_SERVICES.contains(service) ? account.get() : account.get() + "/" + region;
+		return registry.getLimiter(scope, service, actionName(request));
+	}
+
+	@Override
+	public void beforeAttempt(HandlerBeforeAttemptContext context) {
+		getLimiter(context.getRequest()).acquire();
+	}
+
+	@Override
+	public void afterAttempt(HandlerAfterAttemptContext context) {
+		Exception e = context.getException();
+		if (e == null) {
+			getLimiter(context.getRequest()).onSuccess();
+		} else if (e instanceof SdkBaseException && RetryUtils.isThrottlingException((SdkBaseException) e)) {
+			getLimiter(context.getRequest()).onThrottled();
+		}
+	}
+}
@@ -18,6 +18,7 @@ package rebar.graph.aws;
 import java.lang.reflect.InvocationTargetException;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -28,6 +29,7 @@ import org.slf4j.LoggerFactory;
 import com.amazonaws.AmazonWebServiceClient;
 import com.amazonaws.SdkClientException;
 import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.handlers.RequestHandler2;
 import com.amazonaws.regions.DefaultAwsRegionProviderChain;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
@@ -46,8 +48,12 @@ import com.google.common.collect.Maps;
 
 import io.github.classgraph.ClassGraph;
 import io.github.classgraph.ScanResult;
+import rebar.graph.core.AdaptiveScanSchedule;
 import rebar.graph.core.RebarGraph;
+import rebar.graph.core.ScanQueue;
+import rebar.graph.core.ScanQueue.Priority;
 import rebar.graph.core.Scanner;
+import rebar.graph.core.ShardCoordinator;
 import rebar.graph.neo4j.GraphSchema;
 import rebar.util.RebarException;
 
@@ -64,6 +70,12 @@ public final class AwsScanner extends Scanner {
 			.build();
 
 	CloudWatchEvents eventDispatcher = new CloudWatchEvents(this);
+
+	ShardCoordinator shardCoordinator;
+
+	AdaptiveScanSchedule scanSchedule;
+
+	ScanQueue scanQueue;
 	static Map<String, Class<? extends AwsEntityScanner>> typeMap = Maps.newHashMap();
 
 	static {
@@ -104,6 +116,65 @@ public final class AwsScanner extends Scanner {
 		return accountSupplier.get();
 	}
 
+	public AwsScanner withShardCoordinator(ShardCoordinator shardCoordinator) {
+		this.shardCoordinator = shardCoordinator;
+		return this;
+	}
+
+	/**
+	 * Present when the work of a full scan is split between replicas.
+	 * 
+	 * @return
+	 */
+	public Optional<ShardCoordinator> getShardCoordinator() {
+		return Optional.ofNullable(shardCoordinator);
+	}
+
+	public AwsScanner withScanSchedule(AdaptiveScanSchedule scanSchedule) {
+		this.scanSchedule = scanSchedule;
+		return this;
+	}
+
+	/**
+	 * Present when each entity type is scanned on its own interval.
+	 * 
+	 * @return
+	 */
+	public Optional<AdaptiveScanSchedule> getScanSchedule() {
+		return Optional.ofNullable(scanSchedule);
+	}
+
+	public AwsScanner withScanQueue(ScanQueue scanQueue) {
+		this.scanQueue = scanQueue;
+		return this;
+	}
+
+	/**
+	 * Present when scans are routed through a queue that something is consuming
+	 * for this account and region.
+	 * 
+	 * @return
+	 */
+	public Optional<ScanQueue> getScanQueue() {
+		return Optional.ofNullable(scanQueue);
+	}
+
+	/**
+	 * Scans one entity, or every entity of a type if id is empty, through the
+	 * scan queue if there is one, otherwise immediately.
+	 * 
+	 * @param priority
+	 * @param type
+	 * @param id
+	 */
+	public void requestScan(Priority priority, String type, String id) {
+		if (scanQueue != null) {
+			scanQueue.submit(priority, getScannerType(), getAccount(), getRegionName(), type, id);
+		} else {
+			scan(getScannerType(), getAccount(), getRegionName(), type, id);
+		}
+	}
+
 	public CloudWatchEvents cloudWatchEvents() {
 		return eventDispatcher;
 	}
@@ -130,6 +201,15 @@ public final class AwsScanner extends Scanner {
 			configurers.forEach(configurer -> {
 				configurer.accept(clientBuilder);
 			});
+			List<RequestHandler2> handlers = Lists.newArrayList(clientBuilder.getRequestHandlers());
+			// first, so that the span includes the wait for a permit
+			handlers.add(new AwsTraceHandler());
+			if (x != AWSSecurityTokenServiceClientBuilder.class) {
+				// STS resolves the account that the buckets are scoped to
+				handlers.add(new AwsRateLimitHandler(getRebarGraph().getRateLimiterRegistry(), this::getAccount,
+						getRegionName()));
+			}
+			clientBuilder.setRequestHandlers(handlers.toArray(new RequestHandler2[0]));
 			return (T) clientBuilder;
 		} catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
 			throw new RebarException(e);
@@ -193,7 +273,7 @@ public final class AwsScanner extends Scanner {
 
 	@Override
 	protected void doScan() {
-		getEntityScanner(AllEntityScannerGroup.class).scan();
+		getEntityScanner(DagScanner.class).addScanners(AllEntityScannerGroup.getEntityScanners()).scan();
 	}
 
 	<T extends AwsEntityScanner> T getEntityScannerForType(final String type) {
@@ -19,6 +19,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -30,17 +31,39 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
+import rebar.graph.core.AdaptiveScanSchedule;
+import rebar.graph.core.DigestStore;
+import rebar.graph.core.GraphBuilder;
+import rebar.graph.core.ScanQueue;
+import rebar.graph.core.ScanQueue.Priority;
 import rebar.graph.core.ScannerModule;
-import rebar.graph.neo4j.GraphSchema;
+import rebar.graph.neo4j.SchemaReconciler;
 import rebar.graph.core.Main;
 import rebar.util.Json;
+import rebar.util.RebarException;
 
 @Component
 public class AwsScannerModule extends ScannerModule {
 
 	Logger logger = LoggerFactory.getLogger(AwsScannerModule.class);
 
+	/**
+	 * Entities that are not scoped to a region, and are gc'd by account only.
+	 */
+	static final Set<AwsEntityType> GLOBAL_ENTITY_TYPES = Sets.immutableEnumSet(AwsEntityType.AwsIamUser,
+			AwsEntityType.AwsIamPolicy, AwsEntityType.AwsIamInstanceProfile, AwsEntityType.AwsIamRole);
+
+	static final Set<AwsEntityType> NON_GC_ENTITY_TYPES = Sets.immutableEnumSet(AwsEntityType.UNKNOWN,
+			AwsEntityType.AwsAccount, AwsEntityType.AwsAccountRegion, AwsEntityType.AwsRegion,
+			AwsEntityType.AwsAvailabilityZone, AwsEntityType.AwsAmi);
+
+	/**
+	 * Entity type of a queued request for a full scan of an account and region.
+	 */
+	static final String FULL_SCAN_TYPE = "*";
+
 	public static void main(String[] args) throws Exception {
 		Main.main(args);
 	}
@@ -48,6 +71,7 @@ public class AwsScannerModule extends ScannerModule {
 	public class FullScan implements Runnable {
 
 		AwsScanner scanner;
+		long localFullScanStartTs = 0;
 
 		FullScan(AwsScanner scanner) {
 			this.scanner = scanner;
@@ -83,9 +107,17 @@ public class AwsScannerModule extends ScannerModule {
 					return;
 				}
 
-				long lastFullScanStartTs = target.get().path("fullScanStartTs").asLong(0);
+				// replicas sharing a target each scan their own part of it on the interval
+				long lastFullScanStartTs = scanner.getShardCoordinator().isPresent() ? localFullScanStartTs
+						: target.get().path("fullScanStartTs").asLong(0);
 				long fullScanIntervalMillis = TimeUnit.SECONDS
 						.toMillis(target.get().path("fullScanIntervalSecs").asLong(300L));
+				if (scanner.getScanSchedule().isPresent()) {
+					// run often enough for the most volatile type ... the rest are skipped until due
+					AdaptiveScanSchedule schedule = scanner.getScanSchedule().get();
+					schedule.withDefaultInterval(fullScanIntervalMillis, TimeUnit.MILLISECONDS);
+					fullScanIntervalMillis = Math.min(fullScanIntervalMillis, schedule.getMinIntervalMillis());
+				}
 				boolean fullScanEnabled = target.get().path("fullScanEnabled").asBoolean(true);
 
 				if (!fullScanEnabled) {
@@ -98,15 +130,41 @@ public class AwsScannerModule extends ScannerModule {
 							new Date(lastFullScanStartTs), new Date(lastFullScanStartTs + fullScanIntervalMillis));
 					return;
 				}
+				localFullScanStartTs = System.currentTimeMillis();
 				markFullScanStart();
-				scanner.scan();
-				markFullScanEnd();
+				if (scanner.getScanQueue().isPresent()) {
+					// queued behind any event-driven rescans
+					scanner.getScanQueue().get().submit(Priority.LOW, getScannerType(), scanner.getAccount(),
+							scanner.getRegionName(), FULL_SCAN_TYPE);
+				} else {
+					scanAll();
+				}
 			} catch (Exception e) {
 				logger.warn("unexpected exception", e);
 			}
 
 		}
 
+		void scanAll() {
+			scanner.scan();
+			markFullScanEnd();
+		}
+
+		/**
+		 * Handles a request from the scan queue.
+		 * 
+		 * @param request
+		 */
+		void accept(JsonNode request) {
+			String type = request.path("n2").asText();
+			if (type.equals(FULL_SCAN_TYPE)) {
+				scanAll();
+			} else {
+				scanner.scan(request.path("type").asText(), request.path("n0").asText(), request.path("n1").asText(),
+						type, request.path("n3").asText(null));
+			}
+		}
+
 	}
 
 	protected void scheduleRegion(String region) {
@@ -116,17 +174,63 @@ public class AwsScannerModule extends ScannerModule {
 			cfg.put("region", region);
 		}
 		AwsScanner scanner = getRebarGraph().newScanner(AwsScanner.class, cfg);
+		getShardCoordinator().ifPresent(scanner::withShardCoordinator);
+		newScanSchedule().ifPresent(scanner::withScanSchedule);
+
+		FullScan fullScan = new FullScan(scanner);
+		ScanQueue queue = getRebarGraph().getScanQueue();
+		if (queue != null && queue.supportsPriority()) {
+			// event-driven rescans are submitted HIGH and full scans LOW
+			queue.subscribe(fullScan::accept, getScannerType(), scanner.getAccount(), scanner.getRegionName());
+			scanner.withScanQueue(queue);
+		}
 
-		
 		scanner.cloudWatchEvents().start();
 
 		registerScannerTarget(scanner.getAccount(), scanner.getRegion().getName());
-		getExecutor().scheduleWithFixedDelay(new FullScan(scanner), 0, 10, TimeUnit.SECONDS);
+		getExecutor().scheduleWithFixedDelay(fullScan, 0, 10, TimeUnit.SECONDS);
 
 	}
 
+	/**
+	 * Adaptive intervals rely on digest gating to tell which writes changed
+	 * anything, so they are only used when both are enabled. The max interval
+	 * is capped at half the digest TTL; otherwise a type that settles at the max
+	 * would find every digest expired, and its interval could never come down.
+	 * 
+	 * @return
+	 */
+	protected Optional<AdaptiveScanSchedule> newScanSchedule() {
+		if (!getConfig().get(AdaptiveScanSchedule.ENABLED_ENV).map(Boolean::parseBoolean).orElse(false)) {
+			return Optional.empty();
+		}
+		Optional<DigestStore> digests = getRebarGraph().getGraphBuilder().getDigestStore();
+		if (!digests.isPresent()) {
+			logger.warn("{} requires GRAPH_DIGEST_GATING_ENABLED ... using a fixed interval",
+					AdaptiveScanSchedule.ENABLED_ENV);
+			return Optional.empty();
+		}
+		long min = getConfig().get(AdaptiveScanSchedule.MIN_INTERVAL_ENV).map(Long::parseLong)
+				.orElse(AdaptiveScanSchedule.DEFAULT_MIN_INTERVAL_SECS);
+		long max = getConfig().get(AdaptiveScanSchedule.MAX_INTERVAL_ENV).map(Long::parseLong)
+				.orElse(AdaptiveScanSchedule.DEFAULT_MAX_INTERVAL_SECS);
+		long ttlSecs = TimeUnit.MILLISECONDS.toSeconds(digests.get().getTtlMillis());
+		if (max > ttlSecs / 2) {
+			logger.warn("{}={}s is more than half of GRAPH_DIGEST_STORE_TTL_SECS={}s ... using {}s",
+					AdaptiveScanSchedule.MAX_INTERVAL_ENV, max, ttlSecs, ttlSecs / 2);
+			max = ttlSecs / 2;
+		}
+		if (max < min) {
+			throw new RebarException(AdaptiveScanSchedule.MAX_INTERVAL_ENV + " must be >= "
+					+ AdaptiveScanSchedule.MIN_INTERVAL_ENV + " and less than half the digest TTL");
+		}
+		return Optional.of(new AdaptiveScanSchedule(min, max, TimeUnit.SECONDS));
+	}
+
 	public void doStartModule() {
 
+		warmDigestStore();
+
 		List<String> regions = Splitter.on(CharMatcher.anyOf(",;: ")).omitEmptyStrings().trimResults()
 				.splitToList(getConfig().get("AWS_REGIONS").orElse(""));
 
@@ -142,45 +246,75 @@ public class AwsScannerModule extends ScannerModule {
 
 	}
 
-	public void applyConstraints(boolean apply) {
-		GraphSchema s = getRebarGraph().getGraphBuilder().getNeo4jDriver().schema();
-		s.createUniqueConstraint("AwsRegion", "name",apply);
-		s.createUniqueConstraint("AwsAvailabilityZone", "name",apply);
-		s.createUniqueConstraint("AwsAccount", "account",apply);
-		s.createUniqueConstraint("AwsSecurityGroup", "arn",apply);
-		s.createUniqueConstraint("AwsSubnet", "arn",apply);
-		s.createUniqueConstraint("AwsEc2Instance", "arn",apply);
-		s.createUniqueConstraint("AwsAmi", "arn",apply);
-		s.createUniqueConstraint("AwsLaunchConfig", "arn",apply);
-		s.createUniqueConstraint("AwsLaunchTemplate", "arn",apply);
-		s.createUniqueConstraint("AwsElb", "arn",apply);
-		s.createUniqueConstraint("AwsElbTargetGroup", "arn",apply);
-		s.createUniqueConstraint("AwsElbListener", "arn",apply);
-		s.createUniqueConstraint("AwsAsg", "arn",apply);
-		s.createUniqueConstraint("AwsEksCluster", "arn",apply);
-		s.createUniqueConstraint("AwsLambdaFunction", "arn",apply);
-		s.createUniqueConstraint("AwsVpc", "arn",apply);
-
-		s.createUniqueConstraint("AwsHostedZone", "id",apply);
-		s.createUniqueConstraint("AwsHostedZone", "arn",apply);
-
-		s.createUniqueConstraint("AwsSqsQueue", "url",apply);
-		s.createUniqueConstraint("AwsSqsQueue", "arn",apply);
-		s.createUniqueConstraint("AwsSnsTopic", "arn",apply);
-		s.createUniqueConstraint("AwsSnsSubscription", "arn",apply);
-
-		s.createUniqueConstraint("AwsS3Bucket", "arn",apply);
-		s.createUniqueConstraint("AwsS3Bucket", "name",apply);
-
-		s.createUniqueConstraint("AwsEmrCluster", "arn",apply);
-
-		s.createUniqueConstraint("AwsRouteTable", "arn",apply);
-		s.createUniqueConstraint("AwsInternetGateway", "arn",apply);
-		s.createUniqueConstraint("AwsEgressOnlyInternetGateway", "arn",apply);
-		s.createUniqueConstraint(AwsEntityType.AwsIamInstanceProfile.name(), "arn",apply);
-		s.createUniqueConstraint(AwsEntityType.AwsIamRole.name(), "arn",apply);
-		s.createUniqueConstraint(AwsEntityType.AwsIamPolicy.name(), "arn",apply);
-		s.createUniqueConstraint(AwsEntityType.AwsIamUser.name(), "arn",apply);
-		s.createUniqueConstraint(AwsEntityType.AwsAccountRegion.name(),"arn",apply);
+	/**
+	 * Preloads digests for the high-volume entity types, so that the first
+	 * scan after startup does not rewrite every unchanged node.
+	 */
+	protected void warmDigestStore() {
+		GraphBuilder g = getRebarGraph().getGraphBuilder();
+		if (!g.getDigestStore().isPresent()) {
+			return;
+		}
+		try {
+			g.warmDigestStore(AwsEntityType.AwsEc2Instance.name(), "arn");
+			for (AwsEntityType type : GLOBAL_ENTITY_TYPES) {
+				g.warmDigestStore(type.name(), "account", "arn");
+			}
+		} catch (RuntimeException e) {
+			logger.warn("could not warm digest store", e);
+		}
+	}
+
+	public void applyConstraints(SchemaReconciler s) {
+		s.createUniqueConstraint("AwsRegion", "name");
+		s.createUniqueConstraint("AwsAvailabilityZone", "name");
+		s.createUniqueConstraint("AwsAccount", "account");
+		s.createUniqueConstraint("AwsSecurityGroup", "arn");
+		s.createUniqueConstraint("AwsSubnet", "arn");
+		s.createUniqueConstraint("AwsEc2Instance", "arn");
+		s.createUniqueConstraint("AwsAmi", "arn");
+		s.createUniqueConstraint("AwsLaunchConfig", "arn");
+		s.createUniqueConstraint("AwsLaunchTemplate", "arn");
+		s.createUniqueConstraint("AwsElb", "arn");
+		s.createUniqueConstraint("AwsElbTargetGroup", "arn");
+		s.createUniqueConstraint("AwsElbListener", "arn");
+		s.createUniqueConstraint("AwsAsg", "arn");
+		s.createUniqueConstraint("AwsEksCluster", "arn");
+		s.createUniqueConstraint("AwsLambdaFunction", "arn");
+		s.createUniqueConstraint("AwsVpc", "arn");
+
+		s.createUniqueConstraint("AwsHostedZone", "id");
+		s.createUniqueConstraint("AwsHostedZone", "arn");
+
+		s.createUniqueConstraint("AwsSqsQueue", "url");
+		s.createUniqueConstraint("AwsSqsQueue", "arn");
+		s.createUniqueConstraint("AwsSnsTopic", "arn");
+		s.createUniqueConstraint("AwsSnsSubscription", "arn");
+
+		s.createUniqueConstraint("AwsS3Bucket", "arn");
+		s.createUniqueConstraint("AwsS3Bucket", "name");
+
+		s.createUniqueConstraint("AwsEmrCluster", "arn");
+
+		s.createUniqueConstraint("AwsRouteTable", "arn");
+		s.createUniqueConstraint("AwsInternetGateway", "arn");
+		s.createUniqueConstraint("AwsEgressOnlyInternetGateway", "arn");
+		s.createUniqueConstraint(AwsEntityType.AwsIamInstanceProfile.name(), "arn");
+		s.createUniqueConstraint(AwsEntityType.AwsIamRole.name(), "arn");
+		s.createUniqueConstraint(AwsEntityType.AwsIamPolicy.name(), "arn");
+		s.createUniqueConstraint(AwsEntityType.AwsIamUser.name(), "arn");
+		s.createUniqueConstraint(AwsEntityType.AwsAccountRegion.name(),"arn");
+
+		// composite lookup indexes for gc(), which matches on account/region and
+		// filters on graphUpdateTs
+		for (AwsEntityType type : AwsEntityType.values()) {
+			if (GLOBAL_ENTITY_TYPES.contains(type)) {
+				s.createIndex(type.name(), "account", GraphBuilder.UPDATE_TS);
+			} else if (!NON_GC_ENTITY_TYPES.contains(type)) {
+				s.createIndex(type.name(), "account", "region", GraphBuilder.UPDATE_TS);
+			}
+		}
+		// AMIs are gc'd by region only
+		s.createIndex(AwsEntityType.AwsAmi.name(), "region", GraphBuilder.UPDATE_TS);
 	}
 }
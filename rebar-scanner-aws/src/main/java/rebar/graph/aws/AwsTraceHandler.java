@@ -0,0 +1,63 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.aws;
+
+import com.amazonaws.Request;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+
+import rebar.util.trace.Span;
+import rebar.util.trace.Tracer;
+
+/**
+ * Records each attempt of an AWS call, including retries and time spent
+ * waiting for a rate limit permit, as a span under the current scan.
+ */
+public class AwsTraceHandler extends RequestHandler2 {
+
+	static final HandlerContextKey<Span> SPAN = new HandlerContextKey<>("rebarSpan");
+
+	@Override
+	public void beforeAttempt(HandlerBeforeAttemptContext context) {
+		if (!Tracer.isRecording()) {
+			return;
+		}
+		Request<?> request = context.getRequest();
+		Span span = Tracer.start("aws",
+				AwsRateLimitHandler.serviceName(request) + ":" + AwsRateLimitHandler.actionName(request));
+		if (span.isRecording()) {
+			request.addHandlerContext(SPAN, span);
+		}
+	}
+
+	@Override
+	public void afterAttempt(HandlerAfterAttemptContext context) {
+		Span span = context.getRequest().getHandlerContext(SPAN);
+		if (span == null) {
+			return;
+		}
+		context.getRequest().addHandlerContext(SPAN, null);
+		if (context.getException() != null) {
+			span.tag("error", context.getException().getClass().getSimpleName());
+		}
+		if (context.getResponse() != null && context.getResponse().getHttpResponse() != null) {
+			span.tag("status", context.getResponse().getHttpResponse().getStatusCode());
+		}
+		span.close();
+	}
+}
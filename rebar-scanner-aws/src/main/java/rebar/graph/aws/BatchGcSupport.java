@@ -0,0 +1,53 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.aws;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Implemented by entity scanners that can describe many entities by id in
+ * one call. AwsEntityScanner.gc() then confirms stale candidates in chunks and
+ * deletes the rest with one statement per chunk, instead of rescanning each
+ * candidate on its own.
+ */
+public interface BatchGcSupport {
+
+	/**
+	 * The attribute that holds the id passed to confirmExisting().
+	 * 
+	 * @return
+	 */
+	String getGcIdAttribute();
+
+	/**
+	 * Returns the subset of ids that still exist. Entities that are found
+	 * should be projected, as doScan(JsonNode) would do.
+	 * 
+	 * @param ids
+	 * @return
+	 */
+	Set<String> confirmExisting(List<String> ids);
+
+	/**
+	 * Maximum number of ids passed to confirmExisting().
+	 * 
+	 * @return
+	 */
+	default int getGcBatchSize() {
+		return 200;
+	}
+}
@@ -3,6 +3,7 @@ package rebar.graph.aws;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
@@ -24,6 +25,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import io.reactivex.Observable;
@@ -84,6 +86,7 @@ public class CloudTrailEvents {
 		ListObjectsV2Result result = null;
 
 		List<String> results = Lists.newArrayList();
+		List<Map<String, Object>> pending = Lists.newArrayList();
 		do {
 			result = s3.listObjectsV2(r);
 
@@ -102,7 +105,10 @@ public class CloudTrailEvents {
 							if (loadedKeys.contains(it.getKey())) {
 								logger.debug("already loaded: {}", it.getKey());
 							} else {
-								markPending(bucketName, it.getKey(), lastMod);
+								Map<String, Object> row = Maps.newHashMap();
+								row.put("key", it.getKey());
+								row.put("fileTs", lastMod);
+								pending.add(row);
 								results.add(it.getKey());
 							}
 
@@ -113,6 +119,12 @@ public class CloudTrailEvents {
 
 			}
 
+			// one page at a time, so that a listing that fails part way still records what it found
+			if (!pending.isEmpty()) {
+				markPending(bucketName, pending);
+				pending.clear();
+			}
+
 			r.setContinuationToken(result.getNextContinuationToken());
 
 		} while (!Strings.isNullOrEmpty(r.getContinuationToken()));
@@ -149,6 +161,20 @@ public class CloudTrailEvents {
 
 	}
 
+	/**
+	 * Marks many keys as pending with one statement per chunk.
+	 * 
+	 * @param bucketName
+	 * @param rows
+	 *            maps with key and fileTs
+	 */
+	protected void markPending(String bucketName, List<Map<String, Object>> rows) {
+		scanner.getGraphDriver().cypher(
+				"merge (a:AwsCloudTrailIngest {account:{account},region:{region},bucket:{bucket},key:row.key}) set a.fileTs=row.fileTs, a.status={status}")
+				.param("account", scanner.getAccount()).param("region", scanner.getRegion().getName())
+				.param("bucket", bucketName).param("status", FileState.PENDING.name()).batch(rows);
+	}
+
 	protected void markState(String bucketName, String key, FileState state) {
 
 		Preconditions.checkArgument(!Strings.isNullOrEmpty(key));
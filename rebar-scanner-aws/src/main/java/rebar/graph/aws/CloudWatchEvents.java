@@ -13,6 +13,7 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.Strings;
 
+import rebar.graph.core.ScanQueue.Priority;
 import rebar.util.EnvConfig;
 import rebar.util.Json;
 
@@ -33,7 +34,7 @@ public class CloudWatchEvents implements Consumer<JsonNode> {
 
 	public synchronized void stop() {
 		if (consumer != null) {
-			consumer.running.set(false);
+			consumer.stop();
 		}
 	}
 
@@ -188,13 +189,12 @@ public class CloudWatchEvents implements Consumer<JsonNode> {
 		boolean handled = false;
 		if (instanceId.isPresent()) {
 			logger.info("rescan instance {}", instanceId.get());
-			scanner.getEntityScanner(Ec2InstanceScanner.class).scanInstance(instanceId.get());
+			scanner.requestScan(Priority.HIGH, AwsEntityType.AwsEc2Instance.name(), instanceId.get());
 			handled = true;
 		}
 		if (asgName.isPresent()) {
 			logger.info("rescan asg: {}", asgName.get());
-			;
-			scanner.getEntityScanner(AsgScanner.class).scanByName(asgName.get());
+			scanner.requestScan(Priority.HIGH, AwsEntityType.AwsAsg.name(), asgName.get());
 			handled = true;
 		}
 		if (handleCloudTrailS3Put(n)) {
@@ -0,0 +1,330 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.aws;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import rebar.graph.core.AdaptiveScanSchedule;
+import rebar.graph.core.DigestStore;
+import rebar.graph.core.ShardCoordinator;
+import rebar.util.RebarException;
+import rebar.util.trace.Tracer;
+
+/**
+ * Runs entity scanners concurrently, in an order derived from the entity
+ * types each one depends on (getDependencies()) and produces
+ * (getProducedTypes()). A scanner starts once every scanner that produces one
+ * of its dependencies has finished, successfully or not.
+ *
+ * The number of scanners running at once is bounded by a single budget shared
+ * by every account and region in the process (AWS_SCAN_PARALLELISM). When the
+ * run completes, the critical path, i.e. the chain of scanners that determined
+ * the total time, is logged.
+ *
+ * SerialScanner groups are flattened into their member scanners.
+ *
+ * When the scanner has a ShardCoordinator, each entity type is only scanned by
+ * the replica that holds its lease. When it has an AdaptiveScanSchedule, each
+ * entity type is only scanned when it is due, and the number of its nodes that
+ * changed is fed back into the schedule. Skipped types do not hold up the
+ * types that depend on them.
+ *
+ * Entity scanners run under the span of the DagScanner that started them.
+ */
+public class DagScanner extends AwsEntityScanner {
+
+	public static final String PARALLELISM_ENV = "AWS_SCAN_PARALLELISM";
+	static final int DEFAULT_PARALLELISM = 8;
+
+	private static Semaphore globalPermits;
+
+	private static ExecutorService executor = Executors
+			.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("dag-scan-%d").build());
+
+	List<Class<? extends AwsEntityScanner>> scanners = Lists.newArrayList();
+
+	List<ScanTask> lastRun = ImmutableList.of();
+
+	static class ScanTask {
+		final AwsEntityScanner scanner;
+		final List<ScanTask> upstream = new ArrayList<>();
+		volatile long readyNanos;
+		volatile long startNanos;
+		volatile long endNanos;
+		volatile RuntimeException failure;
+
+		ScanTask(AwsEntityScanner scanner) {
+			this.scanner = scanner;
+		}
+
+		String getName() {
+			return scanner.getClass().getSimpleName();
+		}
+
+		/**
+		 * The unit of work that replicas split between them.
+		 */
+		String getWorkType() {
+			Object type = scanner.getEntityType();
+			return type != null && type != AwsEntityType.UNKNOWN ? type.toString() : getName();
+		}
+
+		long getWaitMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(startNanos - readyNanos);
+		}
+
+		long getDurationMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos);
+		}
+
+		@Override
+		public String toString() {
+			return getName();
+		}
+	}
+
+	public DagScanner addScanners(List<Class<? extends AwsEntityScanner>> scanners) {
+		this.scanners.addAll(scanners);
+		return this;
+	}
+
+	public DagScanner addScanners(Class<? extends AwsEntityScanner>... scanners) {
+		if (scanners != null) {
+			this.scanners.addAll(ImmutableList.copyOf(scanners));
+		}
+		return this;
+	}
+
+	static List<Class<? extends AwsEntityScanner>> flatten(List<Class<? extends AwsEntityScanner>> classes) {
+		List<Class<? extends AwsEntityScanner>> result = Lists.newArrayList();
+		for (Class<? extends AwsEntityScanner> it : classes) {
+			if (SerialScanner.class.isAssignableFrom(it)) {
+				try {
+					result.addAll(flatten(((SerialScanner) it.newInstance()).getScannerClasses()));
+				} catch (IllegalAccessException | InstantiationException e) {
+					throw new RebarException(e);
+				}
+			} else if (!result.contains(it)) {
+				result.add(it);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Builds the dependency graph and returns the tasks in topological order.
+	 *
+	 * @param scanners
+	 * @return
+	 */
+	static List<ScanTask> plan(List<? extends AwsEntityScanner> scanners) {
+		List<ScanTask> tasks = scanners.stream().map(ScanTask::new).collect(Collectors.toList());
+		for (ScanTask task : tasks) {
+			Set<AwsEntityType> dependencies = task.scanner.getDependencies();
+			for (ScanTask other : tasks) {
+				if (other != task && other.scanner.getProducedTypes().stream().anyMatch(dependencies::contains)) {
+					task.upstream.add(other);
+				}
+			}
+		}
+
+		// Kahn's algorithm, keeping the declared order among ready tasks
+		Map<ScanTask, Integer> remaining = new LinkedHashMap<>();
+		tasks.forEach(it -> remaining.put(it, it.upstream.size()));
+		List<ScanTask> ordered = new ArrayList<>();
+		Deque<ScanTask> ready = new ArrayDeque<>();
+		tasks.stream().filter(it -> it.upstream.isEmpty()).forEach(ready::add);
+		while (!ready.isEmpty()) {
+			ScanTask task = ready.removeFirst();
+			ordered.add(task);
+			for (ScanTask other : tasks) {
+				if (other.upstream.contains(task) && remaining.merge(other, -1, Integer::sum) == 0) {
+					ready.add(other);
+				}
+			}
+		}
+		if (ordered.size() != tasks.size()) {
+			List<ScanTask> cycle = tasks.stream().filter(it -> !ordered.contains(it)).collect(Collectors.toList());
+			throw new RebarException("dependency cycle between scanners: " + cycle);
+		}
+		return ordered;
+	}
+
+	/**
+	 * The chain of tasks, each the last of its task's dependencies to finish,
+	 * that ends with the last task to finish.
+	 *
+	 * @param tasks
+	 * @return
+	 */
+	static List<ScanTask> criticalPath(List<ScanTask> tasks) {
+		Comparator<ScanTask> byEnd = Comparator.comparingLong(it -> it.endNanos);
+		Deque<ScanTask> path = new ArrayDeque<>();
+		Optional<ScanTask> task = tasks.stream().max(byEnd);
+		while (task.isPresent()) {
+			path.addFirst(task.get());
+			task = task.get().upstream.stream().max(byEnd);
+		}
+		return ImmutableList.copyOf(path);
+	}
+
+	static synchronized Semaphore getGlobalPermits(int parallelism) {
+		if (globalPermits == null) {
+			globalPermits = new Semaphore(parallelism, true);
+		}
+		return globalPermits;
+	}
+
+	int getParallelism() {
+		return getScanner().getEnvConfig().get(PARALLELISM_ENV).map(Integer::parseInt).orElse(DEFAULT_PARALLELISM);
+	}
+
+	@Override
+	protected final void doScan() {
+		List<AwsEntityScanner> instances = flatten(scanners).stream()
+				.map(it -> (AwsEntityScanner) getAwsScanner().getEntityScanner(it)).collect(Collectors.toList());
+		List<ScanTask> tasks = plan(instances);
+		Semaphore permits = getGlobalPermits(getParallelism());
+
+		long t0 = System.nanoTime();
+		Map<ScanTask, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+		for (ScanTask task : tasks) {
+			CompletableFuture<?>[] upstream = task.upstream.stream().map(futures::get)
+					.toArray(CompletableFuture[]::new);
+			futures.put(task, CompletableFuture.allOf(upstream).thenRunAsync(Tracer.propagate(() -> run(task, permits)), executor));
+		}
+		CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).join();
+		lastRun = ImmutableList.copyOf(tasks);
+
+		List<ScanTask> path = criticalPath(tasks);
+		logger.info("scanned {} types in {}ms - critical path: {}", tasks.size(),
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0),
+				path.stream().map(it -> it.getName() + " " + it.getDurationMillis() + "ms (waited "
+						+ it.getWaitMillis() + "ms)").collect(Collectors.joining(" -> ")));
+
+		tasks.stream().filter(it -> it.failure != null).findFirst().ifPresent(it -> maybeThrow(it.failure));
+	}
+
+	private void run(ScanTask task, Semaphore permits) {
+		task.readyNanos = System.nanoTime();
+		String workType = task.getWorkType();
+		Optional<AdaptiveScanSchedule> schedule = getAwsScanner().getScanSchedule();
+		if (schedule.isPresent() && !schedule.get().isDue(workType, System.currentTimeMillis())) {
+			logger.debug("{} is not due", workType);
+			skip(task);
+			return;
+		}
+		Optional<ShardCoordinator> shards = getAwsScanner().getShardCoordinator();
+		try {
+			if (shards.isPresent() && !shards.get().tryAcquire(getAccount(), getRegion().getName(), workType)) {
+				logger.debug("{} is scanned by another replica", workType);
+				skip(task);
+				return;
+			}
+		} catch (RuntimeException e) {
+			// better to scan twice than not at all
+			logger.warn("could not acquire lease for {}", workType, e);
+			shards = Optional.empty();
+		}
+		permits.acquireUninterruptibly();
+		task.startNanos = System.nanoTime();
+		long startMillis = System.currentTimeMillis();
+		// counts only this scan's own merges, not those of other accounts or regions
+		Optional<DigestStore.Tally> tally = getGraphBuilder().getDigestStore().map(DigestStore::startTally);
+		try {
+			task.scanner.scan();
+		} catch (RuntimeException e) {
+			logger.warn("scan failed: {}", task.getName(), e);
+			task.failure = e;
+		} finally {
+			tally.ifPresent(DigestStore.Tally::close);
+			task.endNanos = System.nanoTime();
+			permits.release();
+			shards.ifPresent(it -> release(it, workType));
+		}
+		// a partial scan says nothing about how often the type changes
+		if (schedule.isPresent() && tally.isPresent() && task.failure == null) {
+			schedule.get().recordScan(workType, startMillis, tally.get().getChangedCount(),
+					tally.get().getUnchangedCount());
+		}
+	}
+
+	private void skip(ScanTask task) {
+		task.startNanos = task.readyNanos;
+		task.endNanos = task.readyNanos;
+	}
+
+	private void release(ShardCoordinator shards, String workType) {
+		try {
+			shards.release(getAccount(), getRegion().getName(), workType);
+		} catch (RuntimeException e) {
+			logger.warn("could not release lease for {}", workType, e);
+		}
+	}
+
+	List<ScanTask> getLastRun() {
+		return lastRun;
+	}
+
+	@Override
+	public void doScan(JsonNode entity) {
+		// do nothing
+	}
+
+	@Override
+	public void doScan(String id) {
+		// do nothing
+	}
+
+	@Override
+	protected void doMergeRelationships() {
+		// do nothing
+	}
+
+	@Override
+	protected Object getClient() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	protected void project(Object t) {
+		// do nothing
+	}
+
+	@Override
+	public Object getEntityType() {
+		return AwsEntityType.UNKNOWN;
+	}
+}
@@ -15,7 +15,9 @@
  */
 package rebar.graph.aws;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Stream;
 
 import com.amazonaws.services.ec2.AmazonEC2;
@@ -24,6 +26,7 @@ import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
 import com.amazonaws.services.ec2.model.AmazonEC2Exception;
 import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
 import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
 import com.amazonaws.services.ec2.model.Instance;
 import com.amazonaws.services.ec2.model.Reservation;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -31,6 +34,7 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 
 import rebar.graph.core.GraphBuilder;
 import rebar.graph.core.GraphOperation;
@@ -39,7 +43,7 @@ import rebar.graph.neo4j.GraphDriver;
 import rebar.util.Json;
 import rebar.util.RebarException;
 
-public class Ec2InstanceScanner extends AwsEntityScanner<Instance, AmazonEC2Client> {
+public class Ec2InstanceScanner extends AwsEntityScanner<Instance, AmazonEC2Client> implements BatchGcSupport {
 
 
 
@@ -111,18 +115,21 @@ public class Ec2InstanceScanner extends AwsEntityScanner<Instance, AmazonEC2Clie
 
 		ObjectNode n = toJson(instance, r);
 
-		getGraphBuilder().nodes("AwsEc2Instance").idKey("arn").withTagPrefixes(TAG_PREFIXES).properties(n).merge();
-
-		String subnetId = instance.getSubnetId();
-		if (!Strings.isNullOrEmpty(subnetId)) {
-			mergeSubnetRelationships();//"arn",n.get("arn").asText());
-			getGraphBuilder().nodes("AwsEc2Instance").id("arn", n.get("arn").asText()).relationship("RESIDES_IN")
-					.to("AwsSubnet")
-					.id("subnetId", instance.getSubnetId())
-					.id("region", getRegionName()).id( "account", getAccount()).merge();
-		}
-		
-		getAwsScanner().execGraphOperation(InstanceGraphOperation.class, n);
+		// node, relationships and security group edges are committed together
+		getGraphBuilder().inTransaction(g -> {
+			g.nodes("AwsEc2Instance").idKey("arn").withTagPrefixes(TAG_PREFIXES).properties(n).merge();
+
+			String subnetId = instance.getSubnetId();
+			if (!Strings.isNullOrEmpty(subnetId)) {
+				mergeSubnetRelationships();//"arn",n.get("arn").asText());
+				g.nodes("AwsEc2Instance").id("arn", n.get("arn").asText()).relationship("RESIDES_IN")
+						.to("AwsSubnet")
+						.id("subnetId", instance.getSubnetId())
+						.id("region", getRegionName()).id( "account", getAccount()).merge();
+			}
+			
+			getAwsScanner().execGraphOperation(InstanceGraphOperation.class, n);
+		});
 	
 	}
 
@@ -157,6 +164,34 @@ public class Ec2InstanceScanner extends AwsEntityScanner<Instance, AmazonEC2Clie
 		}
 	}
 
+	@Override
+	public String getGcIdAttribute() {
+		return "instanceId";
+	}
+
+	/**
+	 * An instance-id filter silently skips unknown ids, where
+	 * withInstanceIds() would fail the whole call.
+	 */
+	@Override
+	public Set<String> confirmExisting(List<String> instanceIds) {
+		AmazonEC2 ec2 = getClient(AmazonEC2ClientBuilder.class);
+		DescribeInstancesRequest request = new DescribeInstancesRequest()
+				.withFilters(new Filter("instance-id", instanceIds));
+		Set<String> existing = Sets.newHashSet();
+		do {
+			DescribeInstancesResult result = ec2.describeInstances(request);
+			result.getReservations().forEach(r -> {
+				r.getInstances().forEach(it -> {
+					existing.add(it.getInstanceId());
+					tryExecute(() -> project(r, it));
+				});
+			});
+			request.setNextToken(result.getNextToken());
+		} while (!Strings.isNullOrEmpty(request.getNextToken()));
+		return existing;
+	}
+
 	@Override
 	public void doScan() {
 
@@ -202,6 +237,11 @@ public class Ec2InstanceScanner extends AwsEntityScanner<Instance, AmazonEC2Clie
 		
 	}
 
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccountRegion, AwsEntityType.AwsSubnet, AwsEntityType.AwsSecurityGroup);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsEc2Instance;
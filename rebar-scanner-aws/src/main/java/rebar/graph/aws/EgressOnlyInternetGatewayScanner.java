@@ -1,6 +1,7 @@
 package rebar.graph.aws;
 
 import java.util.Optional;
+import java.util.Set;
 
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.AmazonEC2Exception;
@@ -11,6 +12,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 
 import rebar.graph.core.RelationshipBuilder.Cardinality;
 import rebar.util.Json;
@@ -114,6 +116,11 @@ public class EgressOnlyInternetGatewayScanner extends AbstractNetworkScanner<Egr
 	}
 
 
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccountRegion, AwsEntityType.AwsVpc);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsEgressOnlyInternetGateway;
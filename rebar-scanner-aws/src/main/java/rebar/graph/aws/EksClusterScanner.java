@@ -1,5 +1,7 @@
 package rebar.graph.aws;
 
+import java.util.Set;
+
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
@@ -17,6 +19,7 @@ import com.amazonaws.services.eks.model.ResourceNotFoundException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 
 import rebar.util.Json;
 
@@ -100,6 +103,11 @@ public class EksClusterScanner extends AwsEntityScanner<Cluster, AmazonEKSClient
 		return getClient(AmazonEKSClientBuilder.class);
 	}
 
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccountRegion, AwsEntityType.AwsSubnet, AwsEntityType.AwsSecurityGroup);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsEksCluster;
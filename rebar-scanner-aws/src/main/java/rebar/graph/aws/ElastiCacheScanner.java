@@ -51,13 +51,13 @@ public class ElastiCacheScanner extends AwsEntityScanner<CacheCluster,AmazonElas
 		n.path("cacheNodes").forEach(it -> {
 
 			String uid = n.path("arn").asText() + "/" + it.path("cacheNodeId").asText();
-			awsGraphNodes(AwsEntityType.AwsCacheClusterNode.name()).id("uid", uid).properties(it).merge();
+			awsGraphNodes(AwsEntityType.AwsCacheClusterNode.name()).id("uid", uid).properties(it).mergeDeferred();
 		});
 
 		n.remove("cacheNodes");
-		awsGraphNodes(AwsEntityType.AwsCacheCluster.name()).idKey("arn").properties(n).merge();
+		awsGraphNodes(AwsEntityType.AwsCacheCluster.name()).idKey("arn").properties(n).mergeDeferred();
 		awsGraphNodes(AwsEntityType.AwsCacheCluster.name()).relationship("HAS").on("arn", "cacheClusterArn")
-				.to(AwsEntityType.AwsCacheClusterNode.name()).merge();
+				.to(AwsEntityType.AwsCacheClusterNode.name()).mergeDeferred();
 
 	}
 
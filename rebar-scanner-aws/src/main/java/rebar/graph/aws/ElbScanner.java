@@ -229,6 +229,11 @@ public class ElbScanner extends AwsEntityScanner<LoadBalancer,AmazonElasticLoadB
 		scanLoadBalancerByName(id);
 		
 	}
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccountRegion, AwsEntityType.AwsSubnet);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsElb;
@@ -15,6 +15,7 @@
  */
 package rebar.graph.aws;
 
+import java.util.Set;
 import java.util.stream.Stream;
 
 import com.amazonaws.services.ec2.AmazonEC2Client;
@@ -26,6 +27,7 @@ import com.amazonaws.services.elasticloadbalancingv2.model.TargetGroup;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 
 import rebar.graph.core.GraphOperation;
 import rebar.graph.core.Scanner;
@@ -148,6 +150,11 @@ public class ElbTargetGroupScanner extends AwsEntityScanner<TargetGroup, AmazonE
 		scanTargetGroupByName(id);	
 	}
 	
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccountRegion, AwsEntityType.AwsVpc, AwsEntityType.AwsElb, AwsEntityType.AwsAsg);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsElbTargetGroup;
@@ -1,5 +1,6 @@
 package rebar.graph.aws;
 
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -22,6 +23,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 import com.machinezoo.noexception.Exceptions;
 
 import rebar.graph.core.GraphBuilder;
@@ -39,7 +41,7 @@ public class IamInstanceProfileScanner extends AwsEntityScanner<InstanceProfile,
 	protected void project(InstanceProfile profile) {
 		JsonNode n = toJson(profile);
 
-		awsGraphNodesWithoutRegion().idKey("arn").properties(n).merge();
+		awsGraphNodesWithoutRegion().idKey("arn").properties(n).mergeDeferred();
 
 	}
 
@@ -126,6 +128,11 @@ public class IamInstanceProfileScanner extends AwsEntityScanner<InstanceProfile,
 				.id("instanceProfileName", name).delete();
 	}
 
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccountRegion, AwsEntityType.AwsIamRole);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsIamInstanceProfile;
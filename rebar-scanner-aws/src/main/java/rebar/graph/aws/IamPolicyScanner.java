@@ -38,7 +38,7 @@ public class IamPolicyScanner extends AwsEntityScanner<Policy,AmazonIdentityMana
 	protected void project(Policy policy) {
 		JsonNode n = toJson(policy);
 
-		awsGraphNodesWithoutRegion().idKey("arn").properties(n).merge();
+		awsGraphNodesWithoutRegion().idKey("arn").properties(n).mergeDeferred();
 
 	}
 	@Override
@@ -47,7 +47,7 @@ public class IamRoleScanner extends AwsEntityScanner<Role,AmazonIdentityManageme
 		ObjectNode n = toJson(role);
 
 		
-		awsGraphNodesWithoutRegion().idKey("arn").properties(n).merge();
+		awsGraphNodesWithoutRegion().idKey("arn").properties(n).mergeDeferred();
 
 	}
 
@@ -32,7 +32,7 @@ public class IamUserScanner extends AwsEntityScanner<User,AmazonIdentityManageme
 	protected void project(User user) {
 		JsonNode n = toJson(user);
 
-		awsGraphNodesWithoutRegion().idKey("arn").properties(n).merge();
+		awsGraphNodesWithoutRegion().idKey("arn").properties(n).mergeDeferred();
 
 	}
 
@@ -1,6 +1,7 @@
 package rebar.graph.aws;
 
 import java.util.Optional;
+import java.util.Set;
 
 import com.amazonaws.services.ec2.model.AmazonEC2Exception;
 import com.amazonaws.services.ec2.model.DescribeInternetGatewaysRequest;
@@ -9,6 +10,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 
 import rebar.graph.core.RelationshipBuilder.Cardinality;
 import rebar.util.Json;
@@ -103,6 +105,11 @@ public class InternetGatewayScanner extends AbstractNetworkScanner<InternetGatew
 		return n;
 	}
 
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccountRegion, AwsEntityType.AwsVpc);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsInternetGateway;
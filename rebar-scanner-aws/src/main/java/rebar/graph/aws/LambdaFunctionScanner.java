@@ -16,6 +16,7 @@
 package rebar.graph.aws;
 
 import java.util.Optional;
+import java.util.Set;
 
 import com.amazonaws.services.apigateway.AmazonApiGateway;
 import com.amazonaws.services.lambda.AWSLambda;
@@ -32,6 +33,7 @@ import com.amazonaws.services.s3.model.GetBucketNotificationConfigurationRequest
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 
 import rebar.util.Json;
 
@@ -161,6 +163,11 @@ public class LambdaFunctionScanner extends AwsEntityScanner<FunctionConfiguratio
 		return getClient(AWSLambdaClientBuilder.class);
 	}
 
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccountRegion, AwsEntityType.AwsRegion, AwsEntityType.AwsVpc);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsLambdaFunction;
@@ -1,6 +1,7 @@
 package rebar.graph.aws;
 
 import java.util.Optional;
+import java.util.Set;
 
 import com.amazonaws.services.rds.AmazonRDSClient;
 import com.amazonaws.services.rds.AmazonRDSClientBuilder;
@@ -15,6 +16,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 import com.machinezoo.noexception.Exceptions;
 
 import rebar.util.Json;
@@ -108,6 +110,11 @@ public class RdsInstanceScanner extends AwsEntityScanner<DBInstance,AmazonRDSCli
 		awsGraphNodes(AwsEntityType.AwsRdsCluster.name()).relationship("HAS").on("dbClusterIdentifier", "dbClusterIdentifier").to(AwsEntityType.AwsRdsInstance.name()).merge();
 		
 	}
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccountRegion, AwsEntityType.AwsRdsCluster);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsRdsInstance;
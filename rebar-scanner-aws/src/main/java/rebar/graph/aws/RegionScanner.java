@@ -27,6 +27,7 @@ import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
 import com.amazonaws.services.ec2.model.Region;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
@@ -66,6 +67,16 @@ public class RegionScanner extends AwsEntityScanner<Region, AmazonEC2Client> {
 
 	}
 
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccount);
+	}
+
+	@Override
+	public Set<AwsEntityType> getProducedTypes() {
+		return ImmutableSet.of(AwsEntityType.AwsRegion, AwsEntityType.AwsAccountRegion);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsRegion;
@@ -108,6 +119,7 @@ public class RegionScanner extends AwsEntityScanner<Region, AmazonEC2Client> {
 			
 			logger.info("missing AwsAccountRegion for account={}: {}",account,missingRegions);
 			
+			List<ObjectNode> rows = Lists.newArrayList();
 			for (String region: missingRegions) {
 				String arn = "arn:aws::"+account+":"+region;
 				ObjectNode n = Json.objectNode();
@@ -116,8 +128,10 @@ public class RegionScanner extends AwsEntityScanner<Region, AmazonEC2Client> {
 				n.put("account",account);
 				n.put("graphEntityType", AwsEntityType.AwsAccountRegion.name());
 				n.put("graphEntityGroup","aws");
-				
-				getGraphBuilder().nodes(AwsEntityType.AwsAccountRegion.name()).idKey("arn").properties(n).merge();
+				rows.add(n);
+			}
+			if (!rows.isEmpty()) {
+				getGraphBuilder().nodes(AwsEntityType.AwsAccountRegion.name()).idKey("arn").mergeAll(rows);
 			}
 			
 			getGraphBuilder().nodes(AwsEntityType.AwsAccountRegion.name()).relationship("RESIDES_IN").on("region", "region").to(AwsEntityType.AwsRegion.name()).merge();
@@ -1,6 +1,7 @@
 package rebar.graph.aws;
 
 import java.util.Optional;
+import java.util.Set;
 
 import com.amazonaws.services.route53.AmazonRoute53;
 import com.amazonaws.services.route53.AmazonRoute53Client;
@@ -18,6 +19,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 
 import rebar.util.Json;
 
@@ -126,6 +128,11 @@ public class Route53Scanner extends AwsEntityScanner<HostedZone,AmazonRoute53Cli
 
 	}
 
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccount);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		// TODO Auto-generated method stub
@@ -17,6 +17,7 @@ package rebar.graph.aws;
 
 import java.nio.channels.ScatteringByteChannel;
 import java.util.Optional;
+import java.util.Set;
 
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2Client;
@@ -158,6 +159,11 @@ public class SecurityGroupScanner extends AwsEntityScanner<SecurityGroup, Amazon
 		return getClient(AmazonEC2ClientBuilder.class);
 	}
 
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccountRegion, AwsEntityType.AwsVpc);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsSecurityGroup;
@@ -3,6 +3,7 @@ package rebar.graph.aws;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import com.amazonaws.services.apigateway.model.NotFoundException;
@@ -19,6 +20,7 @@ import com.amazonaws.services.sns.model.Topic;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 
 import rebar.util.Json;
@@ -134,6 +136,11 @@ public class SnsScanner extends AwsEntityScanner<Topic,AmazonSNSClient> {
 		}
 	}
 
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccountRegion, AwsEntityType.AwsLambdaFunction, AwsEntityType.AwsSqsQueue);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 
@@ -1,20 +1,30 @@
 package rebar.graph.aws;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.amazonaws.auth.policy.resources.SQSQueueResource;
-import com.amazonaws.services.sqs.AmazonSQSAsyncClient;
-import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
 import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
 import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
 import com.amazonaws.services.sqs.model.Message;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
 import com.amazonaws.services.sqs.model.ReceiveMessageResult;
@@ -22,23 +32,84 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import rebar.util.Json;
 import rebar.util.Sleep;
 
+/**
+ * Consumes an SQS queue with several long-poll receivers feeding a bounded
+ * pool of handler threads.
+ *
+ * When every handler thread is busy and the work queue is full, the receiver
+ * runs the handler itself, so receiving slows down to the speed of processing
+ * instead of buffering without limit. Each received batch is acknowledged
+ * with a single DeleteMessageBatch call once all its messages are handled.
+ * Messages whose handlers are still running after half the visibility timeout
+ * have their visibility extended, so that slow handlers do not cause
+ * redelivery.
+ *
+ * Metrics (tagged with the queue name): sqsMessageLag is the time from send
+ * to handling, sqsMessageProcessing the handler time, sqsMessagesInFlight the
+ * number of received but unacknowledged messages, and sqsMessageFailures the
+ * number of handler failures.
+ */
 public class SqsConsumer {
 
 	static Logger logger = LoggerFactory.getLogger(SqsConsumer.class);
+
+	static final String SENT_TIMESTAMP = "SentTimestamp";
+	static final int MAX_BATCH_SIZE = 10;
+	static final int DEFAULT_RECEIVER_COUNT = 2;
+	static final int DEFAULT_HANDLER_THREADS = 8;
+	static final int DEFAULT_VISIBILITY_TIMEOUT_SECS = 30;
+
 	AwsScanner scanner;
 	String name;
 	String queueUrl;
-	AmazonSQSClient client;
+	AmazonSQS client;
 	AtomicLong failureCount = new AtomicLong();
 
 	List<Consumer<JsonNode>> consumer = Lists.newCopyOnWriteArrayList();
 
 	AtomicBoolean running = new AtomicBoolean();
+
+	int receiverCount = DEFAULT_RECEIVER_COUNT;
+	int handlerThreads = DEFAULT_HANDLER_THREADS;
+	int visibilityTimeoutSecs = DEFAULT_VISIBILITY_TIMEOUT_SECS;
+	int waitTimeSecs = 10;
+
+	MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+	ExecutorService handlerExecutor;
+	ScheduledExecutorService visibilityExecutor;
+	List<Thread> receivers = Lists.newArrayList();
+
+	static class InFlight {
+		final String receiptHandle;
+		volatile long visibleUntilMillis;
+
+		InFlight(String receiptHandle, long visibleUntilMillis) {
+			this.receiptHandle = receiptHandle;
+			this.visibleUntilMillis = visibleUntilMillis;
+		}
+	}
+
+	Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+	AtomicLong processedCount = new AtomicLong();
+	AtomicLong deletedCount = new AtomicLong();
+
+	Timer lagTimer;
+	Timer processingTimer;
+	Counter failureCounter;
+
 	SqsConsumer() {
 
 	}
@@ -60,7 +131,47 @@ public class SqsConsumer {
 		return this;
 	}
 
-	AmazonSQSClient getClient() {
+	/**
+	 * Uses the given client instead of one obtained from the AwsScanner.
+	 *
+	 * @param client
+	 * @return
+	 */
+	public SqsConsumer withClient(AmazonSQS client) {
+		this.client = client;
+		return this;
+	}
+
+	public SqsConsumer withReceiverCount(int count) {
+		Preconditions.checkArgument(count > 0, "receiver count must be >0");
+		this.receiverCount = count;
+		return this;
+	}
+
+	public SqsConsumer withHandlerThreads(int count) {
+		Preconditions.checkArgument(count > 0, "handler threads must be >0");
+		this.handlerThreads = count;
+		return this;
+	}
+
+	public SqsConsumer withVisibilityTimeout(int secs) {
+		Preconditions.checkArgument(secs > 1, "visibility timeout must be >1");
+		this.visibilityTimeoutSecs = secs;
+		return this;
+	}
+
+	public SqsConsumer withWaitTime(int secs) {
+		Preconditions.checkArgument(secs >= 0 && secs <= 20, "wait time must be between 0 and 20");
+		this.waitTimeSecs = secs;
+		return this;
+	}
+
+	public SqsConsumer withMeterRegistry(MeterRegistry registry) {
+		this.meterRegistry = registry;
+		return this;
+	}
+
+	synchronized AmazonSQS getClient() {
 		if (client == null) {
 			client = scanner.getClient(AmazonSQSClientBuilder.class);
 		}
@@ -68,8 +179,7 @@ public class SqsConsumer {
 	}
 
 	private String getQueueUrl(String name) {
-		AmazonSQSClient c = getClient();
-		String url = c.getQueueUrl(name).getQueueUrl();
+		String url = getClient().getQueueUrl(name).getQueueUrl();
 		logger.info("Resolved queue name={} to {}", name, url);
 		return url;
 	}
@@ -86,7 +196,12 @@ public class SqsConsumer {
 		}
 	}
 
-	void handleMessage(Message m) {
+	/**
+	 *
+	 * @param m
+	 * @return false if the message could not be handled
+	 */
+	boolean handleMessage(Message m) {
 		try {
 
 			JsonNode n = Json.objectMapper().readTree(m.getBody());
@@ -95,17 +210,50 @@ public class SqsConsumer {
 			consumer.forEach(it -> {
 				it.accept(payload);
 			});
+			return true;
 		} catch (Exception e) {
 			logger.warn("", e);
+			return false;
 		}
 	}
 
-	public void start() {
-	
+	public synchronized void start() {
+		Preconditions.checkState(!running.get(), "already started");
+		running.set(true);
 
-		Thread t = new ThreadFactoryBuilder().setNameFormat("cloudwatch-evt-%d").setDaemon(true).build().newThread(this::consumerLoop);
+		String tag = Strings.isNullOrEmpty(name) ? Strings.nullToEmpty(queueUrl) : name;
+		lagTimer = Timer.builder("sqsMessageLag").tag("queue", tag).description("time from send to handling")
+				.register(meterRegistry);
+		processingTimer = Timer.builder("sqsMessageProcessing").tag("queue", tag).register(meterRegistry);
+		failureCounter = Counter.builder("sqsMessageFailures").tag("queue", tag).register(meterRegistry);
+		Gauge.builder("sqsMessagesInFlight", inFlight, Map::size).tag("queue", tag).register(meterRegistry);
+
+		handlerExecutor = new ThreadPoolExecutor(handlerThreads, handlerThreads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(handlerThreads * MAX_BATCH_SIZE),
+				new ThreadFactoryBuilder().setNameFormat("sqs-handler-%d").setDaemon(true).build(),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+
+		long interval = TimeUnit.SECONDS.toMillis(visibilityTimeoutSecs) / 4;
+		visibilityExecutor = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("sqs-visibility-%d").setDaemon(true).build());
+		visibilityExecutor.scheduleWithFixedDelay(this::extendVisibility, interval, interval, TimeUnit.MILLISECONDS);
+
+		for (int i = 0; i < receiverCount; i++) {
+			Thread t = new ThreadFactoryBuilder().setNameFormat("sqs-receiver-%d").setDaemon(true).build()
+					.newThread(this::consumerLoop);
+			receivers.add(t);
+			t.start();
+		}
+	}
 
-		t.start();
+	public synchronized void stop() {
+		running.set(false);
+		if (visibilityExecutor != null) {
+			visibilityExecutor.shutdown();
+		}
+		if (handlerExecutor != null) {
+			handlerExecutor.shutdown();
+		}
 	}
 
 	long exponentialBackoff() {
@@ -123,7 +271,7 @@ public class SqsConsumer {
 
 	}
 
-	void resolveQueueUrl() {
+	synchronized void resolveQueueUrl() {
 		if (!Strings.isNullOrEmpty(queueUrl)) {
 			return;
 		} else if (!Strings.isNullOrEmpty(name)) {
@@ -133,48 +281,30 @@ public class SqsConsumer {
 
 	}
 
-	
 	public boolean isRunning() {
 		return running.get();
 	}
+
 	private void consumerLoop() {
-		running.set(true);
 		while (Strings.isNullOrEmpty(queueUrl)) {
 			if (!running.get()) {
 				return;
 			}
-			if (Strings.isNullOrEmpty(queueUrl)) {
-				failureCount.incrementAndGet();
-			} else {
-				failureCount.set(0);
-			}
 			try {
 				resolveQueueUrl();
-
+				failureCount.set(0);
 			} catch (Exception e) {
 				failureCount.incrementAndGet();
 				long sleepTime = exponentialBackoff();
-				logger.warn("failure to resolve queue url: " + e.toString()+" will retry in {} ms",sleepTime);
+				logger.warn("failure to resolve queue url: " + e.toString() + " will retry in {} ms", sleepTime);
 				Sleep.sleep(sleepTime);
 			}
 		}
-		
-		
+
 		while (running.get()) {
 			try {
-				ReceiveMessageResult result = client.receiveMessage(new ReceiveMessageRequest().withWaitTimeSeconds(10)
-						.withQueueUrl(queueUrl).withMaxNumberOfMessages(10));
+				receiveBatch();
 				failureCount.set(0);
-				DeleteMessageBatchRequest dmb = new DeleteMessageBatchRequest(queueUrl);
-				logger.info("received {} messages on {}", result.getMessages().size(), queueUrl);
-				result.getMessages().forEach(it -> {
-					handleMessage(it);
-					dmb.withEntries(new DeleteMessageBatchRequestEntry(it.getMessageId(), it.getReceiptHandle()));
-				});
-				if (!dmb.getEntries().isEmpty()) {
-					// client.deleteMessageBatch(dmb);
-				}
-
 			} catch (Exception e) {
 				failureCount.incrementAndGet();
 				logger.warn("exception", e);
@@ -186,6 +316,101 @@ public class SqsConsumer {
 
 	}
 
+	/**
+	 * Receives one batch and hands it to the handler pool.
+	 *
+	 * @return future that completes when the batch has been acknowledged
+	 */
+	CompletableFuture<Void> receiveBatch() {
+		ReceiveMessageResult result = getClient().receiveMessage(new ReceiveMessageRequest()
+				.withWaitTimeSeconds(waitTimeSecs).withQueueUrl(queueUrl).withMaxNumberOfMessages(MAX_BATCH_SIZE)
+				.withVisibilityTimeout(visibilityTimeoutSecs)
+				.withAttributeNames(SENT_TIMESTAMP));
+		List<Message> messages = result.getMessages();
+		if (messages.isEmpty()) {
+			return CompletableFuture.completedFuture(null);
+		}
+		logger.debug("received {} messages on {}", messages.size(), queueUrl);
+
+		long visibleUntil = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(visibilityTimeoutSecs);
+		messages.forEach(it -> inFlight.put(it.getMessageId(), new InFlight(it.getReceiptHandle(), visibleUntil)));
+
+		List<CompletableFuture<Void>> handled = messages.stream()
+				.map(it -> CompletableFuture.runAsync(() -> process(it), handlerExecutor)).collect(Collectors.toList());
+		return CompletableFuture.allOf(handled.toArray(new CompletableFuture[0])).whenComplete((v, e) -> ack(messages));
+	}
+
+	void process(Message m) {
+		Long sent = Longs.tryParse(Strings.nullToEmpty(m.getAttributes().get(SENT_TIMESTAMP)));
+		if (sent != null) {
+			lagTimer.record(Math.max(0, System.currentTimeMillis() - sent), TimeUnit.MILLISECONDS);
+		}
+		long t0 = System.nanoTime();
+		if (!handleMessage(m)) {
+			failureCounter.increment();
+		}
+		processingTimer.record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+		processedCount.incrementAndGet();
+	}
+
+	/**
+	 * Messages are acknowledged whether or not their handler succeeded. Events
+	 * only trigger rescans, and a message that failed once is likely to fail
+	 * again.
+	 *
+	 * @param messages
+	 */
+	void ack(List<Message> messages) {
+		try {
+			DeleteMessageBatchRequest request = new DeleteMessageBatchRequest(queueUrl);
+			messages.forEach(it -> request
+					.withEntries(new DeleteMessageBatchRequestEntry(it.getMessageId(), it.getReceiptHandle())));
+			DeleteMessageBatchResult result = getClient().deleteMessageBatch(request);
+			deletedCount.addAndGet(result.getSuccessful().size());
+			result.getFailed().forEach(it -> {
+				logger.warn("could not delete message {}: {}", it.getId(), it.getMessage());
+			});
+		} catch (RuntimeException e) {
+			logger.warn("could not delete {} messages", messages.size(), e);
+		} finally {
+			messages.forEach(it -> inFlight.remove(it.getMessageId()));
+		}
+	}
+
+	/**
+	 * Pushes out the visibility timeout of messages that will become visible
+	 * again within half a timeout.
+	 */
+	void extendVisibility() {
+		try {
+			long now = System.currentTimeMillis();
+			long threshold = now + TimeUnit.SECONDS.toMillis(visibilityTimeoutSecs) / 2;
+			List<Map.Entry<String, InFlight>> expiring = inFlight.entrySet().stream()
+					.filter(it -> it.getValue().visibleUntilMillis < threshold).collect(Collectors.toList());
+
+			for (List<Map.Entry<String, InFlight>> chunk : Lists.partition(expiring, MAX_BATCH_SIZE)) {
+				ChangeMessageVisibilityBatchRequest request = new ChangeMessageVisibilityBatchRequest()
+						.withQueueUrl(queueUrl);
+				chunk.forEach(it -> request.withEntries(new ChangeMessageVisibilityBatchRequestEntry(it.getKey(),
+						it.getValue().receiptHandle).withVisibilityTimeout(visibilityTimeoutSecs)));
+				getClient().changeMessageVisibilityBatch(request);
+				long visibleUntil = now + TimeUnit.SECONDS.toMillis(visibilityTimeoutSecs);
+				chunk.forEach(it -> it.getValue().visibleUntilMillis = visibleUntil);
+				logger.debug("extended visibility of {} messages", chunk.size());
+			}
+		} catch (RuntimeException e) {
+			logger.warn("could not extend visibility", e);
+		}
+	}
+
+	public long getProcessedCount() {
+		return processedCount.get();
+	}
+
+	public long getDeletedCount() {
+		return deletedCount.get();
+	}
+
 	public SqsConsumer addConsumer(Consumer<JsonNode> n) {
 		this.consumer.add(n);
 		return this;
@@ -16,6 +16,7 @@
 package rebar.graph.aws;
 
 import java.util.Optional;
+import java.util.Set;
 
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2Client;
@@ -27,6 +28,7 @@ import com.amazonaws.services.ec2.model.Subnet;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 
 public class SubnetScanner extends AwsEntityScanner<Subnet,AmazonEC2Client> {
 
@@ -111,6 +113,11 @@ public class SubnetScanner extends AwsEntityScanner<Subnet,AmazonEC2Client> {
 		scanById(id);
 		
 	}
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccountRegion, AwsEntityType.AwsVpc, AwsEntityType.AwsAvailabilityZone);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsSubnet;
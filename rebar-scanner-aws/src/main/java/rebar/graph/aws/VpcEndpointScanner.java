@@ -1,6 +1,7 @@
 package rebar.graph.aws;
 
 import java.util.Optional;
+import java.util.Set;
 
 import com.amazonaws.services.ec2.model.AmazonEC2Exception;
 import com.amazonaws.services.ec2.model.DescribeVpcEndpointsRequest;
@@ -12,6 +13,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 
 import rebar.graph.core.RelationshipBuilder.Cardinality;
 import rebar.util.Json;
@@ -119,6 +121,11 @@ public class VpcEndpointScanner extends AbstractNetworkScanner<VpcEndpoint> {
 		// Need to implement ENI
 	}
 
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccountRegion, AwsEntityType.AwsVpc, AwsEntityType.AwsSubnet, AwsEntityType.AwsSecurityGroup, AwsEntityType.AwsRouteTable);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsVpcEndpoint;
@@ -1,6 +1,7 @@
 package rebar.graph.aws;
 
 import java.util.ArrayList;
+import java.util.Set;
 
 import com.amazonaws.services.ec2.model.AmazonEC2Exception;
 import com.amazonaws.services.ec2.model.DescribeVpnGatewaysRequest;
@@ -12,6 +13,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 
 import rebar.graph.core.RelationshipBuilder.Cardinality;
 import rebar.util.Json;
@@ -95,6 +97,11 @@ public class VpnGatewayScanner extends AbstractNetworkScanner<VpnGateway> {
 		return n;
 	}
 
+	@Override
+	public Set<AwsEntityType> getDependencies() {
+		return ImmutableSet.of(AwsEntityType.AwsAccountRegion, AwsEntityType.AwsVpc);
+	}
+
 	@Override
 	public AwsEntityType getEntityType() {
 		return AwsEntityType.AwsVpnGateway;
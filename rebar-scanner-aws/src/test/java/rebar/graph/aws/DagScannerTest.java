@@ -0,0 +1,94 @@
+package rebar.graph.aws;
+
+import java.util.List;
+import java.util.Set;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import rebar.graph.aws.DagScanner.ScanTask;
+import rebar.util.RebarException;
+
+public class DagScannerTest {
+
+	ScanTask find(List<ScanTask> tasks, Class<?> clazz) {
+		return tasks.stream().filter(it -> it.scanner.getClass() == clazz).findFirst().get();
+	}
+
+	@Test
+	public void testFlatten() {
+		List<Class<? extends AwsEntityScanner>> classes = DagScanner
+				.flatten(AllEntityScannerGroup.getEntityScanners());
+
+		Assertions.assertThat(classes).contains(VpcScanner.class, SubnetScanner.class, Ec2InstanceScanner.class,
+				IamRoleScanner.class, S3Scanner.class);
+		Assertions.assertThat(classes).noneMatch(it -> SerialScanner.class.isAssignableFrom(it));
+		Assertions.assertThat(classes).doesNotHaveDuplicates();
+	}
+
+	@Test
+	public void testPlan() throws Exception {
+		List<AwsEntityScanner> scanners = ImmutableList.of(new Ec2InstanceScanner(), new S3Scanner(),
+				new SubnetScanner(), new VpcScanner(), new SecurityGroupScanner(), new RegionScanner(),
+				new AccountScanner());
+		List<ScanTask> tasks = DagScanner.plan(scanners);
+
+		Assertions.assertThat(tasks).hasSize(scanners.size());
+		Assertions.assertThat(tasks.get(0).scanner).isInstanceOf(AccountScanner.class);
+
+		ScanTask ec2 = find(tasks, Ec2InstanceScanner.class);
+		Assertions.assertThat(ec2.upstream).extracting(it -> it.scanner.getClass())
+				.containsExactlyInAnyOrder(SubnetScanner.class, SecurityGroupScanner.class, RegionScanner.class);
+		Assertions.assertThat(tasks.indexOf(ec2)).isGreaterThan(tasks.indexOf(find(tasks, SubnetScanner.class)));
+		Assertions.assertThat(tasks.indexOf(find(tasks, SubnetScanner.class)))
+				.isGreaterThan(tasks.indexOf(find(tasks, VpcScanner.class)));
+
+		// only needs the account region
+		Assertions.assertThat(find(tasks, S3Scanner.class).upstream).extracting(it -> it.scanner.getClass())
+				.containsExactly(RegionScanner.class);
+
+		// dependencies on types that are not being scanned are ignored
+		Assertions.assertThat(DagScanner.plan(ImmutableList.of(new Ec2InstanceScanner())).get(0).upstream).isEmpty();
+	}
+
+	@Test
+	public void testCycle() {
+		AwsEntityScanner a = new VpcScanner() {
+			@Override
+			public Set<AwsEntityType> getDependencies() {
+				return ImmutableSet.of(AwsEntityType.AwsSubnet);
+			}
+		};
+		try {
+			DagScanner.plan(ImmutableList.of(a, new SubnetScanner()));
+			Assertions.failBecauseExceptionWasNotThrown(RebarException.class);
+		} catch (RebarException e) {
+			Assertions.assertThat(e).hasMessageContaining("cycle");
+		}
+	}
+
+	@Test
+	public void testCriticalPath() {
+		List<ScanTask> tasks = DagScanner.plan(ImmutableList.of(new VpcScanner(), new SubnetScanner(),
+				new SecurityGroupScanner(), new Ec2InstanceScanner(), new S3Scanner()));
+
+		// vpc 0-10, subnet 10-50, sg 10-20, ec2 50-80, s3 0-60
+		setTimes(find(tasks, VpcScanner.class), 0, 10);
+		setTimes(find(tasks, SubnetScanner.class), 10, 50);
+		setTimes(find(tasks, SecurityGroupScanner.class), 10, 20);
+		setTimes(find(tasks, Ec2InstanceScanner.class), 50, 80);
+		setTimes(find(tasks, S3Scanner.class), 0, 60);
+
+		Assertions.assertThat(DagScanner.criticalPath(tasks)).extracting(it -> it.scanner.getClass())
+				.containsExactly(VpcScanner.class, SubnetScanner.class, Ec2InstanceScanner.class);
+	}
+
+	void setTimes(ScanTask task, long start, long end) {
+		task.readyNanos = start;
+		task.startNanos = start;
+		task.endNanos = end;
+	}
+}
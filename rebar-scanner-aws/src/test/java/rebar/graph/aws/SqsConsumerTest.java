@@ -1,33 +1,186 @@
 package rebar.graph.aws;
 
-import java.io.File;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Optional;
-import java.util.Set;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
-import java.util.function.Predicate;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.Test;
 
-import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsRequest;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.google.common.base.Splitter;
-import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableList;
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.GetQueueUrlResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Streams;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import rebar.util.Json;
 import rebar.util.Sleep;
-import rebar.util.Json.JsonLogger;
 
-public class SqsConsumerTest extends AwsIntegrationTest {
+public class SqsConsumerTest {
 
-	
+	/**
+	 * In-process stand-in for a single SQS queue.
+	 */
+	static class FakeSqs extends AbstractAmazonSQS {
+
+		static class Entry {
+			final Message message;
+			long visibleAt = 0;
+			String receiptHandle;
+
+			Entry(Message message) {
+				this.message = message;
+			}
+		}
+
+		Map<String, Entry> messages = new ConcurrentHashMap<>();
+		AtomicInteger deleteCalls = new AtomicInteger();
+		AtomicInteger visibilityCalls = new AtomicInteger();
+		AtomicInteger receiveCount = new AtomicInteger();
+
+		void send(String body) {
+			Message m = new Message().withMessageId(UUID.randomUUID().toString()).withBody(body).withAttributes(
+					ImmutableMap.of(SqsConsumer.SENT_TIMESTAMP, Long.toString(System.currentTimeMillis())));
+			messages.put(m.getMessageId(), new Entry(m));
+		}
+
+		@Override
+		public GetQueueUrlResult getQueueUrl(String queueName) {
+			return new GetQueueUrlResult().withQueueUrl("https://fake/" + queueName);
+		}
+
+		@Override
+		public synchronized ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+			long now = System.currentTimeMillis();
+			List<Message> result = Lists.newArrayList();
+			for (Entry e : messages.values()) {
+				if (result.size() >= request.getMaxNumberOfMessages()) {
+					break;
+				}
+				if (e.visibleAt <= now) {
+					e.visibleAt = now + TimeUnit.SECONDS.toMillis(request.getVisibilityTimeout());
+					e.receiptHandle = UUID.randomUUID().toString();
+					receiveCount.incrementAndGet();
+					result.add(e.message.clone().withReceiptHandle(e.receiptHandle));
+				}
+			}
+			if (result.isEmpty()) {
+				Sleep.sleep(10);
+			}
+			return new ReceiveMessageResult().withMessages(result);
+		}
+
+		@Override
+		public synchronized DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest request) {
+			deleteCalls.incrementAndGet();
+			DeleteMessageBatchResult result = new DeleteMessageBatchResult();
+			request.getEntries().forEach(it -> {
+				Entry e = messages.get(it.getId());
+				if (e != null && it.getReceiptHandle().equals(e.receiptHandle)) {
+					messages.remove(it.getId());
+				}
+				result.withSuccessful(new DeleteMessageBatchResultEntry().withId(it.getId()));
+			});
+			return result;
+		}
+
+		@Override
+		public synchronized ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(
+				ChangeMessageVisibilityBatchRequest request) {
+			visibilityCalls.incrementAndGet();
+			ChangeMessageVisibilityBatchResult result = new ChangeMessageVisibilityBatchResult();
+			request.getEntries().forEach(it -> {
+				Entry e = messages.get(it.getId());
+				if (e != null && it.getReceiptHandle().equals(e.receiptHandle)) {
+					e.visibleAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(it.getVisibilityTimeout());
+				}
+				result.withSuccessful(new ChangeMessageVisibilityBatchResultEntry().withId(it.getId()));
+			});
+			return result;
+		}
+	}
+
+	void waitFor(java.util.function.BooleanSupplier condition) {
+		long deadline = System.currentTimeMillis() + 20000;
+		while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+			Sleep.sleep(20);
+		}
+		Assertions.assertThat(condition.getAsBoolean()).isTrue();
+	}
+
+	@Test
+	public void testConsumeAndBatchDelete() {
+		FakeSqs sqs = new FakeSqs();
+		for (int i = 0; i < 200; i++) {
+			sqs.send(Json.objectNode().put("i", i).toString());
+		}
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		AtomicInteger handled = new AtomicInteger();
+		SqsConsumer consumer = new SqsConsumer().withClient(sqs).withQueueName("test").withReceiverCount(3)
+				.withHandlerThreads(4).withWaitTime(0).withMeterRegistry(registry)
+				.addConsumer(it -> handled.incrementAndGet());
+		consumer.start();
+		try {
+			waitFor(() -> sqs.messages.isEmpty() && consumer.inFlight.isEmpty());
+		} finally {
+			consumer.stop();
+		}
+
+		Assertions.assertThat(handled.get()).isEqualTo(200);
+		Assertions.assertThat(consumer.getDeletedCount()).isEqualTo(200);
+		Assertions.assertThat(sqs.deleteCalls.get()).isLessThanOrEqualTo(sqs.receiveCount.get())
+				.isGreaterThanOrEqualTo(200 / SqsConsumer.MAX_BATCH_SIZE).isLessThan(200);
+		Assertions.assertThat(registry.get("sqsMessageLag").tag("queue", "test").timer().count()).isEqualTo(200);
+	}
+
+	@Test
+	public void testExtendVisibility() {
+		FakeSqs sqs = new FakeSqs();
+		sqs.send("{}");
+		AtomicInteger handled = new AtomicInteger();
+		SqsConsumer consumer = new SqsConsumer().withClient(sqs).withQueueUrl("https://fake/test")
+				.withVisibilityTimeout(2).withWaitTime(0).withMeterRegistry(new SimpleMeterRegistry())
+				.addConsumer(it -> {
+					handled.incrementAndGet();
+					Sleep.sleep(3000);
+				});
+		consumer.start();
+		try {
+			waitFor(() -> sqs.messages.isEmpty() && consumer.inFlight.isEmpty());
+		} finally {
+			consumer.stop();
+		}
+
+		// slower than the visibility timeout, but never redelivered
+		Assertions.assertThat(handled.get()).isEqualTo(1);
+		Assertions.assertThat(sqs.visibilityCalls.get()).isGreaterThan(0);
+	}
+
+	@Test
+	public void testHandlerFailure() {
+		FakeSqs sqs = new FakeSqs();
+		sqs.send("not json");
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		SqsConsumer consumer = new SqsConsumer().withClient(sqs).withQueueName("test").withWaitTime(0)
+				.withMeterRegistry(registry);
+		consumer.start();
+		try {
+			waitFor(() -> sqs.messages.isEmpty());
+		} finally {
+			consumer.stop();
+		}
+		Assertions.assertThat(registry.get("sqsMessageFailures").counter().count()).isEqualTo(1.0);
+	}
 }
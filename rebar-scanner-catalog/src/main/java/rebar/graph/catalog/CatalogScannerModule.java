@@ -7,6 +7,7 @@ import org.slf4j.LoggerFactory;
 
 import rebar.graph.core.Main;
 import rebar.graph.core.ScannerModule;
+import rebar.graph.neo4j.SchemaReconciler;
 
 public class CatalogScannerModule extends ScannerModule {
 
@@ -34,14 +35,14 @@ public class CatalogScannerModule extends ScannerModule {
 	}
 
 	@Override
-	public void applyConstraints(boolean apply) {
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("ServiceCatalogEntry", "urn",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("ServiceCatalogEntry", "name",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("DatabaseCatalogEntry", "urn",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("DatabaseCatalogEntry", "name",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("QueueCatalogEntry", "urn",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("QueueCatalogEntry", "name",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("StreamCatalogEntry", "urn",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("StreamCatalogEntry", "name",apply);
+	public void applyConstraints(SchemaReconciler reconciler) {
+		reconciler.createUniqueConstraint("ServiceCatalogEntry", "urn");
+		reconciler.createUniqueConstraint("ServiceCatalogEntry", "name");
+		reconciler.createUniqueConstraint("DatabaseCatalogEntry", "urn");
+		reconciler.createUniqueConstraint("DatabaseCatalogEntry", "name");
+		reconciler.createUniqueConstraint("QueueCatalogEntry", "urn");
+		reconciler.createUniqueConstraint("QueueCatalogEntry", "name");
+		reconciler.createUniqueConstraint("StreamCatalogEntry", "urn");
+		reconciler.createUniqueConstraint("StreamCatalogEntry", "name");
 	}
 }
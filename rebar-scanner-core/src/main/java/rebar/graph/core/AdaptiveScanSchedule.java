@@ -0,0 +1,135 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.core;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Per-type scan intervals that follow how often each type actually changes.
+ *
+ * After each scan of a type, the caller reports how many of the nodes it
+ * wrote had changed since the previous write (from DigestStore). If nothing
+ * changed, the interval for the type doubles; if more than
+ * volatileChangeRatio of the nodes changed, it halves. The interval always
+ * stays within [minInterval, maxInterval]. A scan that wrote no remembered
+ * nodes leaves the interval alone.
+ */
+public class AdaptiveScanSchedule {
+
+	static Logger logger = LoggerFactory.getLogger(AdaptiveScanSchedule.class);
+
+	public static final String ENABLED_ENV = "SCAN_INTERVAL_ADAPTIVE_ENABLED";
+	public static final String MIN_INTERVAL_ENV = "SCAN_INTERVAL_MIN_SECS";
+	public static final String MAX_INTERVAL_ENV = "SCAN_INTERVAL_MAX_SECS";
+
+	public static final long DEFAULT_MIN_INTERVAL_SECS = 60;
+	public static final long DEFAULT_MAX_INTERVAL_SECS = TimeUnit.HOURS.toSeconds(1);
+
+	static final double DEFAULT_VOLATILE_CHANGE_RATIO = 0.05;
+
+	static class TypeState {
+		volatile long intervalMillis;
+		volatile long lastScanMillis;
+	}
+
+	final long minIntervalMillis;
+	final long maxIntervalMillis;
+	volatile long defaultIntervalMillis;
+	double volatileChangeRatio = DEFAULT_VOLATILE_CHANGE_RATIO;
+
+	private final Map<String, TypeState> states = new ConcurrentHashMap<>();
+
+	public AdaptiveScanSchedule(long minInterval, long maxInterval, TimeUnit unit) {
+		Preconditions.checkArgument(minInterval > 0, "minInterval must be >0");
+		Preconditions.checkArgument(maxInterval >= minInterval, "maxInterval must be >= minInterval");
+		this.minIntervalMillis = unit.toMillis(minInterval);
+		this.maxIntervalMillis = unit.toMillis(maxInterval);
+		this.defaultIntervalMillis = minIntervalMillis;
+	}
+
+	/**
+	 * The interval that a type starts with before anything is known about it.
+	 * 
+	 * @param interval
+	 * @param unit
+	 * @return
+	 */
+	public AdaptiveScanSchedule withDefaultInterval(long interval, TimeUnit unit) {
+		this.defaultIntervalMillis = clamp(unit.toMillis(interval));
+		return this;
+	}
+
+	public long getMinIntervalMillis() {
+		return minIntervalMillis;
+	}
+
+	long clamp(long interval) {
+		return Math.max(minIntervalMillis, Math.min(maxIntervalMillis, interval));
+	}
+
+	private TypeState state(String type) {
+		return states.computeIfAbsent(type, t -> {
+			TypeState s = new TypeState();
+			s.intervalMillis = defaultIntervalMillis;
+			return s;
+		});
+	}
+
+	public boolean isDue(String type, long now) {
+		TypeState s = states.get(type);
+		return s == null || now >= s.lastScanMillis + s.intervalMillis;
+	}
+
+	public long getIntervalMillis(String type) {
+		return state(type).intervalMillis;
+	}
+
+	/**
+	 * Records a scan of the type and adjusts its interval.
+	 * 
+	 * @param type
+	 * @param startMillis
+	 * @param changed
+	 *            nodes written with different properties than last time
+	 * @param unchanged
+	 *            nodes written with the same properties as last time
+	 */
+	public void recordScan(String type, long startMillis, long changed, long unchanged) {
+		TypeState s = state(type);
+		s.lastScanMillis = startMillis;
+		long total = changed + unchanged;
+		if (total <= 0) {
+			return;
+		}
+		long previous = s.intervalMillis;
+		if (changed == 0) {
+			s.intervalMillis = clamp(previous * 2);
+		} else if ((double) changed / total > volatileChangeRatio) {
+			s.intervalMillis = clamp(previous / 2);
+		}
+		if (s.intervalMillis != previous) {
+			logger.info("{} changed={} unchanged={} ... scan interval {}s -> {}s", type, changed, unchanged,
+					TimeUnit.MILLISECONDS.toSeconds(previous), TimeUnit.MILLISECONDS.toSeconds(s.intervalMillis));
+		}
+	}
+}
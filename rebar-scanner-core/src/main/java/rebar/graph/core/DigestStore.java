@@ -0,0 +1,245 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.core;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+
+import rebar.util.Json;
+
+/**
+ * Remembers what was last written to each node, so that merges of unchanged
+ * entities can be reduced to a graphUpdateTs touch.
+ *
+ * Entries are keyed by label and id values. The digest covers every property
+ * that was sent, including tags, but not graphUpdateTs, graphEntityDigest or
+ * null values (which Neo4j does not store). The merge path also stores it on
+ * the node as graphWriteDigest, which is what warm() reads back after a
+ * restart. Entries expire after a fixed time
+ * so that nodes modified by anyone other than this process are eventually
+ * rewritten in full.
+ *
+ * A scan can count how many of its own merges changed anything by opening a
+ * Tally on the thread that does the merging. Merges of nodes with no
+ * remembered digest (new or expired) are not counted either way.
+ */
+public final class DigestStore {
+
+	public static final long DEFAULT_MAX_SIZE = 100000;
+	public static final long DEFAULT_TTL_SECS = TimeUnit.HOURS.toSeconds(1);
+
+	public static final String WRITE_DIGEST = "graphWriteDigest";
+
+	private final Cache<String, String> digests;
+
+	private final JsonDigest jsonDigest = new JsonDigest().excludePattern("graphEntityDigest")
+			.excludePattern(WRITE_DIGEST).excludePattern(GraphBuilder.UPDATE_TS).excludePattern("__.*");
+
+	final AtomicLong hits = new AtomicLong();
+	final AtomicLong misses = new AtomicLong();
+
+	private final long ttlMillis;
+
+	private final ThreadLocal<Tally> currentTally = new ThreadLocal<>();
+
+	/**
+	 * Counts the merges done on one thread between startTally() and close().
+	 */
+	public final class Tally implements AutoCloseable {
+		final Tally previous;
+		long changed;
+		long unchanged;
+
+		Tally(Tally previous) {
+			this.previous = previous;
+		}
+
+		/**
+		 * Merges whose properties differed from the last write.
+		 */
+		public long getChangedCount() {
+			return changed;
+		}
+
+		/**
+		 * Merges whose properties matched the last write.
+		 */
+		public long getUnchangedCount() {
+			return unchanged;
+		}
+
+		@Override
+		public void close() {
+			if (previous != null) {
+				previous.changed += changed;
+				previous.unchanged += unchanged;
+				currentTally.set(previous);
+			} else {
+				currentTally.remove();
+			}
+		}
+	}
+
+	public DigestStore() {
+		this(DEFAULT_MAX_SIZE, DEFAULT_TTL_SECS, TimeUnit.SECONDS);
+	}
+
+	public DigestStore(long maxSize, long ttl, TimeUnit unit) {
+		Preconditions.checkArgument(maxSize > 0, "maxSize must be >0");
+		this.digests = CacheBuilder.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl, unit).build();
+		this.ttlMillis = unit.toMillis(ttl);
+	}
+
+	static String key(String label, Map<String, Object> idAttributes) {
+		StringBuilder sb = new StringBuilder(label);
+		new TreeMap<>(idAttributes).forEach((k, v) -> {
+			sb.append('|').append(k).append('=').append(v);
+		});
+		return sb.toString();
+	}
+
+	String digest(Map<String, Object> properties) {
+		return digest(Json.objectMapper().valueToTree(properties));
+	}
+
+	String digest(JsonNode properties) {
+		ObjectNode copy = ((ObjectNode) properties).deepCopy();
+		List<String> nulls = Lists.newArrayList();
+		copy.fields().forEachRemaining(it -> {
+			if (it.getValue() == null || it.getValue().isNull()) {
+				nulls.add(it.getKey());
+			}
+		});
+		copy.remove(nulls);
+		return jsonDigest.digest(copy);
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @param digest
+	 * @return true if the last write to the node had the same digest
+	 */
+	boolean isUnchanged(String key, String digest) {
+		String previous = digests.getIfPresent(key);
+		boolean unchanged = digest.equals(previous);
+		(unchanged ? hits : misses).incrementAndGet();
+		count(previous, unchanged);
+		return unchanged;
+	}
+
+	/**
+	 * Counts a write of the node against the current tally, if any, without
+	 * gating it.
+	 * 
+	 * @param key
+	 * @param digest
+	 */
+	void tally(String key, String digest) {
+		if (isTallying()) {
+			String previous = digests.getIfPresent(key);
+			count(previous, digest.equals(previous));
+		}
+	}
+
+	boolean isTallying() {
+		return currentTally.get() != null;
+	}
+
+	private void count(String previous, boolean unchanged) {
+		Tally tally = currentTally.get();
+		if (previous != null && tally != null) {
+			// a node with no digest is new or expired, which says nothing about change
+			if (unchanged) {
+				tally.unchanged++;
+			} else {
+				tally.changed++;
+			}
+		}
+	}
+
+	void put(String key, String digest) {
+		digests.put(key, digest);
+	}
+
+	void invalidate(String key) {
+		digests.invalidate(key);
+	}
+
+	/**
+	 * Records the write digest of a node read from the graph.
+	 *
+	 * @param label
+	 * @param node
+	 *            id values and graphWriteDigest
+	 * @param idKeys
+	 * @return false if the node does not have every id key, or no digest
+	 */
+	boolean warm(String label, JsonNode node, List<String> idKeys) {
+		Map<String, Object> ids = new TreeMap<>();
+		for (String k : idKeys) {
+			JsonNode v = node.path(k);
+			if (v.isMissingNode() || v.isNull()) {
+				return false;
+			}
+			ids.put(k, Json.objectMapper().convertValue(v, Object.class));
+		}
+		String digest = node.path(WRITE_DIGEST).asText(null);
+		if (digest == null) {
+			return false;
+		}
+		put(key(label, ids), digest);
+		return true;
+	}
+
+	public long size() {
+		return digests.size();
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	/**
+	 * Starts counting merges made on the calling thread. Tallies nest; closing
+	 * one adds its counts to the enclosing tally.
+	 * 
+	 * @return
+	 */
+	public Tally startTally() {
+		Tally tally = new Tally(currentTally.get());
+		currentTally.set(tally);
+		return tally;
+	}
+}
@@ -21,10 +21,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -38,6 +42,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
@@ -49,6 +54,7 @@ import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 
 import rebar.graph.core.RelationshipBuilder.FromNode;
+import rebar.graph.neo4j.CypherUtil;
 import rebar.graph.neo4j.GraphDriver;
 import rebar.graph.neo4j.GraphException;
 import rebar.graph.neo4j.GraphSchema;
@@ -56,6 +62,9 @@ import rebar.graph.neo4j.GraphSchema;
 public class GraphBuilder {
 
 	GraphDriver neo4j;
+	DigestStore digestStore;
+	WriteBehindBuffer writeBehind;
+	Thread writeBehindShutdownHook;
 	Logger logger = org.slf4j.LoggerFactory.getLogger(GraphBuilder.class);
 	static ObjectMapper mapper = new ObjectMapper();
 
@@ -64,6 +73,8 @@ public class GraphBuilder {
 	}
 
 	public Stream<JsonNode> matchNodesWithUpdateTsBefore(String label, long cutoff, Object... kv) {
+		CypherUtil.assertValidLabel(label);
+		flushPending();
 		Map<String, Object> map = toKVMap(kv);
 		String patternClause = toPatternClause(map); // need to generate BEFORE we add __graphUpdateTs
 		map.put("__graphUpdateTs", cutoff);
@@ -77,7 +88,7 @@ public class GraphBuilder {
 		if (!ra.isEmpty()) {
 			sb.append(" remove ");
 			AtomicInteger count = new AtomicInteger(0);
-			ra.forEach(it -> {
+			new TreeSet<>(ra).forEach(it -> {
 				if (count.getAndIncrement() > 0) {
 					sb.append(", ");
 				}
@@ -93,6 +104,8 @@ public class GraphBuilder {
 	public static final String ENTITY_GROUP = "graphEntityGroup";
 	public static final String UPDATE_TS = "graphUpdateTs";
 
+	static final String CUTOFF_PARAM = "__cutoff";
+
 	GraphBuilder(GraphDriver driver) {
 		this.neo4j = driver;
 	}
@@ -101,6 +114,119 @@ public class GraphBuilder {
 		return this.neo4j;
 	}
 
+	/**
+	 * Enables digest-gated merges. A merge() whose properties are identical to
+	 * the last write of the same node only touches graphUpdateTs.
+	 * 
+	 * @param store
+	 * @return
+	 */
+	public GraphBuilder withDigestStore(DigestStore store) {
+		this.digestStore = store;
+		return this;
+	}
+
+	public Optional<DigestStore> getDigestStore() {
+		return Optional.ofNullable(digestStore);
+	}
+
+	/**
+	 * Enables mergeDeferred(). Deferred upserts are coalesced and written in
+	 * batches every flushInterval, or as soon as maxPending are waiting.
+	 * 
+	 * @param maxPending
+	 * @param flushInterval
+	 * @param unit
+	 * @return
+	 */
+	public synchronized GraphBuilder withWriteBehind(int maxPending, long flushInterval, TimeUnit unit) {
+		WriteBehindBuffer previous = writeBehind;
+		this.writeBehind = new WriteBehindBuffer(this, maxPending, flushInterval, unit);
+		if (previous != null) {
+			closeWriteBehind(previous);
+		}
+		if (writeBehindShutdownHook == null) {
+			// one hook per builder, which flushes whichever buffer is current at exit
+			writeBehindShutdownHook = new Thread(() -> {
+				WriteBehindBuffer buffer = writeBehind;
+				if (buffer != null) {
+					logger.info("flushing {} pending writes", buffer.getPendingCount());
+					closeWriteBehind(buffer);
+				}
+			}, "write-behind-shutdown");
+			Runtime.getRuntime().addShutdownHook(writeBehindShutdownHook);
+		}
+		return this;
+	}
+
+	private void closeWriteBehind(WriteBehindBuffer buffer) {
+		try {
+			buffer.close();
+		} catch (RuntimeException e) {
+			logger.warn("could not flush {} pending writes", buffer.getPendingCount(), e);
+		}
+	}
+
+	public Optional<WriteBehindBuffer> getWriteBehind() {
+		return Optional.ofNullable(writeBehind);
+	}
+
+	/**
+	 * Writes any deferred upserts before a statement that reads or deletes
+	 * nodes, so that it sees them.
+	 */
+	void flushPending() {
+		WriteBehindBuffer buffer = writeBehind;
+		if (buffer != null) {
+			buffer.flush();
+		}
+	}
+
+	/**
+	 * Loads the write digest of every node with the given label into the
+	 * digest store, so that the first scan after startup can skip unchanged
+	 * nodes. idKeys must be the full set of id attributes that merge() is
+	 * called with for the label. Does nothing if digest gating is not enabled.
+	 * 
+	 * The digest is the one that merge() stored on the node with its last
+	 * gated write, so it covers exactly the properties that were sent, not
+	 * whatever else the node has accumulated.
+	 * 
+	 * @param label
+	 * @param idKeys
+	 * @return the number of nodes loaded
+	 */
+	public long warmDigestStore(String label, String... idKeys) {
+		DigestStore store = digestStore;
+		if (store == null) {
+			return 0;
+		}
+		CypherUtil.assertValidLabel(label);
+		List<String> keys = ImmutableList.copyOf(idKeys);
+		AtomicLong count = new AtomicLong();
+		StringBuilder projection = new StringBuilder();
+		keys.forEach(k -> projection.append("a.").append(k).append(" as ").append(k).append(", "));
+		neo4j.newTemplate().cypher("match (a:" + label + ") where exists(a." + DigestStore.WRITE_DIGEST + ") return "
+				+ projection + "a." + DigestStore.WRITE_DIGEST + " as " + DigestStore.WRITE_DIGEST).withStreaming()
+				.forEach(it -> {
+					if (store.warm(label, it, keys)) {
+						count.incrementAndGet();
+					}
+				});
+		logger.info("loaded {} {} digests", count.get(), label);
+		return count.get();
+	}
+
+	/**
+	 * Executes all graph operations performed by the unit of work on the
+	 * calling thread in a single transaction.
+	 * 
+	 * @param work
+	 */
+	public void inTransaction(Consumer<GraphBuilder> work) {
+		neo4j.inTransaction(tx -> work.accept(this));
+	}
+
 	/**
 	 * Same as graphDB.nodes().label("mylabel")
 	 * 
@@ -121,7 +247,7 @@ public class GraphBuilder {
 		sb.append(" {");
 
 		AtomicInteger count = new AtomicInteger(0);
-		attrs.keySet().forEach(k -> {
+		new TreeSet<>(attrs.keySet()).forEach(k -> {
 			if (count.getAndIncrement() > 0) {
 				sb.append(", ");
 			}
@@ -193,6 +319,20 @@ public class GraphBuilder {
 		protected String attributeLessThanName;
 		protected long attributeLessThanValue = 0;
 
+		protected boolean streaming = false;
+
+		/**
+		 * Results of match() will be pulled lazily from the open session. The
+		 * returned stream must be closed if it is not fully consumed.
+		 * 
+		 * @return
+		 */
+		@SuppressWarnings("unchecked")
+		public <T extends NodeOperation> T withStreaming() {
+			this.streaming = true;
+			return (T) this;
+		}
+
 		@SuppressWarnings("unchecked")
 		public <T extends NodeOperation> T removeProperties(String... properties) {
 			if (properties != null) {
@@ -277,36 +417,94 @@ public class GraphBuilder {
 			});
 		}
 
-		public Stream<JsonNode> delete() {
-			String whereClause = "";
+		/**
+		 * Where clause for whereAttributeLessThan(), with the value bound to
+		 * {__cutoff}.
+		 * 
+		 * @return
+		 */
+		protected String toWhereClause() {
+			if (Strings.isNullOrEmpty(attributeLessThanName)) {
+				return "";
+			}
+			return " where a." + CypherUtil.escapePropertyName(attributeLessThanName) + " < {" + CUTOFF_PARAM + "} ";
+		}
+
+		protected Map<String, Object> withCutoffParam(Map<String, Object> params) {
 			if (!Strings.isNullOrEmpty(attributeLessThanName)) {
+				params.put(CUTOFF_PARAM, attributeLessThanValue);
+			}
+			return params;
+		}
 
-				if (!Strings.isNullOrEmpty(attributeLessThanName)) {
-					whereClause = " where a." + attributeLessThanName + " < " + attributeLessThanValue + " ";
-				}
+		public Stream<JsonNode> delete() {
+			if (this.dataAttributes != null && !dataAttributes.isEmpty()) {
+				throw new GraphException("attributes cannot be set during delete");
 			}
+			CypherUtil.assertValidLabel(label);
+			flushPending();
+			String cypher = StatementCache.get(() -> {
+				return "match (a:" + label + " " + toPatternClause(idAttributes) + " ) " + toWhereClause()
+						+ " detach delete a";
+			}, "delete", label, idAttributes.keySet(), attributeLessThanName);
+
+			return neo4j.newTemplate().cypher(cypher).params(withCutoffParam(new HashMap<>(idAttributes))).stream();
+		}
+
+		/**
+		 * Deletes the nodes whose idKey attribute has one of the given values,
+		 * in chunks of one UNWIND statement each. id() values and
+		 * whereAttributeLessThan() apply to every node.
+		 * 
+		 * @param idKey
+		 * @param values
+		 * @return number of nodes deleted
+		 */
+		public long deleteAll(String idKey, Collection<?> values) {
 			if (this.dataAttributes != null && !dataAttributes.isEmpty()) {
 				throw new GraphException("attributes cannot be set during delete");
 			}
-			return neo4j.newTemplate().cypher("match (a:" + label + " " + toPatternClause(idAttributes) + " ) "
-					+ whereClause + " detach delete a").params(idAttributes).stream();
+			CypherUtil.assertValidLabel(label);
+			Preconditions.checkArgument(!Strings.isNullOrEmpty(idKey), "idKey not set");
+			if (values == null || values.isEmpty()) {
+				return 0;
+			}
+			flushPending();
+
+			Map<String, Object> pattern = new HashMap<>(idAttributes);
+			pattern.remove(idKey);
+			String cypher = StatementCache.get(() -> {
+				String patternClause = toPatternClause(pattern);
+				patternClause = patternClause.isEmpty() ? "{" : patternClause.substring(0, patternClause.length() - 1) + ", ";
+				return "match (a:" + label + " " + patternClause + CypherUtil.escapePropertyName(idKey) + ":row.id}) "
+						+ toWhereClause() + " detach delete a return count(a) as count";
+			}, "deleteAll", label, pattern.keySet(), idKey, attributeLessThanName);
+
+			List<Map<String, Object>> rows = values.stream().map(it -> ImmutableMap.<String, Object>of("id", it))
+					.collect(Collectors.toList());
+			long count = 0;
+			Map<String, Object> params = withCutoffParam(new HashMap<>(pattern));
+			for (JsonNode it : neo4j.newTemplate().cypher(cypher).params(params).batch(rows)) {
+				count += it.path("count").asLong();
+			}
+			return count;
 		}
 
 		public Stream<JsonNode> match() {
 			if (Strings.isNullOrEmpty(label)) {
 				throw new GraphException("label not set");
 			}
+			CypherUtil.assertValidLabel(label);
 
 			populateMatchValues();
+			flushPending();
 
-			String whereClause = "";
-			if (!Strings.isNullOrEmpty(attributeLessThanName)) {
-				whereClause = " where a." + attributeLessThanName + " < " + attributeLessThanValue + " ";
-			}
-			String setClause = dataAttributes.isEmpty() ? "" : " set a+= {__params}, a.graphUpdateTs=timestamp() ";
-
-			String cypher = "match (a:" + label + " " + toPatternClause(idAttributes) + ") "
-					+ toRemoveClause(removeAttributes) + setClause + " " + whereClause + " return a";
+			boolean hasData = !dataAttributes.isEmpty();
+			String cypher = StatementCache.get(() -> {
+				String setClause = hasData ? " set a+= {__params}, a.graphUpdateTs=timestamp() " : "";
+				return "match (a:" + label + " " + toPatternClause(idAttributes) + ") " + toWhereClause()
+						+ toRemoveClause(removeAttributes) + setClause + " return a";
+			}, "match", label, idAttributes.keySet(), removeAttributes, attributeLessThanName, hasData);
 
 			Map<String, Object> combined = new HashMap<>();
 			if (dataAttributes != null) {
@@ -316,7 +514,21 @@ public class GraphBuilder {
 				combined.putAll(idAttributes);
 			}
 			injectDigest(combined);
-			return neo4j.newTemplate().cypher(cypher).params(combined).stream();
+			return neo4j.newTemplate().cypher(cypher).params(withCutoffParam(combined)).withStreaming(streaming)
+					.stream();
+		}
+
+		String toMergeCypher() {
+			return StatementCache.get(() -> {
+				// WHERE cannot follow MERGE directly
+				String whereClause = toWhereClause();
+				if (!whereClause.isEmpty()) {
+					whereClause = " with a " + whereClause;
+				}
+				return "merge (a:" + label + " " + toPatternClause(idAttributes) + " ) " + whereClause
+						+ toRemoveClause(removeAttributes) + " set a+={__params}, a.graphUpdateTs=timestamp() "
+						+ " return a";
+			}, "merge", label, idAttributes.keySet(), removeAttributes, attributeLessThanName);
 		}
 
 		public Stream<JsonNode> merge() {
@@ -324,35 +536,66 @@ public class GraphBuilder {
 			if (Strings.isNullOrEmpty(label)) {
 				throw new GraphException("label not set");
 			}
-			String whereClause = "";
-			if (!Strings.isNullOrEmpty(attributeLessThanName)) {
-				whereClause = " where a." + attributeLessThanName + " < " + attributeLessThanValue + " ";
+			CypherUtil.assertValidLabel(label);
+
+			if (idAttributes.isEmpty()) {
+				throw new GraphException("match pattern not set");
 			}
 
 			Map<String, Object> combined = new HashMap<>();
+			WriteBehindBuffer buffer = writeBehind;
+			if (buffer != null) {
+				// a deferred write of the same node must not land after this one
+				Map<String, Object> pending = buffer.take(DigestStore.key(label, idAttributes));
+				if (pending != null) {
+					combined.putAll(pending);
+				}
+			}
 			if (dataAttributes != null) {
 				combined.putAll(dataAttributes);
 			}
-			if (idAttributes != null) {
-				combined.putAll(idAttributes);
-			}
+			combined.putAll(idAttributes);
 
-			String patternClause = toPatternClause(idAttributes);
-			if (patternClause.trim().isEmpty()) {
-				throw new GraphException("match pattern not set");
-			}
-			String cypher = "merge (a:" + label + " " + toPatternClause(idAttributes) + " ) "
-					+ toRemoveClause(removeAttributes) + " set a+={__params}, a.graphUpdateTs=timestamp() "
-					+ whereClause + " return a";
+			String cypher = toMergeCypher();
 
 			injectDigest(combined);
-			List<JsonNode> results = neo4j.newTemplate().cypher(cypher).params(combined).stream()
-					.collect(Collectors.toList());
+
+			// Digest gating: if the node was last written with exactly these
+			// properties, only graphUpdateTs needs to change. The touch is never
+			// skipped because gc relies on graphUpdateTs.
+			DigestStore store = digestStore;
+			boolean gated = store != null && removeAttributes.isEmpty() && Strings.isNullOrEmpty(attributeLessThanName);
+			String digestKey = gated ? DigestStore.key(label, idAttributes) : null;
+			String writeDigest = gated ? store.digest(combined) : null;
+			// null removes a digest that an ungated write would make stale
+			combined.put(DigestStore.WRITE_DIGEST, writeDigest);
+
+			List<JsonNode> results = null;
+			if (gated && store.isUnchanged(digestKey, writeDigest)) {
+				String touchCypher = StatementCache.get(() -> {
+					return "match (a:" + label + " " + toPatternClause(idAttributes)
+							+ ") set a.graphUpdateTs=timestamp() return a";
+				}, "touch", label, idAttributes.keySet());
+				results = neo4j.newTemplate().cypher(touchCypher).params(idAttributes).list();
+				if (results.isEmpty()) {
+					// deleted behind our back
+					store.invalidate(digestKey);
+					results = null;
+				}
+			}
+			if (results == null) {
+				results = neo4j.newTemplate().cypher(cypher).params(withCutoffParam(new HashMap<>(combined))).stream()
+						.collect(Collectors.toList());
+				if (gated) {
+					neo4j.afterCommit(() -> store.put(digestKey, writeDigest));
+				}
+			}
 
 			// look through the results and remove specific attributes that are gone.
+			List<JsonNode> finalResults = results;
 			Set<String> attributesToBeRemoved = Sets.newHashSet();
 			shadowAttributePrefixes.forEach(prefix -> {
-				results.forEach(it -> {
+				finalResults.forEach(it -> {
 					it.fieldNames().forEachRemaining(attr -> {
 						if (attr.startsWith(prefix) && (!combined.containsKey(attr))) {
 							attributesToBeRemoved.add(attr);
@@ -363,18 +606,148 @@ public class GraphBuilder {
 
 			if (!attributesToBeRemoved.isEmpty()) {
 				logger.info("removing shadow attributes: {}", attributesToBeRemoved);
-				cypher = "merge (a:" + label + " " + toPatternClause(idAttributes) + " ) "
-						+ toRemoveClause(attributesToBeRemoved);
+				String removeCypher = StatementCache.get(() -> {
+					return "match (a:" + label + " " + toPatternClause(idAttributes) + " ) "
+							+ toRemoveClause(attributesToBeRemoved);
+				}, "removeShadow", label, idAttributes.keySet(), attributesToBeRemoved);
 
-				neo4j.newTemplate().cypher(cypher).params(combined).exec();
+				neo4j.newTemplate().cypher(removeCypher).params(idAttributes).exec();
 			}
 
 			return results.stream();
 		}
 
+		/**
+		 * Queues the merge in the write-behind buffer and returns immediately. The
+		 * properties of pending merges of the same node are combined, later values
+		 * winning.
+		 * 
+		 * Falls back to merge() if write-behind is not enabled, inside
+		 * inTransaction(), or if the operation removes attributes or has a where
+		 * clause.
+		 */
+		public void mergeDeferred() {
+			WriteBehindBuffer buffer = writeBehind;
+			if (buffer == null || neo4j.isInTransaction() || !removeAttributes.isEmpty()
+					|| !shadowAttributePrefixes.isEmpty() || !Strings.isNullOrEmpty(attributeLessThanName)) {
+				merge();
+				return;
+			}
+			populateMatchValues();
+			if (Strings.isNullOrEmpty(label)) {
+				throw new GraphException("label not set");
+			}
+			CypherUtil.assertValidLabel(label);
+			if (idAttributes.isEmpty()) {
+				throw new GraphException("match pattern not set");
+			}
+			String key = DigestStore.key(label, idAttributes);
+			DigestStore store = digestStore;
+			if (store != null && store.isTallying()) {
+				// counted here, on the scanning thread, since the flush happens elsewhere
+				Map<String, Object> combined = new HashMap<>(dataAttributes);
+				combined.putAll(idAttributes);
+				store.tally(key, store.digest(combined));
+			}
+			buffer.addNode(key, label, idAttributes, dataAttributes);
+		}
+
+		/**
+		 * Merges many nodes of this label with one UNWIND statement per chunk.
+		 * Each row supplies the idKey() values and data for one node. Properties
+		 * and id values set on this operation are applied to every row.
+		 * 
+		 * Attribute removal is not supported in batch mode.
+		 * 
+		 * @param rows
+		 * @return number of nodes merged
+		 */
+		@SuppressWarnings("unchecked")
+		public long mergeAll(List<? extends JsonNode> rows) {
+			if (Strings.isNullOrEmpty(label)) {
+				throw new GraphException("label not set");
+			}
+			if (!removeAttributes.isEmpty() || !shadowAttributePrefixes.isEmpty()) {
+				throw new GraphException("attribute removal is not supported by mergeAll()");
+			}
+			flushPending();
+
+			List<Map<String, Object>> batch = Lists.newArrayListWithCapacity(rows.size());
+			for (JsonNode row : rows) {
+				Map<String, Object> combined = new HashMap<>(dataAttributes);
+				if (row != null && row.isObject()) {
+					combined.putAll(mapper.convertValue(stripComplexAttributes((ObjectNode) row), Map.class));
+				}
+				combined.putAll(idAttributes);
+				batch.add(combined);
+			}
+			return mergeRows(batch);
+		}
+
+		/**
+		 * Batch merge of rows that already contain every id key.
+		 * 
+		 * @param batch
+		 * @return number of nodes merged
+		 */
+		long mergeRows(List<Map<String, Object>> batch) {
+			CypherUtil.assertValidLabel(label);
+			SortedSet<String> keys = new TreeSet<>(idAttributeNames);
+			keys.addAll(idAttributes.keySet());
+			if (keys.isEmpty()) {
+				throw new GraphException("match pattern not set");
+			}
+			for (Map<String, Object> combined : batch) {
+				for (String key : keys) {
+					if (combined.get(key) == null) {
+						throw new GraphException("match key: '" + key + "' not present in data");
+					}
+				}
+				injectDigest(combined);
+			}
+
+			// keep digest gating in step with nodes written here
+			DigestStore store = digestStore;
+			Map<String, String> digests = new HashMap<>();
+			for (Map<String, Object> combined : batch) {
+				String digest = null;
+				if (store != null) {
+					Map<String, Object> ids = new HashMap<>();
+					keys.forEach(k -> ids.put(k, combined.get(k)));
+					String key = DigestStore.key(label, ids);
+					digest = store.digest(combined);
+					store.tally(key, digest);
+					digests.put(key, digest);
+				}
+				combined.put(DigestStore.WRITE_DIGEST, digest);
+			}
+
+			StringBuffer pattern = new StringBuffer();
+			for (String key : keys) {
+				pattern.append(pattern.length() == 0 ? "{" : ", ");
+				pattern.append(key);
+				pattern.append(":row.");
+				pattern.append(key);
+			}
+			pattern.append("}");
+
+			String cypher = "merge (a:" + label + " " + pattern
+					+ ") set a+=row, a.graphUpdateTs=timestamp() return count(a) as count";
+			long count = 0;
+			for (JsonNode it : neo4j.newTemplate().cypher(cypher).batch(batch)) {
+				count += it.path("count").asLong();
+			}
+
+			if (store != null) {
+				neo4j.afterCommit(() -> digests.forEach(store::put));
+			}
+			return count;
+		}
+
 		@SuppressWarnings("unchecked")
 		public RelationshipBuilder.Relationship relationship(String name) {
-			FromNode n = new RelationshipBuilder().driver(getNeo4jDriver()).from(this.label);
+			FromNode n = new RelationshipBuilder().driver(getNeo4jDriver()).writeBehind(writeBehind)
+					.from(this.label);
 
 			for (String it : idAttributeNames) {
 				n = n.id(it, dataAttributes.get(it));
@@ -509,7 +882,7 @@ public class GraphBuilder {
 		StringBuffer sb = new StringBuffer();
 		sb.append("{");
 		AtomicInteger count = new AtomicInteger(0);
-		m.keySet().forEach(it -> {
+		new TreeSet<>(m.keySet()).forEach(it -> {
 			if (count.getAndIncrement() != 0) {
 				sb.append(", ");
 			}
@@ -553,7 +926,7 @@ public class GraphBuilder {
 		if (s.startsWith("tag_") || s.startsWith("annotation_") || s.startsWith("label_")) {
 			return true;
 		}
-		if (s.equals("graphEntityDigest")) {
+		if (s.equals("graphEntityDigest") || s.equals(DigestStore.WRITE_DIGEST)) {
 			return true;
 		}
 		return false;
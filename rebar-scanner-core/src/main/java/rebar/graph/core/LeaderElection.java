@@ -0,0 +1,200 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.core;
+
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import rebar.graph.neo4j.CypherTemplate;
+import rebar.graph.neo4j.GraphDriver;
+import rebar.graph.neo4j.GraphException;
+
+/**
+ * Elects one process in the fleet to run a job, using a lease stored in the
+ * graph (a RebarLeaderLease node per job name).
+ *
+ * The leader renews its lease every time it calls tryAcquire(). If it stops
+ * doing so, another candidate takes over once the lease expires. Every change
+ * of leader increments the lease's fencing token. A leader that was paused
+ * past its lease (GC, network partition) still believes it leads, so writes
+ * that must not be repeated should go through fencedCypher(), which only
+ * applies them while the token is still current.
+ *
+ * runIfLeader() keeps renewing the lease in the background while its task
+ * runs, so a job that takes longer than the TTL is not started a second time
+ * by another candidate. Lease names are unique by constraint (see
+ * ScannerModule).
+ */
+public class LeaderElection {
+
+	static Logger logger = LoggerFactory.getLogger(LeaderElection.class);
+
+	public static final long DEFAULT_LEASE_TTL_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+	static final ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setNameFormat("lease-renewer-%d").setDaemon(true).build());
+
+	final GraphDriver driver;
+	final String name;
+	final String candidateId;
+	long leaseTtlMillis = DEFAULT_LEASE_TTL_MILLIS;
+
+	private volatile Long token;
+	private volatile long deadlineNanos;
+
+	public LeaderElection(GraphDriver driver, String name, String candidateId) {
+		this.driver = Preconditions.checkNotNull(driver);
+		this.name = Preconditions.checkNotNull(name);
+		this.candidateId = Preconditions.checkNotNull(candidateId);
+	}
+
+	public LeaderElection withLeaseTtl(long ttl, TimeUnit unit) {
+		Preconditions.checkArgument(ttl > 0, "ttl must be >0");
+		this.leaseTtlMillis = unit.toMillis(ttl);
+		return this;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Becomes leader, or renews the lease if already leader.
+	 *
+	 * @return true if this candidate is the leader
+	 */
+	public synchronized boolean tryAcquire() {
+		// the lease is measured from before the write, so it ends here no later than in the graph
+		long t0 = System.nanoTime();
+		// setting lockTs takes the write lock before the owner is checked. The token
+		// is set first, while owner still holds the previous leader.
+		Optional<JsonNode> lease = driver.cypher(
+				"merge (l:RebarLeaderLease {name:{name}}) set l.lockTs=timestamp() with l where l.owner is null or l.owner={owner} or l.expiresTs<timestamp() "
+						+ "set l.token=case when l.owner={owner} and l.expiresTs>=timestamp() then l.token else coalesce(l.token,0)+1 end, "
+						+ "l.owner={owner}, l.expiresTs=timestamp()+{ttl} return l.token as token")
+				.param("name", name).param("owner", candidateId).param("ttl", leaseTtlMillis)
+				.withPool(GraphDriver.CONTROL_POOL).findFirst();
+		if (!lease.isPresent()) {
+			if (token != null) {
+				logger.info("lost leadership of {}", name);
+			}
+			token = null;
+			return false;
+		}
+		long newToken = lease.get().path("token").asLong();
+		if (token == null || token != newToken) {
+			logger.info("{} is now leader of {} (token={})", candidateId, name, newToken);
+		}
+		token = newToken;
+		deadlineNanos = t0 + TimeUnit.MILLISECONDS.toNanos(leaseTtlMillis);
+		return true;
+	}
+
+	/**
+	 * Whether this candidate held the lease the last time it checked, and the
+	 * lease has not run out since.
+	 *
+	 * @return
+	 */
+	public boolean isLeader() {
+		return token != null && System.nanoTime() - deadlineNanos < 0;
+	}
+
+	public Optional<Long> getFencingToken() {
+		return isLeader() ? Optional.of(token) : Optional.empty();
+	}
+
+	/**
+	 * Runs the task on this process only if it is (or becomes) the leader.
+	 *
+	 * @param task
+	 * @return true if the task was run
+	 */
+	public boolean runIfLeader(Runnable task) {
+		try {
+			if (!tryAcquire()) {
+				logger.debug("not leader of {} ... skipping", name);
+				return false;
+			}
+		} catch (RuntimeException e) {
+			logger.warn("could not check leadership of {} ... skipping", name, e);
+			return false;
+		}
+		long period = Math.max(1, leaseTtlMillis / 3);
+		ScheduledFuture<?> renewal = renewer.scheduleWithFixedDelay(this::renew, period, period,
+				TimeUnit.MILLISECONDS);
+		try {
+			task.run();
+		} finally {
+			renewal.cancel(false);
+		}
+		return true;
+	}
+
+	private void renew() {
+		try {
+			if (!tryAcquire()) {
+				// fencedCypher() stops applying the task's writes from here on
+				logger.warn("lost leadership of {} while running", name);
+			}
+		} catch (RuntimeException e) {
+			logger.warn("could not renew lease for {}", name, e);
+		}
+	}
+
+	/**
+	 * Prefixes the statement with a check of the fencing token, so that it
+	 * matches nothing, and changes nothing, once another candidate has taken
+	 * over. The statement must start with a clause that can follow WITH.
+	 *
+	 * @param cypher
+	 * @return
+	 */
+	public CypherTemplate fencedCypher(String cypher) {
+		Long t = token;
+		if (t == null) {
+			throw new GraphException("not leader of " + name);
+		}
+		return driver.cypher(
+				"match (fence:RebarLeaderLease {name:{fenceName}}) where fence.token={fenceToken} set fence.fencedTs=timestamp() with fence "
+						+ cypher)
+				.param("fenceName", name).param("fenceToken", t);
+	}
+
+	/**
+	 * Gives up the lease, so that another candidate can take over without
+	 * waiting for it to expire.
+	 */
+	public synchronized void release() {
+		Long t = token;
+		token = null;
+		if (t != null) {
+			driver.cypher("match (l:RebarLeaderLease {name:{name},owner:{owner},token:{token}}) set l.expiresTs=0")
+					.param("name", name).param("owner", candidateId).param("token", t)
+					.withPool(GraphDriver.CONTROL_POOL).exec();
+		}
+	}
+}
@@ -0,0 +1,600 @@
+package rebar.graph.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import rebar.graph.core.Neo4jScanQueue.Subscription;
+import rebar.util.Json;
+import rebar.util.RebarException;
+
+/**
+ * ScanQueue that lives in the scanner process and persists to an append-only
+ * log on local disk, so that queued scans survive a restart.
+ *
+ * The log is a series of fixed-size memory-mapped segment files holding
+ * length-prefixed, checksummed submit and ack records. On start the segments
+ * are replayed and every submit without an ack is queued again. Segments are
+ * deleted oldest-first once every request they hold has been acknowledged.
+ * Writes are not forced to disk, so a process crash loses nothing but an OS
+ * crash may lose the most recent requests.
+ *
+ * An identical request (same type and arguments) is dropped if one is still
+ * queued. A duplicate with a higher priority promotes the queued request. An
+ * identical request that arrives while one is being delivered is held until
+ * that delivery completes and then queued, so that a change made during a
+ * scan is not missed.
+ *
+ * Requests are delivered from the highest non-empty priority lane. Requests for
+ * a type with no subscription are held until one is added or until they
+ * exceed the maximum age. Subscriptions are indexed by type.
+ */
+public class LocalScanQueue implements ScanQueue, AutoCloseable {
+
+	static Logger logger = LoggerFactory.getLogger(LocalScanQueue.class);
+
+	public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+	public static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+	static final String SEGMENT_PREFIX = "scan-queue-";
+	static final String SEGMENT_SUFFIX = ".log";
+	static final Pattern SEGMENT_PATTERN = Pattern.compile(SEGMENT_PREFIX + "(\\d+)" + SEGMENT_SUFFIX);
+
+	static final int RECORD_HEADER_SIZE = 8;
+
+	static class Item {
+		String id;
+		Priority priority;
+		String type;
+		List<String> args;
+		long createTs;
+		String key;
+		Segment segment;
+		boolean done;
+
+		ObjectNode toJson() {
+			ObjectNode n = Json.objectNode();
+			n.put("id", id);
+			n.put("type", type);
+			n.put("priority", priority.name());
+			n.put("createTs", createTs);
+			for (int i = 0; i < args.size(); i++) {
+				n.put("n" + i, args.get(i));
+			}
+			return n;
+		}
+	}
+
+	static class Segment {
+		final int index;
+		final File file;
+		final MappedByteBuffer buffer;
+		int live = 0;
+
+		Segment(int index, File file, int size) throws IOException {
+			this.index = index;
+			this.file = file;
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				if (raf.length() < size) {
+					raf.setLength(size);
+				}
+				// the mapping stays valid after the file is closed
+				this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+			}
+		}
+
+		void close() {
+			buffer.force();
+		}
+	}
+
+	final File dir;
+	int segmentSize = DEFAULT_SEGMENT_SIZE;
+	long maxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+	int dispatcherThreads = 1;
+
+	private final Object lock = new Object();
+	private final Deque<Segment> segments = new ArrayDeque<>();
+	private Segment active;
+	private final EnumMap<Priority, Deque<Item>> lanes = new EnumMap<>(Priority.class);
+	private final Map<String, Item> pendingByKey = new HashMap<>();
+	private final Map<String, List<Item>> parked = new HashMap<>();
+	private final Map<String, Item> inFlight = new HashMap<>();
+	private final Map<String, Item> deferred = new HashMap<>();
+	private volatile boolean running = false;
+
+	final Map<String, List<Subscription>> subscriptions = new ConcurrentHashMap<>();
+
+	private final AtomicLong submittedCount = new AtomicLong();
+	private final AtomicLong deduplicatedCount = new AtomicLong();
+	private final AtomicLong deliveredCount = new AtomicLong();
+	private final AtomicLong expiredCount = new AtomicLong();
+
+	private ScheduledExecutorService executor;
+
+	public LocalScanQueue(File dir) {
+		this.dir = Preconditions.checkNotNull(dir);
+		for (Priority p : Priority.values()) {
+			lanes.put(p, new ArrayDeque<>());
+		}
+	}
+
+	public LocalScanQueue withMaxAge(long age, TimeUnit unit) {
+		Preconditions.checkState(!running, "already started");
+		this.maxAgeMillis = unit.toMillis(age);
+		return this;
+	}
+
+	public LocalScanQueue withDispatcherThreads(int threads) {
+		Preconditions.checkState(!running, "already started");
+		Preconditions.checkArgument(threads > 0, "threads must be >0");
+		this.dispatcherThreads = threads;
+		return this;
+	}
+
+	LocalScanQueue withSegmentSize(int size) {
+		Preconditions.checkState(!running, "already started");
+		Preconditions.checkArgument(size > RECORD_HEADER_SIZE, "segment too small");
+		this.segmentSize = size;
+		return this;
+	}
+
+	/**
+	 * Replays the log and starts delivering.
+	 */
+	public void start() {
+		synchronized (lock) {
+			Preconditions.checkState(!running, "already started");
+			try {
+				replay();
+			} catch (IOException e) {
+				throw new RebarException(e);
+			}
+			running = true;
+		}
+		executor = Executors.newScheduledThreadPool(dispatcherThreads + 1,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("scan-queue-%d").build());
+		for (int i = 0; i < dispatcherThreads; i++) {
+			executor.execute(this::dispatchLoop);
+		}
+		executor.scheduleWithFixedDelay(this::purgeExpired, 1, 1, TimeUnit.MINUTES);
+		logger.info("started {} with {} pending requests in {}", getClass().getSimpleName(), getPendingCount(), dir);
+	}
+
+	@Override
+	public void close() {
+		synchronized (lock) {
+			if (!running) {
+				return;
+			}
+			running = false;
+			lock.notifyAll();
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (lock) {
+			segments.forEach(Segment::close);
+		}
+	}
+
+	static String key(String type, List<String> args) {
+		List<String> parts = new ArrayList<>(args.size() + 1);
+		parts.add(type);
+		args.forEach(it -> parts.add(Strings.nullToEmpty(it)));
+		return Joiner.on('\u0000').join(parts);
+	}
+
+	@Override
+	public void submit(String type, String a, String... n) {
+		submit(Priority.NORMAL, type, a, n);
+	}
+
+	@Override
+	public void submit(Priority priority, String type, String a, String... n) {
+		Preconditions.checkArgument(!Strings.isNullOrEmpty(type), "type must be set");
+		Preconditions.checkNotNull(priority);
+		List<String> args = new ArrayList<>();
+		args.add(a);
+		if (n != null) {
+			args.addAll(Arrays.asList(n));
+		}
+		String key = key(type, args);
+
+		synchronized (lock) {
+			Preconditions.checkState(running, "not running");
+			Item pending = pendingByKey.get(key);
+			if (pending != null) {
+				if (priority.compareTo(pending.priority) < 0) {
+					// the entry left in the lower lane is skipped when it is polled
+					boolean inLane = !isParked(pending) && deferred.get(key) != pending;
+					pending.priority = priority;
+					if (inLane) {
+						lanes.get(priority).addLast(pending);
+						lock.notifyAll();
+					}
+				}
+				deduplicatedCount.incrementAndGet();
+				return;
+			}
+			Item item = new Item();
+			item.id = UUID.randomUUID().toString();
+			item.priority = priority;
+			item.type = type;
+			item.args = args;
+			item.createTs = System.currentTimeMillis();
+			item.key = key;
+
+			ObjectNode record = item.toJson();
+			record.put("op", "submit");
+			item.segment = append(record);
+			item.segment.live++;
+
+			pendingByKey.put(key, item);
+			if (inFlight.containsKey(key)) {
+				deferred.put(key, item);
+			} else {
+				enqueue(item);
+			}
+			submittedCount.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void subscribe(Consumer<JsonNode> consumer, String type, String a, String b) {
+		Subscription sub = new Subscription();
+		sub.type = type;
+		sub.n0 = a;
+		sub.n1 = b;
+		sub.consumer = consumer;
+		subscriptions.computeIfAbsent(type, t -> new CopyOnWriteArrayList<>()).add(sub);
+
+		synchronized (lock) {
+			List<Item> waiting = parked.remove(type);
+			if (waiting != null) {
+				waiting.forEach(it -> lanes.get(it.priority).addLast(it));
+				lock.notifyAll();
+			}
+		}
+	}
+
+	@Override
+	public boolean supportsPriority() {
+		return true;
+	}
+
+	private boolean isParked(Item item) {
+		List<Item> waiting = parked.get(item.type);
+		return waiting != null && waiting.contains(item);
+	}
+
+	private void enqueue(Item item) {
+		List<Subscription> subs = subscriptions.get(item.type);
+		if (subs == null || subs.isEmpty()) {
+			parked.computeIfAbsent(item.type, t -> new ArrayList<>()).add(item);
+		} else {
+			lanes.get(item.priority).addLast(item);
+			lock.notifyAll();
+		}
+	}
+
+	private Item poll() {
+		for (Map.Entry<Priority, Deque<Item>> lane : lanes.entrySet()) {
+			Item item;
+			while ((item = lane.getValue().pollFirst()) != null) {
+				if (!item.done && item.priority == lane.getKey()) {
+					return item;
+				}
+			}
+		}
+		return null;
+	}
+
+	private void dispatchLoop() {
+		while (true) {
+			Item item = null;
+			synchronized (lock) {
+				while (running) {
+					item = poll();
+					if (item != null) {
+						break;
+					}
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+				if (!running || item == null) {
+					return;
+				}
+				pendingByKey.remove(item.key);
+				inFlight.put(item.key, item);
+			}
+			try {
+				deliver(item);
+			} finally {
+				synchronized (lock) {
+					ack(item);
+					inFlight.remove(item.key);
+					Item next = deferred.remove(item.key);
+					if (next != null) {
+						enqueue(next);
+					}
+				}
+			}
+		}
+	}
+
+	void deliver(Item item) {
+		JsonNode event = item.toJson();
+		List<Subscription> subs = subscriptions.getOrDefault(item.type, Collections.emptyList());
+		boolean matched = false;
+		for (Subscription sub : subs) {
+			try {
+				if (sub.match(event)) {
+					matched = true;
+					sub.consumer.accept(event);
+				}
+			} catch (Exception e) {
+				logger.warn("unhandled exception while processing subscription " + sub, e);
+			}
+		}
+		if (matched) {
+			deliveredCount.incrementAndGet();
+		} else {
+			logger.debug("no subscription matched {}", event);
+		}
+	}
+
+	private void ack(Item item) {
+		if (item.done) {
+			return;
+		}
+		item.done = true;
+		ObjectNode record = Json.objectNode();
+		record.put("op", "ack");
+		record.put("id", item.id);
+		append(record);
+		item.segment.live--;
+		compact();
+	}
+
+	void purgeExpired() {
+		try {
+			long cutoff = System.currentTimeMillis() - maxAgeMillis;
+			synchronized (lock) {
+				parked.values().forEach(waiting -> {
+					waiting.removeIf(it -> {
+						if (it.createTs < cutoff) {
+							logger.info("dropping expired scan request type={} args={}", it.type, it.args);
+							pendingByKey.remove(it.key);
+							ack(it);
+							expiredCount.incrementAndGet();
+							return true;
+						}
+						return false;
+					});
+				});
+				parked.values().removeIf(List::isEmpty);
+			}
+		} catch (RuntimeException e) {
+			logger.warn("problem purging expired scan requests", e);
+		}
+	}
+
+	private File segmentFile(int index) {
+		return new File(dir, String.format("%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+	}
+
+	private Segment append(ObjectNode record) {
+		byte[] data;
+		try {
+			data = Json.objectMapper().writeValueAsBytes(record);
+		} catch (IOException e) {
+			throw new RebarException(e);
+		}
+		int size = RECORD_HEADER_SIZE + data.length;
+		if (size > segmentSize - 4) {
+			throw new RebarException("scan request too large: " + data.length + " bytes");
+		}
+		// leave room for a zero length marking the end of the segment
+		if (active.buffer.remaining() < size + 4) {
+			roll();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		active.buffer.putInt(data.length);
+		active.buffer.putInt((int) crc.getValue());
+		active.buffer.put(data);
+		return active;
+	}
+
+	private void roll() {
+		try {
+			Segment next = new Segment(active.index + 1, segmentFile(active.index + 1), segmentSize);
+			segments.addLast(next);
+			active = next;
+			compact();
+		} catch (IOException e) {
+			throw new RebarException(e);
+		}
+	}
+
+	/**
+	 * Deletes leading segments that hold nothing pending. Acks are always in the
+	 * same or a later segment than their submit, so deleting in order never loses
+	 * an ack that is still needed.
+	 */
+	private void compact() {
+		while (segments.size() > 1 && segments.peekFirst().live <= 0) {
+			Segment s = segments.removeFirst();
+			s.close();
+			if (!s.file.delete()) {
+				logger.warn("could not delete {}", s.file);
+			}
+		}
+	}
+
+	private void replay() throws IOException {
+		if (!dir.exists() && !dir.mkdirs()) {
+			throw new IOException("could not create " + dir);
+		}
+		List<Integer> indexes = new ArrayList<>();
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				Matcher m = SEGMENT_PATTERN.matcher(f.getName());
+				if (m.matches()) {
+					indexes.add(Integer.parseInt(m.group(1)));
+				}
+			}
+		}
+		Collections.sort(indexes);
+
+		Map<String, Item> items = new LinkedHashMap<>();
+		for (int index : indexes) {
+			Segment s = new Segment(index, segmentFile(index), segmentSize);
+			readSegment(s, items);
+			segments.addLast(s);
+		}
+		if (segments.isEmpty()) {
+			segments.addLast(new Segment(0, segmentFile(0), segmentSize));
+		}
+		active = segments.peekLast();
+
+		for (Item item : items.values()) {
+			if (pendingByKey.containsKey(item.key)) {
+				item.segment.live--;
+				continue;
+			}
+			pendingByKey.put(item.key, item);
+			enqueue(item);
+		}
+		compact();
+	}
+
+	private void readSegment(Segment s, Map<String, Item> items) {
+		MappedByteBuffer buffer = s.buffer;
+		buffer.position(0);
+		while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if (length <= 0 || length > buffer.remaining()) {
+				buffer.position(start);
+				break;
+			}
+			byte[] data = new byte[length];
+			buffer.get(data);
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			if ((int) crc.getValue() != checksum) {
+				// torn write at the end of the log
+				logger.warn("ignoring corrupt record at {}:{}", s.file, start);
+				buffer.position(start);
+				break;
+			}
+			try {
+				JsonNode record = Json.objectMapper().readTree(data);
+				String id = record.path("id").asText();
+				if (record.path("op").asText().equals("ack")) {
+					Item item = items.remove(id);
+					if (item != null) {
+						item.segment.live--;
+					}
+				} else {
+					Item item = new Item();
+					item.id = id;
+					item.type = record.path("type").asText();
+					item.priority = Priority.valueOf(record.path("priority").asText(Priority.NORMAL.name()));
+					item.createTs = record.path("createTs").asLong();
+					List<String> args = new ArrayList<>();
+					for (int i = 0; record.has("n" + i); i++) {
+						JsonNode arg = record.path("n" + i);
+						args.add(arg.isNull() ? "" : arg.asText());
+					}
+					item.args = ImmutableList.copyOf(args);
+					item.key = key(item.type, item.args);
+					item.segment = s;
+					s.live++;
+					items.put(id, item);
+				}
+			} catch (IOException | RuntimeException e) {
+				logger.warn("ignoring unreadable record at {}:{}", s.file, start, e);
+			}
+		}
+		// zero any partial record so that appends start on a clean tail
+		int end = buffer.position();
+		while (buffer.hasRemaining() && buffer.position() < end + RECORD_HEADER_SIZE) {
+			buffer.put((byte) 0);
+		}
+		buffer.position(end);
+	}
+
+	public int getPendingCount() {
+		synchronized (lock) {
+			return pendingByKey.size();
+		}
+	}
+
+	public long getSubmittedCount() {
+		return submittedCount.get();
+	}
+
+	public long getDeduplicatedCount() {
+		return deduplicatedCount.get();
+	}
+
+	public long getDeliveredCount() {
+		return deliveredCount.get();
+	}
+
+	public long getExpiredCount() {
+		return expiredCount.get();
+	}
+
+	int getSegmentCount() {
+		synchronized (lock) {
+			return segments.size();
+		}
+	}
+}
@@ -3,6 +3,8 @@ package rebar.graph.core;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -18,7 +20,11 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import rebar.graph.neo4j.GraphDriver;
+import rebar.graph.neo4j.GraphException;
 import rebar.util.Sleep;
 
 public class Neo4jScanQueue implements ScanQueue {
@@ -29,6 +35,13 @@ public class Neo4jScanQueue implements ScanQueue {
 	ScheduledExecutorService exeutor = Executors.newSingleThreadScheduledExecutor(
 			new ThreadFactoryBuilder().setDaemon(true).setUncaughtExceptionHandler(this::handleException).build());
 	GraphDriver neo4j;
+	LeaderElection purgeLeader;
+
+	MeterRegistry meterRegistry = Metrics.globalRegistry;
+	Counter submitFailureCounter = Counter.builder("scanQueueSubmitFailures")
+			.description("scan requests that could not be written to the queue").register(meterRegistry);
+
+	static final String PURGE_CYPHER = "match (q:ScanQueueItem) where q.createTs<(timestamp()-{age}) or (NOT exists(q.createTs)) detach delete q";
 
 	List<Subscription> subs = Lists.newCopyOnWriteArrayList();
 
@@ -77,15 +90,38 @@ public class Neo4jScanQueue implements ScanQueue {
 	public Neo4jScanQueue(GraphDriver driver) {
 
 		this.neo4j = driver;
-
+		// outlives the purge interval, so that the leader keeps it between purges
+		this.purgeLeader = new LeaderElection(driver, "scan-queue-purge", selfId).withLeaseTtl(10, TimeUnit.MINUTES);
 	}
 
 	private void handleException(Thread t, Throwable e) {
 		logger.warn("problem", e);
 	}
 
+	/**
+	 * Writes the request and waits for it.
+	 * 
+	 * @throws GraphException
+	 *             if the request could not be written
+	 */
 	@Override
 	public void submit(String type, String a, String ...args) {
+		try {
+			submitAsync(type, a, args).toCompletableFuture().join();
+		} catch (CompletionException e) {
+			throw e.getCause() instanceof GraphException ? (GraphException) e.getCause()
+					: new GraphException(e.getCause());
+		}
+	}
+
+	/**
+	 * Writes the request without blocking, for submitters in the middle of a
+	 * scan. Failures are logged and counted in scanQueueSubmitFailures, and
+	 * complete the returned stage exceptionally.
+	 * 
+	 * @return
+	 */
+	public CompletionStage<Void> submitAsync(String type, String a, String... args) {
 		String id = UUID.randomUUID().toString();
 
 		Map<String,String> data = Maps.newHashMap();
@@ -96,13 +132,18 @@ public class Neo4jScanQueue implements ScanQueue {
 				data.put("n"+(i+1), args[i]);
 			}
 		}
-		neo4j.cypher(
+		return neo4j.cypher(
 				"create (q:ScanQueueItem {id:{id},type:{type}}) set q.createTs=timestamp(),q+={data} return q")
-				.param("id", id).param("type", type).param("data",data).exec();
-		
-	
-		
+				.param("id", id).param("type", type).param("data",data).execAsync().whenComplete((v, e) -> {
+					if (e != null) {
+						submitFailureCounter.increment();
+						logger.warn("could not submit ScanQueueItem type={} data={}", type, data, e);
+					}
+				});
+	}
 
+	public long getSubmitFailureCount() {
+		return (long) submitFailureCounter.count();
 	}
 
 	void purgeOldItems() {
@@ -110,9 +151,15 @@ public class Neo4jScanQueue implements ScanQueue {
 	}
 
 	void purgeOldItems(int t, TimeUnit unit) {
-		neo4j.cypher(
-				"match (q:ScanQueueItem) where q.createTs<(timestamp()-{age}) or (NOT exists(q.createTs)) detach delete q")
-				.param("age", unit.toMillis(Math.abs(t))).exec();
+		neo4j.cypher(PURGE_CYPHER).param("age", unit.toMillis(Math.abs(t))).exec();
+	}
+
+	/**
+	 * The queue is shared by every process, so only one of them purges it.
+	 */
+	void purgeOldItemsIfLeader() {
+		purgeLeader.runIfLeader(() -> purgeLeader.fencedCypher(PURGE_CYPHER)
+				.param("age", TimeUnit.MINUTES.toMillis(1)).exec());
 	}
 
 	void deleteQueueItem(String id) {
@@ -204,7 +251,7 @@ public class Neo4jScanQueue implements ScanQueue {
 		};
 		logger.info("starting {}", this);
 		exeutor.scheduleWithFixedDelay(r, 0, 5, TimeUnit.SECONDS);
-		exeutor.scheduleWithFixedDelay(this::purgeOldItems, 0, 5, TimeUnit.MINUTES);
+		exeutor.scheduleWithFixedDelay(this::purgeOldItemsIfLeader, 0, 5, TimeUnit.MINUTES);
 	}
 
 	@Override
@@ -0,0 +1,224 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.core;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+
+import rebar.util.EnvConfig;
+import rebar.util.RebarException;
+
+/**
+ * Client-side rate limits for cloud and SaaS APIs, shared by every client in
+ * the process.
+ *
+ * There is one token bucket per (scope, service, action), where the scope is
+ * whatever the provider enforces its limits on, e.g. account/region for AWS or
+ * an organization for GitHub. The rate of each bucket comes from the first
+ * matching rule. Rules are checked in the order given, then the defaults.
+ *
+ * Buckets adapt to the provider. A throttling response halves the rate of its
+ * bucket, and successful calls raise it again, a little at a time, up to the
+ * configured rate (additive increase, multiplicative decrease).
+ *
+ * Rules can be added with RATE_LIMITS, e.g.
+ * "ec2:Describe*=20,identitymanagement:*=5,*:*=10".
+ */
+public class RateLimiterRegistry {
+
+	static Logger logger = LoggerFactory.getLogger(RateLimiterRegistry.class);
+
+	public static final String RATE_LIMITS_ENV = "RATE_LIMITS";
+
+	public static final double DEFAULT_PERMITS_PER_SECOND = 10;
+
+	// never throttle ourselves below this
+	static final double MIN_PERMITS_PER_SECOND = 0.5;
+
+	static final long RECOVERY_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+	static class Rule {
+		final String service;
+		final Pattern action;
+		final double permitsPerSecond;
+
+		Rule(String service, String action, double permitsPerSecond) {
+			Preconditions.checkArgument(permitsPerSecond > 0, "permitsPerSecond must be >0");
+			this.service = service;
+			this.action = Pattern.compile(Pattern.quote(action).replace("*", "\\E.*\\Q"));
+			this.permitsPerSecond = permitsPerSecond;
+		}
+
+		boolean matches(String service, String action) {
+			return (this.service.equals("*") || this.service.equalsIgnoreCase(service))
+					&& this.action.matcher(action).matches();
+		}
+	}
+
+	/**
+	 * A token bucket whose rate follows throttling feedback.
+	 */
+	public static class Limiter {
+		final String key;
+		final double configuredRate;
+		final RateLimiter rateLimiter;
+		final AtomicLong throttledCount = new AtomicLong();
+		final AtomicLong waitMicros = new AtomicLong();
+		long lastChangeMillis = 0;
+
+		Limiter(String key, double configuredRate) {
+			this.key = key;
+			this.configuredRate = configuredRate;
+			this.rateLimiter = RateLimiter.create(configuredRate);
+		}
+
+		/**
+		 * Blocks until a call may be made.
+		 */
+		public void acquire() {
+			double waited = rateLimiter.acquire();
+			if (waited > 0) {
+				waitMicros.addAndGet((long) (waited * 1000000));
+			}
+		}
+
+		public synchronized void onThrottled() {
+			throttledCount.incrementAndGet();
+			long now = System.currentTimeMillis();
+			// the calls already in flight will be throttled too...count them once
+			if (now - lastChangeMillis < RECOVERY_INTERVAL_MILLIS) {
+				return;
+			}
+			double rate = Math.max(MIN_PERMITS_PER_SECOND, rateLimiter.getRate() / 2);
+			logger.info("throttled: {} ... reducing rate to {}/s", key, String.format("%.2f", rate));
+			rateLimiter.setRate(rate);
+			lastChangeMillis = now;
+		}
+
+		public synchronized void onSuccess() {
+			double rate = rateLimiter.getRate();
+			long now = System.currentTimeMillis();
+			if (rate >= configuredRate || now - lastChangeMillis < RECOVERY_INTERVAL_MILLIS) {
+				return;
+			}
+			rateLimiter.setRate(Math.min(configuredRate, rate + configuredRate / 10));
+			lastChangeMillis = now;
+		}
+
+		public double getRate() {
+			return rateLimiter.getRate();
+		}
+
+		public double getConfiguredRate() {
+			return configuredRate;
+		}
+
+		public long getThrottledCount() {
+			return throttledCount.get();
+		}
+
+		public long getWaitMillis() {
+			return TimeUnit.MICROSECONDS.toMillis(waitMicros.get());
+		}
+	}
+
+	private final List<Rule> rules = Lists.newCopyOnWriteArrayList();
+	private final List<Rule> defaultRules = Lists.newCopyOnWriteArrayList();
+	private final Map<String, Limiter> limiters = new ConcurrentHashMap<>();
+
+	public RateLimiterRegistry() {
+		// published AWS limits for the services we call the most
+		addDefault("ec2", "Describe*", 20);
+		addDefault("ec2", "*", 10);
+		addDefault("identitymanagement", "*", 10);
+		addDefault("elasticloadbalancing", "*", 10);
+		addDefault("autoscaling", "*", 10);
+		addDefault("*", "*", DEFAULT_PERMITS_PER_SECOND);
+	}
+
+	private void addDefault(String service, String action, double permitsPerSecond) {
+		defaultRules.add(new Rule(service, action, permitsPerSecond));
+	}
+
+	/**
+	 * Adds a rule that takes precedence over the defaults and later rules.
+	 * Applies to buckets created after the call.
+	 * 
+	 * @param service
+	 *            service name, or *
+	 * @param action
+	 *            action name, may contain * wildcards
+	 * @param permitsPerSecond
+	 * @return
+	 */
+	public RateLimiterRegistry withLimit(String service, String action, double permitsPerSecond) {
+		rules.add(new Rule(service, action, permitsPerSecond));
+		return this;
+	}
+
+	public RateLimiterRegistry withEnv(EnvConfig env) {
+		String val = env.get(RATE_LIMITS_ENV).orElse("");
+		for (String rule : Splitter.on(',').omitEmptyStrings().trimResults().split(val)) {
+			try {
+				List<String> kv = Splitter.on('=').trimResults().splitToList(rule);
+				List<String> sa = Splitter.on(':').trimResults().splitToList(kv.get(0));
+				withLimit(sa.get(0), sa.size() > 1 ? sa.get(1) : "*", Double.parseDouble(kv.get(1)));
+			} catch (RuntimeException e) {
+				throw new RebarException("invalid " + RATE_LIMITS_ENV + " rule: " + rule, e);
+			}
+		}
+		return this;
+	}
+
+	double getConfiguredRate(String service, String action) {
+		for (Rule rule : rules) {
+			if (rule.matches(service, action)) {
+				return rule.permitsPerSecond;
+			}
+		}
+		for (Rule rule : defaultRules) {
+			if (rule.matches(service, action)) {
+				return rule.permitsPerSecond;
+			}
+		}
+		return DEFAULT_PERMITS_PER_SECOND;
+	}
+
+	public Limiter getLimiter(String scope, String service, String action) {
+		String key = Joiner.on('/').join(Strings.nullToEmpty(scope), Strings.nullToEmpty(service),
+				Strings.nullToEmpty(action));
+		return limiters.computeIfAbsent(key,
+				k -> new Limiter(k, getConfiguredRate(Strings.nullToEmpty(service), Strings.nullToEmpty(action))));
+	}
+
+	public void acquire(String scope, String service, String action) {
+		getLimiter(scope, service, action).acquire();
+	}
+}
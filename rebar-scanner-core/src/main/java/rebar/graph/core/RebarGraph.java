@@ -19,9 +19,11 @@ import static rebar.graph.neo4j.GraphDriver.GRAPH_PASSWORD;
 import static rebar.graph.neo4j.GraphDriver.GRAPH_URL;
 import static rebar.graph.neo4j.GraphDriver.GRAPH_USERNAME;
 
+import java.io.File;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
 
@@ -35,6 +37,7 @@ import rebar.graph.neo4j.GraphDriver;
 import rebar.graph.neo4j.GraphException;
 import rebar.util.EnvConfig;
 import rebar.util.RebarException;
+import rebar.util.trace.Tracer;
 
 public class RebarGraph {
 
@@ -44,6 +47,10 @@ public class RebarGraph {
 	
 	Map<String, Supplier<? extends Scanner>> supplierMap = Maps.newConcurrentMap();
 
+	Map<String, LeaderElection> leaderElections = Maps.newConcurrentMap();
+
+	RateLimiterRegistry rateLimiterRegistry;
+
 	GraphBuilder graphWriter;
 
 	EnvConfig env = null;
@@ -100,21 +107,79 @@ public class RebarGraph {
 			return this;
 		}
 
+		void configureDigestGating(GraphBuilder gb) {
+			if (getEnv("GRAPH_DIGEST_GATING_ENABLED").map(Boolean::parseBoolean).orElse(false)) {
+				long size = getEnv("GRAPH_DIGEST_STORE_SIZE").map(Long::parseLong).orElse(DigestStore.DEFAULT_MAX_SIZE);
+				long ttl = getEnv("GRAPH_DIGEST_STORE_TTL_SECS").map(Long::parseLong)
+						.orElse(defaultDigestTtlSecs());
+				logger.info("digest gating enabled (size={} ttl={}s)", size, ttl);
+				gb.withDigestStore(new DigestStore(size, ttl, TimeUnit.SECONDS));
+			}
+		}
+
+		/**
+		 * Adaptive scan intervals are derived from digests, so they have to outlive
+		 * the longest interval between two scans of a type.
+		 */
+		long defaultDigestTtlSecs() {
+			if (!getEnv(AdaptiveScanSchedule.ENABLED_ENV).map(Boolean::parseBoolean).orElse(false)) {
+				return DigestStore.DEFAULT_TTL_SECS;
+			}
+			long maxInterval = getEnv(AdaptiveScanSchedule.MAX_INTERVAL_ENV).map(Long::parseLong)
+					.orElse(AdaptiveScanSchedule.DEFAULT_MAX_INTERVAL_SECS);
+			return Math.max(DigestStore.DEFAULT_TTL_SECS, maxInterval * 2);
+		}
+
+		void configureWriteBehind(GraphBuilder gb) {
+			if (getEnv("GRAPH_WRITE_BEHIND_ENABLED").map(Boolean::parseBoolean).orElse(false)) {
+				int maxPending = getEnv("GRAPH_WRITE_BEHIND_MAX_PENDING").map(Integer::parseInt)
+						.orElse(WriteBehindBuffer.DEFAULT_MAX_PENDING);
+				long interval = getEnv("GRAPH_WRITE_BEHIND_FLUSH_MILLIS").map(Long::parseLong)
+						.orElse(WriteBehindBuffer.DEFAULT_FLUSH_INTERVAL_MILLIS);
+				logger.info("write-behind enabled (maxPending={} flushInterval={}ms)", maxPending, interval);
+				// replaces and closes any buffer from an earlier build()
+				gb.withWriteBehind(maxPending, interval, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		ScanQueue configureScanQueue(GraphDriver driver) {
+			String type = getEnv("SCAN_QUEUE_TYPE").orElse("neo4j").trim().toLowerCase();
+			if (type.equals("local")) {
+				File dir = new File(getEnv("SCAN_QUEUE_DIR")
+						.orElse(new File(System.getProperty("java.io.tmpdir"), "rebar-scan-queue").getPath()));
+				// more than one, so that event-driven rescans are not stuck behind a full scan
+				int threads = getEnv("SCAN_QUEUE_DISPATCHER_THREADS").map(Integer::parseInt).orElse(4);
+				logger.info("using local scan queue (dir={} dispatcherThreads={})", dir, threads);
+				LocalScanQueue queue = new LocalScanQueue(dir).withDispatcherThreads(threads);
+				queue.start();
+				Runtime.getRuntime().addShutdownHook(new Thread(queue::close, "scan-queue-shutdown"));
+				return queue;
+			}
+			if (!type.equals("neo4j")) {
+				throw new RebarException("SCAN_QUEUE_TYPE not supported: " + type);
+			}
+			Neo4jScanQueue queue = new Neo4jScanQueue(driver);
+			queue.start();
+			return queue;
+		}
+
 		public Optional<String> getEnv(String name) {
 			return env.get(name);
 		}
 
 		public RebarGraph build() {
 
+			Tracer.configure(env);
+
 			RebarGraph rg = new RebarGraph();
 
 			if (graphDb != null) {
+				configureDigestGating(graphDb);
+				configureWriteBehind(graphDb);
 				rg.graphWriter = graphDb;
 				rg.env = env;
 
-				Neo4jScanQueue queue = new Neo4jScanQueue(graphDb.getNeo4jDriver());
-				queue.start();
-				rg.queue = queue;
+				rg.queue = configureScanQueue(graphDb.getNeo4jDriver());
 
 				return rg;
 			}
@@ -136,11 +201,11 @@ public class RebarGraph {
 				GraphDriver driver = b.build();
 				if (driver.getClass().getName().toLowerCase().contains("neo4j")) {
 					GraphBuilder gw = new GraphBuilder((GraphDriver) driver);
+					configureDigestGating(gw);
+					configureWriteBehind(gw);
 					rg.graphWriter = gw;
 					rg.env = env;
-					Neo4jScanQueue queue = new Neo4jScanQueue((GraphDriver) driver);
-					queue.start();
-					rg.queue = queue;
+					rg.queue = configureScanQueue((GraphDriver) driver);
 					return rg;
 				} else {
 					throw new GraphException("GRAPH_URL " + graphUrl.get() + " not supported");
@@ -179,6 +244,29 @@ public class RebarGraph {
 		return scannerId;
 	}
 
+	/**
+	 * API rate limits shared by every scanner in the process.
+	 * 
+	 * @return
+	 */
+	public synchronized RateLimiterRegistry getRateLimiterRegistry() {
+		if (rateLimiterRegistry == null) {
+			rateLimiterRegistry = new RateLimiterRegistry().withEnv(getEnvConfig());
+		}
+		return rateLimiterRegistry;
+	}
+
+	/**
+	 * The election for a job that must run on only one process in the fleet.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public LeaderElection getLeaderElection(String name) {
+		return leaderElections.computeIfAbsent(name,
+				it -> new LeaderElection(getGraphBuilder().getNeo4jDriver(), it, getScannerId()));
+	}
+
 	public <T extends Scanner> void registerScanner(Class<T> scannerType, String name, Supplier<T> supplier) {
 		String key = scannerType.getName() + ":" + name;
 		if (supplierMap.containsKey(key)) {
@@ -4,6 +4,10 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
@@ -20,7 +24,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
 import com.google.common.io.CharStreams;
 
-import groovy.lang.GroovyShell;
+import groovy.lang.Binding;
 import it.sauronsoftware.cron4j.Scheduler;
 import it.sauronsoftware.cron4j.SchedulerListener;
 import it.sauronsoftware.cron4j.SchedulingPattern;
@@ -38,6 +42,9 @@ public class RebarScheduler {
 	AtomicLong cron4jTheadCounter = new AtomicLong();
 	Logger logger = LoggerFactory.getLogger(RebarScheduler.class);
 	Scheduler cron4j;
+	ScriptCache scriptCache = new ScriptCache();
+
+	static final Pattern FRONT_MATTER_PATTERN = Pattern.compile("\\s*(\\/+|#+)(\\s*)(.*)\\:(.*)");
 
 	@Autowired
 	ApplicationContext ctx;
@@ -89,31 +96,38 @@ public class RebarScheduler {
 			renameThread();
 			TaskTable tt = new TaskTable();
 
+			Set<String> paths = new HashSet<>();
 			getResourceLoader().getResources().forEach(it -> {
 				
 				if (it.getPath().contains("scripts/") && it.getPath().endsWith(".groovy")) {
-					try (InputStream in = it.getInputStreamSupplier().get()) {
-						JsonNode n = extractFrontMatter(in);
+					paths.add(it.getPath());
+					try {
+						JsonNode n = scriptCache.get(it.getPath(), readSource(it.getInputStreamSupplier()))
+								.getFrontMatter();
 					
-						logger.info("front matter: {}", n);
+						logger.debug("front matter: {}", n);
 						String cron = n.path("cron").asText().trim();
 						String scannerType = n.path("scanner").asText().trim();
 						if (Strings.isNullOrEmpty(scannerType)
 								|| scannerType.equalsIgnoreCase(getScannerModule().getScannerType())) {
 							if ((!Strings.isNullOrEmpty(cron)) && n.path("enabled").asBoolean(true)) {
 
+								final String path = it.getPath();
 								final Supplier<InputStream> supplier = it.getInputStreamSupplier();
+								final boolean singleton = n.path("singleton").asBoolean(false);
 								Task t = new Task() {
 
 									@Override
 									public void execute(TaskExecutionContext context) throws RuntimeException {
 
-										try {
-											renameThread();
-											new GroovyShell().evaluate(
-													CharStreams.toString(new InputStreamReader(supplier.get())));
-										} catch (IOException e) {
-											throw new RebarException(e);
+										renameThread();
+										if (singleton) {
+											// replicas fire at the same minute, so the first to take the lease runs it
+											LeaderElection election = getScannerModule().getRebarGraph()
+													.getLeaderElection("script:" + path);
+											election.runIfLeader(() -> runScript(path, supplier, election));
+										} else {
+											runScript(path, supplier, null);
 										}
 
 									}
@@ -127,20 +141,50 @@ public class RebarScheduler {
 					}
 				}
 			});
+			scriptCache.retainPaths(paths);
 			logger.info("collected {} tasks", tt.size());
 			return tt;
 		}
 
 	}
 
+	void runScript(String path, Supplier<InputStream> supplier, LeaderElection election) {
+		try {
+			// re-read so that an edit made since collection takes effect
+			Binding binding = new Binding();
+			if (election != null) {
+				binding.setVariable("leaderElection", election);
+			}
+			scriptCache.run(scriptCache.get(path, readSource(supplier)), binding);
+		} catch (IOException e) {
+			throw new RebarException(e);
+		}
+	}
+
+	static String readSource(Supplier<InputStream> supplier) throws IOException {
+		try (InputStream in = supplier.get()) {
+			return CharStreams.toString(new InputStreamReader(in, StandardCharsets.UTF_8));
+		}
+	}
+
 	protected static JsonNode extractFrontMatter(InputStream in) throws IOException {
+		return extractFrontMatter(new BufferedReader(new InputStreamReader(in)));
+	}
+
+	protected static JsonNode extractFrontMatter(String source) {
+		try {
+			return extractFrontMatter(new BufferedReader(new StringReader(source)));
+		} catch (IOException e) {
+			throw new RebarException(e);
+		}
+	}
+
+	private static JsonNode extractFrontMatter(BufferedReader br) throws IOException {
 		String line = null;
 	
-		Pattern p = Pattern.compile("\\s*(\\/+|#+)(\\s*)(.*)\\:(.*)");
 		ObjectNode n = Json.objectNode();
-		BufferedReader br = new BufferedReader(new InputStreamReader(in));
 		for (int i = 0; i < 10 && ((line = br.readLine()) != null); i++) {
-			Matcher m = p.matcher(line);
+			Matcher m = FRONT_MATTER_PATTERN.matcher(line);
 			if (m.matches()) {
 				n.put(m.group(3).trim(), m.group(4).trim());
 			}
@@ -3,6 +3,8 @@ package rebar.graph.core;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
@@ -22,6 +24,8 @@ public class RelationshipBuilder {
 
 	private GraphDriver driver;
 
+	private WriteBehindBuffer writeBehind;
+
 	private String aLabel;
 
 	private String bLabel;
@@ -110,6 +114,10 @@ public class RelationshipBuilder {
 		public void merge() {
 			RelationshipBuilder.this.merge();
 		}
+
+		public void mergeDeferred() {
+			RelationshipBuilder.this.mergeDeferred();
+		}
 	}
 
 	public <T extends RelationshipBuilder> T sourceIdAttribute(String key, Object val) {
@@ -127,6 +135,11 @@ public class RelationshipBuilder {
 		return (T) this;
 	}
 
+	<T extends RelationshipBuilder> T writeBehind(WriteBehindBuffer buffer) {
+		this.writeBehind = buffer;
+		return (T) this;
+	}
+
 	public FromNode from(String name) {
 		sourceNodeType(name);
 		return new FromNode();
@@ -148,8 +161,36 @@ public class RelationshipBuilder {
 	}
 
 	public void merge() {
-		mergeRelationships();
-		deleteStaleRelationships();
+		if (writeBehind != null) {
+			// the nodes being joined may still be pending
+			writeBehind.flush();
+		}
+		mergeNow();
+	}
+
+	/**
+	 * Queues the merge in the write-behind buffer, to be run after the pending
+	 * node writes. Identical pending merges are run once. Falls back to merge()
+	 * if write-behind is not enabled or inside inTransaction().
+	 */
+	public void mergeDeferred() {
+		if (writeBehind == null || driver.isInTransaction()) {
+			merge();
+			return;
+		}
+		writeBehind.addRelationship(identity(), this);
+	}
+
+	void mergeNow() {
+		driver.inTransaction(tx -> {
+			mergeRelationships();
+			deleteStaleRelationships();
+		});
+	}
+
+	String identity() {
+		return aLabel + new TreeMap<>(sourceIdAttributes) + "-" + relationshipName + "->" + bLabel
+				+ new TreeMap<>(targetIdAttributes) + joinKey();
 	}
 
 	protected String joinClause() {
@@ -167,23 +208,37 @@ public class RelationshipBuilder {
 		return sb.toString();
 	}
 
+	private String joinKey() {
+		StringBuffer sb = new StringBuffer();
+		for (JoinOn on : joinOn) {
+			sb.append(on.fromAttribute).append(on.fromAttributeCardinality).append(on.toAttribute).append(";");
+		}
+		return sb.toString();
+	}
+
 	private void mergeRelationships() {
 
 		Preconditions.checkArgument(!Strings.isNullOrEmpty(aLabel), "source node label not set");
 		Preconditions.checkArgument(!Strings.isNullOrEmpty(bLabel), "target node label not set");
+		CypherUtil.assertValidLabel(aLabel);
+		CypherUtil.assertValidLabel(bLabel);
+		CypherUtil.assertValidLabel(relationshipName);
 
-		String cypher = String.format("match (a:%s %s), (b:%s %s)", aLabel, toMatchPattern(sourceIdAttributes, "a_"),
-				bLabel,
+		String cypher = StatementCache.get(() -> {
+			String c = String.format("match (a:%s %s), (b:%s %s)", aLabel, toMatchPattern(sourceIdAttributes, "a_"),
+					bLabel,
 
-				toMatchPattern(targetIdAttributes, "b_"));
+					toMatchPattern(targetIdAttributes, "b_"));
 
-		String whereClause = joinClause();
+			String whereClause = joinClause();
 
-		if (!whereClause.trim().isEmpty()) {
-			whereClause = " where " + whereClause;
-		}
-		cypher = cypher
-				+ String.format(" %s merge (a)-[r:%s]->(b) return count(r) as count", whereClause, relationshipName);
+			if (!whereClause.trim().isEmpty()) {
+				whereClause = " where " + whereClause;
+			}
+			return c + String.format(" %s merge (a)-[r:%s]->(b) return count(r) as count", whereClause,
+					relationshipName);
+		}, "mergeRelationship", aLabel, sourceIdAttributes.keySet(), relationshipName, bLabel,
+				targetIdAttributes.keySet(), joinKey());
 
 		logger.debug("create relationships: {}", cypher);
 		
@@ -211,11 +266,14 @@ public class RelationshipBuilder {
 		if (joinOn.isEmpty()) {
 			return;
 		}
-		String cypher = String.format("match (a:%s %s)-[r:%s]->(b:%s %s)", aLabel,
-				toMatchPattern(sourceIdAttributes, "a_"), relationshipName, bLabel,
-				toMatchPattern(targetIdAttributes, "b_"));
+		String cypher = StatementCache.get(() -> {
+			String c = String.format("match (a:%s %s)-[r:%s]->(b:%s %s)", aLabel,
+					toMatchPattern(sourceIdAttributes, "a_"), relationshipName, bLabel,
+					toMatchPattern(targetIdAttributes, "b_"));
 
-		cypher = cypher + String.format(" where NOT (%s) delete r return count(r) as count",joinClause());
+			return c + String.format(" where NOT (%s) delete r return count(r) as count", joinClause());
+		}, "deleteStaleRelationships", aLabel, sourceIdAttributes.keySet(), relationshipName, bLabel,
+				targetIdAttributes.keySet(), joinKey());
 
 		logger.debug("delete stale relationships: {}", cypher);
 		CypherTemplate template = driver.cypher(cypher);
@@ -242,7 +300,7 @@ public class RelationshipBuilder {
 		StringBuffer sb = new StringBuffer();
 		AtomicInteger count = new AtomicInteger(0);
 		sb.append("{");
-		attrs.forEach((a, b) -> {
+		new TreeSet<>(attrs.keySet()).forEach(a -> {
 			if (count.getAndIncrement() > 0) {
 				sb.append(",");
 			}
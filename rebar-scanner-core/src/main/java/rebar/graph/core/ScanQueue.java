@@ -12,8 +12,33 @@ import com.fasterxml.jackson.databind.JsonNode;
  */
 public interface ScanQueue {
 
+	/**
+	 * Higher priorities are delivered first. Event-driven rescans should use
+	 * HIGH so that they are not stuck behind bulk work.
+	 */
+	public enum Priority {
+		HIGH, NORMAL, LOW
+	}
+
 	public void submit(String type, String a, String ...n);
+
+	/**
+	 * Implementations without priority support treat every request the same.
+	 */
+	public default void submit(Priority priority, String type, String a, String... n) {
+		submit(type, a, n);
+	}
 	
 	public void subscribe(Consumer<JsonNode> consumer, String type, String a, String b);
+
+	/**
+	 * True if requests are delivered in priority order. Only such queues are
+	 * used to route scans.
+	 * 
+	 * @return
+	 */
+	public default boolean supportsPriority() {
+		return false;
+	}
 	
 }
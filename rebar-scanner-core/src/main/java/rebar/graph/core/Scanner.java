@@ -15,6 +15,7 @@
  */
 package rebar.graph.core;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
@@ -25,6 +26,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
 import com.machinezoo.noexception.Exceptions;
 
 import io.micrometer.core.instrument.MeterRegistry;
@@ -34,6 +36,8 @@ import rebar.graph.neo4j.GraphDriver;
 import rebar.graph.neo4j.GraphException;
 import rebar.util.EnvConfig;
 import rebar.util.RebarException;
+import rebar.util.trace.Span;
+import rebar.util.trace.Tracer;
 
 public abstract class Scanner {
 
@@ -87,9 +91,18 @@ public abstract class Scanner {
 	
 	
 
+	/**
+	 * Executes the operation in a single transaction. The results are collected
+	 * before the transaction commits.
+	 */
 	public Stream<JsonNode> execGraphOperation(Class<? extends GraphOperation> operation, JsonNode arg) {
 
-			return getOperation(operation).exec(this,arg, getRebarGraph().getGraphBuilder().getNeo4jDriver());
+			GraphOperation op = getOperation(operation);
+			List<JsonNode> results = Lists.newArrayList();
+			getRebarGraph().getGraphBuilder().getNeo4jDriver().inTransaction(tx -> {
+				op.exec(this, arg, tx).forEach(results::add);
+			});
+			return results.stream();
 		
 	}
 	
@@ -101,7 +114,8 @@ public abstract class Scanner {
 	
 		Stopwatch sw = Stopwatch.createStarted();
 		logger.info("begin scan for {}",this);
-		try {
+		try (Span span = Tracer.startTrace("scan", getScannerType())) {
+			span.tag("target", this);
 			doScan();
 		}
 		catch(Exception e) {
@@ -17,6 +17,7 @@ package rebar.graph.core;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Optional;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -34,6 +35,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import rebar.graph.core.resource.CompositeResourceLoader;
 import rebar.graph.neo4j.GraphDriver;
+import rebar.graph.neo4j.SchemaReconciler;
 import rebar.util.EnvConfig;
 
 public abstract class ScannerModule {
@@ -54,6 +56,8 @@ public abstract class ScannerModule {
 	@Autowired
 	CompositeResourceLoader resourceLoader;
 
+	ShardCoordinator shardCoordinator;
+
 	public RebarScheduler getScheduler() {
 		return scheduler;
 	}
@@ -92,12 +96,13 @@ public abstract class ScannerModule {
 					String r = Strings.isNullOrEmpty(region) ? "undefined" : region;
 					neo4j.cypher(
 							"merge (a:RebarScannerTarget {type:{type},target:{target},region:{region}}) ON MATCH set a.pingTs=timestamp() ON CREATE set a.pingTs=timestamp(),a.fullScanEnabled=true,a.fullScanIntervalSecs=300")
-							.param("type", getScannerType()).param("target", target).param("region", r).exec();
+							.param("type", getScannerType()).param("target", target).param("region", r)
+							.withPool(GraphDriver.CONTROL_POOL).exec();
 
 					neo4j.cypher(
 							"match (s:RebarScanner {id:{id}}),(t:RebarScannerTarget {type:{type},target:{target},region:{region}}) merge (s)-[r:SCANS]->(t) ")
 							.param("id", getScannerId()).param("type", getScannerType()).param("target", target)
-							.param("region", r).exec();
+							.param("region", r).withPool(GraphDriver.CONTROL_POOL).exec();
 				} catch (RuntimeException e) {
 					logger.warn("unexpected exception", e);
 				}
@@ -122,7 +127,8 @@ public abstract class ScannerModule {
 					neo4j.cypher(
 							"merge (a:RebarScanner {id:{id}}) set a.type={type},a.hostname={hostname},a.ipAddress={ipAddress},a.pingTs=timestamp()")
 							.param("hostname", hostname).param("ipAddress", ipAddress)
-							.param("id", getRebarGraph().getScannerId()).param("type", type).exec();
+							.param("id", getRebarGraph().getScannerId()).param("type", type)
+							.withPool(GraphDriver.CONTROL_POOL).exec();
 
 				} catch (UnknownHostException e) {
 					logger.warn("unexpected exception", e);
@@ -134,6 +140,24 @@ public abstract class ScannerModule {
 
 	}
 
+	public boolean isShardingEnabled() {
+		return getConfig().get(ShardCoordinator.SHARDING_ENABLED_ENV).map(Boolean::parseBoolean).orElse(false);
+	}
+
+	/**
+	 * Present when SCANNER_SHARDING_ENABLED is set, in which case replicas of
+	 * this scanner split the work between them.
+	 * 
+	 * @return
+	 */
+	public synchronized Optional<ShardCoordinator> getShardCoordinator() {
+		if (shardCoordinator == null && isShardingEnabled()) {
+			shardCoordinator = new ShardCoordinator(getRebarGraph().getGraphBuilder().getNeo4jDriver(),
+					getScannerType(), getScannerId());
+		}
+		return Optional.ofNullable(shardCoordinator);
+	}
+
 	public String getScannerId() {
 		return getRebarGraph().getScannerId();
 	}
@@ -159,10 +183,22 @@ public abstract class ScannerModule {
 		}
 	
 		
-		applyConstraints(getConfigOptions().isIndexAutoCreateEnabled());
+		SchemaReconciler reconciler = getRebarGraph().getGraphBuilder().schema().newReconciler();
+		// concurrent merges of the same lease would otherwise create two leaders
+		reconciler.requireUniqueConstraint("RebarLeaderLease", "name");
+		if (isShardingEnabled()) {
+			reconciler.requireUniqueConstraint("RebarScanLease", "unit");
+		}
+		applyConstraints(reconciler);
+		reconciler.reconcile(getConfigOptions().isIndexAutoCreateEnabled());
 		
 		if (runModule) {
 			logger.info("init()");
+			if (isShardingEnabled()) {
+				// replicas find each other through their heartbeats
+				logger.info("sharding enabled for scanner {}", getScannerId());
+				registerScanner(getScannerType());
+			}
 			doStartModule();
 		} else {
 			logger.info("will not start module");
@@ -172,5 +208,11 @@ public abstract class ScannerModule {
 	protected abstract void doStartModule();
 	
 
-	public abstract void applyConstraints(boolean b); 
+	/**
+	 * Declares the constraints and indexes that the module needs. They are
+	 * created in bulk after this method returns.
+	 * 
+	 * @param reconciler
+	 */
+	public abstract void applyConstraints(SchemaReconciler reconciler);
 }
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.hash.Hashing;
+
+import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyCodeSource;
+import groovy.lang.GroovyShell;
+import groovy.lang.Script;
+
+/**
+ * Compiled scheduler scripts, keyed by a hash of their source.
+ *
+ * Every script is compiled once into a single shared GroovyClassLoader and
+ * the class is reused for as long as the source is unchanged. When the source
+ * at a path changes, or an entry falls out of the cache, the old class is
+ * dropped from the class loader and the Groovy meta-class registry so that it
+ * can be unloaded. The number of live script classes is therefore bounded by
+ * the number of distinct scripts, not by uptime.
+ *
+ * Front matter is parsed once per source as well, so the task collector only
+ * has to read and hash each script.
+ */
+final class ScriptCache {
+
+	static Logger logger = LoggerFactory.getLogger(ScriptCache.class);
+
+	public static final int DEFAULT_MAX_SIZE = 1000;
+
+	static class ScriptClassLoader extends GroovyClassLoader {
+
+		ScriptClassLoader() {
+			super(ScriptCache.class.getClassLoader());
+		}
+
+		void evict(Class<?> clazz) {
+			removeClassCacheEntry(clazz.getName());
+		}
+	}
+
+	static class Entry {
+		final String hash;
+		final String source;
+		final JsonNode frontMatter;
+		private volatile Class<? extends Script> scriptClass;
+
+		Entry(String hash, String source, JsonNode frontMatter) {
+			this.hash = hash;
+			this.source = source;
+			this.frontMatter = frontMatter;
+		}
+
+		JsonNode getFrontMatter() {
+			return frontMatter;
+		}
+	}
+
+	private final ScriptClassLoader classLoader = new ScriptClassLoader();
+	private final Cache<String, Entry> cache;
+	private final Map<String, String> hashByPath = new ConcurrentHashMap<>();
+
+	private final AtomicLong compileCount = new AtomicLong();
+
+	ScriptCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	ScriptCache(int maxSize) {
+		this.cache = CacheBuilder.newBuilder().maximumSize(maxSize).removalListener(this::onRemoval).build();
+	}
+
+	static String hash(String source) {
+		return Hashing.sha256().hashString(source, StandardCharsets.UTF_8).toString();
+	}
+
+	/**
+	 * Returns the entry for the current source of the script at path, parsing
+	 * its front matter if the source has not been seen before.
+	 *
+	 * @param path
+	 * @param source
+	 * @return
+	 */
+	Entry get(String path, String source) {
+		String hash = hash(source);
+		String previous = hashByPath.put(path, hash);
+		if (previous != null && !previous.equals(hash) && !hashByPath.containsValue(previous)) {
+			logger.info("script changed: {}", path);
+			cache.invalidate(previous);
+		}
+		Entry entry = cache.getIfPresent(hash);
+		if (entry == null) {
+			entry = new Entry(hash, source, RebarScheduler.extractFrontMatter(source));
+			Entry existing = cache.asMap().putIfAbsent(hash, entry);
+			entry = existing != null ? existing : entry;
+		}
+		return entry;
+	}
+
+	/**
+	 * Forgets scripts whose path is no longer present.
+	 *
+	 * @param paths
+	 */
+	void retainPaths(Set<String> paths) {
+		for (String path : hashByPath.keySet()) {
+			if (!paths.contains(path)) {
+				String hash = hashByPath.remove(path);
+				logger.info("script removed: {}", path);
+				if (hash != null && !hashByPath.containsValue(hash)) {
+					cache.invalidate(hash);
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	Class<? extends Script> getScriptClass(Entry entry) {
+		Class<? extends Script> clazz = entry.scriptClass;
+		if (clazz == null) {
+			synchronized (entry) {
+				clazz = entry.scriptClass;
+				if (clazz == null) {
+					long t0 = System.currentTimeMillis();
+					// a unique name per source keeps old and new versions apart in the loader
+					GroovyCodeSource codeSource = new GroovyCodeSource(entry.source,
+							"Script_" + entry.hash.substring(0, 16) + ".groovy", GroovyShell.DEFAULT_CODE_BASE);
+					clazz = classLoader.parseClass(codeSource, false);
+					entry.scriptClass = clazz;
+					compileCount.incrementAndGet();
+					logger.info("compiled {} in {}ms", clazz.getName(), System.currentTimeMillis() - t0);
+				}
+			}
+		}
+		return clazz;
+	}
+
+	/**
+	 * Runs the script with an empty binding.
+	 *
+	 * @param entry
+	 * @return the value returned by the script
+	 */
+	Object run(Entry entry) {
+		return run(entry, new Binding());
+	}
+
+	Object run(Entry entry, Binding binding) {
+		Script script = InvokerHelper.createScript(getScriptClass(entry), binding);
+		return script.run();
+	}
+
+	private void onRemoval(RemovalNotification<String, Entry> notification) {
+		Entry entry = notification.getValue();
+		Class<? extends Script> clazz = entry == null ? null : entry.scriptClass;
+		if (clazz != null) {
+			classLoader.evict(clazz);
+			InvokerHelper.removeClass(clazz);
+			logger.debug("evicted {} ({})", clazz.getName(), notification.getCause());
+		}
+	}
+
+	long size() {
+		return cache.size();
+	}
+
+	long getCompileCount() {
+		return compileCount.get();
+	}
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import rebar.graph.neo4j.GraphDriver;
+import rebar.graph.neo4j.GraphException;
+
+/**
+ * Splits scan work between the replicas of a scanner.
+ *
+ * A work unit is a (target, region, work type) triple, e.g. (account,
+ * region, entity type). Each unit is assigned to one replica by consistent
+ * hashing over the replicas that are alive, i.e. whose RebarScanner heartbeat
+ * is recent and that SCANS the target. When a replica disappears, only the
+ * units that it owned move.
+ *
+ * Replicas can briefly disagree about who is alive, so the owner also has to
+ * hold a time-bounded lease on the unit (a RebarScanLease node) while it
+ * scans. A replica that dies while holding a lease blocks the unit for at
+ * most the lease TTL.
+ */
+public class ShardCoordinator {
+
+	static Logger logger = LoggerFactory.getLogger(ShardCoordinator.class);
+
+	public static final String SHARDING_ENABLED_ENV = "SCANNER_SHARDING_ENABLED";
+
+	public static final long DEFAULT_LEASE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+	// RebarScanner nodes are pinged every 30 seconds
+	public static final long DEFAULT_HEARTBEAT_TTL_MILLIS = TimeUnit.SECONDS.toMillis(90);
+
+	static final int VIRTUAL_NODES = 64;
+
+	static final HashFunction HASH = Hashing.murmur3_32();
+
+	final GraphDriver driver;
+	final String scannerType;
+	final String scannerId;
+
+	long leaseTtlMillis = DEFAULT_LEASE_TTL_MILLIS;
+	long heartbeatTtlMillis = DEFAULT_HEARTBEAT_TTL_MILLIS;
+
+	private final Cache<String, Set<String>> membersByTarget = CacheBuilder.newBuilder()
+			.expireAfterWrite(15, TimeUnit.SECONDS).build();
+
+	private final AtomicLong acquiredCount = new AtomicLong();
+	private final AtomicLong skippedCount = new AtomicLong();
+
+	public ShardCoordinator(GraphDriver driver, String scannerType, String scannerId) {
+		this.driver = Preconditions.checkNotNull(driver);
+		this.scannerType = Preconditions.checkNotNull(scannerType);
+		this.scannerId = Preconditions.checkNotNull(scannerId);
+	}
+
+	public ShardCoordinator withLeaseTtl(long ttl, TimeUnit unit) {
+		this.leaseTtlMillis = unit.toMillis(ttl);
+		return this;
+	}
+
+	public String getScannerId() {
+		return scannerId;
+	}
+
+	static String unit(String scannerType, String target, String region, String workType) {
+		return Joiner.on('/').join(scannerType, Strings.nullToEmpty(target), Strings.nullToEmpty(region),
+				Strings.nullToEmpty(workType));
+	}
+
+	/**
+	 * The member that owns the unit on a consistent hash ring of the given
+	 * members, each placed at VIRTUAL_NODES points.
+	 *
+	 * @param unit
+	 * @param members
+	 * @return
+	 */
+	static String owner(String unit, Collection<String> members) {
+		Preconditions.checkArgument(!members.isEmpty(), "no members");
+		TreeMap<Integer, String> ring = new TreeMap<>();
+		for (String member : ImmutableSortedSet.copyOf(members)) {
+			for (int i = 0; i < VIRTUAL_NODES; i++) {
+				ring.put(HASH.hashString(member + "#" + i, StandardCharsets.UTF_8).asInt(), member);
+			}
+		}
+		Map.Entry<Integer, String> entry = ring.ceilingEntry(HASH.hashString(unit, StandardCharsets.UTF_8).asInt());
+		return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+	}
+
+	/**
+	 * Replicas that are alive and scan the target. Always includes this replica,
+	 * whose own heartbeat may not have been written yet.
+	 *
+	 * @param target
+	 * @param region
+	 * @return
+	 */
+	Set<String> getMembers(String target, String region) {
+		try {
+			return membersByTarget.get(Joiner.on('/').join(target, region), () -> {
+				List<String> ids = driver.cypher(
+						"match (s:RebarScanner {type:{type}})-[:SCANS]->(t:RebarScannerTarget {type:{type},target:{target},region:{region}}) where s.pingTs>timestamp()-{ttl} return s.id as id")
+						.param("type", scannerType).param("target", target).param("region", region)
+						.param("ttl", heartbeatTtlMillis).withPool(GraphDriver.CONTROL_POOL).stream()
+						.map(it -> it.path("id").asText()).collect(Collectors.toList());
+				return ImmutableSortedSet.<String>naturalOrder().addAll(ids).add(scannerId).build();
+			});
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			throw new GraphException(e.getCause());
+		}
+	}
+
+	public boolean isOwner(String target, String region, String workType) {
+		String unit = unit(scannerType, target, region, workType);
+		return owner(unit, getMembers(target, region)).equals(scannerId);
+	}
+
+	/**
+	 * Acquires or renews the lease on a work unit if this replica owns it.
+	 *
+	 * @param target
+	 * @param region
+	 * @param workType
+	 * @return true if the caller should do the work
+	 */
+	public boolean tryAcquire(String target, String region, String workType) {
+		if (!isOwner(target, region, workType)) {
+			skippedCount.incrementAndGet();
+			return false;
+		}
+		String unit = unit(scannerType, target, region, workType);
+		// setting lockTs takes the write lock before the owner is checked
+		boolean acquired = driver.cypher(
+				"merge (l:RebarScanLease {unit:{unit}}) set l.lockTs=timestamp() with l where l.owner is null or l.owner={owner} or l.expiresTs<timestamp() set l.owner={owner},l.expiresTs=timestamp()+{ttl} return l.owner as owner")
+				.param("unit", unit).param("owner", scannerId).param("ttl", leaseTtlMillis)
+				.withPool(GraphDriver.CONTROL_POOL).findFirst().isPresent();
+		if (acquired) {
+			acquiredCount.incrementAndGet();
+		} else {
+			logger.info("{} is leased by another replica", unit);
+			skippedCount.incrementAndGet();
+		}
+		return acquired;
+	}
+
+	public void release(String target, String region, String workType) {
+		driver.cypher("match (l:RebarScanLease {unit:{unit},owner:{owner}}) set l.expiresTs=0")
+				.param("unit", unit(scannerType, target, region, workType)).param("owner", scannerId)
+				.withPool(GraphDriver.CONTROL_POOL).exec();
+	}
+
+	public long getAcquiredCount() {
+		return acquiredCount.get();
+	}
+
+	public long getSkippedCount() {
+		return skippedCount.get();
+	}
+}
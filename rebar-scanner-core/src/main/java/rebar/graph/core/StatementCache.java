@@ -0,0 +1,87 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.core;
+
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import rebar.graph.neo4j.GraphException;
+
+/**
+ * Canonical cypher text for the statements generated by GraphBuilder and
+ * RelationshipBuilder.
+ *
+ * Generated statements only ever contain labels, relationship types and
+ * property names. Every value is passed as a parameter. A given logical
+ * operation (operation, label, id keys, ...) therefore maps to exactly one
+ * statement string, which Neo4j can plan once and CypherMetrics can track as a
+ * single shape. Collections in the key are order-insensitive.
+ */
+final class StatementCache {
+
+	private static final Cache<String, String> cache = CacheBuilder.newBuilder().maximumSize(10000).build();
+
+	private StatementCache() {
+
+	}
+
+	static String get(Supplier<String> generator, Object... keyParts) {
+		try {
+			return cache.get(key(keyParts), generator::get);
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new GraphException(cause);
+		}
+	}
+
+	static String key(Object... parts) {
+		StringBuilder sb = new StringBuilder();
+		for (Object part : parts) {
+			if (sb.length() > 0) {
+				sb.append('|');
+			}
+			if (part == null) {
+				// empty
+			} else if (part instanceof Collection) {
+				TreeSet<String> sorted = new TreeSet<>();
+				for (Object it : (Collection<?>) part) {
+					sorted.add(String.valueOf(it));
+				}
+				sb.append(String.join(",", sorted));
+			} else {
+				sb.append(part);
+			}
+		}
+		return sb.toString();
+	}
+
+	static long size() {
+		return cache.size();
+	}
+
+	static void invalidateAll() {
+		cache.invalidateAll();
+	}
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import rebar.graph.neo4j.GraphException;
+
+/**
+ * Holds deferred node and relationship upserts for a short window and writes
+ * them in batches.
+ *
+ * Pending node writes are coalesced by label and id values: the properties of
+ * later writes are merged over earlier ones, so an entity projected several
+ * times in one window is written once. Pending relationship merges with the
+ * same shape and ids are written once. On flush, nodes are written first (one
+ * UNWIND statement per label and id key set), then relationships, so that
+ * relationship merges see the nodes they join.
+ *
+ * Memory is bounded by maxPending. A caller that fills the buffer flushes it
+ * on its own thread, which slows the scanners down to the speed of the
+ * database rather than queueing without limit.
+ *
+ * Writes that fail are put back and retried with the next flush, under any
+ * newer pending write of the same node, up to MAX_ATTEMPTS times. Their
+ * digests are invalidated, so that the digest store never claims a write
+ * that did not happen.
+ */
+public final class WriteBehindBuffer implements AutoCloseable {
+
+	static Logger logger = LoggerFactory.getLogger(WriteBehindBuffer.class);
+
+	public static final int DEFAULT_MAX_PENDING = 10000;
+	public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+	static final int MAX_ATTEMPTS = 3;
+
+	static class PendingNode {
+		final String key;
+		final String label;
+		final Map<String, Object> idAttributes;
+		final Map<String, Object> properties;
+		int attempts = 0;
+
+		PendingNode(String key, String label, Map<String, Object> idAttributes, Map<String, Object> properties) {
+			this.key = key;
+			this.label = label;
+			this.idAttributes = ImmutableMap.copyOf(idAttributes);
+			this.properties = new HashMap<>(properties);
+		}
+
+		String groupKey() {
+			return label + new TreeSet<>(idAttributes.keySet());
+		}
+	}
+
+	static class PendingRelationship {
+		final String key;
+		final RelationshipBuilder relationship;
+		int attempts = 0;
+
+		PendingRelationship(String key, RelationshipBuilder relationship) {
+			this.key = key;
+			this.relationship = relationship;
+		}
+	}
+
+	final GraphBuilder graphBuilder;
+	final int maxPending;
+
+	private final Object lock = new Object();
+	private final ReentrantLock flushLock = new ReentrantLock();
+
+	private LinkedHashMap<String, PendingNode> nodes = new LinkedHashMap<>();
+	private LinkedHashMap<String, PendingRelationship> relationships = new LinkedHashMap<>();
+	private Set<String> flushingKeys = ImmutableSet.of();
+
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong writtenCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	private final ScheduledExecutorService executor;
+
+	WriteBehindBuffer(GraphBuilder graphBuilder, int maxPending, long flushInterval, TimeUnit unit) {
+		Preconditions.checkArgument(maxPending > 0, "maxPending must be >0");
+		Preconditions.checkArgument(flushInterval > 0, "flushInterval must be >0");
+		this.graphBuilder = graphBuilder;
+		this.maxPending = maxPending;
+		this.executor = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("write-behind-%d").build());
+		this.executor.scheduleWithFixedDelay(this::backgroundFlush, flushInterval, flushInterval, unit);
+	}
+
+	void addNode(String key, String label, Map<String, Object> idAttributes, Map<String, Object> properties) {
+		int size;
+		synchronized (lock) {
+			PendingNode pending = nodes.get(key);
+			if (pending == null) {
+				nodes.put(key, new PendingNode(key, label, idAttributes, properties));
+			} else {
+				pending.properties.putAll(properties);
+				coalescedCount.incrementAndGet();
+			}
+			size = nodes.size() + relationships.size();
+		}
+		if (size >= maxPending) {
+			flush();
+		}
+	}
+
+	void addRelationship(String key, RelationshipBuilder relationship) {
+		int size;
+		synchronized (lock) {
+			if (relationships.put(key, new PendingRelationship(key, relationship)) != null) {
+				coalescedCount.incrementAndGet();
+			}
+			size = nodes.size() + relationships.size();
+		}
+		if (size >= maxPending) {
+			flush();
+		}
+	}
+
+	/**
+	 * Removes and returns the pending properties for a node that is about to be
+	 * written synchronously, so that the deferred write cannot land after it.
+	 * If the node is part of a flush that is in progress, waits for the flush.
+	 *
+	 * @param key
+	 * @return pending properties, or null
+	 */
+	Map<String, Object> take(String key) {
+		while (true) {
+			synchronized (lock) {
+				if (!flushingKeys.contains(key)) {
+					PendingNode pending = nodes.remove(key);
+					return pending == null ? null : pending.properties;
+				}
+			}
+			flushLock.lock();
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes everything that is pending on the calling thread.
+	 */
+	public void flush() {
+		flushLock.lock();
+		try {
+			LinkedHashMap<String, PendingNode> pendingNodes;
+			LinkedHashMap<String, PendingRelationship> pendingRelationships;
+			synchronized (lock) {
+				if (nodes.isEmpty() && relationships.isEmpty()) {
+					return;
+				}
+				pendingNodes = nodes;
+				pendingRelationships = relationships;
+				nodes = new LinkedHashMap<>();
+				relationships = new LinkedHashMap<>();
+				flushingKeys = pendingNodes.keySet();
+			}
+			try {
+				write(pendingNodes, pendingRelationships);
+			} finally {
+				synchronized (lock) {
+					flushingKeys = ImmutableSet.of();
+				}
+			}
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	private void write(Map<String, PendingNode> pendingNodes, Map<String, PendingRelationship> pendingRelationships) {
+		long t0 = System.currentTimeMillis();
+		Map<String, List<PendingNode>> groups = new LinkedHashMap<>();
+		pendingNodes.values().forEach(it -> groups.computeIfAbsent(it.groupKey(), k -> new ArrayList<>()).add(it));
+
+		RuntimeException failure = null;
+		for (List<PendingNode> group : groups.values()) {
+			PendingNode first = group.get(0);
+			List<Map<String, Object>> rows = new ArrayList<>(group.size());
+			group.forEach(it -> {
+				Map<String, Object> row = new HashMap<>(it.properties);
+				row.putAll(it.idAttributes);
+				rows.add(row);
+			});
+			try {
+				graphBuilder.nodes(first.label).idKey(first.idAttributes.keySet().toArray(new String[0]))
+						.mergeRows(rows);
+				writtenCount.addAndGet(rows.size());
+			} catch (RuntimeException e) {
+				failedCount.addAndGet(rows.size());
+				logger.warn("could not write {} pending {} nodes", rows.size(), first.label, e);
+				failure = failure == null ? e : failure;
+				requeueNodes(group);
+			}
+		}
+		List<PendingRelationship> failedRelationships = new ArrayList<>();
+		for (PendingRelationship it : pendingRelationships.values()) {
+			try {
+				it.relationship.mergeNow();
+				writtenCount.incrementAndGet();
+			} catch (RuntimeException e) {
+				failedCount.incrementAndGet();
+				logger.warn("could not write pending relationship", e);
+				failure = failure == null ? e : failure;
+				failedRelationships.add(it);
+			}
+		}
+		requeueRelationships(failedRelationships);
+		if (logger.isDebugEnabled()) {
+			logger.debug("flushed {} nodes and {} relationships in {}ms", pendingNodes.size(),
+					pendingRelationships.size(), System.currentTimeMillis() - t0);
+		}
+		if (failure != null) {
+			throw new GraphException("write-behind flush failed", failure);
+		}
+	}
+
+	/**
+	 * Puts failed node writes back for the next flush. A write that was
+	 * superseded while it was being flushed is combined with the newer one,
+	 * newer values winning.
+	 */
+	private void requeueNodes(List<PendingNode> failed) {
+		// chunks that did commit are rewritten in full next time, which is harmless
+		graphBuilder.getDigestStore().ifPresent(store -> failed.forEach(it -> store.invalidate(it.key)));
+		synchronized (lock) {
+			for (PendingNode it : failed) {
+				if (++it.attempts >= MAX_ATTEMPTS) {
+					droppedCount.incrementAndGet();
+					logger.warn("giving up on {} {} after {} attempts", it.label, it.idAttributes, it.attempts);
+					continue;
+				}
+				PendingNode newer = nodes.get(it.key);
+				if (newer == null) {
+					nodes.put(it.key, it);
+				} else {
+					Map<String, Object> combined = new HashMap<>(it.properties);
+					combined.putAll(newer.properties);
+					newer.properties.putAll(combined);
+					newer.attempts = it.attempts;
+				}
+			}
+		}
+	}
+
+	private void requeueRelationships(List<PendingRelationship> failed) {
+		synchronized (lock) {
+			for (PendingRelationship it : failed) {
+				if (++it.attempts >= MAX_ATTEMPTS) {
+					droppedCount.incrementAndGet();
+					logger.warn("giving up on relationship {} after {} attempts", it.key, it.attempts);
+				} else {
+					relationships.putIfAbsent(it.key, it);
+				}
+			}
+		}
+	}
+
+	private void backgroundFlush() {
+		try {
+			flush();
+		} catch (RuntimeException e) {
+			// already logged per group...failed writes have been put back
+		}
+	}
+
+	/**
+	 * Stops the background flush and writes whatever is still pending.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+		flush();
+	}
+
+	public int getPendingCount() {
+		synchronized (lock) {
+			return nodes.size() + relationships.size();
+		}
+	}
+
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * Number of writes that were given up on after MAX_ATTEMPTS failures.
+	 * 
+	 * @return
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+}
@@ -9,7 +9,13 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.List;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
@@ -17,7 +23,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.MoreObjects;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
 
 import rebar.graph.core.resource.ResourceLoader.LoadableResource;
 import rebar.util.EnvConfig;
@@ -67,6 +74,13 @@ public class FilesystemResourceLoader implements ResourceLoader {
 
 	EnvConfig env;
 
+	File root;
+	WatchService watchService;
+	final Map<WatchKey, Path> watchedDirs = Maps.newHashMap();
+	final TreeMap<String, LoadableResource> index = new TreeMap<>();
+	boolean indexed = false;
+	final AtomicLong fullScanCount = new AtomicLong();
+
 	public FilesystemResourceLoader(EnvConfig env) {
 		this.env = env;
 	}
@@ -79,32 +93,138 @@ public class FilesystemResourceLoader implements ResourceLoader {
 		}
 		return s;
 	}
+
+	/**
+	 * The first call walks REBAR_HOME and registers every directory with a
+	 * WatchService. Later calls only apply the change events that have arrived
+	 * since, so an idle tree costs nothing to poll. If the platform cannot watch
+	 * the tree, or events are lost, the tree is walked again.
+	 */
 	@Override
-	public Stream<LoadableResource> getResources() {
+	public synchronized Stream<LoadableResource> getResources() {
+		if (!indexed) {
+			fullScan();
+		} else if (watchService == null) {
+			fullScan();
+		} else {
+			applyChanges();
+		}
+		return ImmutableList.copyOf(index.values()).stream();
+	}
 
-		List<LoadableResource> resources = Lists.newArrayList();
-		File dir = new File(env.get("REBAR_HOME").orElse("."));
-		logger.info("Searching {}",dir.getAbsolutePath());
-		
-		
+	private void fullScan() {
+		if (root == null) {
+			root = new File(env.get("REBAR_HOME").orElse("."));
+		}
+		logger.info("Searching {}", root.getAbsolutePath());
+		fullScanCount.incrementAndGet();
+		index.clear();
+		closeWatchService();
+		try {
+			watchService = root.toPath().getFileSystem().newWatchService();
+		} catch (IOException | UnsupportedOperationException e) {
+			logger.warn("cannot watch {} ... will re-scan on every call", root, e);
+			watchService = null;
+		}
+		walk(root.toPath());
+		indexed = true;
+	}
+
+	private void walk(Path start) {
 		SimpleFileVisitor<Path> v = new SimpleFileVisitor<Path>() {
 
 			@Override
-			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				register(dir);
+				return FileVisitResult.CONTINUE;
+			}
 
-				FilesystemLoadableResource flr = new FilesystemLoadableResource(normalizePath(file, dir),file.toFile());
-				resources.add(flr);
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				add(file);
 				return FileVisitResult.CONTINUE;
 			}
 
 		};
 		try {
-			java.nio.file.Files.walkFileTree(dir.toPath(), v);
+			java.nio.file.Files.walkFileTree(start, v);
 		} catch (IOException e) {
 			throw new RebarException(e);
 		}
-		
-		return resources.stream();
+	}
+
+	private void register(Path dir) {
+		if (watchService == null) {
+			return;
+		}
+		try {
+			WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+			watchedDirs.put(key, dir);
+		} catch (IOException e) {
+			logger.warn("cannot watch {} ... will re-scan on every call", dir, e);
+			closeWatchService();
+		}
+	}
+
+	private void add(Path file) {
+		String path = normalizePath(file, root);
+		index.put(path, new FilesystemLoadableResource(path, file.toFile()));
+	}
+
+	private void remove(Path file) {
+		String path = normalizePath(file, root);
+		index.remove(path);
+		// a deleted directory takes everything below it with it
+		index.subMap(path + "/", path + "0").clear();
+	}
+
+	private void applyChanges() {
+		WatchKey key;
+		while ((key = watchService.poll()) != null) {
+			Path dir = watchedDirs.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+					logger.info("lost change events for {}", root);
+					fullScan();
+					return;
+				}
+				Path child = dir.resolve((Path) event.context());
+				if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+					remove(child);
+				} else if (Files.isDirectory(child)) {
+					if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+						walk(child);
+					}
+				} else if (Files.exists(child)) {
+					// content is read lazily, so a modification only matters if the create was missed
+					add(child);
+				}
+				if (watchService == null) {
+					fullScan();
+					return;
+				}
+			}
+			if (!key.reset()) {
+				watchedDirs.remove(key);
+			}
+		}
+	}
+
+	private void closeWatchService() {
+		watchedDirs.clear();
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				logger.warn("problem closing watch service", e);
+			}
+			watchService = null;
+		}
+	}
+
+	long getFullScanCount() {
+		return fullScanCount.get();
 	}
 
 }
@@ -27,6 +27,9 @@ public class GitResourceLoader implements ResourceLoader {
 	SimpleGit simpleGit;
 	EnvConfig env;
 
+	String indexedCommitId;
+	List<LoadableResource> index = ImmutableList.of();
+
 	public GitResourceLoader(EnvConfig env) {
 		Preconditions.checkNotNull(env);
 		this.env = env;
@@ -36,17 +39,25 @@ public class GitResourceLoader implements ResourceLoader {
 		}
 	}
 
+	/**
+	 * The tree is only walked again when the commit that the branch points to
+	 * changes. Otherwise the resources from the last walk are returned.
+	 */
 	@Override
-	public Stream<LoadableResource> getResources() {
+	public synchronized Stream<LoadableResource> getResources() {
 	
-		List<LoadableResource> resources = Lists.newArrayList();
 		if (simpleGit==null) {
-			return resources.stream();
+			return Stream.empty();
 		}
 		try {
 			String url = simpleGit.getGitUrl();
 
 			if (!Strings.isNullOrEmpty(url)) {
+				String commitId = simpleGit.tree().getCommitId();
+				if (commitId.equals(indexedCommitId)) {
+					return index.stream();
+				}
+				List<LoadableResource> resources = Lists.newArrayList();
 				simpleGit.tree().files().forEach(it -> {
 
 					LoadableResource r = new LoadableResource() {
@@ -73,12 +84,15 @@ public class GitResourceLoader implements ResourceLoader {
 					};
 					resources.add(r);
 				});
+				logger.info("indexed {} resources at commit {}", resources.size(), commitId);
+				index = ImmutableList.copyOf(resources);
+				indexedCommitId = commitId;
 			}
 		} catch (Exception e) {
 			logger.warn("exception", e);
 		}
 
-		return resources.stream();
+		return index.stream();
 	}
 
 }
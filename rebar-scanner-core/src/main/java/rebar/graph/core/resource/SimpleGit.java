@@ -75,6 +75,20 @@ public class SimpleGit {
 	public class TreeContext {
 		String ref = "master";
 
+		/**
+		 * The id of the commit that the ref currently points to. Much cheaper than
+		 * walking the tree, so callers can use it to tell whether anything changed.
+		 */
+		public String getCommitId() {
+			try {
+				Ref head = getGit().getRepository().findRef(ref);
+				Preconditions.checkState(head != null, "could not resolve ref: " + ref);
+				return head.getObjectId().name();
+			} catch (IOException e) {
+				throw new RebarException(e);
+			}
+		}
+
 		public Stream<String> files() throws IOException, GitAPIException {
 			org.eclipse.jgit.lib.Repository repo = getGit().getRepository();
 
@@ -0,0 +1,54 @@
+package rebar.graph.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveScanScheduleTest {
+
+	@Test
+	public void testStableTypeSlowsDown() {
+		AdaptiveScanSchedule s = new AdaptiveScanSchedule(60, 3600, TimeUnit.SECONDS).withDefaultInterval(300,
+				TimeUnit.SECONDS);
+
+		Assertions.assertThat(s.isDue("AwsIamPolicy", 0)).isTrue();
+		s.recordScan("AwsIamPolicy", 0, 0, 100);
+		Assertions.assertThat(s.getIntervalMillis("AwsIamPolicy")).isEqualTo(TimeUnit.SECONDS.toMillis(600));
+		Assertions.assertThat(s.isDue("AwsIamPolicy", TimeUnit.SECONDS.toMillis(300))).isFalse();
+		Assertions.assertThat(s.isDue("AwsIamPolicy", TimeUnit.SECONDS.toMillis(600))).isTrue();
+
+		for (int i = 0; i < 10; i++) {
+			s.recordScan("AwsIamPolicy", 0, 0, 100);
+		}
+		Assertions.assertThat(s.getIntervalMillis("AwsIamPolicy")).isEqualTo(TimeUnit.SECONDS.toMillis(3600));
+	}
+
+	@Test
+	public void testVolatileTypeSpeedsUp() {
+		AdaptiveScanSchedule s = new AdaptiveScanSchedule(60, 3600, TimeUnit.SECONDS).withDefaultInterval(300,
+				TimeUnit.SECONDS);
+
+		s.recordScan("AwsEc2Instance", 0, 20, 80);
+		Assertions.assertThat(s.getIntervalMillis("AwsEc2Instance")).isEqualTo(TimeUnit.SECONDS.toMillis(150));
+		for (int i = 0; i < 10; i++) {
+			s.recordScan("AwsEc2Instance", 0, 20, 80);
+		}
+		Assertions.assertThat(s.getIntervalMillis("AwsEc2Instance")).isEqualTo(TimeUnit.SECONDS.toMillis(60));
+	}
+
+	@Test
+	public void testUnchangedInterval() {
+		AdaptiveScanSchedule s = new AdaptiveScanSchedule(60, 3600, TimeUnit.SECONDS).withDefaultInterval(300,
+				TimeUnit.SECONDS);
+
+		// a little churn, below the volatile ratio
+		s.recordScan("AwsVpc", 0, 1, 99);
+		Assertions.assertThat(s.getIntervalMillis("AwsVpc")).isEqualTo(TimeUnit.SECONDS.toMillis(300));
+
+		// nothing known about the writes
+		s.recordScan("AwsVpc", 1000, 0, 0);
+		Assertions.assertThat(s.getIntervalMillis("AwsVpc")).isEqualTo(TimeUnit.SECONDS.toMillis(300));
+		Assertions.assertThat(s.isDue("AwsVpc", 1000)).isFalse();
+	}
+}
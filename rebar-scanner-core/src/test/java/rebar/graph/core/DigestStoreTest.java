@@ -0,0 +1,104 @@
+package rebar.graph.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import rebar.util.Json;
+
+public class DigestStoreTest {
+
+	@Test
+	public void testKey() {
+		Assertions.assertThat(DigestStore.key("Foo", ImmutableMap.of("b", 2, "a", "x")))
+				.isEqualTo(DigestStore.key("Foo", ImmutableMap.of("a", "x", "b", 2L))).isEqualTo("Foo|a=x|b=2");
+	}
+
+	@Test
+	public void testDigestMatchesStoredNode() {
+		DigestStore store = new DigestStore();
+
+		Map<String, Object> sent = new HashMap<>();
+		sent.put("arn", "arn:foo");
+		sent.put("count", 3);
+		sent.put("tag_env", "prod");
+		sent.put("removed", null);
+		sent.put("graphEntityDigest", "abc");
+
+		// what comes back from neo4j: longs, no nulls, plus graphUpdateTs
+		String stored = store.digest(Json.objectNode().put("arn", "arn:foo").put("count", 3L).put("tag_env", "prod")
+				.put("graphEntityDigest", "def").put(GraphBuilder.UPDATE_TS, 12345L));
+
+		Assertions.assertThat(store.digest(sent)).isEqualTo(stored);
+
+		// tags count as a change
+		sent.put("tag_env", "dev");
+		Assertions.assertThat(store.digest(sent)).isNotEqualTo(stored);
+	}
+
+	@Test
+	public void testWarm() {
+		DigestStore store = new DigestStore();
+
+		Map<String, Object> sent = new HashMap<>();
+		sent.put("name", "a");
+		sent.put("x", 1);
+
+		// only the id values and the digest that merge() stored on the node are read back
+		Assertions.assertThat(store.warm("Foo",
+				Json.objectNode().put("name", "a").put(DigestStore.WRITE_DIGEST, store.digest(sent)),
+				ImmutableList.of("name"))).isTrue();
+		Assertions.assertThat(store.warm("Foo", Json.objectNode().put(DigestStore.WRITE_DIGEST, "d"),
+				ImmutableList.of("name"))).isFalse();
+		Assertions.assertThat(store.warm("Foo", Json.objectNode().put("name", "b"), ImmutableList.of("name")))
+				.isFalse();
+		Assertions.assertThat(store.size()).isEqualTo(1);
+
+		Assertions.assertThat(store.isUnchanged(DigestStore.key("Foo", ImmutableMap.of("name", "a")), store.digest(sent)))
+				.isTrue();
+		sent.put("x", 2);
+		Assertions.assertThat(store.isUnchanged(DigestStore.key("Foo", ImmutableMap.of("name", "a")), store.digest(sent)))
+				.isFalse();
+		Assertions.assertThat(store.getHitCount()).isEqualTo(1);
+		Assertions.assertThat(store.getMissCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void testTally() {
+		DigestStore store = new DigestStore();
+		String key = DigestStore.key("Foo", ImmutableMap.of("name", "a"));
+		store.put(key, "d1");
+
+		// nothing is counted outside a tally
+		store.isUnchanged(key, "d2");
+
+		try (DigestStore.Tally outer = store.startTally()) {
+			// nothing remembered yet
+			store.isUnchanged(DigestStore.key("Foo", ImmutableMap.of("name", "b")), "d1");
+			Assertions.assertThat(outer.getChangedCount()).isEqualTo(0);
+
+			try (DigestStore.Tally inner = store.startTally()) {
+				store.isUnchanged(key, "d1");
+				store.tally(key, "d2");
+				Assertions.assertThat(inner.getUnchangedCount()).isEqualTo(1);
+				Assertions.assertThat(inner.getChangedCount()).isEqualTo(1);
+			}
+			store.isUnchanged(key, "d1");
+			Assertions.assertThat(outer.getUnchangedCount()).isEqualTo(2);
+			Assertions.assertThat(outer.getChangedCount()).isEqualTo(1);
+
+			// other threads have their own tallies
+			Thread t = new Thread(() -> store.isUnchanged(key, "d1"));
+			t.start();
+			Uninterruptibles.joinUninterruptibly(t);
+			Assertions.assertThat(outer.getUnchangedCount()).isEqualTo(2);
+		}
+		Assertions.assertThat(store.isTallying()).isFalse();
+	}
+}
@@ -15,11 +15,17 @@
  */
 package rebar.graph.core;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 import org.assertj.core.api.Assertions;
 import org.assertj.core.data.Offset;
 import org.junit.jupiter.api.Test;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 import rebar.graph.neo4j.GraphException;
 import rebar.util.Json;
@@ -73,4 +79,152 @@ class GraphBuilderTest extends CoreIntegrationTest {
 				.assertThat(GraphBuilder.toPatternClause(ImmutableMap.of("name", "Rob", "occupation", "developer")))
 				.contains("name:{name}").contains("occupation:{occupation}");
 	}
+
+	@Test
+	public void testPatternIsCanonical() {
+		Map<String, Object> a = new LinkedHashMap<>();
+		a.put("name", "Rob");
+		a.put("occupation", "developer");
+		Map<String, Object> b = new LinkedHashMap<>();
+		b.put("occupation", "developer");
+		b.put("name", "Rob");
+		Assertions.assertThat(GraphBuilder.toPatternClause(a)).isEqualTo(GraphBuilder.toPatternClause(b));
+		Assertions.assertThat(GraphBuilder.toRemoveClause(ImmutableSet.of("b", "a")))
+				.isEqualTo(GraphBuilder.toRemoveClause(ImmutableSet.of("a", "b")));
+
+		Assertions.assertThat(StatementCache.key("match", "Foo", ImmutableSet.of("b", "a"), null, true))
+				.isEqualTo(StatementCache.key("match", "Foo", ImmutableSet.of("a", "b"), null, true))
+				.isNotEqualTo(StatementCache.key("match", "Foo", ImmutableSet.of("a", "b"), null, false));
+	}
+
+	@Test
+	public void testCutoffIsParameterized() {
+		GraphBuilder gb = getRebarGraph().getGraphBuilder();
+		String name = "rob " + System.currentTimeMillis();
+		gb.nodes("JUnitFoo").properties(Json.objectNode().put("name", name)).idKey("name").merge();
+
+		gb.getNeo4jDriver().metrics().resetStats();
+		long ts = gb.getTimestamp();
+		for (int i = 0; i < 5; i++) {
+			Assertions.assertThat(gb.nodes("JUnitFoo").id("name", name).whereAttributeLessThan(GraphBuilder.UPDATE_TS, ts + i + 1)
+					.match().count()).isEqualTo(1);
+		}
+		Assertions.assertThat(gb.nodes("JUnitFoo").id("name", name).whereAttributeLessThan(GraphBuilder.UPDATE_TS, 1L)
+				.match().count()).isEqualTo(0);
+
+		Assertions.assertThat(gb.getNeo4jDriver().metrics().getStatementStats()
+				.filter(it -> it.toJson().path("cypher").asText().contains("JUnitFoo"))
+				.peek(it -> Assertions.assertThat(it.toJson().path("cypher").asText()).contains("{__cutoff}"))
+				.count()).isEqualTo(1);
+
+		gb.nodes("JUnitFoo").id("name", name).whereAttributeLessThan(GraphBuilder.UPDATE_TS, ts + 1000).delete();
+		Assertions.assertThat(gb.nodes("JUnitFoo").id("name", name).match().count()).isEqualTo(0);
+	}
+
+	@Test
+	public void testDigestGating() throws InterruptedException {
+		DigestStore store = new DigestStore();
+		GraphBuilder gb = new GraphBuilder(getRebarGraph().getGraphBuilder().getNeo4jDriver()).withDigestStore(store);
+		String name = "digest " + System.currentTimeMillis();
+
+		JsonNode first = gb.nodes("JUnitFoo").properties(Json.objectNode().put("name", name).put("fizz", 1))
+				.idKey("name").merge().findFirst().get();
+		Assertions.assertThat(store.getMissCount()).isEqualTo(1);
+
+		// unchanged...touched only
+		Thread.sleep(5);
+		JsonNode second = gb.nodes("JUnitFoo").properties(Json.objectNode().put("name", name).put("fizz", 1))
+				.idKey("name").merge().findFirst().get();
+		Assertions.assertThat(store.getHitCount()).isEqualTo(1);
+		Assertions.assertThat(second.path("fizz").asInt()).isEqualTo(1);
+		Assertions.assertThat(second.path(GraphBuilder.UPDATE_TS).asLong())
+				.isGreaterThan(first.path(GraphBuilder.UPDATE_TS).asLong());
+
+		// changed
+		JsonNode third = gb.nodes("JUnitFoo").properties(Json.objectNode().put("name", name).put("fizz", 2))
+				.idKey("name").merge().findFirst().get();
+		Assertions.assertThat(store.getMissCount()).isEqualTo(2);
+		Assertions.assertThat(third.path("fizz").asInt()).isEqualTo(2);
+
+		// deleted behind the store's back...the touch matches nothing and the node is recreated
+		gb.nodes("JUnitFoo").id("name", name).delete();
+		gb.nodes("JUnitFoo").properties(Json.objectNode().put("name", name).put("fizz", 2)).idKey("name").merge();
+		Assertions.assertThat(gb.nodes("JUnitFoo").id("name", name).match().count()).isEqualTo(1);
+
+		// a fresh store warmed from the graph recognizes the node
+		DigestStore warmed = new DigestStore();
+		gb.withDigestStore(warmed);
+		Assertions.assertThat(gb.warmDigestStore("JUnitFoo", "name")).isGreaterThan(0);
+		gb.nodes("JUnitFoo").properties(Json.objectNode().put("name", name).put("fizz", 2)).idKey("name").merge();
+		Assertions.assertThat(warmed.getHitCount()).isEqualTo(1);
+
+		gb.nodes("JUnitFoo").id("name", name).delete();
+	}
+
+	@Test
+	public void testDeleteAll() {
+		GraphBuilder gb = getRebarGraph().getGraphBuilder();
+		String group = "deleteAll " + System.currentTimeMillis();
+		for (int i = 0; i < 5; i++) {
+			gb.nodes("JUnitFoo").id("group", group).properties(Json.objectNode().put("name", group + i).put("n", i))
+					.idKey("name").merge();
+		}
+		long cutoff = gb.getTimestamp() + 1;
+
+		// not in the group...untouched
+		Assertions.assertThat(gb.nodes("JUnitFoo").id("group", "other").deleteAll("name", ImmutableSet.of(group + 0)))
+				.isEqualTo(0);
+
+		Assertions.assertThat(gb.nodes("JUnitFoo").id("group", group).whereAttributeLessThan(GraphBuilder.UPDATE_TS, cutoff)
+				.deleteAll("name", ImmutableSet.of(group + 0, group + 1, group + 2, "notfound"))).isEqualTo(3);
+
+		Assertions.assertThat(gb.nodes("JUnitFoo").id("group", group).match().count()).isEqualTo(2);
+
+		// updated after the cutoff...untouched
+		Assertions.assertThat(gb.nodes("JUnitFoo").id("group", group).whereAttributeLessThan(GraphBuilder.UPDATE_TS, 0)
+				.deleteAll("name", ImmutableSet.of(group + 3))).isEqualTo(0);
+
+		gb.nodes("JUnitFoo").id("group", group).delete();
+	}
+
+	@Test
+	public void testWriteBehind() {
+		GraphBuilder gb = new GraphBuilder(getRebarGraph().getGraphBuilder().getNeo4jDriver()).withWriteBehind(100,
+				1, TimeUnit.HOURS);
+		WriteBehindBuffer buffer = gb.getWriteBehind().get();
+		String name = "deferred " + System.currentTimeMillis();
+
+		gb.nodes("JUnitFoo").properties(Json.objectNode().put("name", name).put("fizz", 1)).idKey("name")
+				.mergeDeferred();
+		gb.nodes("JUnitFoo").properties(Json.objectNode().put("name", name).put("buzz", 2)).idKey("name")
+				.mergeDeferred();
+		gb.nodes("JUnitFoo").properties(Json.objectNode().put("name", name).put("fizz", 3)).idKey("name")
+				.mergeDeferred();
+		Assertions.assertThat(buffer.getPendingCount()).isEqualTo(1);
+		Assertions.assertThat(buffer.getCoalescedCount()).isEqualTo(2);
+
+		// match() sees pending writes
+		JsonNode n = gb.nodes("JUnitFoo").id("name", name).match().findFirst().get();
+		Assertions.assertThat(buffer.getPendingCount()).isEqualTo(0);
+		Assertions.assertThat(buffer.getWrittenCount()).isEqualTo(1);
+		Assertions.assertThat(n.path("fizz").asInt()).isEqualTo(3);
+		Assertions.assertThat(n.path("buzz").asInt()).isEqualTo(2);
+
+		// a synchronous merge absorbs the pending write of the same node
+		gb.nodes("JUnitFoo").properties(Json.objectNode().put("name", name).put("fizz", 4)).idKey("name")
+				.mergeDeferred();
+		n = gb.nodes("JUnitFoo").properties(Json.objectNode().put("name", name).put("buzz", 5)).idKey("name").merge()
+				.findFirst().get();
+		Assertions.assertThat(buffer.getPendingCount()).isEqualTo(0);
+		Assertions.assertThat(n.path("fizz").asInt()).isEqualTo(4);
+		Assertions.assertThat(n.path("buzz").asInt()).isEqualTo(5);
+
+		gb.nodes("JUnitFoo").properties(Json.objectNode().put("name", name).put("fizz", 6)).idKey("name")
+				.mergeDeferred();
+		buffer.close();
+		Assertions.assertThat(gb.nodes("JUnitFoo").id("name", name).match().findFirst().get().path("fizz").asInt())
+				.isEqualTo(6);
+
+		gb.nodes("JUnitFoo").id("name", name).delete();
+	}
 }
@@ -0,0 +1,87 @@
+package rebar.graph.core;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import rebar.util.Sleep;
+
+public class LeaderElectionTest extends CoreIntegrationTest {
+
+	String name = "junit-" + UUID.randomUUID().toString();
+
+	@AfterEach
+	public void deleteLease() {
+		getNeo4jDriver().cypher("match (l:RebarLeaderLease {name:{name}}) detach delete l").param("name", name).exec();
+	}
+
+	@Test
+	public void testElection() {
+		LeaderElection a = new LeaderElection(getNeo4jDriver(), name, "a");
+		LeaderElection b = new LeaderElection(getNeo4jDriver(), name, "b");
+
+		Assertions.assertThat(a.tryAcquire()).isTrue();
+		Assertions.assertThat(b.tryAcquire()).isFalse();
+		Assertions.assertThat(a.isLeader()).isTrue();
+		Assertions.assertThat(b.isLeader()).isFalse();
+
+		// renewing keeps the token
+		long token = a.getFencingToken().get();
+		Assertions.assertThat(a.tryAcquire()).isTrue();
+		Assertions.assertThat(a.getFencingToken()).contains(token);
+
+		a.release();
+		Assertions.assertThat(a.isLeader()).isFalse();
+		Assertions.assertThat(b.tryAcquire()).isTrue();
+		Assertions.assertThat(b.getFencingToken()).contains(token + 1);
+	}
+
+	@Test
+	public void testFencing() {
+		LeaderElection a = new LeaderElection(getNeo4jDriver(), name, "a").withLeaseTtl(500, TimeUnit.MILLISECONDS);
+		LeaderElection b = new LeaderElection(getNeo4jDriver(), name, "b");
+
+		Assertions.assertThat(a.tryAcquire()).isTrue();
+		a.fencedCypher("match (l:RebarLeaderLease {name:{name}}) set l.writtenBy='a'").param("name", name).exec();
+
+		// a is paused past its lease and b takes over
+		Sleep.sleep(1000);
+		Assertions.assertThat(a.isLeader()).isFalse();
+		Assertions.assertThat(b.tryAcquire()).isTrue();
+
+		// a's stale write is ignored
+		a.fencedCypher("match (l:RebarLeaderLease {name:{name}}) set l.writtenBy='stale'").param("name", name).exec();
+		Assertions.assertThat(getNeo4jDriver().cypher("match (l:RebarLeaderLease {name:{name}}) return l.writtenBy as w")
+				.param("name", name).findFirst().get().path("w").asText()).isEqualTo("a");
+		b.fencedCypher("match (l:RebarLeaderLease {name:{name}}) set l.writtenBy='b'").param("name", name).exec();
+		Assertions.assertThat(getNeo4jDriver().cypher("match (l:RebarLeaderLease {name:{name}}) return l.writtenBy as w")
+				.param("name", name).findFirst().get().path("w").asText()).isEqualTo("b");
+	}
+
+	@Test
+	public void testRunIfLeader() {
+		LeaderElection a = new LeaderElection(getNeo4jDriver(), name, "a");
+		LeaderElection b = new LeaderElection(getNeo4jDriver(), name, "b");
+
+		Assertions.assertThat(a.runIfLeader(() -> {
+		})).isTrue();
+		Assertions.assertThat(b.runIfLeader(() -> {
+			Assertions.fail("b is not the leader");
+		})).isFalse();
+	}
+
+	@Test
+	public void testRenewWhileRunning() {
+		LeaderElection a = new LeaderElection(getNeo4jDriver(), name, "a").withLeaseTtl(500, TimeUnit.MILLISECONDS);
+		LeaderElection b = new LeaderElection(getNeo4jDriver(), name, "b");
+
+		Assertions.assertThat(a.runIfLeader(() -> {
+			// runs for longer than the lease
+			Sleep.sleep(1500);
+			Assertions.assertThat(b.tryAcquire()).isFalse();
+		})).isTrue();
+	}
+}
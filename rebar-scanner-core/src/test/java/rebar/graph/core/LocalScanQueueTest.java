@@ -0,0 +1,219 @@
+package rebar.graph.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.Lists;
+
+import rebar.graph.core.ScanQueue.Priority;
+
+public class LocalScanQueueTest {
+
+	File dir;
+	List<LocalScanQueue> queues = Lists.newArrayList();
+
+	@BeforeEach
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("scan-queue").toFile();
+	}
+
+	@AfterEach
+	public void cleanup() {
+		queues.forEach(LocalScanQueue::close);
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	LocalScanQueue newQueue() {
+		LocalScanQueue q = new LocalScanQueue(dir);
+		queues.add(q);
+		return q;
+	}
+
+	@Test
+	public void testDeduplicate() throws InterruptedException {
+		LocalScanQueue q = newQueue();
+		q.start();
+
+		q.submit("junit", "a");
+		q.submit("junit", "a");
+		q.submit("junit", "b");
+		Assertions.assertThat(q.getSubmittedCount()).isEqualTo(2);
+		Assertions.assertThat(q.getDeduplicatedCount()).isEqualTo(1);
+		Assertions.assertThat(q.getPendingCount()).isEqualTo(2);
+
+		CountDownLatch latch = new CountDownLatch(2);
+		q.subscribe(it -> latch.countDown(), "junit", null, null);
+		Assertions.assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+
+		// only queued requests are collapsed
+		q.submit("junit", "a");
+		Assertions.assertThat(q.getSubmittedCount()).isEqualTo(3);
+		Assertions.assertThat(q.getDeduplicatedCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void testDeferWhileInFlight() throws InterruptedException {
+		LocalScanQueue q = newQueue().withDispatcherThreads(2);
+		q.start();
+
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(2);
+		List<String> events = new CopyOnWriteArrayList<>();
+		q.subscribe(it -> {
+			events.add("start");
+			started.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			events.add("end");
+			done.countDown();
+		}, "junit", null, null);
+
+		q.submit("junit", "a");
+		Assertions.assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+		// arrives during the first delivery, so it is held rather than dropped
+		q.submit("junit", "a");
+		q.submit("junit", "a");
+		Assertions.assertThat(q.getSubmittedCount()).isEqualTo(2);
+		Assertions.assertThat(q.getDeduplicatedCount()).isEqualTo(1);
+		Thread.sleep(100);
+		Assertions.assertThat(events).containsExactly("start");
+
+		release.countDown();
+		Assertions.assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+		Assertions.assertThat(events).containsExactly("start", "end", "start", "end");
+	}
+
+	@Test
+	public void testPriority() throws InterruptedException {
+		LocalScanQueue q = newQueue();
+		q.start();
+
+		q.submit(Priority.LOW, "junit", "low");
+		q.submit(Priority.NORMAL, "junit", "normal");
+		q.submit(Priority.LOW, "junit", "promoted");
+		q.submit(Priority.HIGH, "junit", "promoted");
+		q.submit(Priority.HIGH, "junit", "high");
+
+		List<String> received = new CopyOnWriteArrayList<>();
+		CountDownLatch latch = new CountDownLatch(4);
+		q.subscribe(it -> {
+			received.add(it.path("n0").asText());
+			latch.countDown();
+		}, "junit", null, null);
+
+		Assertions.assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+		Assertions.assertThat(received).containsExactly("promoted", "high", "normal", "low");
+		Assertions.assertThat(q.getDeduplicatedCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void testSubscriptionMatch() throws InterruptedException {
+		LocalScanQueue q = newQueue();
+		q.start();
+
+		List<JsonNode> foo = new CopyOnWriteArrayList<>();
+		CountDownLatch latch = new CountDownLatch(1);
+		q.subscribe(foo::add, "junit", "foo", null);
+		q.subscribe(it -> latch.countDown(), "junit", "bar", null);
+
+		q.submit("junit", "bar", "x");
+		Assertions.assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+		Assertions.assertThat(foo).isEmpty();
+	}
+
+	@Test
+	public void testReplayAfterRestart() throws InterruptedException {
+		LocalScanQueue q = newQueue();
+		q.start();
+		q.submit("junit", "a", "1");
+		q.submit("junit", "b", "2");
+		q.submit("other", "c");
+
+		CountDownLatch otherLatch = new CountDownLatch(1);
+		q.subscribe(it -> otherLatch.countDown(), "other", null, null);
+		Assertions.assertThat(otherLatch.await(5, TimeUnit.SECONDS)).isTrue();
+		q.close();
+
+		// acknowledged requests are not replayed
+		LocalScanQueue q2 = newQueue();
+		q2.start();
+		Assertions.assertThat(q2.getPendingCount()).isEqualTo(2);
+
+		List<JsonNode> received = new CopyOnWriteArrayList<>();
+		CountDownLatch latch = new CountDownLatch(2);
+		q2.subscribe(it -> {
+			received.add(it);
+			latch.countDown();
+		}, "junit", null, null);
+		Assertions.assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+		Assertions.assertThat(received).extracting(it -> it.path("n1").asText()).containsExactly("1", "2");
+		q2.close();
+
+		LocalScanQueue q3 = newQueue();
+		q3.start();
+		Assertions.assertThat(q3.getPendingCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void testCompaction() throws InterruptedException {
+		LocalScanQueue q = newQueue().withSegmentSize(512);
+		q.start();
+
+		int count = 50;
+		CountDownLatch latch = new CountDownLatch(count);
+		for (int i = 0; i < count; i++) {
+			q.submit("junit", "item-" + i);
+		}
+		Assertions.assertThat(dir.listFiles()).hasSizeGreaterThan(1);
+
+		q.subscribe(it -> latch.countDown(), "junit", null, null);
+		Assertions.assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+		q.close();
+
+		Assertions.assertThat(q.getSegmentCount()).isEqualTo(1);
+		Assertions.assertThat(dir.listFiles()).hasSize(1);
+	}
+
+	@Test
+	public void testConsumerFailure() throws InterruptedException {
+		LocalScanQueue q = newQueue();
+		q.start();
+
+		CountDownLatch latch = new CountDownLatch(2);
+		q.subscribe(it -> {
+			latch.countDown();
+			throw new RuntimeException("simulated failure");
+		}, "junit", null, null);
+		q.submit("junit", "a");
+		q.submit("junit", "b");
+		Assertions.assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+		q.close();
+
+		// failed requests are acknowledged, like the neo4j queue
+		LocalScanQueue q2 = newQueue();
+		q2.start();
+		Assertions.assertThat(q2.getPendingCount()).isEqualTo(0);
+	}
+}
@@ -0,0 +1,96 @@
+package rebar.graph.core;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import rebar.graph.core.RateLimiterRegistry.Limiter;
+import rebar.util.EnvConfig;
+import rebar.util.RebarException;
+
+public class RateLimiterRegistryTest {
+
+	@Test
+	public void testDefaults() {
+		RateLimiterRegistry registry = new RateLimiterRegistry();
+
+		Assertions.assertThat(registry.getConfiguredRate("ec2", "DescribeInstances")).isEqualTo(20);
+		Assertions.assertThat(registry.getConfiguredRate("ec2", "CreateTags")).isEqualTo(10);
+		Assertions.assertThat(registry.getConfiguredRate("unknown", "Foo"))
+				.isEqualTo(RateLimiterRegistry.DEFAULT_PERMITS_PER_SECOND);
+	}
+
+	@Test
+	public void testRulePrecedence() {
+		RateLimiterRegistry registry = new RateLimiterRegistry().withLimit("ec2", "DescribeImages", 2)
+				.withLimit("ec2", "Describe*", 5).withLimit("ec2", "DescribeImages", 100);
+
+		Assertions.assertThat(registry.getConfiguredRate("ec2", "DescribeImages")).isEqualTo(2);
+		Assertions.assertThat(registry.getConfiguredRate("ec2", "DescribeVpcs")).isEqualTo(5);
+		Assertions.assertThat(registry.getConfiguredRate("EC2", "DescribeVpcs")).isEqualTo(5);
+		Assertions.assertThat(registry.getConfiguredRate("ec2", "xDescribeVpcs")).isEqualTo(10);
+	}
+
+	@Test
+	public void testEnv() {
+		RateLimiterRegistry registry = new RateLimiterRegistry().withEnv(new EnvConfig()
+				.withEnv(RateLimiterRegistry.RATE_LIMITS_ENV, " ec2:Describe*=3, identitymanagement=1.5 ,*:*=7"));
+
+		Assertions.assertThat(registry.getConfiguredRate("ec2", "DescribeInstances")).isEqualTo(3);
+		Assertions.assertThat(registry.getConfiguredRate("identitymanagement", "ListRoles")).isEqualTo(1.5);
+		Assertions.assertThat(registry.getConfiguredRate("ec2", "CreateTags")).isEqualTo(7);
+
+		try {
+			new RateLimiterRegistry()
+					.withEnv(new EnvConfig().withEnv(RateLimiterRegistry.RATE_LIMITS_ENV, "ec2:Describe*"));
+			Assertions.failBecauseExceptionWasNotThrown(RebarException.class);
+		} catch (RebarException e) {
+			Assertions.assertThat(e).hasMessageContaining("ec2:Describe*");
+		}
+	}
+
+	@Test
+	public void testBucketsAreScoped() {
+		RateLimiterRegistry registry = new RateLimiterRegistry();
+
+		Limiter a = registry.getLimiter("123/us-west-2", "ec2", "DescribeInstances");
+		Assertions.assertThat(registry.getLimiter("123/us-west-2", "ec2", "DescribeInstances")).isSameAs(a);
+		Assertions.assertThat(registry.getLimiter("123/us-east-1", "ec2", "DescribeInstances")).isNotSameAs(a);
+		Assertions.assertThat(registry.getLimiter("123/us-west-2", "ec2", "DescribeVpcs")).isNotSameAs(a);
+	}
+
+	@Test
+	public void testAdaptiveRate() {
+		Limiter limiter = new RateLimiterRegistry().withLimit("ec2", "*", 8).getLimiter("123/us-west-2", "ec2",
+				"DescribeInstances");
+		Assertions.assertThat(limiter.getRate()).isEqualTo(8);
+
+		// successes at the configured rate do nothing
+		limiter.onSuccess();
+		Assertions.assertThat(limiter.getRate()).isEqualTo(8);
+
+		limiter.onThrottled();
+		Assertions.assertThat(limiter.getRate()).isEqualTo(4);
+
+		// the rest of the burst is counted, but only halves the rate once
+		limiter.onThrottled();
+		limiter.onThrottled();
+		Assertions.assertThat(limiter.getRate()).isEqualTo(4);
+		Assertions.assertThat(limiter.getThrottledCount()).isEqualTo(3);
+
+		// no recovery until the interval has passed
+		limiter.onSuccess();
+		Assertions.assertThat(limiter.getRate()).isEqualTo(4);
+
+		for (int i = 0; i < 20; i++) {
+			limiter.lastChangeMillis -= RateLimiterRegistry.RECOVERY_INTERVAL_MILLIS;
+			limiter.onSuccess();
+		}
+		Assertions.assertThat(limiter.getRate()).isEqualTo(8);
+
+		for (int i = 0; i < 20; i++) {
+			limiter.lastChangeMillis -= RateLimiterRegistry.RECOVERY_INTERVAL_MILLIS;
+			limiter.onThrottled();
+		}
+		Assertions.assertThat(limiter.getRate()).isEqualTo(RateLimiterRegistry.MIN_PERMITS_PER_SECOND);
+	}
+}
@@ -0,0 +1,69 @@
+package rebar.graph.core;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+import groovy.lang.Script;
+
+public class ScriptCacheTest {
+
+	@Test
+	public void testCompileOnce() {
+		ScriptCache cache = new ScriptCache();
+		String source = "// cron: * * * * *\n// scanner: aws\nreturn 1+2";
+
+		ScriptCache.Entry entry = cache.get("scripts/a.groovy", source);
+		Assertions.assertThat(entry.getFrontMatter().path("cron").asText()).isEqualTo("* * * * *");
+		Assertions.assertThat(entry.getFrontMatter().path("scanner").asText()).isEqualTo("aws");
+		Assertions.assertThat(cache.getCompileCount()).isEqualTo(0);
+
+		Assertions.assertThat(cache.run(entry)).isEqualTo(3);
+		Assertions.assertThat(cache.run(cache.get("scripts/a.groovy", source))).isEqualTo(3);
+		Assertions.assertThat(cache.get("scripts/a.groovy", source)).isSameAs(entry);
+		Assertions.assertThat(cache.getCompileCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void testRecompileOnChange() {
+		ScriptCache cache = new ScriptCache();
+
+		ScriptCache.Entry v1 = cache.get("scripts/a.groovy", "return 'v1'");
+		Assertions.assertThat(cache.run(v1)).isEqualTo("v1");
+		Class<? extends Script> c1 = cache.getScriptClass(v1);
+
+		ScriptCache.Entry v2 = cache.get("scripts/a.groovy", "return 'v2'");
+		Assertions.assertThat(cache.run(v2)).isEqualTo("v2");
+		Assertions.assertThat(cache.getScriptClass(v2)).isNotSameAs(c1);
+		Assertions.assertThat(cache.getCompileCount()).isEqualTo(2);
+
+		// the old version was evicted
+		Assertions.assertThat(cache.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void testRetainPaths() {
+		ScriptCache cache = new ScriptCache();
+		cache.get("scripts/a.groovy", "return 'a'");
+		cache.get("scripts/b.groovy", "return 'b'");
+		cache.get("scripts/c.groovy", "return 'b'");
+		Assertions.assertThat(cache.size()).isEqualTo(2);
+
+		// b and c share a source, which stays cached while either exists
+		cache.retainPaths(ImmutableSet.of("scripts/a.groovy", "scripts/c.groovy"));
+		Assertions.assertThat(cache.size()).isEqualTo(2);
+
+		cache.retainPaths(ImmutableSet.of("scripts/c.groovy"));
+		Assertions.assertThat(cache.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void testMaxSize() {
+		ScriptCache cache = new ScriptCache(2);
+		for (int i = 0; i < 5; i++) {
+			cache.run(cache.get("scripts/" + i + ".groovy", "return " + i));
+		}
+		Assertions.assertThat(cache.size()).isLessThanOrEqualTo(2);
+	}
+}
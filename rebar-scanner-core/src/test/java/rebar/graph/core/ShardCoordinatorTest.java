@@ -0,0 +1,63 @@
+package rebar.graph.core;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class ShardCoordinatorTest {
+
+	List<String> units() {
+		return IntStream.range(0, 1000)
+				.mapToObj(i -> ShardCoordinator.unit("aws", "12345678" + (i % 10), "us-west-2", "AwsType" + i))
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	public void testUnit() {
+		Assertions.assertThat(ShardCoordinator.unit("aws", "123", "us-east-1", "AwsEc2Instance"))
+				.isEqualTo("aws/123/us-east-1/AwsEc2Instance");
+		Assertions.assertThat(ShardCoordinator.unit("aws", "123", null, "AwsIamRole")).isEqualTo("aws/123//AwsIamRole");
+	}
+
+	@Test
+	public void testOwnerIsStable() {
+		List<String> members = ImmutableList.of("a", "b", "c");
+		for (String unit : units()) {
+			Assertions.assertThat(ShardCoordinator.owner(unit, members))
+					.isEqualTo(ShardCoordinator.owner(unit, ImmutableList.of("c", "a", "b")));
+		}
+		Assertions.assertThat(ShardCoordinator.owner("x", ImmutableList.of("a"))).isEqualTo("a");
+	}
+
+	@Test
+	public void testBalance() {
+		List<String> members = ImmutableList.of("a", "b", "c", "d");
+		Map<String, Long> counts = units().stream()
+				.collect(Collectors.groupingBy(it -> ShardCoordinator.owner(it, members), Collectors.counting()));
+
+		Assertions.assertThat(counts).containsOnlyKeys("a", "b", "c", "d");
+		counts.values().forEach(it -> Assertions.assertThat(it).isBetween(125L, 375L));
+	}
+
+	@Test
+	public void testRebalance() {
+		List<String> before = ImmutableList.of("a", "b", "c", "d");
+		List<String> after = ImmutableList.of("a", "b", "d");
+
+		for (String unit : units()) {
+			String owner = ShardCoordinator.owner(unit, before);
+			if (!owner.equals("c")) {
+				// only the units of the replica that went away move
+				Assertions.assertThat(ShardCoordinator.owner(unit, after)).isEqualTo(owner);
+			} else {
+				Assertions.assertThat(ShardCoordinator.owner(unit, after)).isNotEqualTo("c");
+			}
+		}
+	}
+}
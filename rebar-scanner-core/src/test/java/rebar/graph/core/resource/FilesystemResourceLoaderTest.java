@@ -0,0 +1,94 @@
+package rebar.graph.core.resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.io.CharStreams;
+
+import rebar.graph.core.resource.ResourceLoader.LoadableResource;
+import rebar.util.EnvConfig;
+import rebar.util.Sleep;
+
+public class FilesystemResourceLoaderTest {
+
+	Path dir;
+	FilesystemResourceLoader loader;
+
+	@BeforeEach
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("rebar-home");
+		Files.createDirectories(dir.resolve("scripts"));
+		Files.write(dir.resolve("scripts/a.groovy"), "return 'a'".getBytes(StandardCharsets.UTF_8));
+		loader = new FilesystemResourceLoader(new EnvConfig().withEnv("REBAR_HOME", dir.toString()));
+	}
+
+	@AfterEach
+	public void cleanup() throws IOException {
+		try (Stream<Path> paths = Files.walk(dir)) {
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	List<String> paths() {
+		return loader.getResources().map(LoadableResource::getPath).collect(Collectors.toList());
+	}
+
+	boolean eventually(Predicate<List<String>> condition) {
+		for (int i = 0; i < 100; i++) {
+			if (condition.test(paths())) {
+				return true;
+			}
+			Sleep.sleep(100);
+		}
+		return false;
+	}
+
+	@Test
+	public void testIncremental() throws IOException {
+		Assertions.assertThat(paths()).anyMatch(it -> it.endsWith("scripts/a.groovy"));
+		Assertions.assertThat(paths()).hasSize(1);
+		Assertions.assertThat(loader.getFullScanCount()).isEqualTo(1);
+
+		Files.write(dir.resolve("scripts/b.groovy"), "return 'b'".getBytes(StandardCharsets.UTF_8));
+		Assertions.assertThat(eventually(p -> p.size() == 2)).isTrue();
+
+		Files.createDirectories(dir.resolve("reports/daily"));
+		Files.write(dir.resolve("reports/daily/c.groovy"), "return 'c'".getBytes(StandardCharsets.UTF_8));
+		Assertions.assertThat(eventually(p -> p.stream().anyMatch(it -> it.endsWith("reports/daily/c.groovy"))))
+				.isTrue();
+
+		Files.delete(dir.resolve("scripts/a.groovy"));
+		Assertions.assertThat(eventually(p -> p.stream().noneMatch(it -> it.endsWith("scripts/a.groovy"))))
+				.isTrue();
+
+		if (loader.watchService != null) {
+			Assertions.assertThat(loader.getFullScanCount()).isEqualTo(1);
+		}
+	}
+
+	@Test
+	public void testContentIsReadLazily() throws IOException {
+		LoadableResource r = loader.getResources().findFirst().get();
+		Files.write(dir.resolve("scripts/a.groovy"), "return 'changed'".getBytes(StandardCharsets.UTF_8));
+
+		try (InputStream in = r.getInputStreamSupplier().get()) {
+			Assertions.assertThat(CharStreams.toString(new InputStreamReader(in, StandardCharsets.UTF_8)))
+					.isEqualTo("return 'changed'");
+		}
+	}
+}
@@ -8,6 +8,7 @@ import org.springframework.stereotype.Component;
 
 import rebar.graph.core.Main;
 import rebar.graph.core.ScannerModule;
+import rebar.graph.neo4j.SchemaReconciler;
 
 @Component
 public class DigitalOceanScannerModule extends ScannerModule {
@@ -36,10 +37,10 @@ public class DigitalOceanScannerModule extends ScannerModule {
 	}
 
 	@Override
-	public void applyConstraints(boolean apply) {
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("DigitalOceanAccount", "urn",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("DigitalOceanRegion", "urn",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("DigitalOceanDroplet", "urn",apply);
+	public void applyConstraints(SchemaReconciler reconciler) {
+		reconciler.createUniqueConstraint("DigitalOceanAccount", "urn");
+		reconciler.createUniqueConstraint("DigitalOceanRegion", "urn");
+		reconciler.createUniqueConstraint("DigitalOceanDroplet", "urn");
 	}
 
 }
@@ -29,6 +29,7 @@ import jersey.repackaged.com.google.common.util.concurrent.ThreadFactoryBuilder;
 import rebar.graph.core.Main;
 import rebar.graph.core.ScannerModule;
 import rebar.util.Sleep;
+import rebar.graph.neo4j.SchemaReconciler;
 
 @Component
 public class DockerScannerModule extends ScannerModule {
@@ -76,9 +77,9 @@ public class DockerScannerModule extends ScannerModule {
 	}
 	
 	@Override
-	public void applyConstraints(boolean apply) {
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint(DockerEntityType.DockerContainer.name(), "urn",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint(DockerEntityType.DockerHost.name(), "urn",apply);
+	public void applyConstraints(SchemaReconciler reconciler) {
+		reconciler.createUniqueConstraint(DockerEntityType.DockerContainer.name(), "urn");
+		reconciler.createUniqueConstraint(DockerEntityType.DockerHost.name(), "urn");
 	
 	}
 }
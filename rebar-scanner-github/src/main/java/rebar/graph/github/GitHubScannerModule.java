@@ -7,6 +7,7 @@ import org.slf4j.LoggerFactory;
 
 import rebar.graph.core.Main;
 import rebar.graph.core.ScannerModule;
+import rebar.graph.neo4j.SchemaReconciler;
 
 public class GitHubScannerModule extends ScannerModule {
 
@@ -37,7 +38,7 @@ public class GitHubScannerModule extends ScannerModule {
 	}
 
 	@Override
-	public void applyConstraints(boolean b) {
+	public void applyConstraints(SchemaReconciler reconciler) {
 		
 		
 	}
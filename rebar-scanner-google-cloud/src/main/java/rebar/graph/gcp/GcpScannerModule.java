@@ -7,7 +7,7 @@ import org.slf4j.LoggerFactory;
 
 import rebar.graph.core.Main;
 import rebar.graph.core.ScannerModule;
-import rebar.graph.neo4j.GraphSchema;
+import rebar.graph.neo4j.SchemaReconciler;
 
 public class GcpScannerModule extends ScannerModule {
 
@@ -38,15 +38,14 @@ public class GcpScannerModule extends ScannerModule {
 	}
 	
 	@Override
-	public void applyConstraints(boolean apply) {
-		GraphSchema schema = getRebarGraph().getGraphBuilder().schema();
-		schema.createUniqueConstraint(GcpEntityType.GcpProject.name(), "urn",apply);
-		schema.createUniqueConstraint(GcpEntityType.GcpProject.name(), "projectNumber",apply);
-		schema.createUniqueConstraint(GcpEntityType.GcpProject.name(), "projectId",apply);
-		schema.createUniqueConstraint(GcpEntityType.GcpComputeInstance.name(), "urn",apply);
-		schema.createUniqueConstraint(GcpEntityType.GcpZone.name(), "urn",apply);
-		schema.createUniqueConstraint(GcpEntityType.GcpRegion.name(), "urn",apply);
-		schema.createUniqueConstraint(GcpEntityType.GcpRegion.name(), "regionName",apply);
+	public void applyConstraints(SchemaReconciler reconciler) {
+		reconciler.createUniqueConstraint(GcpEntityType.GcpProject.name(), "urn");
+		reconciler.createUniqueConstraint(GcpEntityType.GcpProject.name(), "projectNumber");
+		reconciler.createUniqueConstraint(GcpEntityType.GcpProject.name(), "projectId");
+		reconciler.createUniqueConstraint(GcpEntityType.GcpComputeInstance.name(), "urn");
+		reconciler.createUniqueConstraint(GcpEntityType.GcpZone.name(), "urn");
+		reconciler.createUniqueConstraint(GcpEntityType.GcpRegion.name(), "urn");
+		reconciler.createUniqueConstraint(GcpEntityType.GcpRegion.name(), "regionName");
 
 	}
 }
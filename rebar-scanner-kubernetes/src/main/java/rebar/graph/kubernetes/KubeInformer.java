@@ -0,0 +1,403 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.kubernetes;
+
+import java.net.HttpURLConnection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesResourceList;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+
+/**
+ * Keeps an in-memory copy of every object of one kind, kept current by a
+ * watch.
+ * 
+ * The informer lists once, then watches from the resourceVersion of the list.
+ * Each event is applied to the store and passed to the handler with the object
+ * from the event, so nothing needs to be fetched again. If the watch is
+ * dropped, it is re-opened from the last resourceVersion seen. Only when the
+ * server answers 410 Gone, because that version has been compacted away, is
+ * the kind listed again. Objects that disappeared while the watch was down are
+ * then passed to the handler as deletes.
+ *
+ * A watch can also stall without ever being closed, e.g. behind a load
+ * balancer that silently drops the connection. To bound how stale the store
+ * can get, the kind is listed again every resync interval (10 minutes by
+ * default), which also replaces the watch.
+ *
+ * The store is indexed by namespace/name, by uid and by namespace.
+ */
+public class KubeInformer<T extends HasMetadata> {
+
+	static Logger logger = LoggerFactory.getLogger(KubeInformer.class);
+
+	static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 1000;
+	static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(1);
+	static final long DEFAULT_RESYNC_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+	public interface Handler<T> {
+		void onUpsert(T resource);
+
+		void onDelete(T resource);
+	}
+
+	final String kind;
+	final Supplier<? extends KubernetesResourceList<T>> lister;
+	final BiFunction<String, Watcher<T>, Watch> watcher;
+	final Handler<T> handler;
+	final ScheduledExecutorService executor;
+
+	final Map<String, T> store = new ConcurrentHashMap<>();
+	final Map<String, String> uidIndex = new ConcurrentHashMap<>();
+	final Map<String, Set<String>> namespaceIndex = new ConcurrentHashMap<>();
+
+	volatile String resourceVersion;
+	volatile Watch watch;
+	volatile InformerWatcher currentWatcher;
+	volatile boolean running = false;
+	volatile boolean synced = false;
+
+	long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+	long resyncMillis = DEFAULT_RESYNC_MILLIS;
+	ScheduledFuture<?> resyncTask;
+	final AtomicInteger failureCount = new AtomicInteger();
+
+	final AtomicLong listCount = new AtomicLong();
+	final AtomicLong watchCount = new AtomicLong();
+	final AtomicLong eventCount = new AtomicLong();
+
+	/**
+	 * 
+	 * @param kind
+	 *            used for logging
+	 * @param lister
+	 *            lists every object of the kind
+	 * @param watcher
+	 *            opens a watch from the given resourceVersion
+	 * @param handler
+	 *            receives upserts and deletes
+	 * @param executor
+	 *            used to re-open watches, relist after failures and resync
+	 */
+	public KubeInformer(String kind, Supplier<? extends KubernetesResourceList<T>> lister,
+			BiFunction<String, Watcher<T>, Watch> watcher, Handler<T> handler, ScheduledExecutorService executor) {
+		this.kind = kind;
+		this.lister = Preconditions.checkNotNull(lister);
+		this.watcher = Preconditions.checkNotNull(watcher);
+		this.handler = Preconditions.checkNotNull(handler);
+		this.executor = Preconditions.checkNotNull(executor);
+	}
+
+	static String key(String namespace, String name) {
+		return Strings.nullToEmpty(namespace) + "/" + name;
+	}
+
+	static String key(HasMetadata md) {
+		return key(md.getMetadata().getNamespace(), md.getMetadata().getName());
+	}
+
+	static String resourceVersion(HasMetadata md) {
+		return md.getMetadata().getResourceVersion();
+	}
+
+	/**
+	 * Lists and starts watching on the calling thread. The handler has seen
+	 * every object by the time this returns.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		relist();
+		if (resyncMillis > 0) {
+			resyncTask = executor.scheduleWithFixedDelay(this::resync, resyncMillis, resyncMillis,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public synchronized void stop() {
+		running = false;
+		if (resyncTask != null) {
+			resyncTask.cancel(false);
+			resyncTask = null;
+		}
+		closeWatch();
+	}
+
+	/**
+	 * Interval at which the kind is listed again even though the watch appears
+	 * healthy. Takes effect on start(); 0 disables resync.
+	 * 
+	 * @param interval
+	 * @param unit
+	 * @return
+	 */
+	public KubeInformer<T> withResyncInterval(long interval, TimeUnit unit) {
+		Preconditions.checkArgument(interval >= 0, "resync interval must be >=0");
+		this.resyncMillis = unit.toMillis(interval);
+		return this;
+	}
+
+	public boolean isSynced() {
+		return synced;
+	}
+
+	public Optional<T> get(String namespace, String name) {
+		return Optional.ofNullable(store.get(key(namespace, name)));
+	}
+
+	public Optional<T> getByUid(String uid) {
+		String k = uid == null ? null : uidIndex.get(uid);
+		return k == null ? Optional.empty() : Optional.ofNullable(store.get(k));
+	}
+
+	public List<T> list() {
+		return ImmutableList.copyOf(store.values());
+	}
+
+	public List<T> list(String namespace) {
+		Set<String> keys = namespaceIndex.getOrDefault(Strings.nullToEmpty(namespace), ImmutableSet.of());
+		return keys.stream().map(store::get).filter(Objects::nonNull).collect(Collectors.toList());
+	}
+
+	public String getResourceVersion() {
+		return resourceVersion;
+	}
+
+	public long getListCount() {
+		return listCount.get();
+	}
+
+	public long getWatchCount() {
+		return watchCount.get();
+	}
+
+	public long getEventCount() {
+		return eventCount.get();
+	}
+
+	private T put(T resource) {
+		String k = key(resource);
+		T previous = store.put(k, resource);
+		if (previous != null && previous.getMetadata().getUid() != null) {
+			uidIndex.remove(previous.getMetadata().getUid());
+		}
+		if (resource.getMetadata().getUid() != null) {
+			uidIndex.put(resource.getMetadata().getUid(), k);
+		}
+		namespaceIndex.computeIfAbsent(Strings.nullToEmpty(resource.getMetadata().getNamespace()),
+				ns -> ConcurrentHashMap.newKeySet()).add(k);
+		return previous;
+	}
+
+	private T remove(String k) {
+		T previous = store.remove(k);
+		if (previous != null) {
+			if (previous.getMetadata().getUid() != null) {
+				uidIndex.remove(previous.getMetadata().getUid());
+			}
+			Set<String> keys = namespaceIndex.get(Strings.nullToEmpty(previous.getMetadata().getNamespace()));
+			if (keys != null) {
+				keys.remove(k);
+			}
+		}
+		return previous;
+	}
+
+	synchronized void relist() {
+		if (!running) {
+			return;
+		}
+		closeWatch();
+		KubernetesResourceList<T> list = lister.get();
+		listCount.incrementAndGet();
+
+		Set<String> seen = new HashSet<>();
+		for (T it : list.getItems()) {
+			String k = key(it);
+			seen.add(k);
+			T previous = put(it);
+			if (previous == null || !Objects.equals(resourceVersion(previous), resourceVersion(it))) {
+				dispatch(it, false);
+			}
+		}
+		for (String k : ImmutableList.copyOf(store.keySet())) {
+			if (!seen.contains(k)) {
+				T gone = remove(k);
+				if (gone != null) {
+					dispatch(gone, true);
+				}
+			}
+		}
+		resourceVersion = list.getMetadata() != null ? list.getMetadata().getResourceVersion() : null;
+		synced = true;
+		logger.info("listed {} {} objects at resourceVersion={}", list.getItems().size(), kind, resourceVersion);
+		watch();
+	}
+
+	synchronized void watch() {
+		if (!running) {
+			return;
+		}
+		closeWatch();
+		InformerWatcher w = new InformerWatcher();
+		currentWatcher = w;
+		watch = watcher.apply(resourceVersion, w);
+		watchCount.incrementAndGet();
+		logger.info("watching {} from resourceVersion={}", kind, resourceVersion);
+	}
+
+	private void closeWatch() {
+		currentWatcher = null;
+		Watch w = watch;
+		watch = null;
+		if (w != null) {
+			try {
+				w.close();
+			} catch (RuntimeException e) {
+				logger.debug("problem closing watch", e);
+			}
+		}
+	}
+
+	private void dispatch(T resource, boolean deleted) {
+		try {
+			if (deleted) {
+				handler.onDelete(resource);
+			} else {
+				handler.onUpsert(resource);
+			}
+		} catch (RuntimeException e) {
+			logger.warn("problem handling {} {}", kind, key(resource), e);
+		}
+	}
+
+	static boolean isGone(Throwable t) {
+		return t instanceof KubernetesClientException
+				&& ((KubernetesClientException) t).getCode() == HttpURLConnection.HTTP_GONE;
+	}
+
+	long nextBackoffMillis() {
+		int failures = Math.min(failureCount.getAndIncrement(), 16);
+		return Math.min(MAX_BACKOFF_MILLIS, initialBackoffMillis * (1L << failures));
+	}
+
+	void resync() {
+		if (!running) {
+			return;
+		}
+		try {
+			logger.debug("resyncing {}", kind);
+			relist();
+		} catch (RuntimeException e) {
+			// the watch was closed by relist(), so recover as after a failed relist
+			logger.warn("could not resync {}", kind, e);
+			scheduleRecovery(true);
+		}
+	}
+
+	void scheduleRecovery(boolean relist) {
+		if (!running) {
+			return;
+		}
+		long delay = nextBackoffMillis();
+		logger.info("{} {} in {} ms", relist ? "relisting" : "re-watching", kind, delay);
+		executor.schedule(() -> {
+			try {
+				if (relist) {
+					relist();
+				} else {
+					watch();
+				}
+				failureCount.set(0);
+			} catch (RuntimeException e) {
+				logger.warn("could not {} {}", relist ? "relist" : "re-watch", kind, e);
+				scheduleRecovery(relist || isGone(e));
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	class InformerWatcher implements Watcher<T> {
+
+		@Override
+		public void eventReceived(Action action, T resource) {
+			if (!running || this != currentWatcher) {
+				// from a watch that has since been replaced
+				return;
+			}
+			eventCount.incrementAndGet();
+			if (action == Action.ERROR || resource == null || resource.getMetadata() == null) {
+				logger.warn("{} watch error: {}", kind, resource);
+				return;
+			}
+			String rv = resourceVersion(resource);
+			if (action == Action.DELETED) {
+				remove(key(resource));
+				dispatch(resource, true);
+			} else {
+				T previous = put(resource);
+				if (previous == null || !Objects.equals(resourceVersion(previous), rv)) {
+					dispatch(resource, false);
+				}
+			}
+			if (!Strings.isNullOrEmpty(rv)) {
+				resourceVersion = rv;
+			}
+		}
+
+		@Override
+		public void onClose(KubernetesClientException cause) {
+			if (!running || this != currentWatcher) {
+				// closed by us
+				return;
+			}
+			currentWatcher = null;
+			if (isGone(cause)) {
+				logger.info("{} resourceVersion={} is gone", kind, resourceVersion);
+				scheduleRecovery(true);
+			} else {
+				logger.warn("{} watch closed", kind, cause);
+				scheduleRecovery(false);
+			}
+		}
+	}
+}
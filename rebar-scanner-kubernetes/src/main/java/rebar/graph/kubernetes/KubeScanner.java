@@ -25,6 +25,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -39,12 +41,12 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.CaseFormat;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Splitter;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import io.fabric8.kubernetes.api.model.ConfigMap;
 import io.fabric8.kubernetes.api.model.ContainerStatus;
@@ -55,20 +57,16 @@ import io.fabric8.kubernetes.api.model.Node;
 import io.fabric8.kubernetes.api.model.ObjectReference;
 import io.fabric8.kubernetes.api.model.Pod;
 import io.fabric8.kubernetes.api.model.PodStatus;
-import io.fabric8.kubernetes.api.model.Secret;
 import io.fabric8.kubernetes.api.model.Service;
 import io.fabric8.kubernetes.api.model.ServiceSpec;
 import io.fabric8.kubernetes.api.model.apps.DaemonSet;
 import io.fabric8.kubernetes.api.model.apps.Deployment;
 import io.fabric8.kubernetes.api.model.apps.DeploymentStatus;
 import io.fabric8.kubernetes.api.model.apps.ReplicaSet;
-import io.fabric8.kubernetes.api.model.batch.CronJob;
 import io.fabric8.kubernetes.client.Config;
 import io.fabric8.kubernetes.client.DefaultKubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.KubernetesClientException;
 import io.fabric8.kubernetes.client.VersionInfo;
-import io.fabric8.kubernetes.client.Watcher;
 import io.fabric8.kubernetes.client.internal.KubeConfigUtils;
 import rebar.graph.core.GraphBuilder.NodeOperation;
 import rebar.graph.neo4j.GraphException;
@@ -112,7 +110,6 @@ public class KubeScanner extends Scanner {
 
 		VersionInfo version = getKubernetesClient().getVersion();
 
-		getKubernetesClient().pods().inAnyNamespace().list();
 		ObjectNode n = Json.objectMapper().valueToTree(version);
 
 		n.put("masterUrl", url.toExternalForm());
@@ -202,177 +199,152 @@ public class KubeScanner extends Scanner {
 
 	}
 
-	DeploymentWatcher deploymentWatcher;
-	PodWatcher podWatcher;
-	ReplicaSetWatcher replicaSetWatcher;
-	NodeWatcher nodeWatcher;
-	EndpointsWatcher endpointsWatcher;
-	ServiceWatcher serviceWatcher;
+	KubeInformer<Deployment> deploymentInformer;
+	KubeInformer<Pod> podInformer;
+	KubeInformer<ReplicaSet> replicaSetInformer;
+	KubeInformer<Node> nodeInformer;
+	KubeInformer<Service> serviceInformer;
 
-	private String watchName(Watcher w) {
-		List<String> x = Splitter.on("$").splitToList(w.getClass().getName());
-		return x.get(x.size() - 1);
-	}
+	ScheduledExecutorService informerExecutor;
 
+	/**
+	 * Starts an informer for each watched kind. Each lists its kind once and then
+	 * projects objects straight from watch events.
+	 * 
+	 * There seems to be a bug in the fabric8 client or Docker's kubernetes
+	 * distribution that causes more than 5 watches to timeout, so DaemonSets,
+	 * Endpoints and Namespaces are only picked up by the full scan.
+	 */
 	public synchronized void watchEvents() {
 
 		Stopwatch allStopwatch = Stopwatch.createStarted();
 		try {
-			if (this.deploymentWatcher == null) {
-				Stopwatch sw = Stopwatch.createStarted();
-
-				DeploymentWatcher w = new DeploymentWatcher();
-
-				getKubernetesClient().apps().deployments().watch(w);
-				this.deploymentWatcher = w;
-
-				logger.info("registered {} in {} ms", watchName(w), sw.elapsed(TimeUnit.MILLISECONDS));
+			if (informerExecutor == null) {
+				informerExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+						.setDaemon(true).setNameFormat("informer-" + getClusterId() + "-%d").build());
 			}
-
-			if (this.podWatcher == null) {
-				Stopwatch sw = Stopwatch.createStarted();
-				PodWatcher w = new PodWatcher();
-
-				getKubernetesClient().pods().watch(w);
-				this.podWatcher = w;
-				logger.info("registered {} in {} ms", watchName(w), sw.elapsed(TimeUnit.MILLISECONDS));
+			if (this.deploymentInformer == null) {
+				this.deploymentInformer = startInformer(new KubeInformer<Deployment>("Deployment",
+						() -> getKubernetesClient().apps().deployments().inAnyNamespace().list(),
+						(rv, w) -> getKubernetesClient().apps().deployments().inAnyNamespace().watch(rv, w),
+						new ProjectingHandler<>(), informerExecutor));
 			}
-
-			if (this.replicaSetWatcher == null) {
-				Stopwatch sw = Stopwatch.createStarted();
-				ReplicaSetWatcher w = new ReplicaSetWatcher();
-				getKubernetesClient().apps().replicaSets().watch(w);
-				this.replicaSetWatcher = w;
-				logger.info("registered {} in {} ms", watchName(w), sw.elapsed(TimeUnit.MILLISECONDS));
+			if (this.podInformer == null) {
+				this.podInformer = startInformer(new KubeInformer<Pod>("Pod",
+						() -> getKubernetesClient().pods().inAnyNamespace().list(),
+						(rv, w) -> getKubernetesClient().pods().inAnyNamespace().watch(rv, w),
+						new ProjectingHandler<>(), informerExecutor));
 			}
-
-			if (this.nodeWatcher == null) {
-				Stopwatch sw = Stopwatch.createStarted();
-				NodeWatcher w = new NodeWatcher();
-				getKubernetesClient().nodes().watch(w);
-				this.nodeWatcher = w;
-				logger.info("registered {} in {} ms", watchName(w), sw.elapsed(TimeUnit.MILLISECONDS));
+			if (this.replicaSetInformer == null) {
+				this.replicaSetInformer = startInformer(new KubeInformer<ReplicaSet>("ReplicaSet",
+						() -> getKubernetesClient().apps().replicaSets().inAnyNamespace().list(),
+						(rv, w) -> getKubernetesClient().apps().replicaSets().inAnyNamespace().watch(rv, w),
+						new ProjectingHandler<>(), informerExecutor));
 			}
-
-			if (this.serviceWatcher == null) {
-				Stopwatch sw = Stopwatch.createStarted();
-				ServiceWatcher w = new ServiceWatcher();
-				getKubernetesClient().services().watch(w);
-				this.serviceWatcher = w;
-				logger.info("registered {} in {} ms", watchName(w), sw.elapsed(TimeUnit.MILLISECONDS));
+			if (this.nodeInformer == null) {
+				this.nodeInformer = startInformer(new KubeInformer<Node>("Node",
+						() -> getKubernetesClient().nodes().list(),
+						(rv, w) -> getKubernetesClient().nodes().watch(rv, w),
+						new ProjectingHandler<>(), informerExecutor));
 			}
-
-			// There seems to be a bug in the fabric8 client or Docker's kubernetes
-			// distribution
-			// that causes more than 5 watches to timeout.
-			boolean extendedWatchEnabled = false;
-			if (extendedWatchEnabled) {
-
-				if (this.endpointsWatcher == null) {
-					Stopwatch sw = Stopwatch.createStarted();
-					EndpointsWatcher w = new EndpointsWatcher();
-					getKubernetesClient().endpoints().watch(w);
-					this.endpointsWatcher = w;
-					logger.info("registered {} in {} ms", watchName(w), sw.elapsed(TimeUnit.MILLISECONDS));
-				}
-
-				logger.info("registering DaemonSet watch...");
-				getKubernetesClient().apps().daemonSets().watch(new DaemonSetWatcher());
-
-				logger.info("registering Batch watch...");
-				getKubernetesClient().batch().cronjobs().watch(new CronJobWatcher());
-
-				logger.info("registering Secrets watch...");
-				getKubernetesClient().secrets().watch(new SecretWatcher());
-
-				logger.info("registering ConfigMap watch...");
-				getKubernetesClient().configMaps().watch(new ConfigMapWatcher());
+			if (this.serviceInformer == null) {
+				this.serviceInformer = startInformer(new KubeInformer<Service>("Service",
+						() -> getKubernetesClient().services().inAnyNamespace().list(),
+						(rv, w) -> getKubernetesClient().services().inAnyNamespace().watch(rv, w),
+						new ProjectingHandler<>(), informerExecutor));
 			}
 		} finally {
 			logger.info("Watch registration complete ({} ms)", allStopwatch.elapsed(TimeUnit.MILLISECONDS));
 		}
 	}
 
-	abstract class GenericWatcher<T> implements Watcher<T> {
+	private <T extends HasMetadata> KubeInformer<T> startInformer(KubeInformer<T> informer) {
+		Stopwatch sw = Stopwatch.createStarted();
+		informer.start();
+		logger.info("started {} informer in {} ms", informer.kind, sw.elapsed(TimeUnit.MILLISECONDS));
+		return informer;
+	}
+
+	/**
+	 * Objects of the kind from the informer once it has synced, otherwise from
+	 * the API server.
+	 */
+	private <T extends HasMetadata> List<T> listItems(KubeInformer<T> informer, Supplier<List<T>> lister) {
+		if (informer != null && informer.isSynced()) {
+			return informer.list();
+		}
+		return lister.get();
+	}
+
+	/**
+	 * The object from the informer once it has synced, otherwise from the API
+	 * server. Null if it does not exist.
+	 */
+	private <T extends HasMetadata> T getItem(KubeInformer<T> informer, String ns, String name, Supplier<T> getter) {
+		if (informer != null && informer.isSynced()) {
+			return informer.get(ns, name).orElse(null);
+		}
+		return getter.get();
+	}
+
+	class ProjectingHandler<T extends HasMetadata> implements KubeInformer.Handler<T> {
 		void fixThreadName() {
 			// The thread name is really annoying
 			Thread t = Thread.currentThread();
 			String threadName = t.getName();
-			
-			if (threadName.startsWith("OkHttp")) {
-				
-				t.setName("evt-"+getClusterId()+"-"+t.getId());
-			}
-		}
-		@Override
-		public void eventReceived(Action action, T resource) {
 
-			fixThreadName();
-			HasMetadata md = (HasMetadata) resource;
-			logger.info("event {} {}", action, KubeScanner.toString(md));
+			if (threadName.startsWith("OkHttp")) {
 
-			if (action.name().equals("DELETED")) {
-				deleteEntity(md);
-				return;
+				t.setName("evt-" + getClusterId() + "-" + t.getId());
 			}
-
-			scan(md.getKind(), md.getMetadata().getNamespace(), md.getMetadata().getName());
-
 		}
 
 		@Override
-		public void onClose(KubernetesClientException cause) {
-			logger.warn("onClose", cause);
-
+		public void onUpsert(T resource) {
+			fixThreadName();
+			logger.info("upsert {}", KubeScanner.toString(resource));
+			project(resource);
 		}
-	}
-
-	class CronJobWatcher extends GenericWatcher<CronJob> {
-
-	}
-
-	class SecretWatcher extends GenericWatcher<Secret> {
-
-	}
-
-	class ConfigMapWatcher extends GenericWatcher<ConfigMap> {
-
-	}
-
-	class ServiceWatcher extends GenericWatcher<Service> {
-
-	}
-
-	class DeploymentWatcher extends GenericWatcher<Deployment> {
-
-	}
-
-	class ReplicaSetWatcher extends GenericWatcher<ReplicaSet> {
-
-	}
-
-	class DaemonSetWatcher extends GenericWatcher<DaemonSet> {
-
-	}
-
-	class NodeWatcher extends GenericWatcher<Node> {
-
-	}
-
-	class EndpointsWatcher extends GenericWatcher<Endpoints> {
 
 		@Override
-		public void eventReceived(Action action, Endpoints resource) {
-			if (resource.getMetadata().getNamespace().equals("kube-system")) {
-				return;
-			}
-			super.eventReceived(action, resource);
+		public void onDelete(T resource) {
+			fixThreadName();
+			logger.info("delete {}", KubeScanner.toString(resource));
+			deleteEntity(resource);
 		}
-
 	}
 
-	class PodWatcher extends GenericWatcher<Pod> {
-
+	/**
+	 * Projects an object delivered by a watch, without fetching it again.
+	 * 
+	 * @param md
+	 */
+	protected void project(HasMetadata md) {
+		String ns = md.getMetadata().getNamespace();
+		String name = md.getMetadata().getName();
+		if (md instanceof Pod) {
+			projectPod((Pod) md, ns, name);
+			ensurePodRelationships();
+		} else if (md instanceof Deployment) {
+			projectDeployment((Deployment) md, ns, name);
+			ensureDeploymentRelationships();
+		} else if (md instanceof ReplicaSet) {
+			projectReplicaSet((ReplicaSet) md, ns, name);
+			ensureReplicaSetRelationships();
+		} else if (md instanceof Node) {
+			projectNode((Node) md, name);
+		} else if (md instanceof Service) {
+			projectService((Service) md, ns, name);
+			ensureNamespaceRelationships(Service.class);
+			scanEndpoints(ns, name);
+		} else if (md instanceof DaemonSet) {
+			projectDaemonSet((DaemonSet) md, ns, name);
+			ensureDaemonSetRelationships();
+		} else if (md instanceof Namespace) {
+			projectNamespace((Namespace) md, name);
+		} else {
+			scan(md.getKind(), ns, name);
+		}
 	}
 
 	private void ensureNamespaceRelationships(Class<? extends HasMetadata> clazz) {
@@ -385,7 +357,7 @@ public class KubeScanner extends Scanner {
 	public void scanServices() {
 
 		long ts = getRebarGraph().getGraphBuilder().getTimestamp();
-		getKubernetesClient().services().inAnyNamespace().list().getItems().forEach(it -> {
+		listItems(serviceInformer, () -> getKubernetesClient().services().inAnyNamespace().list().getItems()).forEach(it -> {
 
 			projectService(it, it.getMetadata().getNamespace(), it.getMetadata().getName());
 		});
@@ -654,7 +626,8 @@ public class KubeScanner extends Scanner {
 
 	public void scanService(String ns, String name) {
 		checkNamespaceAndName(ns, name);
-		projectService(getKubernetesClient().services().inNamespace(ns).withName(name).get(), ns, name);
+		projectService(getItem(serviceInformer, ns, name,
+				() -> getKubernetesClient().services().inNamespace(ns).withName(name).get()), ns, name);
 		ensureNamespaceRelationships(Service.class);
 		scanEndpoints(ns, name);
 
@@ -662,8 +635,13 @@ public class KubeScanner extends Scanner {
 
 	public void scanReplicaSet(String ns, String name) {
 		checkNamespaceAndName(ns, name);
-		projectReplicaSet(getKubernetesClient().apps().replicaSets().inNamespace(ns).withName(name).get(), ns, name);
+		projectReplicaSet(getItem(replicaSetInformer, ns, name,
+				() -> getKubernetesClient().apps().replicaSets().inNamespace(ns).withName(name).get()), ns, name);
 
+		ensureReplicaSetRelationships();
+	}
+
+	private void ensureReplicaSetRelationships() {
 		ensureNamespaceRelationships(ReplicaSet.class);
 		ensureOwnerReferences(Deployment.class, ReplicaSet.class);
 		ensureOwnerReferences(ReplicaSet.class, Pod.class);
@@ -677,20 +655,30 @@ public class KubeScanner extends Scanner {
 	public void scanDaemonSet(String ns, String name) {
 		checkNamespaceAndName(ns, name);
 		projectDaemonSet(getKubernetesClient().apps().daemonSets().inNamespace(ns).withName(name).get(), ns, name);
+		ensureDaemonSetRelationships();
+	}
+
+	private void ensureDaemonSetRelationships() {
 		ensureNamespaceRelationships(DaemonSet.class);
 		ensureOwnerReferences(DaemonSet.class, Pod.class);
 	}
 
 	public void scanDeployment(String ns, String name) {
 		checkNamespaceAndName(ns, name);
-		projectDeployment(getKubernetesClient().apps().deployments().inNamespace(ns).withName(name).get(), ns, name);
+		projectDeployment(getItem(deploymentInformer, ns, name,
+				() -> getKubernetesClient().apps().deployments().inNamespace(ns).withName(name).get()), ns, name);
+		ensureDeploymentRelationships();
+	}
+
+	private void ensureDeploymentRelationships() {
 		ensureNamespaceRelationships(Deployment.class);
 		ensureOwnerReferences(Deployment.class, ReplicaSet.class);
 	}
 
 	public void scanDeployments() {
 		long ts = getRebarGraph().getGraphBuilder().getTimestamp();
-		getKubernetesClient().apps().deployments().inAnyNamespace().list().getItems().forEach(it -> {
+		listItems(deploymentInformer, () -> getKubernetesClient().apps().deployments().inAnyNamespace().list()
+				.getItems()).forEach(it -> {
 			projectDeployment(it, it.getMetadata().getNamespace(), it.getMetadata().getName());
 		});
 		gc(Deployment.class, ts);
@@ -700,8 +688,13 @@ public class KubeScanner extends Scanner {
 
 	public void scanPod(String namespace, String name) {
 
-		Pod pod = getKubernetesClient().pods().inNamespace(namespace).withName(name).get();
+		Pod pod = getItem(podInformer, namespace, name,
+				() -> getKubernetesClient().pods().inNamespace(namespace).withName(name).get());
 		projectPod(pod, namespace, name);
+		ensurePodRelationships();
+	}
+
+	private void ensurePodRelationships() {
 		ensureNamespaceRelationships(Pod.class);
 		ensureOwnerReferences(ReplicaSet.class, Pod.class);
 		ensureOwnerReferences(DaemonSet.class, Pod.class);
@@ -710,7 +703,7 @@ public class KubeScanner extends Scanner {
 	public void scanPods() {
 
 		long ts = getRebarGraph().getGraphBuilder().getTimestamp();
-		getKubernetesClient().pods().inAnyNamespace().list().getItems().forEach(it -> {
+		listItems(podInformer, () -> getKubernetesClient().pods().inAnyNamespace().list().getItems()).forEach(it -> {
 			projectPod(it, it.getMetadata().getNamespace(), it.getMetadata().getName());
 		});
 		gc(Pod.class, ts);
@@ -811,7 +804,8 @@ public class KubeScanner extends Scanner {
 	public void scanReplicaSets() {
 
 		long ts = getRebarGraph().getGraphBuilder().getTimestamp();
-		getKubernetesClient().apps().replicaSets().inAnyNamespace().list().getItems().forEach(it -> {
+		listItems(replicaSetInformer, () -> getKubernetesClient().apps().replicaSets().inAnyNamespace().list()
+				.getItems()).forEach(it -> {
 
 			tryExecute(() -> projectReplicaSet(it, it.getMetadata().getNamespace(), it.getMetadata().getName()));
 
@@ -842,13 +836,13 @@ public class KubeScanner extends Scanner {
 	}
 
 	public void scanNode(String name) {
-		Node n = getKubernetesClient().nodes().withName(name).get();
+		Node n = getItem(nodeInformer, null, name, () -> getKubernetesClient().nodes().withName(name).get());
 		projectNode(n, name);
 	}
 
 	public void scanNodes() {
 		long ts = getRebarGraph().getGraphBuilder().getTimestamp();
-		getKubernetesClient().nodes().list().getItems().forEach(it -> {
+		listItems(nodeInformer, () -> getKubernetesClient().nodes().list().getItems()).forEach(it -> {
 
 			tryExecute(() -> projectNode(it, it.getMetadata().getName()));
 
@@ -29,6 +29,7 @@ import io.fabric8.kubernetes.client.DefaultKubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClient;
 import rebar.graph.core.ScannerModule;
 import rebar.graph.core.Main;
+import rebar.graph.neo4j.SchemaReconciler;
 
 @Component
 public class KubeScannerModule extends ScannerModule {
@@ -127,23 +128,33 @@ public class KubeScannerModule extends ScannerModule {
 			
 			scanner = getRebarGraph().newScanner(KubeScanner.class);
 			scanner.applyConstraints();
+			warmDigestStore();
 			scanner.watchEvents(); // idempotent
 		}
 		
 		getExecutor().scheduleWithFixedDelay(new FullScan(scanner), 0, 15, TimeUnit.SECONDS);
 	}
 	
-	public void applyConstraints(boolean apply) {
-
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("KubeCluster", "name",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("KubeCluster", "clusterId",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("KubeNode", "uid",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("KubePod", "uid",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("KubeDeployment", "uid",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("KubeReplicaSet", "uid",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("KubeDaemonSet", "uid",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("KubeService", "uid",apply);
-		getRebarGraph().getGraphBuilder().schema().createUniqueConstraint("KubeNamespace", "uid",apply);
+	protected void warmDigestStore() {
+		try {
+			getRebarGraph().getGraphBuilder().warmDigestStore("KubePod", KubeScanner.CLUSTER_ID, KubeScanner.NAMESPACE,
+					KubeScanner.NAME);
+		} catch (RuntimeException e) {
+			logger.warn("could not warm digest store", e);
+		}
+	}
+
+	public void applyConstraints(SchemaReconciler reconciler) {
+
+		reconciler.createUniqueConstraint("KubeCluster", "name");
+		reconciler.createUniqueConstraint("KubeCluster", "clusterId");
+		reconciler.createUniqueConstraint("KubeNode", "uid");
+		reconciler.createUniqueConstraint("KubePod", "uid");
+		reconciler.createUniqueConstraint("KubeDeployment", "uid");
+		reconciler.createUniqueConstraint("KubeReplicaSet", "uid");
+		reconciler.createUniqueConstraint("KubeDaemonSet", "uid");
+		reconciler.createUniqueConstraint("KubeService", "uid");
+		reconciler.createUniqueConstraint("KubeNamespace", "uid");
 
 	}
 
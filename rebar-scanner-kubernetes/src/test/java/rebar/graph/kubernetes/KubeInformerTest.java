@@ -0,0 +1,201 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.graph.kubernetes;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.PodList;
+import io.fabric8.kubernetes.api.model.PodListBuilder;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.kubernetes.client.Watcher.Action;
+import rebar.util.Sleep;
+
+public class KubeInformerTest {
+
+	ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+	List<Pod> serverState = new CopyOnWriteArrayList<>();
+	String serverResourceVersion = "10";
+
+	List<String> watchedFrom = new CopyOnWriteArrayList<>();
+	List<Watcher<Pod>> watchers = new CopyOnWriteArrayList<>();
+
+	List<String> upserts = new CopyOnWriteArrayList<>();
+	List<String> deletes = new CopyOnWriteArrayList<>();
+
+	@AfterEach
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	static Pod pod(String ns, String name, String uid, String rv) {
+		return new PodBuilder().withNewMetadata().withNamespace(ns).withName(name).withUid(uid)
+				.withResourceVersion(rv).endMetadata().build();
+	}
+
+	KubeInformer<Pod> newInformer() {
+		KubeInformer<Pod> informer = new KubeInformer<>("Pod", () -> {
+			PodList list = new PodListBuilder().withNewMetadata().withResourceVersion(serverResourceVersion)
+					.endMetadata().withItems(ImmutableList.copyOf(serverState)).build();
+			return list;
+		}, (rv, w) -> {
+			watchedFrom.add(rv);
+			watchers.add(w);
+			return () -> {
+			};
+		}, new KubeInformer.Handler<Pod>() {
+
+			@Override
+			public void onUpsert(Pod resource) {
+				upserts.add(resource.getMetadata().getName() + "@" + resource.getMetadata().getResourceVersion());
+			}
+
+			@Override
+			public void onDelete(Pod resource) {
+				deletes.add(resource.getMetadata().getName());
+			}
+		}, executor);
+		informer.initialBackoffMillis = 1;
+		return informer;
+	}
+
+	Watcher<Pod> lastWatcher() {
+		return watchers.get(watchers.size() - 1);
+	}
+
+	void waitFor(BooleanSupplier condition) {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+			Sleep.sleep(10);
+		}
+		Assertions.assertThat(condition.getAsBoolean()).isTrue();
+	}
+
+	@Test
+	public void testListAndWatch() {
+		serverState.add(pod("default", "a", "uid-a", "5"));
+		serverState.add(pod("kube-system", "b", "uid-b", "6"));
+
+		KubeInformer<Pod> informer = newInformer();
+		informer.start();
+
+		Assertions.assertThat(informer.isSynced()).isTrue();
+		Assertions.assertThat(upserts).containsExactlyInAnyOrder("a@5", "b@6");
+		Assertions.assertThat(watchedFrom).containsExactly("10");
+
+		lastWatcher().eventReceived(Action.MODIFIED, pod("default", "a", "uid-a", "11"));
+		// the same version again, e.g. replayed after a reconnect
+		lastWatcher().eventReceived(Action.MODIFIED, pod("default", "a", "uid-a", "11"));
+		lastWatcher().eventReceived(Action.ADDED, pod("default", "c", "uid-c", "12"));
+		lastWatcher().eventReceived(Action.DELETED, pod("kube-system", "b", "uid-b", "13"));
+
+		Assertions.assertThat(upserts).containsExactlyInAnyOrder("a@5", "b@6", "a@11", "c@12");
+		Assertions.assertThat(deletes).containsExactly("b");
+		Assertions.assertThat(informer.getResourceVersion()).isEqualTo("13");
+
+		Assertions.assertThat(informer.get("default", "a").get().getMetadata().getResourceVersion()).isEqualTo("11");
+		Assertions.assertThat(informer.get("kube-system", "b")).isEmpty();
+		Assertions.assertThat(informer.getByUid("uid-c").get().getMetadata().getName()).isEqualTo("c");
+		Assertions.assertThat(informer.list("default")).hasSize(2);
+		Assertions.assertThat(informer.list("kube-system")).isEmpty();
+		Assertions.assertThat(informer.list()).hasSize(2);
+		Assertions.assertThat(informer.getListCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void testResumeAfterDisconnect() {
+		serverState.add(pod("default", "a", "uid-a", "5"));
+		KubeInformer<Pod> informer = newInformer();
+		informer.start();
+
+		Watcher<Pod> first = lastWatcher();
+		first.eventReceived(Action.MODIFIED, pod("default", "a", "uid-a", "20"));
+		first.onClose(new KubernetesClientException("connection reset"));
+
+		waitFor(() -> watchers.size() == 2);
+		Assertions.assertThat(watchedFrom).containsExactly("10", "20");
+		Assertions.assertThat(informer.getListCount()).isEqualTo(1);
+
+		// events from the dropped watch are ignored
+		first.eventReceived(Action.DELETED, pod("default", "a", "uid-a", "21"));
+		Assertions.assertThat(deletes).isEmpty();
+		Assertions.assertThat(informer.get("default", "a")).isPresent();
+	}
+
+	@Test
+	public void testRelistWhenGone() {
+		serverState.add(pod("default", "a", "uid-a", "5"));
+		serverState.add(pod("default", "b", "uid-b", "6"));
+		KubeInformer<Pod> informer = newInformer();
+		informer.start();
+
+		// b is deleted and a changes while the watch is down and history is compacted
+		serverState.clear();
+		serverState.add(pod("default", "a", "uid-a", "30"));
+		serverResourceVersion = "31";
+		lastWatcher().onClose(new KubernetesClientException("too old resource version", 410, null));
+
+		waitFor(() -> watchers.size() == 2);
+		Assertions.assertThat(informer.getListCount()).isEqualTo(2);
+		Assertions.assertThat(deletes).containsExactly("b");
+		Assertions.assertThat(upserts).containsExactlyInAnyOrder("a@5", "b@6", "a@30");
+		Assertions.assertThat(watchedFrom).containsExactly("10", "31");
+	}
+
+	@Test
+	public void testResync() {
+		serverState.add(pod("default", "a", "uid-a", "5"));
+		serverState.add(pod("default", "b", "uid-b", "6"));
+		KubeInformer<Pod> informer = newInformer().withResyncInterval(20, TimeUnit.MILLISECONDS);
+		informer.start();
+
+		// the watch stalls without being closed, so b's deletion is never seen
+		serverState.remove(1);
+		serverResourceVersion = "40";
+
+		waitFor(() -> deletes.contains("b"));
+		Assertions.assertThat(informer.getListCount()).isGreaterThanOrEqualTo(2);
+		Assertions.assertThat(upserts).containsExactlyInAnyOrder("a@5", "b@6");
+		Assertions.assertThat(watchedFrom).contains("40");
+		informer.stop();
+	}
+
+	@Test
+	public void testStop() {
+		KubeInformer<Pod> informer = newInformer();
+		informer.start();
+		informer.stop();
+		lastWatcher().onClose(null);
+		lastWatcher().eventReceived(Action.ADDED, pod("default", "a", "uid-a", "5"));
+		Sleep.sleep(50);
+		Assertions.assertThat(watchers).hasSize(1);
+		Assertions.assertThat(upserts).isEmpty();
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.util.trace;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Maps;
+
+/**
+ * A timed unit of work within a Trace. Spans nest: a span started while
+ * another is open on the same thread becomes its child. Spans must be closed
+ * on the thread that started them, usually with try-with-resources.
+ *
+ * Work that was not sampled gets Span.NOOP, which records nothing.
+ */
+public class Span implements AutoCloseable {
+
+	public static final Span NOOP = new Span(null, null, null, null);
+
+	final Trace trace;
+	final Span parent;
+	final String category;
+	final String name;
+	final int id;
+	final long threadId;
+	final String threadName;
+	final long startNanos;
+	volatile long endNanos;
+	Span previous;
+	private Map<String, String> tags;
+
+	Span(Trace trace, Span parent, String category, String name) {
+		this.trace = trace;
+		this.parent = parent;
+		this.category = category;
+		this.name = name;
+		this.id = trace != null ? trace.nextId() : 0;
+		Thread thread = Thread.currentThread();
+		this.threadId = thread.getId();
+		this.threadName = thread.getName();
+		this.startNanos = trace != null ? System.nanoTime() : 0;
+	}
+
+	public boolean isRecording() {
+		return trace != null;
+	}
+
+	public Span tag(String key, Object val) {
+		if (trace != null && key != null && val != null) {
+			synchronized (this) {
+				if (tags == null) {
+					tags = Maps.newLinkedHashMap();
+				}
+				tags.put(key, val.toString());
+			}
+		}
+		return this;
+	}
+
+	public synchronized Map<String, String> getTags() {
+		return tags == null ? Collections.emptyMap() : Collections.unmodifiableMap(Maps.newLinkedHashMap(tags));
+	}
+
+	public String getCategory() {
+		return category;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Span getParent() {
+		return parent;
+	}
+
+	public Trace getTrace() {
+		return trace;
+	}
+
+	public boolean isRoot() {
+		return trace != null && parent == null;
+	}
+
+	public boolean isFinished() {
+		return endNanos != 0;
+	}
+
+	public long getDurationNanos() {
+		return isFinished() ? endNanos - startNanos : 0;
+	}
+
+	public long getDurationMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(getDurationNanos());
+	}
+
+	@Override
+	public void close() {
+		if (trace == null || endNanos != 0) {
+			return;
+		}
+		endNanos = System.nanoTime();
+		Tracer.finish(this);
+	}
+
+	@Override
+	public String toString() {
+		return category + ":" + name;
+	}
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.util.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import rebar.util.Json;
+import rebar.util.RebarException;
+
+/**
+ * The spans recorded under one sampled root span.
+ *
+ * Only spans that finish before the root are kept. At most maxSpans are kept,
+ * the rest are counted in getDroppedCount(). GC activity in the process while
+ * the trace was open is added to the root as gcCount and gcMillis tags.
+ */
+public class Trace {
+
+	final Span root;
+	final long startMillis;
+	final long startNanos;
+	final int maxSpans;
+	final List<Span> spans = Lists.newArrayList();
+	final AtomicInteger ids = new AtomicInteger();
+	final AtomicLong dropped = new AtomicLong();
+	final long gcCountAtStart;
+	final long gcMillisAtStart;
+
+	Trace(String category, String name, int maxSpans) {
+		this.maxSpans = maxSpans;
+		this.startMillis = System.currentTimeMillis();
+		this.startNanos = System.nanoTime();
+		this.gcCountAtStart = gcCount();
+		this.gcMillisAtStart = gcMillis();
+		this.root = new Span(this, null, category, name);
+	}
+
+	int nextId() {
+		return ids.incrementAndGet();
+	}
+
+	static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+
+	void add(Span span) {
+		if (span == root) {
+			root.tag("gcCount", gcCount() - gcCountAtStart);
+			root.tag("gcMillis", gcMillis() - gcMillisAtStart);
+			if (dropped.get() > 0) {
+				root.tag("droppedSpans", dropped.get());
+			}
+		} else if (root.isFinished()) {
+			return;
+		}
+		synchronized (spans) {
+			if (spans.size() < maxSpans || span == root) {
+				spans.add(span);
+				return;
+			}
+		}
+		dropped.incrementAndGet();
+	}
+
+	public Span getRoot() {
+		return root;
+	}
+
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public boolean isFinished() {
+		return root.isFinished();
+	}
+
+	/**
+	 * Finished spans, in the order they finished.
+	 * 
+	 * @return
+	 */
+	public List<Span> getSpans() {
+		synchronized (spans) {
+			return ImmutableList.copyOf(spans);
+		}
+	}
+
+	long toMicros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos - startNanos);
+	}
+
+	/**
+	 * The trace in the Chrome trace-event format, which can be loaded into
+	 * chrome://tracing or https://ui.perfetto.dev.
+	 * 
+	 * @return
+	 */
+	public ObjectNode toChromeTrace() {
+		ObjectNode trace = Json.objectNode();
+		ArrayNode events = trace.putArray("traceEvents");
+		Map<Long, String> threads = Maps.newLinkedHashMap();
+		for (Span span : getSpans()) {
+			threads.putIfAbsent(span.threadId, span.threadName);
+			ObjectNode event = events.addObject();
+			event.put("name", span.name);
+			event.put("cat", span.category);
+			event.put("ph", "X");
+			event.put("ts", toMicros(span.startNanos));
+			event.put("dur", TimeUnit.NANOSECONDS.toMicros(span.getDurationNanos()));
+			event.put("pid", 1);
+			event.put("tid", span.threadId);
+			ObjectNode args = event.putObject("args");
+			args.put("id", span.id);
+			if (span.parent != null) {
+				args.put("parent", span.parent.id);
+			}
+			span.getTags().forEach(args::put);
+		}
+		threads.forEach((id, name) -> {
+			ObjectNode event = events.addObject();
+			event.put("name", "thread_name");
+			event.put("ph", "M");
+			event.put("pid", 1);
+			event.put("tid", id);
+			event.putObject("args").put("name", name);
+		});
+		trace.put("displayTimeUnit", "ms");
+		ObjectNode otherData = trace.putObject("otherData");
+		otherData.put("name", root.name);
+		otherData.put("startTs", startMillis);
+		otherData.put("droppedSpans", dropped.get());
+		return trace;
+	}
+
+	String getFileName() {
+		return String.format("trace-%d-%s.json", startMillis, root.name.replaceAll("[^A-Za-z0-9_.-]", "_"));
+	}
+
+	public File writeChromeTrace(File dir) {
+		File file = new File(dir, getFileName());
+		try {
+			dir.mkdirs();
+			Json.objectMapper().writeValue(file, toChromeTrace());
+			return file;
+		} catch (IOException e) {
+			throw new RebarException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return root.toString();
+	}
+}
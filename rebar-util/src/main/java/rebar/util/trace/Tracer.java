@@ -0,0 +1,281 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.util.trace;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import rebar.util.EnvConfig;
+
+/**
+ * In-process hierarchical spans for profiling scans, e.g. scan > scanner >
+ * AWS call / cypher statement.
+ *
+ * startTrace() opens a root span, or a child of the thread's current span if
+ * there is one. A root is sampled with probability TRACE_SAMPLE_RATE (0 by
+ * default). start() only ever opens a child of the current span, so
+ * instrumented code that is not running under a sampled root gets Span.NOOP
+ * and costs a volatile read and a thread-local lookup.
+ *
+ * Every finished span is added to the rebarSpan timer, tagged with its
+ * category and name. Finished traces are kept in memory (the last
+ * TRACE_HISTORY) and, if TRACE_DIR is set, written there as Chrome trace-event
+ * JSON.
+ *
+ * Use propagate() to continue the current span on another thread.
+ */
+public final class Tracer {
+
+	static Logger logger = LoggerFactory.getLogger(Tracer.class);
+
+	public static final String SAMPLE_RATE_ENV = "TRACE_SAMPLE_RATE";
+	public static final String DIR_ENV = "TRACE_DIR";
+	public static final String MAX_SPANS_ENV = "TRACE_MAX_SPANS";
+
+	public static final String SPAN_TIMER_NAME = "rebarSpan";
+	public static final String CATEGORY_TAG = "category";
+	public static final String NAME_TAG = "name";
+
+	static final int DEFAULT_MAX_SPANS = 100000;
+	static final int TRACE_HISTORY = 10;
+
+	private static volatile double sampleRate = 0;
+	private static volatile int maxSpans = DEFAULT_MAX_SPANS;
+	private static volatile File dir;
+	private static volatile MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+	private static final ThreadLocal<Span> current = new ThreadLocal<>();
+	private static final Deque<Trace> recent = new ArrayDeque<>();
+	private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+	private Tracer() {
+
+	}
+
+	public static void configure(EnvConfig env) {
+		setSampleRate(env.get(SAMPLE_RATE_ENV).map(Double::parseDouble).orElse(0d));
+		setMaxSpans(env.get(MAX_SPANS_ENV).map(Integer::parseInt).orElse(DEFAULT_MAX_SPANS));
+		setDir(env.get(DIR_ENV).map(File::new).orElse(null));
+		if (isEnabled()) {
+			logger.info("tracing enabled (sampleRate={} dir={})", sampleRate, dir);
+		}
+	}
+
+	/**
+	 * Fraction of root spans that are recorded, between 0 (off) and 1.
+	 * 
+	 * @param rate
+	 */
+	public static void setSampleRate(double rate) {
+		Preconditions.checkArgument(rate >= 0 && rate <= 1, "sample rate must be between 0 and 1");
+		sampleRate = rate;
+	}
+
+	public static void setMaxSpans(int max) {
+		Preconditions.checkArgument(max > 0, "maxSpans must be >0");
+		maxSpans = max;
+	}
+
+	public static void setDir(File traceDir) {
+		dir = traceDir;
+	}
+
+	public static void setMeterRegistry(MeterRegistry registry) {
+		Preconditions.checkNotNull(registry);
+		meterRegistry = registry;
+		timers.clear();
+	}
+
+	public static boolean isEnabled() {
+		return sampleRate > 0;
+	}
+
+	/**
+	 * Whether start() would record a span on this thread. Callers whose span
+	 * name is costly to build can check this first.
+	 * 
+	 * @return
+	 */
+	public static boolean isRecording() {
+		return isEnabled() && current.get() != null;
+	}
+
+	/**
+	 * The span open on this thread, or Span.NOOP.
+	 * 
+	 * @return
+	 */
+	public static Span current() {
+		Span span = current.get();
+		return span != null ? span : Span.NOOP;
+	}
+
+	/**
+	 * Opens a child of the current span or, if there is none, a new root that
+	 * may be sampled.
+	 * 
+	 * @param category
+	 * @param name
+	 * @return
+	 */
+	public static Span startTrace(String category, String name) {
+		if (!isEnabled()) {
+			return Span.NOOP;
+		}
+		Span parent = current.get();
+		if (parent != null) {
+			return open(new Span(parent.trace, parent, category, name));
+		}
+		if (ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+			return Span.NOOP;
+		}
+		return open(new Trace(category, name, maxSpans).root);
+	}
+
+	/**
+	 * Opens a child of the current span, if there is one.
+	 * 
+	 * @param category
+	 * @param name
+	 * @return
+	 */
+	public static Span start(String category, String name) {
+		if (!isEnabled()) {
+			return Span.NOOP;
+		}
+		Span parent = current.get();
+		if (parent == null) {
+			return Span.NOOP;
+		}
+		return open(new Span(parent.trace, parent, category, name));
+	}
+
+	private static Span open(Span span) {
+		span.previous = current.get();
+		current.set(span);
+		return span;
+	}
+
+	/**
+	 * Wraps the task so that spans it starts on another thread are children of
+	 * the span that is current now.
+	 * 
+	 * @param task
+	 * @return
+	 */
+	public static Runnable propagate(Runnable task) {
+		Span parent = current.get();
+		if (parent == null) {
+			return task;
+		}
+		return () -> {
+			Span previous = current.get();
+			current.set(parent);
+			try {
+				task.run();
+			} finally {
+				if (previous == null) {
+					current.remove();
+				} else {
+					current.set(previous);
+				}
+			}
+		};
+	}
+
+	static void finish(Span span) {
+		if (current.get() == span) {
+			if (span.previous == null) {
+				current.remove();
+			} else {
+				current.set(span.previous);
+			}
+		}
+		span.previous = null;
+		span.trace.add(span);
+		try {
+			getTimer(span).record(span.getDurationNanos(), TimeUnit.NANOSECONDS);
+		} catch (RuntimeException e) {
+			logger.warn("could not record span {}", span, e);
+		}
+		if (span.isRoot()) {
+			onTraceFinished(span.trace);
+		}
+	}
+
+	private static Timer getTimer(Span span) {
+		return timers.computeIfAbsent(span.category + ":" + span.name,
+				k -> Timer.builder(SPAN_TIMER_NAME).tags(CATEGORY_TAG, span.category, NAME_TAG, span.name)
+						.description("time spent in sampled spans").register(meterRegistry));
+	}
+
+	private static void onTraceFinished(Trace trace) {
+		synchronized (recent) {
+			recent.addFirst(trace);
+			while (recent.size() > TRACE_HISTORY) {
+				recent.removeLast();
+			}
+		}
+		File traceDir = dir;
+		if (traceDir != null) {
+			try {
+				File file = trace.writeChromeTrace(traceDir);
+				logger.info("wrote trace {} ({} spans, {}ms) to {}", trace, trace.getSpans().size(),
+						trace.getRoot().getDurationMillis(), file);
+			} catch (RuntimeException e) {
+				logger.warn("could not write trace {}", trace, e);
+			}
+		}
+	}
+
+	/**
+	 * The most recently finished traces, newest first.
+	 * 
+	 * @return
+	 */
+	public static List<Trace> getRecentTraces() {
+		synchronized (recent) {
+			return ImmutableList.copyOf(recent);
+		}
+	}
+
+	static void reset() {
+		sampleRate = 0;
+		maxSpans = DEFAULT_MAX_SPANS;
+		dir = null;
+		meterRegistry = Metrics.globalRegistry;
+		timers.clear();
+		current.remove();
+		synchronized (recent) {
+			recent.clear();
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2018-2019 Rob Schoening
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rebar.util.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import rebar.util.Json;
+
+public class TracerTest {
+
+	SimpleMeterRegistry registry;
+
+	@BeforeEach
+	public void setup() {
+		registry = new SimpleMeterRegistry();
+		Tracer.setMeterRegistry(registry);
+	}
+
+	@AfterEach
+	public void cleanup() {
+		Tracer.reset();
+	}
+
+	@Test
+	public void testDisabled() {
+		try (Span root = Tracer.startTrace("scan", "junit")) {
+			Assertions.assertThat(root).isSameAs(Span.NOOP);
+			Assertions.assertThat(Tracer.isRecording()).isFalse();
+			Assertions.assertThat(Tracer.start("aws", "ec2:DescribeInstances")).isSameAs(Span.NOOP);
+		}
+		Assertions.assertThat(Tracer.getRecentTraces()).isEmpty();
+		Assertions.assertThat(registry.find(Tracer.SPAN_TIMER_NAME).timer()).isNull();
+	}
+
+	@Test
+	public void testNoRootNoSpan() {
+		Tracer.setSampleRate(1);
+
+		// only startTrace() opens a root
+		Assertions.assertThat(Tracer.isRecording()).isFalse();
+		try (Span span = Tracer.start("aws", "ec2:DescribeInstances")) {
+			Assertions.assertThat(span.isRecording()).isFalse();
+		}
+		Assertions.assertThat(Tracer.getRecentTraces()).isEmpty();
+	}
+
+	@Test
+	public void testNesting() {
+		Tracer.setSampleRate(1);
+
+		try (Span root = Tracer.startTrace("scan", "junit")) {
+			Assertions.assertThat(Tracer.isRecording()).isTrue();
+			try (Span scanner = Tracer.startTrace("scanner", "AwsVpc")) {
+				Assertions.assertThat(scanner.getParent()).isSameAs(root);
+				try (Span call = Tracer.start("aws", "ec2:DescribeVpcs")) {
+					Assertions.assertThat(call.getParent()).isSameAs(scanner);
+					Assertions.assertThat(Tracer.current()).isSameAs(call);
+				}
+				Assertions.assertThat(Tracer.current()).isSameAs(scanner);
+			}
+			Tracer.start("cypher", "merge").tag("rows", 1).close();
+			Assertions.assertThat(Tracer.current()).isSameAs(root);
+		}
+		Assertions.assertThat(Tracer.current()).isSameAs(Span.NOOP);
+
+		List<Trace> traces = Tracer.getRecentTraces();
+		Assertions.assertThat(traces).hasSize(1);
+		Trace trace = traces.get(0);
+		Assertions.assertThat(trace.getSpans()).extracting(Span::toString).containsExactly("aws:ec2:DescribeVpcs",
+				"scanner:AwsVpc", "cypher:merge", "scan:junit");
+		Assertions.assertThat(trace.getSpans().get(2).getTags()).containsEntry("rows", "1");
+		Assertions.assertThat(trace.getRoot().getTags()).containsKeys("gcCount", "gcMillis");
+
+		Assertions.assertThat(registry.find(Tracer.SPAN_TIMER_NAME).tags(Tracer.CATEGORY_TAG, "aws", Tracer.NAME_TAG,
+				"ec2:DescribeVpcs").timer().count()).isEqualTo(1);
+	}
+
+	@Test
+	public void testPropagate() {
+		Tracer.setSampleRate(1);
+
+		try (Span root = Tracer.startTrace("scan", "junit")) {
+			CompletableFuture.runAsync(Tracer.propagate(() -> {
+				try (Span span = Tracer.start("scanner", "AwsSubnet")) {
+					Assertions.assertThat(span.getParent()).isSameAs(root);
+				}
+			})).join();
+		}
+		Assertions.assertThat(Tracer.getRecentTraces().get(0).getSpans()).extracting(Span::getName)
+				.containsExactly("AwsSubnet", "junit");
+	}
+
+	@Test
+	public void testMaxSpans() {
+		Tracer.setSampleRate(1);
+		Tracer.setMaxSpans(3);
+
+		try (Span root = Tracer.startTrace("scan", "junit")) {
+			for (int i = 0; i < 5; i++) {
+				Tracer.start("json", "AwsVpc").close();
+			}
+		}
+		Trace trace = Tracer.getRecentTraces().get(0);
+		Assertions.assertThat(trace.getSpans()).hasSize(4).last().isSameAs(trace.getRoot());
+		Assertions.assertThat(trace.getDroppedCount()).isEqualTo(2);
+	}
+
+	@Test
+	public void testChromeTrace() throws IOException {
+		File dir = Files.createTempDirectory("trace").toFile();
+		Tracer.setSampleRate(1);
+		Tracer.setDir(dir);
+
+		try (Span root = Tracer.startTrace("scan", "aws/junit")) {
+			try (Span span = Tracer.start("aws", "ec2:DescribeVpcs")) {
+				span.tag("status", 200);
+				Thread.sleep(5);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		File[] files = dir.listFiles();
+		Assertions.assertThat(files).hasSize(1);
+		Assertions.assertThat(files[0].getName()).startsWith("trace-").endsWith("-aws_junit.json");
+
+		JsonNode trace = Json.objectMapper().readTree(files[0]);
+		JsonNode call = trace.path("traceEvents").get(0);
+		Assertions.assertThat(call.path("name").asText()).isEqualTo("ec2:DescribeVpcs");
+		Assertions.assertThat(call.path("cat").asText()).isEqualTo("aws");
+		Assertions.assertThat(call.path("ph").asText()).isEqualTo("X");
+		Assertions.assertThat(call.path("dur").asLong()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toMicros(5));
+		Assertions.assertThat(call.path("args").path("status").asText()).isEqualTo("200");
+		Assertions.assertThat(call.path("args").path("parent").asInt()).isEqualTo(1);
+		Assertions.assertThat(trace.path("traceEvents").findValuesAsText("ph")).contains("M");
+
+		files[0].delete();
+		dir.delete();
+	}
+}